@@ -74,10 +74,14 @@ class FlowTracingAppenderTest extends FeatureSpec
         val sessionF = cass.connect()
         Await.result(sessionF, 10 seconds)
 
-        val appender = new FlowTracingAppender(sessionF)
+        val tracing = config.flowTracing
+        val appender = new FlowTracingAppender(new CassandraFlowTraceSink(
+            sessionF, tracing.queueSize, tracing.batchSize,
+            tracing.maxInFlight))
         Midolman.enableFlowTracingAppender(appender)
         eventually {
-            appender.session should not be (null)
+            val sink = appender.sink.asInstanceOf[CassandraFlowTraceSink]
+            sink.session should not be (null)
         }
 
         countStatement = cass.session.prepare(
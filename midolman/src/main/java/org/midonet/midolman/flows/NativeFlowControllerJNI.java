@@ -15,21 +15,19 @@
  */
 package org.midonet.midolman.flows;
 
+import java.nio.ByteBuffer;
+
 public class NativeFlowControllerJNI {
     public static native long createFlowTable(int maxFlows);
-    public static native long flowTablePutFlow(long flowTable, byte[] flowMatch);
+    public static native long flowTablePutFlow(long flowTable, byte[] flowMatch,
+                                               long expiration,
+                                               int expirationType);
     public static native long flowTableClearFlow(long flowTable, long id);
 
-    public static native long flowTableIdAtIndex(long flowTable, int index);
+    public static native ByteBuffer flowTableSlots(long flowTable);
     public static native int flowTableOccupied(long flowTable);
 
     public static native byte[] flowTableFlowMatch(long flowTable, long id);
-    public static native long flowTableFlowSequence(long flowTable, long id);
-    public static native void flowTableFlowSetSequence(
-            long flowTable, long id, long sequence);
-    public static native long flowTableFlowLinkedId(long flowTable, long id);
-    public static native void flowTableFlowSetLinkedId(
-            long flowTable, long id, long linkedId);
 
     public static native void flowTableFlowAddCallback(
             long flowTable, long id, long cbId, byte[] args);
@@ -39,22 +37,16 @@ public class NativeFlowControllerJNI {
     public static native byte[] flowTableFlowCallbackArgs(
             long flowTable, long id, int index);
 
-    public static native long createFlowTagIndexer();
-    public static native void flowTagIndexerIndexFlowTags(
-            long indexer, long id, long[] tag);
-    public static native void flowTagIndexerRemoveFlow(long indexer, long id);
-    public static native long flowTagIndexerInvalidate(long indexer, long tag);
-    public static native long flowTagIndexerInvalidFlowsCount(long invalids);
-    public static native long flowTagIndexerInvalidFlowsGet(long invalids,
-                                                            int index);
-    public static native long flowTagIndexerInvalidFlowsFree(long invalids);
-
-    public static native long createFlowExpirationIndexer();
-    public static native void flowExpirationIndexerEnqueueFlowExpiration(
-            long expirer, long id, long expiration, int expirationType);
-    public static native long flowExpirationIndexerPollForExpired(
-            long expirer, long expiration);
-    public static native long flowExpirationIndexerEvictFlow(
-            long expirer);
+    public static native void flowTableFlowSetTags(
+            long flowTable, long id, long[] tags);
+    public static native long flowTableInvalidate(long flowTable, long tag);
+    public static native long flowTableInvalidFlowsCount(long invalids);
+    public static native long flowTableInvalidFlowsGet(long invalids,
+                                                       int index);
+    public static native long flowTableInvalidFlowsFree(long invalids);
+
+    public static native long flowTablePollForExpired(
+            long flowTable, long expiration);
+    public static native long flowTableEvictFlow(long flowTable);
 
 }
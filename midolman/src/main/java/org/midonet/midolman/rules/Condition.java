@@ -20,6 +20,8 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 
+import com.google.protobuf.Message;
+
 import org.midonet.cluster.data.ZoomClass;
 import org.midonet.cluster.data.ZoomField;
 import org.midonet.cluster.models.Commons;
@@ -147,6 +149,32 @@ public class Condition extends BaseConfig {
     // Default value used when creator specifies no mask.
     public static final long NO_MASK = -1L;
 
+    // Bits of the fields that a condition matches, see compile().
+    private static final int FRAGMENT = 1;
+    private static final int PORT_GROUP = 1 << 1;
+    private static final int IN_PORT_GROUP = 1 << 2;
+    private static final int OUT_PORT_GROUP = 1 << 3;
+    private static final int IN_PORTS = 1 << 4;
+    private static final int OUT_PORTS = 1 << 5;
+    private static final int ETHER_TYPE = 1 << 6;
+    private static final int ETH_SRC = 1 << 7;
+    private static final int ETH_DST = 1 << 8;
+    private static final int NW_TOS = 1 << 9;
+    private static final int NW_PROTO = 1 << 10;
+    private static final int NW_SRC = 1 << 11;
+    private static final int NW_DST = 1 << 12;
+    private static final int TP_SRC = 1 << 13;
+    private static final int TP_DST = 1 << 14;
+    private static final int IP_ADDR_GROUP_SRC = 1 << 15;
+    private static final int IP_ADDR_GROUP_DST = 1 << 16;
+    private static final int TRAVERSED_DEVICE = 1 << 17;
+    private static final int ICMP_DATA = 1 << 18;
+    private static final int ALL_FIELDS = -1;
+
+    // The fields matched by this condition. Conditions that are not compiled
+    // match all fields.
+    private transient int fields = ALL_FIELDS;
+
     /** Matches everything */
     public static final Condition TRUE = new Uncondition(true);
 
@@ -194,11 +222,55 @@ public class Condition extends BaseConfig {
         etherType = Unsigned.unsign(subnet.ethertype());
     }
 
+    @Override
+    public void afterFromProto(Message proto) {
+        compile();
+    }
+
+    /**
+     * Computes the set of fields matched by this condition, such that
+     * {@link #matches} only reads from the packet match the fields set in
+     * the condition. Most conditions set two or three fields, and reading
+     * a field from the packet match also adds it to the fields of the
+     * installed flow. The method is called when the condition is converted
+     * from its Protocol Buffers message, and must be called again if a
+     * field of the condition is modified afterwards. The IP address groups
+     * may be set at any time, since their bits depend on the group
+     * identifiers.
+     */
+    public void compile() {
+        int f = 0;
+        if (fragmentPolicy != FragmentPolicy.ANY) f |= FRAGMENT;
+        if (portGroup != null) f |= PORT_GROUP;
+        if (inPortGroup != null) f |= IN_PORT_GROUP;
+        if (outPortGroup != null) f |= OUT_PORT_GROUP;
+        if (inPortIds != null && !inPortIds.isEmpty()) f |= IN_PORTS;
+        if (outPortIds != null && !outPortIds.isEmpty()) f |= OUT_PORTS;
+        if (etherType != null) f |= ETHER_TYPE;
+        if (ethSrc != null) f |= ETH_SRC;
+        if (ethDst != null) f |= ETH_DST;
+        if (nwTos != null) f |= NW_TOS;
+        if (nwProto != null) f |= NW_PROTO;
+        if (nwSrcIp != null) f |= NW_SRC;
+        if (nwDstIp != null) f |= NW_DST;
+        if (tpSrc != null) f |= TP_SRC;
+        if (tpDst != null) f |= TP_DST;
+        if (ipAddrGroupIdSrc != null || ipAddrGroupSrc != null)
+            f |= IP_ADDR_GROUP_SRC;
+        if (ipAddrGroupIdDst != null || ipAddrGroupDst != null)
+            f |= IP_ADDR_GROUP_DST;
+        if (traversedDevice != null) f |= TRAVERSED_DEVICE;
+        if (icmpDataSrcIp != null || icmpDataDstIp != null) f |= ICMP_DATA;
+        fields = f;
+    }
+
     public boolean matches(PacketContext pktCtx) {
+        final int fields = this.fields;
         FlowMatch pktMatch = pktCtx.wcmatch();
         // Matching on fragmentPolicy is unaffected by conjunctionInv,
         // so that gets tested separately.
-        if (!fragmentPolicy.accepts(pktMatch.getIpFragmentType()))
+        if ((fields & FRAGMENT) != 0 &&
+            !fragmentPolicy.accepts(pktMatch.getIpFragmentType()))
             return false;
 
         /*
@@ -220,9 +292,6 @@ public class Condition extends BaseConfig {
             return conjunctionInv;
 
 
-        UUID inPortId = pktCtx.inPortId();
-        UUID outPortId = pktCtx.outPortId();
-
         if (noVlan && pktMatch.getVlanIds().size() != 0)
             return conjunctionInv;
         if (vlan != 0) {
@@ -232,53 +301,69 @@ public class Condition extends BaseConfig {
                 return conjunctionInv;
         }
 
-        IPAddr pmSrcIP = pktMatch.getNetworkSrcIP();
-        IPAddr pmDstIP = pktMatch.getNetworkDstIP();
-        if (!matchPortGroup(pktCtx.portGroups(), portGroup, invPortGroup))
+        IPAddr pmSrcIP = (fields & (NW_SRC | IP_ADDR_GROUP_SRC)) != 0 ?
+                         pktMatch.getNetworkSrcIP() : null;
+        IPAddr pmDstIP = (fields & (NW_DST | IP_ADDR_GROUP_DST)) != 0 ?
+                         pktMatch.getNetworkDstIP() : null;
+        if ((fields & PORT_GROUP) != 0 &&
+            !matchPortGroup(pktCtx.portGroups(), portGroup, invPortGroup))
             return conjunctionInv;
-        if (!matchPortGroup(pktCtx.inPortGroups(), inPortGroup, invInPortGroup))
+        if ((fields & IN_PORT_GROUP) != 0 &&
+            !matchPortGroup(pktCtx.inPortGroups(), inPortGroup, invInPortGroup))
             return conjunctionInv;
-        if (!matchPortGroup(pktCtx.outPortGroups(), outPortGroup,
+        if ((fields & OUT_PORT_GROUP) != 0 &&
+            !matchPortGroup(pktCtx.outPortGroups(), outPortGroup,
                             invOutPortGroup))
             return conjunctionInv;
-        if (!matchPort(this.inPortIds, inPortId, this.inPortInv))
+        if ((fields & IN_PORTS) != 0 &&
+            !matchPort(this.inPortIds, pktCtx.inPortId(), this.inPortInv))
             return conjunctionInv;
-        if (!matchPort(this.outPortIds, outPortId, this.outPortInv))
+        if ((fields & OUT_PORTS) != 0 &&
+            !matchPort(this.outPortIds, pktCtx.outPortId(), this.outPortInv))
             return conjunctionInv;
-        if (!matchField(unsignShort(etherType),
-                        Unsigned.unsign(pktMatch.getEtherType()), invDlType))
+        if ((fields & ETHER_TYPE) != 0 &&
+            !matchEtherType(etherType, pktMatch.getEtherType(), invDlType))
             return conjunctionInv;
-        if (!matchMAC(ethSrc, pktMatch.getEthSrc(), ethSrcMask, invDlSrc))
+        if ((fields & ETH_SRC) != 0 &&
+            !matchMAC(ethSrc, pktMatch.getEthSrc(), ethSrcMask, invDlSrc))
             return conjunctionInv;
-        if (!matchMAC(ethDst, pktMatch.getEthDst(),
-                      dlDstMask, invDlDst))
+        if ((fields & ETH_DST) != 0 &&
+            !matchMAC(ethDst, pktMatch.getEthDst(), dlDstMask, invDlDst))
             return conjunctionInv;
-        if (!matchField(nwTos, pktMatch.getNetworkTOS(), nwTosInv))
+        if ((fields & NW_TOS) != 0 &&
+            !matchByte(nwTos, pktMatch.getNetworkTOS(), nwTosInv))
             return conjunctionInv;
-        if (!matchField(
-                nwProto, pktMatch.getNetworkProto(), nwProtoInv))
+        if ((fields & NW_PROTO) != 0 &&
+            !matchByte(nwProto, pktMatch.getNetworkProto(), nwProtoInv))
             return conjunctionInv;
-        if (!matchIP(nwSrcIp, pmSrcIP, nwSrcInv))
+        if ((fields & NW_SRC) != 0 && !matchIP(nwSrcIp, pmSrcIP, nwSrcInv))
             return conjunctionInv;
-        if (!matchIP(nwDstIp, pmDstIP, nwDstInv))
+        if ((fields & NW_DST) != 0 && !matchIP(nwDstIp, pmDstIP, nwDstInv))
             return conjunctionInv;
-        if (!matchRange(tpSrc, pktMatch.getSrcPort(), tpSrcInv))
+        if ((fields & TP_SRC) != 0 &&
+            !matchRange(tpSrc, pktMatch.getSrcPort(), tpSrcInv))
             return conjunctionInv;
-        if (!matchRange(
-                tpDst, pktMatch.getDstPort(), tpDstInv))
+        if ((fields & TP_DST) != 0 &&
+            !matchRange(tpDst, pktMatch.getDstPort(), tpDstInv))
             return conjunctionInv;
-        if (!matchIpToGroup(ipAddrGroupSrc, pmSrcIP, invIpAddrGroupIdSrc))
+        if ((fields & IP_ADDR_GROUP_SRC) != 0 &&
+            !matchIpToGroup(ipAddrGroupSrc, pmSrcIP, invIpAddrGroupIdSrc))
             return conjunctionInv;
-        if (!matchIpToGroup(ipAddrGroupDst, pmDstIP, invIpAddrGroupIdDst))
+        if ((fields & IP_ADDR_GROUP_DST) != 0 &&
+            !matchIpToGroup(ipAddrGroupDst, pmDstIP, invIpAddrGroupIdDst))
             return conjunctionInv;
-        if (!matchTraversedDevice(pktCtx))
-            return conjunctionInv;
-        if (!matchIcmpDataSrcIp(icmpDataSrcIp, pktMatch,
-                                icmpDataSrcIpInv))
-            return conjunctionInv;
-        if (!matchIcmpDataDstIp(icmpDataDstIp, pktMatch,
-                                icmpDataDstIpInv))
+        if ((fields & TRAVERSED_DEVICE) != 0 && !matchTraversedDevice(pktCtx))
             return conjunctionInv;
+        if ((fields & ICMP_DATA) != 0 &&
+            (icmpDataSrcIp != null || icmpDataDstIp != null)) {
+            // The ICMP data is copied from the packet match: read it once
+            // for both addresses.
+            byte[] icmpData = pktMatch.getIcmpData();
+            if (!matchIcmpData(icmpDataSrcIp, icmpData, 12, icmpDataSrcIpInv))
+                return conjunctionInv;
+            if (!matchIcmpData(icmpDataDstIp, icmpData, 16, icmpDataDstIpInv))
+                return conjunctionInv;
+        }
         if (matchNwDstRewritten && !pktCtx.nwDstRewritten())
             return conjunctionInv;
         return !conjunctionInv;
@@ -299,10 +384,16 @@ public class Condition extends BaseConfig {
     // Expressed generally, there is a match if:
     //   condField == null || (negate ^ (pktField matches condField))
 
-    private <T> boolean matchField(T condField, T pktField, boolean negate) {
-        // Packet is considered to match if the condField is not specified.
+    private boolean matchEtherType(Integer condType, short pktType,
+                                   boolean negate) {
+        // Compares the unsigned 16-bit values without boxing.
+        return condType == null ||
+                negate ^ ((condType & 0xffff) == Unsigned.unsign(pktType));
+    }
+
+    private boolean matchByte(Byte condField, byte pktField, boolean negate) {
         return condField == null ||
-                negate ^ condField.equals(pktField);
+                negate ^ (condField == pktField);
     }
 
     private boolean matchMAC(MAC condMAC, MAC pktMAC,
@@ -355,16 +446,10 @@ public class Condition extends BaseConfig {
                                     subnet4.getPrefixLen());
     }
 
-    private boolean matchIcmpDataSrcIp(IPSubnet<?> srcIp, FlowMatch match,
-                                       boolean negate) {
-        return srcIp == null ||
-            (negate ^ matchIPv4InBytes(srcIp, match.getIcmpData(), 12));
-    }
-
-    private boolean matchIcmpDataDstIp(IPSubnet<?> dstIp, FlowMatch match,
-                                       boolean negate) {
-        return dstIp == null ||
-            (negate ^ matchIPv4InBytes(dstIp, match.getIcmpData(), 16));
+    private boolean matchIcmpData(IPSubnet<?> ip, byte[] icmpData, int offset,
+                                  boolean negate) {
+        return ip == null ||
+            (negate ^ matchIPv4InBytes(ip, icmpData, offset));
     }
 
     // This works a bit differently from how one might expect. The packet
@@ -379,10 +464,12 @@ public class Condition extends BaseConfig {
                 negate ^ (pktGroups != null && pktGroups.contains(condGroup));
     }
 
-    private <E extends Comparable<E>> boolean matchRange(
-            Range<E> range, E pktField, boolean negate) {
+    private boolean matchRange(Range<Integer> range, int pktField,
+                               boolean negate) {
+        // Equivalent to Range.isInside without boxing the packet field.
         return range == null ||
-                negate ^ (null == pktField || range.isInside(pktField));
+                negate ^ ((range.start() == null || range.start() <= pktField) &&
+                          (range.end() == null || range.end() >= pktField));
     }
 
     private boolean isNotNullOrEmpty(Object value) {
@@ -37,16 +37,24 @@ public class TraceRule extends Rule {
     @ZoomField(name = "limit")
     private long limit;
 
+    private double samplingProbability = 1.0;
+
     private long hits;
 
+    public TraceRule(UUID requestId, Condition condition, long limit,
+                     UUID chainId) {
+        this(requestId, condition, limit, 1.0, chainId);
+    }
+
     // Called from TraceRequestChainMapper. As the tracerule isn't
     // being deserialized from zoom, we need to set the id.
     public TraceRule(UUID requestId, Condition condition, long limit,
-                     UUID chainId) {
+                     double samplingProbability, UUID chainId) {
         super(condition, Action.CONTINUE, chainId);
         this.id = requestId;
         this.requestId = requestId;
         this.limit = limit;
+        this.samplingProbability = samplingProbability;
         this.hits = 0;
     }
 
@@ -62,9 +70,18 @@ public class TraceRule extends Rule {
         return limit;
     }
 
+    public double getSamplingProbability() {
+        return samplingProbability;
+    }
+
+    /*
+     * Flows that are not sampled for the trace request are not traced and
+     * do not count towards the limit of the request.
+     */
     @Override
     protected boolean apply(PacketContext pktCtx) {
-        if (!pktCtx.tracingEnabled(requestId) && hits < limit) {
+        if (!pktCtx.tracingEnabled(requestId) && hits < limit
+            && pktCtx.tracingSampled(requestId, samplingProbability)) {
             if (pktCtx.enableTracing(requestId)) {
                 hits++;
             }
@@ -76,7 +93,7 @@ public class TraceRule extends Rule {
     @Override
     public int hashCode() {
         return 11 * super.hashCode()
-            + Objects.hash(requestId.hashCode(), limit);
+            + Objects.hash(requestId.hashCode(), limit, samplingProbability);
     }
 
     @Override
@@ -87,7 +104,9 @@ public class TraceRule extends Rule {
             return false;
         return super.equals(other)
             && this.requestId == ((TraceRule)other).requestId
-            && this.limit == ((TraceRule)other).limit;
+            && this.limit == ((TraceRule)other).limit
+            && this.samplingProbability
+               == ((TraceRule)other).samplingProbability;
     }
 
     @Override
@@ -96,6 +115,7 @@ public class TraceRule extends Rule {
         sb.append(super.toString());
         sb.append(", requestId=").append(requestId);
         sb.append(", limit=").append(limit);
+        sb.append(", samplingProbability=").append(samplingProbability);
         sb.append(", hits=").append(hits);
         sb.append("]");
         return sb.toString();
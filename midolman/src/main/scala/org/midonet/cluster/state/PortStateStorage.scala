@@ -18,17 +18,18 @@ package org.midonet.cluster.state
 
 import java.util.UUID
 
+import scala.util.Try
 import scala.util.control.NonFatal
 
 import com.google.protobuf.TextFormat
 
 import rx.Observable
 
-import org.midonet.cluster.data.storage.{SingleValueKey, StateResult, StateStorage}
+import org.midonet.cluster.data.storage.{AddValueOp, RemoveValueOp, SingleValueKey, StateOp, StateResult, StateStorage}
 import org.midonet.cluster.models.State
 import org.midonet.cluster.models.Topology.Port
 import org.midonet.cluster.services.MidonetBackend.ActiveKey
-import org.midonet.cluster.state.PortStateStorage.{PortActive, PortInactive, PortState}
+import org.midonet.cluster.state.PortStateStorage.{PortActive, PortActiveUpdate, PortInactive, PortState}
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.util.functors._
 
@@ -49,6 +50,11 @@ object PortStateStorage {
         override def tunnelKey = None
     }
 
+    /** An update of the active state of a port, see
+      * [[PortStateStorage.setPortsActive]]. */
+    case class PortActiveUpdate(portId: UUID, active: Boolean,
+                                tunnelKey: Long = 0L)
+
     implicit def asPort(store: StateStorage): PortStateStorage = {
         new PortStateStorage(store)
     }
@@ -67,14 +73,37 @@ class PortStateStorage(val store: StateStorage) extends AnyVal {
     def setPortActive(portId: UUID, hostId: UUID, active: Boolean,
                       tunnelKey: Long = 0L)
     : Observable[StateResult] = {
+        portActiveOp(portId, hostId, active, tunnelKey) match {
+            case AddValueOp(clazz, id, key, value) =>
+                store.addValue(clazz, id, key, value)
+            case RemoveValueOp(clazz, id, key, value) =>
+                store.removeValue(clazz, id, key, value)
+        }
+    }
+
+    /**
+     * Sets multiple ports as active or inactive at the given host, with as
+     * few storage requests as possible. The observable emits the results in
+     * the order of the updates, where a failed update does not fail the
+     * other updates.
+     */
+    def setPortsActive(hostId: UUID, updates: Seq[PortActiveUpdate])
+    : Observable[Seq[Try[StateResult]]] = {
+        store.multiValue(updates.map { update =>
+            portActiveOp(update.portId, hostId, update.active, update.tunnelKey)
+        })
+    }
+
+    private def portActiveOp(portId: UUID, hostId: UUID, active: Boolean,
+                             tunnelKey: Long): StateOp = {
         if (active) {
             val portState = State.PortState.newBuilder()
                                            .setHostId(hostId.asProto)
                                            .setTunnelKey(tunnelKey)
                                            .build()
-            store.addValue(classOf[Port], portId, ActiveKey, portState.toString)
+            AddValueOp(classOf[Port], portId, ActiveKey, portState.toString)
         } else {
-            store.removeValue(classOf[Port], portId, ActiveKey, value = null)
+            RemoveValueOp(classOf[Port], portId, ActiveKey, value = null)
         }
     }
 
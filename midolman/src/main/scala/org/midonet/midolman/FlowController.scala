@@ -40,7 +40,7 @@ import org.midonet.util.concurrent.{DisruptorBackChannel, NanoClock}
 object FlowController {
     val NoCallbacks = new ArrayList[CallbackSpec]()
     val NoTags = new ArrayList[FlowTag]()
-    private[midolman] val IndexShift = 28 // Leave 4 bits for the work ID
+    private[midolman] val IndexShift = 26 // Leave 6 bits for the work ID
     private[midolman] val IndexMask = (1 << IndexShift) - 1
 }
 
@@ -76,6 +76,7 @@ trait FlowTranslator {
                     a.getFlowKey match {
                         case k: FlowKeyICMPError =>
                             mangleIcmp(context.ethernet, k.icmp_data)
+                            context.packet.invalidateData()
                         case k: FlowKeyICMPEcho =>
                         case _ =>
                             addFlowAndPacketAction(context, a)
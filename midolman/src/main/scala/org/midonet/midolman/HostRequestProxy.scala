@@ -17,7 +17,7 @@ package org.midonet.midolman
 
 import java.net.{DatagramPacket, DatagramSocket, InetAddress}
 import java.nio.ByteBuffer
-import java.util.concurrent.Executors.newSingleThreadExecutor
+import java.util.concurrent.Executors.newFixedThreadPool
 import java.util.{UUID, HashMap => JHashMap, HashSet => JHashSet, Map => JMap, Set => JSet}
 
 import scala.concurrent.{ExecutionContext, Future}
@@ -53,7 +53,7 @@ object HostRequestProxy {
 
         def merge(other: FlowStateBatch): FlowStateBatch = {
             strongConnTrack.addAll(other.strongConnTrack)
-            weakConnTrack.addAll(other.strongConnTrack)
+            weakConnTrack.addAll(other.weakConnTrack)
             strongNat.putAll(other.strongNat)
             weakNat.putAll(other.weakNat)
             this
@@ -100,8 +100,10 @@ class HostRequestProxy(hostId: UUID,
     private val belt = new ConveyorBelt(_ => {})
     private var subscription: Subscription = null
 
+    // The flow state of different ports is requested and decoded concurrently
     private val tcpClientExecutionContext =
-        ExecutionContext.fromExecutor(newSingleThreadExecutor)
+        ExecutionContext.fromExecutor(
+            newFixedThreadPool(flowStateConfig.importThreads))
 
     private val tcpClient: FlowStateInternalClient =
         new FlowStateInternalClient(flowStateConfig)
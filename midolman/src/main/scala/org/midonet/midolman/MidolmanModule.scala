@@ -46,9 +46,9 @@ import org.midonet.midolman.host.scanner.{DefaultInterfaceScanner, InterfaceScan
 import org.midonet.midolman.host.services.{HostService, QosService, TcRequestHandler}
 import org.midonet.midolman.io._
 import org.midonet.midolman.logging.rule.{DisruptorRuleLogEventChannel, RuleLogEventChannel}
-import org.midonet.midolman.logging.{FlowTracingAppender, FlowTracingSchema}
+import org.midonet.midolman.logging.{CassandraFlowTraceSink, FileFlowTraceSink, FlowTracingAppender, FlowTracingSchema}
 import org.midonet.midolman.management.{JmxConnectorServer, MeteringHTTPHandler, SimpleHTTPServerService}
-import org.midonet.midolman.monitoring.metrics.{DatapathMetrics, PacketExecutorMetrics}
+import org.midonet.midolman.monitoring.metrics.{BackChannelMetrics, DatapathMetrics, PacketExecutorMetrics}
 import org.midonet.midolman.openstack.metadata.{DatapathInterface, Plumber}
 import org.midonet.midolman.services._
 import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
@@ -117,7 +117,8 @@ class MidolmanModule(config: MidolmanConfig,
         bind(classOf[ActorSystem]).toInstance(as)
         bind(classOf[SupervisorStrategy]).toInstance(crashStrategy())
 
-        val backChannel = new ShardedSimulationBackChannel
+        val backChannel = new ShardedSimulationBackChannel(
+            new BackChannelMetrics(metricRegistry))
         bind(classOf[ShardedSimulationBackChannel]).toInstance(backChannel)
         bind(classOf[SimulationBackChannel]).toInstance(backChannel)
 
@@ -427,13 +428,23 @@ class MidolmanModule(config: MidolmanConfig,
         bind(classOf[MidolmanActorsService]).asEagerSingleton()
 
     protected def flowTracingAppender() = {
-        val cass = new CassandraClient(
-            config.zookeeper,
-            config.cassandra,
-            FlowTracingSchema.KEYSPACE_NAME,
-            FlowTracingSchema.SCHEMA,
-            FlowTracingSchema.SCHEMA_TABLE_NAMES)
-        new FlowTracingAppender(cass.connect())
+        val tracing = config.flowTracing
+        val sink = tracing.sink match {
+            case "file" =>
+                new FileFlowTraceSink(tracing.filePath, tracing.queueSize,
+                                      tracing.batchSize)
+            case _ =>
+                val cass = new CassandraClient(
+                    config.zookeeper,
+                    config.cassandra,
+                    FlowTracingSchema.KEYSPACE_NAME,
+                    FlowTracingSchema.SCHEMA,
+                    FlowTracingSchema.SCHEMA_TABLE_NAMES)
+                new CassandraFlowTraceSink(cass.connect(), tracing.queueSize,
+                                           tracing.batchSize,
+                                           tracing.maxInFlight)
+        }
+        new FlowTracingAppender(sink)
     }
 
     protected def natAllocator(): NatBlockAllocator = {
@@ -465,6 +476,11 @@ class MidolmanModule(config: MidolmanConfig,
                 vtThread.get == Thread.currentThread().getId
             }
         }
+        val partitionExecutors =
+            for (index <- 1 until Math.max(config.topologyPartitions, 1))
+                yield Executors.singleThreadScheduledExecutor(
+                    s"devices-service-$index", isDaemon = true,
+                    Executors.CallerRunsPolicy)
 
         new VirtualTopology(
             backend,
@@ -475,7 +491,8 @@ class MidolmanModule(config: MidolmanConfig,
             vtExecutor,
             ioExecutor,
             vtExecutorCheck,
-            cbRegistry)
+            cbRegistry,
+            partitionExecutors)
     }
 
     protected def virtualToPhysicalMapper(hostId: UUID, vt: VirtualTopology) =
@@ -17,6 +17,9 @@
 package org.midonet.midolman
 
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+
+import scala.util.control.NonFatal
 
 import com.lmax.disruptor._
 
@@ -29,6 +32,16 @@ trait PacketWorker {
     def submit(packet: Packet): Boolean
 }
 
+/**
+  * A packet worker that runs the packet workflow on its own thread.
+  */
+trait PacketWorkerThread extends PacketWorker {
+    def start(): Unit
+    def isRunning(): Boolean
+    def shutdown(): Unit
+    def shutdownNow(): Unit
+}
+
 object DisruptorPacketWorker {
     val RingBufferCapacity =
         Util.findNextPositivePowerOfTwo(1 << 15) // 32768
@@ -40,7 +53,7 @@ class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
                             index: Int)
         extends Thread(s"packet-worker-${index}")
         with ExceptionHandler
-        with PacketWorker with MidolmanLogging {
+        with PacketWorkerThread with MidolmanLogging {
     override def logSource = s"org.midonet.packet-worker.packet-worker-$index"
 
     setDaemon(true)
@@ -101,3 +114,94 @@ class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
         // Unused since we don't use LifecycleAware
     }
 }
+
+object FairPacketWorker {
+    val BatchSize = 256
+    val WaitTimeoutNanos = TimeUnit.MICROSECONDS.toNanos(
+        DisruptorPacketWorker.WaitTimeoutMicros)
+}
+
+/**
+  * A packet worker that queues the upcall packets in an [[UpcallScheduler]],
+  * which dequeues them in weighted fair order across traffic classes and
+  * packet sources. The worker calls the packet workflow the same way as the
+  * Disruptor event processor: at the end of each batch and when the worker
+  * is idle for the wait timeout.
+  */
+class FairPacketWorker(packetWorkflow: EventHandler[PacketWorkflow.PacketRef]
+                                       with TimeoutHandler,
+                       scheduler: UpcallScheduler,
+                       index: Int)
+        extends Thread(s"packet-worker-${index}")
+        with PacketWorkerThread with MidolmanLogging {
+    override def logSource = s"org.midonet.packet-worker.packet-worker-$index"
+
+    import FairPacketWorker._
+
+    setDaemon(true)
+
+    @volatile private var running = true
+    @volatile private var waiting = false
+
+    private val ref = new PacketWorkflow.PacketRef(null)
+    private val batch = new Array[Packet](BatchSize)
+    private var sequence = 0L
+
+    override def submit(packet: Packet): Boolean = {
+        if (scheduler.offer(packet)) {
+            if (waiting) {
+                LockSupport.unpark(this)
+            }
+            true
+        } else {
+            log.debug("Upcall queue full, packet dropped")
+            false
+        }
+    }
+
+    def isRunning() = isAlive
+
+    def shutdown(): Unit = {
+        running = false
+        LockSupport.unpark(this)
+    }
+
+    def shutdownNow(): Unit = {
+        shutdown()
+        interrupt()
+    }
+
+    override def run(): Unit = {
+        try {
+            while (running) {
+                val count = scheduler.poll(batch, BatchSize)
+                if (count > 0) {
+                    var i = 0
+                    while (i < count) {
+                        ref.packet = batch(i)
+                        batch(i) = null
+                        packetWorkflow.onEvent(ref, sequence, i == count - 1)
+                        sequence += 1
+                        i += 1
+                    }
+                    ref.packet = null
+                } else {
+                    waiting = true
+                    if (scheduler.isEmpty) {
+                        LockSupport.parkNanos(this, WaitTimeoutNanos)
+                    }
+                    waiting = false
+                    if (scheduler.isEmpty) {
+                        packetWorkflow.onTimeout(sequence)
+                    }
+                }
+            }
+        } catch {
+            case NonFatal(e) =>
+                log.error("Packet worker crashed with exception, killing " +
+                          "process", e)
+                Midolman.exitAsync(
+                    Midolman.MIDOLMAN_ERROR_CODE_PACKET_WORKER_DIED)
+        }
+    }
+}
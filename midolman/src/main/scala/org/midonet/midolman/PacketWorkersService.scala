@@ -48,12 +48,16 @@ import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.logging.Logger
 
 object PacketWorkersService {
+    /** The maximum number of workers, limited by the bits of the flow mark
+      * that identify the worker. */
+    final val MaxWorkers = 1 << (32 - FlowController.IndexShift)
+
     def numWorkers(config: MidolmanConfig) = {
         val n = config.simulationThreads
         if (n <= 0)
             1
-        else if (n > 16)
-            16
+        else if (n > MaxWorkers)
+            MaxWorkers
         else
             n
     }
@@ -111,7 +115,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
 
     private val flowSenderWorker = FlowSenderWorker(config, backend)
 
-    val workers: IndexedSeq[DisruptorPacketWorker] =
+    val workers: IndexedSeq[PacketWorkerThread] =
         0 until numWorkers map createWorker
 
     override def doStart(): Unit = {
@@ -152,7 +156,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
     private def shardLogger(t: AnyRef) =
         Logger(LoggerFactory.getLogger("org.midonet.state.table"))
 
-    protected def createWorker(index: Int): DisruptorPacketWorker = {
+    protected def createWorker(index: Int): PacketWorkerThread = {
         val cookieGen = new CookieGenerator(index, numWorkers)
         val connTrackShard = connTrackStateTable.addShard(
             log = shardLogger(connTrackStateTable))
@@ -180,6 +184,15 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
             cbRegistry,
             insights)
 
-        new DisruptorPacketWorker(workflow, metrics, index)
+        val scheduling = config.upcallScheduling
+        if (scheduling.enabled) {
+            val scheduler = new UpcallScheduler(
+                Array(scheduling.controlWeight, scheduling.flowStateWeight,
+                      scheduling.dataWeight),
+                scheduling.queueSize, scheduling.sourceQueues, metrics)
+            new FairPacketWorker(workflow, scheduler, index)
+        } else {
+            new DisruptorPacketWorker(workflow, metrics, index)
+        }
     }
 }
@@ -59,12 +59,15 @@ import org.midonet.packets.NatState.NatBinding
 import org.midonet.packets._
 import org.midonet.sdn.flows.FlowTagger
 import org.midonet.sdn.flows.FlowTagger._
-import org.midonet.sdn.state.{FlowStateTable, FlowStateTransaction}
-import org.midonet.util.collection.{IPv4InvalidationArray, Reducer}
+import org.midonet.sdn.state.{BaseShardedFlowStateTable, FlowStateTable, FlowStateTransaction}
+import org.midonet.util.collection.{IPv4InvalidationArray, Reducer, TimerWheel}
 import org.midonet.util.concurrent._
 import org.midonet.util.logging.Logger
 
 object PacketWorkflow {
+    /** The resolution of the timers of a packet worker. */
+    val TimerTickNanos = TimeUnit.MILLISECONDS.toNanos(1)
+
     sealed class PacketRef(var packet: Packet)
 
     object PacketRefFactory extends EventFactory[PacketRef] {
@@ -254,9 +257,28 @@ class PacketWorkflow(
 
     protected val simulationExpireMillis = 5000L
     private val maxPooledContexts = config.maxPooledContexts
+    private val stageLatencySampling = config.stageLatencySampling
+    private var stageLatencyCountdown = stageLatencySampling
+
+    /** The timers of this worker, which use the ticks of the worker clock
+      * and are advanced when the worker processes its pending work. Timers
+      * scheduled here must not block. */
+    protected val timers = new TimerWheel[Runnable](TimerTickNanos, clock.tick)
 
     protected val waitingRoom = new WaitingRoom[PacketContext](
-        (simulationExpireMillis millis).toNanos)
+        (simulationExpireMillis millis).toNanos, timers, clock)
+
+    /** Returns the unused NAT blocks to the allocator every obliteration
+      * cycle. The leaser is shared by all workers, and it only obliterates
+      * the blocks once per cycle. */
+    private val natBlockObliteration = new Runnable {
+        override def run(): Unit = {
+            natLeaser.obliterateUnusedBlocks()
+            timers.schedule(this, clock.tick + NatLeaser.OBLITERATION_CYCLE)
+        }
+    }
+    timers.schedule(natBlockObliteration,
+                    clock.tick + NatLeaser.OBLITERATION_CYCLE)
 
     private val contextPool = new ArrayDeque[PacketContext](maxPooledContexts)
     private val processingRoom = new ArrayDeque[PacketContext]()
@@ -296,7 +318,8 @@ class PacketWorkflow(
             flowController,
             config, cbRegistry)
 
-    protected val arpBroker = new ArpRequestBroker(config, backChannel, clock)
+    protected val arpBroker =
+        new ArpRequestBroker(config, backChannel, clock, timers)
 
     private val invalidateExpiredConnTrackKeys =
         new Reducer[ConnTrackKey, ConnTrackValue, Unit]() {
@@ -305,14 +328,42 @@ class PacketWorkflow(
             }
         }
 
+    private type NatShard =
+        BaseShardedFlowStateTable[NatKey, NatBinding]#FlowStateShard
+
     private val invalidateExpiredNatKeys =
         new Reducer[NatKey, NatBinding, Unit]() {
             override def apply(u: Unit, k: NatKey, v: NatBinding): Unit = {
                 flowController.invalidateFlowsFor(k)
+            }
+        }
+
+    private val releaseExpiredNatKeys =
+        new Reducer[NatKey, NatBinding, Unit]() {
+            override def apply(u: Unit, k: NatKey, v: NatBinding): Unit = {
                 releaseBinding(k, v, natLeaser)
             }
         }
 
+    private val invalidateAndReleaseExpiredNatKeys =
+        new Reducer[NatKey, NatBinding, Unit]() {
+            override def apply(u: Unit, k: NatKey, v: NatBinding): Unit = {
+                flowController.invalidateFlowsFor(k)
+                releaseBinding(k, v, natLeaser)
+            }
+        }
+
+    private def expireNatKeys(): Unit = natStateTable match {
+        case shard: NatShard =>
+            // Other workers that adopted the binding may still use it: only
+            // the last shard holding the key releases the binding.
+            shard.expireIdleEntries((), invalidateExpiredNatKeys,
+                                    releaseExpiredNatKeys)
+        case _ =>
+            natStateTable.expireIdleEntries(
+                (), invalidateAndReleaseExpiredNatKeys)
+    }
+
     override def onEvent(event: PacketRef, sequence: Long,
                          endOfBatch: Boolean): Unit = {
         handlePacket(event.packet)
@@ -329,7 +380,9 @@ class PacketWorkflow(
     override def shouldProcess: Boolean =
         flowController.shouldProcess ||
         backChannel.hasMessages ||
+        replicator.hasPendingImports ||
         arpBroker.shouldProcess() ||
+        clock.tick >= timers.nextDeadline ||
         shouldExpire
 
     /**
@@ -369,20 +422,29 @@ class PacketWorkflow(
         case tag: FlowTag => flowController.invalidateFlowsFor(tag)
         case RestartWorkflow(cookie, pktCtx, error) => restart(cookie, pktCtx, error)
         case m: GeneratedPacket => startWorkflow(generatedPacketContext(m))
-        case m: FlowStateBatch => replicator.importFromStorage(m)
+        case m: FlowStateBatch =>
+            metrics.flowStatePendingImports.inc(m.size())
+            flowStateImported(replicator.importFromStorage(m))
         case DuplicateFlow(index) => flowController.removeDuplicateFlow(index)
         case FlowError(index) => // Do nothing.
     }
 
+    private def flowStateImported(count: Int): Unit = {
+        metrics.flowStateImported.mark(count)
+        metrics.flowStatePendingImports.dec(count)
+    }
+
     override def process(): Unit = {
         flowController.process()
         while (backChannel.hasMessages)
             handle(backChannel.poll())
+        if (replicator.hasPendingImports)
+            flowStateImported(replicator.importPending())
         connTrackStateTable.expireIdleEntries((), invalidateExpiredConnTrackKeys)
-        natStateTable.expireIdleEntries((), invalidateExpiredNatKeys)
-        natLeaser.obliterateUnusedBlocks()
+        expireNatKeys()
         traceStateTable.expireIdleEntries()
         arpBroker.process()
+        timers.advance(clock.tick, TimerWheel.RunTask)
         waitingRoom.doExpirations(giveUpWorkflow)
         checkProcessedContexts()
         lastExpiration = System.nanoTime()
@@ -421,9 +483,20 @@ class PacketWorkflow(
                         cbRegistry)
         context.initialize(connTrackTx, natTx, natLeaser, traceStateTx)
         context.log = PacketTracing.loggerFor(fmatch)
+        if (stageLatencySampling > 0) {
+            sampleStageLatency(context)
+        }
         context
     }
 
+    private def sampleStageLatency(context: PacketContext): Unit = {
+        stageLatencyCountdown -= 1
+        if (stageLatencyCountdown <= 0) {
+            stageLatencyCountdown = stageLatencySampling
+            context.stageTimers = metrics.stageLatency
+        }
+    }
+
     private def returnContext(context: PacketContext): Unit = {
         val cookie = context.cookie
         if (contextPool.size() < maxPooledContexts &&
@@ -522,7 +595,9 @@ class PacketWorkflow(
     }
 
     private def handoff(context: PacketContext): Unit = {
+        val start = context.stageStart()
         val seq = dpChannel.handoff(context)
+        context.stageEnd(SimulationStage.Handoff, start)
         if (context.flow ne null) {
             context.flow.assignSequence(seq)
         }
@@ -641,8 +716,10 @@ class PacketWorkflow(
 
     private def applyState(context: PacketContext): Unit = {
         context.log.debug("Applying connection state")
+        val start = context.stageStart()
         replicator.accumulateNewKeys(context)
         replicator.touchState(context)
+        context.stageEnd(SimulationStage.FlowStateReplication, start)
         context.commitStateTransactions()
     }
 
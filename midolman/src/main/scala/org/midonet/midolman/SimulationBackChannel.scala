@@ -17,11 +17,16 @@
 package org.midonet.midolman
 
 import java.util.ArrayList
+import java.util.concurrent.ConcurrentHashMap
 
 import scala.util.control.NonFatal
 
+import com.codahale.metrics.MetricRegistry
+
 import org.jctools.queues.MpscLinkedQueue8
 
+import org.midonet.midolman.monitoring.metrics.BackChannelMetrics
+import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.concurrent.WakerUpper.Parkable
 
 object SimulationBackChannel {
@@ -43,9 +48,12 @@ trait SimulationBackChannel {
     def poll(): SimulationBackChannel.BackChannelMessage
 }
 
-final class ShardedSimulationBackChannel extends SimulationBackChannel {
+final class ShardedSimulationBackChannel(metrics: BackChannelMetrics)
+    extends SimulationBackChannel {
     import SimulationBackChannel._
 
+    def this() = this(new BackChannelMetrics(new MetricRegistry))
+
     private val noShard: BackChannelShard = null
     private val processors = new ArrayList[BackChannelShard]()
 
@@ -111,12 +119,32 @@ final class ShardedSimulationBackChannel extends SimulationBackChannel {
       * A back-channel shard that uses a multi-producer single-consumer queue.
       * Back-channel consumers must regularly poll the shard in order to fetch
       * the last back-channel messages.
+      *
+      * Flow tag invalidations are coalesced with a set of pending tags: a
+      * tag is queued only if it is not already pending, and it stops being
+      * pending when the consumer polls it. Since the consumer applies an
+      * invalidation after polling it, a tag invalidated many times before
+      * the consumer reaches it is processed only once, and no invalidation
+      * is lost. Tags and messages are polled in the order they were queued.
       */
     final class QueueBackChannelShard extends BackChannelShard with Parkable {
 
         private val q = new MpscLinkedQueue8[BackChannelMessage]()
+        private val tags = new ConcurrentHashMap[FlowTag, FlowTag]()
+
+        override def offer(msg: BackChannelMessage): Unit = msg match {
+            case tag: FlowTag =>
+                metrics.invalidationsOffered.mark()
+                if (tags.putIfAbsent(tag, tag) eq null) {
+                    enqueue(tag)
+                } else {
+                    metrics.invalidationsCoalesced.mark()
+                }
+            case _ =>
+                enqueue(msg)
+        }
 
-        override def offer(msg: BackChannelMessage): Unit = {
+        private def enqueue(msg: BackChannelMessage): Unit = {
             while (!q.offer(msg)) {
                 park(retries = 0)
             }
@@ -137,8 +165,14 @@ final class ShardedSimulationBackChannel extends SimulationBackChannel {
         /**
          * Processes the messages in this instance.
          */
-        override def poll(): BackChannelMessage =
-            q.poll()
+        override def poll(): BackChannelMessage = {
+            val msg = q.poll()
+            msg match {
+                case tag: FlowTag => tags.remove(tag)
+                case _ =>
+            }
+            msg
+        }
 
         override def shouldWakeUp(): Boolean = hasMessages
     }
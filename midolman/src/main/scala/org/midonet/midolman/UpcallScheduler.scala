@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.TimeUnit
+
+import org.jctools.queues.MpscArrayQueue
+
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.odp.FlowMatchMessageType.isFlowStateMessage
+import org.midonet.odp.{FlowMatch, Packet}
+import org.midonet.packets.{ARP, TCP, UDP}
+import org.midonet.util.concurrent.NanoClock
+
+object UpcallScheduler {
+
+    /** Control traffic: ARP, DHCP and BGP. */
+    final val Control = 0
+    /** Flow state messages from peer agents. */
+    final val FlowState = 1
+    /** Tenant data traffic. */
+    final val Data = 2
+
+    final val ClassCount = 3
+    final val ClassNames = Array("control", "flowState", "data")
+
+    private final val DhcpServerPort = 67
+    private final val DhcpClientPort = 68
+    private final val BgpPort = 179
+
+    /**
+      * Classifies an upcall packet into one of the traffic classes. The
+      * classification does not mark the inspected fields as seen, such that
+      * it does not alter the wildcard mask of the resulting flow.
+      */
+    def classify(fmatch: FlowMatch): Int = {
+        fmatch.doNotTrackSeenFields()
+        try {
+            if (isFlowStateMessage(fmatch)) {
+                FlowState
+            } else if (fmatch.getEtherType == ARP.ETHERTYPE) {
+                Control
+            } else fmatch.getNetworkProto match {
+                case UDP.PROTOCOL_NUMBER
+                    if fmatch.getDstPort == DhcpServerPort ||
+                       fmatch.getDstPort == DhcpClientPort => Control
+                case TCP.PROTOCOL_NUMBER
+                    if fmatch.getDstPort == BgpPort ||
+                       fmatch.getSrcPort == BgpPort => Control
+                case _ => Data
+            }
+        } finally {
+            fmatch.doTrackSeenFields()
+        }
+    }
+
+    /**
+      * Returns the key identifying the source of a packet of the given class.
+      * The flow state messages all share the same tunnel key, and their
+      * source is the peer agent identified by the tunnel source address. For
+      * the other classes, the source is the tunnel key for the packets
+      * received from the overlay, which identifies the virtual port, and the
+      * datapath input port otherwise.
+      */
+    private def sourceKey(fmatch: FlowMatch, cls: Int): Int = {
+        fmatch.doNotTrackSeenFields()
+        try {
+            val tunnelKey = fmatch.getTunnelKey
+            if (cls == FlowState) fmatch.getTunnelSrc
+            else if (tunnelKey != 0) tunnelKey.toInt
+            else fmatch.getInputPortNumber
+        } finally {
+            fmatch.doTrackSeenFields()
+        }
+    }
+}
+
+/**
+  * Schedules the upcall packets of a packet worker using deficit round robin
+  * across traffic classes, such that a burst of tenant traffic cannot starve
+  * the control traffic and the flow state received from other agents.
+  *
+  * Each class is split into `sourceQueues` bounded queues selected by the
+  * packet source (the ingress port, the tunnel key or, for the flow state, the
+  * peer agent), which are served round robin. A source flooding any class,
+  * including ARP or DHCP requests, therefore only fills its own queue of that
+  * class, and only its packets are dropped.
+  *
+  * In every scheduling round, a class can dequeue up to its weight in
+  * packets. The packets of the same connection always map to the same queue,
+  * which preserves their order.
+  *
+  * The `offer` method is thread-safe, while the `poll` method must be called
+  * only from the worker thread.
+  */
+final class UpcallScheduler(weights: Array[Int], queueSize: Int,
+                            sourceQueues: Int,
+                            metrics: PacketPipelineMetrics,
+                            clock: NanoClock = NanoClock.DEFAULT) {
+
+    import UpcallScheduler._
+
+    require(weights.length == ClassCount,
+            s"Scheduler requires $ClassCount class weights")
+
+    private val quantum = weights.map(Math.max(_, 1))
+    private val queues = Array.fill(ClassCount) {
+        Array.fill(Math.max(sourceQueues, 1))(
+            new MpscArrayQueue[Packet](queueSize))
+    }
+    private val deficits = new Array[Int](ClassCount)
+    private val cursors = new Array[Int](ClassCount)
+
+    /**
+      * Enqueues a packet, returning false if the packet was dropped because
+      * the queue for its class and source was full.
+      */
+    def offer(packet: Packet): Boolean = {
+        val fmatch = packet.getMatch
+        val cls = classify(fmatch)
+        val classQueues = queues(cls)
+        val queue =
+            if (classQueues.length == 1) classQueues(0)
+            else classQueues(
+                Math.abs(sourceKey(fmatch, cls) % classQueues.length))
+        if (queue.offer(packet)) {
+            true
+        } else {
+            metrics.workerQueueOverflow.mark()
+            metrics.upcallClassOverflow(cls).mark()
+            false
+        }
+    }
+
+    /**
+      * @return True if there are no packets queued in any class.
+      */
+    def isEmpty: Boolean = {
+        var cls = 0
+        while (cls < ClassCount) {
+            if (!isClassEmpty(cls)) return false
+            cls += 1
+        }
+        true
+    }
+
+    /**
+      * Dequeues up to `max` packets into the given array, and returns the
+      * number of packets dequeued.
+      */
+    def poll(batch: Array[Packet], max: Int): Int = {
+        val limit = Math.min(max, batch.length)
+        var count = 0
+        var progress = true
+        while (count < limit && progress) {
+            progress = false
+            var cls = 0
+            while (cls < ClassCount && count < limit) {
+                if (isClassEmpty(cls)) {
+                    deficits(cls) = 0
+                } else {
+                    if (deficits(cls) <= 0) {
+                        deficits(cls) += quantum(cls)
+                    }
+                    while (deficits(cls) > 0 && count < limit) {
+                        val packet = dequeue(cls)
+                        if (packet eq null) {
+                            deficits(cls) = 0
+                        } else {
+                            batch(count) = packet
+                            count += 1
+                            deficits(cls) -= 1
+                            if (packet.startTimeNanos > 0) {
+                                metrics.upcallClassLatency(cls).update(
+                                    clock.tick - packet.startTimeNanos,
+                                    TimeUnit.NANOSECONDS)
+                            }
+                            progress = true
+                        }
+                    }
+                }
+                cls += 1
+            }
+        }
+        count
+    }
+
+    private def isClassEmpty(cls: Int): Boolean = {
+        val classQueues = queues(cls)
+        var index = 0
+        while (index < classQueues.length) {
+            if (!classQueues(index).isEmpty) return false
+            index += 1
+        }
+        true
+    }
+
+    /**
+      * Dequeues the next packet of a class, serving its queues round robin.
+      */
+    private def dequeue(cls: Int): Packet = {
+        val classQueues = queues(cls)
+        var remaining = classQueues.length
+        var index = cursors(cls)
+        while (remaining > 0) {
+            val packet = classQueues(index).poll()
+            index += 1
+            if (index == classQueues.length) index = 0
+            if (packet ne null) {
+                cursors(cls) = index
+                return packet
+            }
+            remaining -= 1
+        }
+        cursors(cls) = index
+        null
+    }
+}
@@ -15,9 +15,19 @@
  */
 package org.midonet.midolman
 
-import scala.collection.{immutable, mutable}
+import java.util.ArrayDeque
 import java.util.concurrent.TimeUnit
 
+import org.midonet.util.collection.TimerWheel
+import org.midonet.util.collection.TimerWheel.Timeout
+import org.midonet.util.concurrent.NanoClock
+
+object WaitingRoom {
+    /** The resolution of the timeouts of a waiting room that uses its own
+      * timer wheel. */
+    val TickNanos = TimeUnit.MILLISECONDS.toNanos(1)
+}
+
 /**
  * A WaitingRoom is an abstraction that allows holding Waiters for a limited
  * amount of time. Waiters are guaranteed to stay in the room for *at least*
@@ -25,20 +35,43 @@ import java.util.concurrent.TimeUnit
  * the room at any later time. Whenever this happens, users may get a
  * notification through the "leave" callback.
  *
+ * The timeouts are kept in a [[TimerWheel]], such that a waiter leaving the
+ * room cancels its timeout in constant time. The wheel may be shared with
+ * other users confined to the same thread, in which case the owner of the
+ * wheel advances it before calling `doExpirations`. Otherwise the room uses
+ * its own wheel, which `doExpirations` advances.
+ *
  * This class is not thread safe, and all instances expected to be confined to
  * a thread.
  *
  * @param timeout timeout, in nanoseconds
+ * @param timers the shared timer wheel, or null to use an own wheel
+ * @param clock the clock of the timeouts, which must be the clock that
+ *              advances the shared wheel
  */
-class WaitingRoom[W](val timeout: Long = TimeUnit.SECONDS.toNanos(3)) {
+class WaitingRoom[W](val timeout: Long = TimeUnit.SECONDS.toNanos(3),
+                     timers: TimerWheel[Runnable] = null,
+                     clock: NanoClock = NanoClock.DEFAULT) {
 
-    private[this] val waiters = new java.util.HashMap[W, Long]()
-    private[this] val timeouts = new mutable.ListBuffer[(W, Long)]()
+    private[this] val ownTimers = timers eq null
+    private[this] val wheel =
+        if (ownTimers) new TimerWheel[Runnable](WaitingRoom.TickNanos,
+                                                clock.tick)
+        else timers
+    private[this] val waiters = new java.util.HashMap[W, Timeout[Runnable]]()
+    private[this] val expired = new ArrayDeque[W]()
+
+    private final class Expiration(waiter: W) extends Runnable {
+        override def run(): Unit = {
+            waiters.remove(waiter)
+            expired.add(waiter)
+        }
+    }
 
     /**
      * Number of waiters currently in the room.
      */
-    def count = waiters.size
+    def count = waiters.size + expired.size
 
     /**
      * Adds a new waiter that will be kept here for a min of TIMEOUT nanos.
@@ -47,10 +80,9 @@ class WaitingRoom[W](val timeout: Long = TimeUnit.SECONDS.toNanos(3)) {
      * and the *old* waiting time remains unaltered.
      */
     def enter(w: W): Boolean = {
-        val waitFor = System.nanoTime() + timeout
-        if (!waiters.containsKey(w)) {
-            waiters.put(w, waitFor)
-            timeouts += ((w, waitFor))
+        val waitFor = clock.tick + timeout
+        if (!waiters.containsKey(w) && !expired.contains(w)) {
+            waiters.put(w, wheel.schedule(new Expiration(w), waitFor))
             true
         } else {
             false
@@ -58,19 +90,24 @@ class WaitingRoom[W](val timeout: Long = TimeUnit.SECONDS.toNanos(3)) {
     }
 
     def leave(w: W): Unit = {
-        waiters.remove(w)
+        val pending = waiters.remove(w)
+        if (pending ne null) {
+            wheel.cancel(pending)
+        } else if (!expired.isEmpty) {
+            expired.remove(w)
+        }
     }
 
+    /**
+     * Calls the given function for the waiters that timed out. If the room
+     * uses its own timer wheel, this advances the wheel to the current time.
+     */
     def doExpirations(f: W => Unit): Unit = {
-        val now = System.nanoTime()
-        while (timeouts.nonEmpty && (now - timeouts.head._2) > 0) {
-            val pair = timeouts remove 0
-            val waiter = pair._1
-            val timeout = pair._2
-            if (waiters.containsKey(waiter)
-                    && waiters.remove(waiter) == timeout) {
-                f(waiter)
-            }
+        if (ownTimers) {
+            wheel.advance(clock.tick, TimerWheel.RunTask)
+        }
+        while (!expired.isEmpty) {
+            f(expired.poll())
         }
     }
 }
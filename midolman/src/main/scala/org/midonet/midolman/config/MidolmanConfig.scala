@@ -82,10 +82,18 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
 
     def dhcpMtu = Math.min(getInt(s"$PREFIX.midolman.dhcp_mtu"), 0xffff)
     def simulationThreads = getInt(s"$PREFIX.midolman.simulation_threads")
+    def workerBuckets = getInt(s"$PREFIX.midolman.worker_buckets")
+    def workerRebalanceInterval =
+        getDuration(s"$PREFIX.midolman.worker_rebalance_interval",
+                    TimeUnit.MILLISECONDS) millis
+    def workerRebalanceThreshold =
+        Math.max(getDouble(s"$PREFIX.midolman.worker_rebalance_threshold"), 1.0)
+    def topologyPartitions = getInt(s"$PREFIX.midolman.topology_partitions")
     def offHeapTables = getBoolean(s"$PREFIX.midolman.off_heap_tables")
     def reclaimDatapath = getBoolean(s"$PREFIX.midolman.reclaim_datapath")
     def flowExpirationRate = getInt(s"$PREFIX.midolman.flow_expiration_rate_per_second")
     def maxPooledContexts = getInt(s"$PREFIX.midolman.max_pooled_contexts")
+    def stageLatencySampling = getInt(s"$PREFIX.midolman.stage_latency_sampling")
     def outputChannels = getInt(s"$PREFIX.midolman.output_channels")
     def inputChannelThreading = getString(s"$PREFIX.midolman.input_channel_threading")
     def datapathName = Try(getString(s"$PREFIX.midolman.datapath")).getOrElse("midonet")
@@ -108,6 +116,7 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
     val neutron = new NeutronConfig(conf, schema)
     val openstack = new OpenStackConfig(conf, schema)
     val flowHistory = new FlowHistoryConfig(conf, schema)
+    val flowTracing = new FlowTracingConfig(conf, schema)
     val insights = new InsightsConfig(conf, schema)
     val containers = new ContainerConfig(conf, schema)
     val services = new ServicesConfig(conf, schema)
@@ -117,6 +126,30 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
     val fip64 = new Fip64Config(conf, schema)
     val initialStorageCache = new InitialStorageCacheConfig(conf, schema)
     val jmxConfig = new JMXServerConfig(conf, schema)
+    val upcallScheduling = new UpcallSchedulingConfig(conf, schema)
+    val topologyPrefetch = new TopologyPrefetchConfig(conf, schema)
+}
+
+class UpcallSchedulingConfig(val conf: Config, val schema: Config)
+    extends TypeFailureFallback {
+    val PREFIX = "agent.midolman.upcall_scheduling"
+
+    def enabled = getBoolean(s"$PREFIX.enabled")
+    def controlWeight = getInt(s"$PREFIX.control_weight")
+    def flowStateWeight = getInt(s"$PREFIX.flow_state_weight")
+    def dataWeight = getInt(s"$PREFIX.data_weight")
+    def queueSize = getInt(s"$PREFIX.queue_size")
+    def sourceQueues = getInt(s"$PREFIX.source_queues")
+}
+
+class TopologyPrefetchConfig(val conf: Config, val schema: Config)
+    extends TypeFailureFallback {
+    val PREFIX = "agent.midolman.topology_prefetch"
+
+    def enabled = getBoolean(s"$PREFIX.enabled")
+    def maxDepth = getInt(s"$PREFIX.max_depth")
+    def maxDevices = getInt(s"$PREFIX.max_devices")
+    def parallelism = Math.max(getInt(s"$PREFIX.parallelism"), 1)
 }
 
 class JMXServerConfig(val conf: Config, val schema: Config)
@@ -240,6 +273,17 @@ class FlowHistoryConfig(val conf: Config, val schema: Config) extends TypeFailur
                                          TimeUnit.MILLISECONDS) millis
 }
 
+class FlowTracingConfig(val conf: Config, val schema: Config)
+    extends TypeFailureFallback {
+    val prefix = "agent.flow_tracing"
+
+    def sink = getString(s"$prefix.sink")
+    def queueSize = getInt(s"$prefix.queue_size")
+    def batchSize = getInt(s"$prefix.batch_size")
+    def maxInFlight = getInt(s"$prefix.max_in_flight")
+    def filePath = getString(s"$prefix.file_path")
+}
+
 class InsightsConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     def enabled = getBoolean("agent.insights.enabled")
     def listenerClass = getString("agent.insights.listener_class")
@@ -300,6 +344,8 @@ class FlowStateConfig(val conf: Config, val schema: Config)
     def localPushState: Boolean = getBoolean(s"$prefix.local_push_state")
     def connectionTimeout: Int = getDuration(s"$prefix.connection_timeout",
                                         TimeUnit.MILLISECONDS).toInt
+    def importThreads: Int = Math.max(getInt(s"$prefix.import_threads"), 1)
+    def importBatchSize: Int = Math.max(getInt(s"$prefix.import_batch_size"), 1)
 }
 
 class BindingApiConfig(val conf: Config, val schema: Config)
@@ -67,12 +67,19 @@ trait StatePacketExecutor {
 
 object PacketExecutor {
     private val MAX_BUF_CAPACITY = 4 * 1024 * 1024
+    /** The maximum number of messages written to the datapath at once. */
+    private val MAX_BATCH_MESSAGES = 64
 
     private[datapath] def clampMss(ctx: PacketContext, log: Logger): Unit = {
         // Don't do MSS clamping on packet tunneled here from another Midolman
         // node, since the other node already did it if needed.
         if (ctx.inputPort != null) {
-            try clampMss(ctx.packet.getEthernet, 0, log) catch {
+            try {
+                // The packet bytes must be serialized again if the MSS
+                // changed.
+                if (clampMss(ctx.packet.getEthernet, 0, log))
+                    ctx.packet.invalidateData()
+            } catch {
                 case ex: ArrayIndexOutOfBoundsException =>
                     log.debug(
                         "Could not parse TCP options for packet " + ctx.packet)
@@ -80,9 +87,13 @@ object PacketExecutor {
         }
     }
 
+    /**
+      * Clamps the MSS option of a TCP SYN packet, and returns whether the
+      * packet was modified.
+      */
     @tailrec
     private def clampMss(pkt: IPacket, wrapperSize: Int, log: Logger)
-    : Unit = pkt match {
+    : Boolean = pkt match {
         case t: TCP if t.getFlag(TCP.Flag.Syn) && (t.getOptions ne null) =>
             var i = 0
             val opts = t.getOptions
@@ -92,7 +103,7 @@ object PacketExecutor {
                 val code = opts(i)
                 i += 1
                 if (code == TCP.OptionKind.END_OPTS.code) {
-                    return
+                    return false
                 } else if (code <= TCP.OptionKind.NOP.code) {
                     // NOP has no arguments.
                 } else if (code == TCP.OptionKind.MSS.code) {
@@ -102,7 +113,7 @@ object PacketExecutor {
                     val len = opts(i)
                     if (len != 4) {
                         log.debug("MSS length should be 4, was " + len)
-                        return
+                        return false
                     }
                     i += 1
                     val mss = ((opts(i) << 8) | opts(i + 1) & 0xff).toShort
@@ -113,8 +124,9 @@ object PacketExecutor {
                         opts(i) = (newMss >> 8).toByte
                         opts(i + 1) = newMss.toByte
                         clearChecksums(t)
+                        return true
                     }
-                    return
+                    return false
                 } else {
                     // Don't care about other options, so just skip arguments.
                     val len = opts(i)
@@ -124,16 +136,19 @@ object PacketExecutor {
                         // length is 2 (1 octet for kind + 1 octet for length)
                         log.debug(s"Invalid tcp option len($len)."
                                       + " Is the packet corrupt? Bailing")
-                        return
+                        return false
                     }
                     i += len - 1
                 }
             }
-        case t: TCP => // Don't expect TCP nested in TCP.
+            false
+        case t: TCP => false // Don't expect TCP nested in TCP.
         case _ =>
             if (pkt.getPayload != null) {
                 val headerLen = pkt.length - pkt.getPayload.length
                 clampMss(pkt.getPayload, wrapperSize + headerLen, log)
+            } else {
+                false
             }
     }
 
@@ -163,7 +178,13 @@ sealed class PacketExecutor(dpState: DatapathState,
 
     private val datapathId = dpState.datapath.getIndex
 
-    private var writeBuf = BytesUtil.instance.allocateDirect(64 * 1024)
+    // The execute messages are accumulated in the batch buffer and written
+    // to the datapath at the end of every Disruptor batch, or when the buffer
+    // or the message bound is full.
+    private var batchBuf = BytesUtil.instance.allocateDirect(64 * 1024)
+    private var batchMessages = 0
+    private val batchStartTimes = new Array[Long](MAX_BATCH_MESSAGES)
+    private var batchTimedPackets = 0
     private val readBuf = BytesUtil.instance.allocateDirect(8 * 1024)
     private val channel = channelFactory.create(blocking = true)
     private val pid = channel.getLocalAddress.getPid
@@ -188,17 +209,17 @@ sealed class PacketExecutor(dpState: DatapathState,
                 try {
                     clampMss(context, log)
                     maybeExecuteStatePacket(datapathId, context)
-                    executePacket(datapathId, packet, actions)
-                    val latency = NanoClock.DEFAULT.tick - packet.startTimeNanos
-                    metrics.packetsExecuted.update(latency.toInt,
-                                                   TimeUnit.NANOSECONDS)
-                    context.log.debug(s"Executed packet")
+                    executePacket(datapathId, packet, actions, timed = true)
+                    context.log.debug(s"Queued packet for execution")
                 } catch { case t: Throwable =>
                     context.log.error(s"Failed to execute packet", t)
                 }
             }
             context.setPacketProcessed()
         }
+        if (endOfBatch) {
+            flush()
+        }
     }
 
     private def maybeExecuteStatePacket(datapathId: Int, context: PacketContext): Unit = {
@@ -208,8 +229,8 @@ sealed class PacketExecutor(dpState: DatapathState,
                 val statePacket = prepareStatePacket(context.returnFlowHash,
                                                      context.stateMessage,
                                                      context.stateMessageLength)
-                executePacket(datapathId, statePacket, actions)
-                context.log.debug(s"Executed flow state message")
+                executePacket(datapathId, statePacket, actions, timed = false)
+                context.log.debug(s"Queued flow state message for execution")
             } finally {
                 context.stateMessageLength = 0
                 context.stateActions.clear()
@@ -217,22 +238,74 @@ sealed class PacketExecutor(dpState: DatapathState,
         }
     }
 
+    /**
+      * Appends the execute message for a packet to the current batch. The
+      * message is prepared in place, in a slice of the batch buffer, such
+      * that the packet does not need to be retained until the batch is
+      * flushed. The batch is flushed first if it is full.
+      */
+    @tailrec
     private def executePacket(datapathId: Int, packet: Packet,
-                              actions: JArrayList[FlowAction]): Unit =
-        try {
-            protocol.preparePacketExecute(datapathId, packet, actions, writeBuf)
-            writer.write(writeBuf)
+                              actions: JArrayList[FlowAction],
+                              timed: Boolean): Unit = {
+        if (batchMessages == MAX_BATCH_MESSAGES) {
+            flush()
+        }
+        val position = batchBuf.position()
+        val message = BytesUtil.instance.sliceOf(batchBuf)
+        val prepared = try {
+            protocol.preparePacketExecute(datapathId, packet, actions, message)
+            true
         } catch { case e: BufferOverflowException =>
-            val capacity = writeBuf.capacity()
-            if (capacity >= PacketExecutor.MAX_BUF_CAPACITY)
-                throw e
-            val newCapacity = capacity * 2
-            writeBuf = BytesUtil.instance.allocateDirect(newCapacity)
-            log.debug(s"Increasing buffer size to $newCapacity")
-            executePacket(datapathId, packet, actions)
+            if (batchMessages > 0) {
+                flush()
+            } else {
+                val capacity = batchBuf.capacity()
+                if (capacity >= PacketExecutor.MAX_BUF_CAPACITY)
+                    throw e
+                val newCapacity = capacity * 2
+                batchBuf = BytesUtil.instance.allocateDirect(newCapacity)
+                log.debug(s"Increasing buffer size to $newCapacity")
+            }
+            false
+        }
+        if (prepared) {
+            batchBuf.position(position + message.limit())
+            batchMessages += 1
+            if (timed) {
+                batchStartTimes(batchTimedPackets) = packet.startTimeNanos
+                batchTimedPackets += 1
+            }
+        } else {
+            executePacket(datapathId, packet, actions, timed)
+        }
+    }
+
+    /**
+      * Writes the execute messages of the current batch to the datapath with
+      * a single write, and reports the latency of the packets it contains.
+      */
+    private def flush(): Unit = {
+        if (batchMessages == 0)
+            return
+        try {
+            batchBuf.flip()
+            writer.write(batchBuf)
+            val now = NanoClock.DEFAULT.tick
+            var i = 0
+            while (i < batchTimedPackets) {
+                metrics.packetsExecuted.update((now - batchStartTimes(i)).toInt,
+                                               TimeUnit.NANOSECONDS)
+                i += 1
+            }
+        } catch { case NonFatal(e) =>
+            log.error(s"Failed to execute $batchMessages packets", e)
         } finally {
-            writeBuf.clear()
+            batchBuf.clear()
+            batchMessages = 0
+            batchTimedPackets = 0
         }
+    }
 
     private def processError(): Unit =
         try {
@@ -33,9 +33,9 @@ trait ManagedFlow {
     def flowMatch: FlowMatch
 
     /* The mark is an identifier shared by the flow and netlink.
-     * The first 4 bits represent the worker id.
-     * The next 28 bits represent the index of the flow in the flow table.
-     * This means that a single worker can have a maximum of 2^28 flows at
+     * The first 6 bits represent the worker id.
+     * The next 26 bits represent the index of the flow in the flow table.
+     * This means that a single worker can have a maximum of 2^26 flows at
      * any one time. Ideally the mark would be 64bit, but as we need to
      * use it in the netlink sequence id to match netlink requests to responses,
      * and netlink ids are 32bit, we are limited to 32bits.
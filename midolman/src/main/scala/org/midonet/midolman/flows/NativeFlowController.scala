@@ -16,6 +16,7 @@
 
 package org.midonet.midolman.flows
 
+import java.nio.ByteOrder
 import java.util.ArrayList
 
 import org.midonet.Util
@@ -36,6 +37,13 @@ import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.concurrent.NanoClock
 
 object NativeFlowController {
+    // The layout of the flow table slots shared with the native flow table,
+    // see FlowSlot in nativeFlowController.h.
+    final val SlotSize = 24
+    final val SlotIdOffset = 0
+    final val SlotSequenceOffset = 8
+    final val SlotLinkedIdOffset = 16
+
     var loaded = false
     def loadNativeLibrary() = synchronized {
         if (!loaded) {
@@ -54,15 +62,20 @@ class NativeFlowController(config: MidolmanConfig,
                            meters: MeterRegistry,
                            cbRegistry: CallbackRegistry,
                            insights: Insights) extends FlowController {
-    NativeFlowController.loadNativeLibrary()
+    import NativeFlowController._
+
+    loadNativeLibrary()
 
     private val numWorkers = PacketWorkersService.numWorkers(config)
     private val maxFlows = Math.min(Util.findNextPositivePowerOfTwo(
                                         config.datapath.maxFlowCount / numWorkers),
                                     FlowController.IndexMask)
     private val flowTable = JNI.createFlowTable(maxFlows)
-    private val indexer = JNI.createFlowTagIndexer()
-    private val expirer = JNI.createFlowExpirationIndexer()
+    // The identifier, sequence and linked flow of the flow table slots, read
+    // and written in place instead of through JNI calls.
+    private val slots =
+        JNI.flowTableSlots(flowTable).order(ByteOrder.nativeOrder())
+    private val slotMask = slots.capacity / SlotSize - 1
     private val deleter = new FlowControllerDeleterImpl(flowProcessor,
                                                         datapathId,
                                                         meters,
@@ -118,24 +131,21 @@ class NativeFlowController(config: MidolmanConfig,
         }
     }
 
-    override def flowExists(mark: Int): Boolean = {
-        val index = mark & FlowController.IndexMask
-        val id = JNI.flowTableIdAtIndex(flowTable, index)
-        id >= 0
-    }
+    override def flowExists(mark: Int): Boolean =
+        idAtIndex(mark & FlowController.IndexMask) >= 0
 
     override def invalidateFlowsFor(tag: FlowTag): Unit = {
-        val invalid = JNI.flowTagIndexerInvalidate(indexer, tag.toLongHash)
+        val invalid = JNI.flowTableInvalidate(flowTable, tag.toLongHash)
         try {
-            val count = JNI.flowTagIndexerInvalidFlowsCount(invalid)
+            val count = JNI.flowTableInvalidFlowsCount(invalid)
             var i = 0
             while (i < count) {
-                val id = JNI.flowTagIndexerInvalidFlowsGet(invalid, i)
+                val id = JNI.flowTableInvalidFlowsGet(invalid, i)
                 removeFlow(id)
                 i += 1
             }
         } finally {
-            JNI.flowTagIndexerInvalidFlowsFree(invalid)
+            JNI.flowTableInvalidFlowsFree(invalid)
         }
     }
 
@@ -144,19 +154,19 @@ class NativeFlowController(config: MidolmanConfig,
     override def process(): Unit = {
         deleter.processCompletedFlowOperations()
         val now = clock.tick
-        var flowId = JNI.flowExpirationIndexerPollForExpired(expirer, now)
+        var flowId = JNI.flowTablePollForExpired(flowTable, now)
         while (flowId != ManagedFlow.NoFlow) {
             removeFlow(flowId)
-            flowId = JNI.flowExpirationIndexerPollForExpired(expirer, now)
+            flowId = JNI.flowTablePollForExpired(flowTable, now)
         }
     }
 
     private def addFlow(flowMatch: FlowMatch, expiration: Expiration)
     : NativeManagedFlow = {
-        val id = JNI.flowTablePutFlow(flowTable, FlowMatches.toBytes(flowMatch))
-        JNI.flowExpirationIndexerEnqueueFlowExpiration(
-            expirer, id, clock.tick + expiration.value, expiration.typeId)
-        new NativeManagedFlow(id)
+        val id = JNI.flowTablePutFlow(flowTable, FlowMatches.toBytes(flowMatch),
+                                      clock.tick + expiration.value,
+                                      expiration.typeId)
+        new NativeManagedFlow(id, flowMatch)
     }
 
     private def removeFlow(id: Long): Unit = {
@@ -174,8 +184,7 @@ class NativeFlowController(config: MidolmanConfig,
     }
 
     private def flowForId(id: Long): NativeManagedFlow = {
-        val index = (id & FlowController.IndexMask).toInt
-        val idInTable = JNI.flowTableIdAtIndex(flowTable, index)
+        val idInTable = idAtIndex((id & FlowController.IndexMask).toInt)
         if (idInTable >= 0 && id == idInTable) {
             new NativeManagedFlow(id)
         } else {
@@ -184,8 +193,7 @@ class NativeFlowController(config: MidolmanConfig,
     }
 
     private def flowForMark(mark: Int): NativeManagedFlow = {
-        val index = mark & FlowController.IndexMask
-        val id = JNI.flowTableIdAtIndex(flowTable, index)
+        val id = idAtIndex(mark & FlowController.IndexMask)
         if (id >= 0) {
             new NativeManagedFlow(id)
         } else {
@@ -195,24 +203,43 @@ class NativeFlowController(config: MidolmanConfig,
 
     private[flows] def ensureSpace(count: Int): Unit = {
         while (JNI.flowTableOccupied(flowTable) + count > maxFlows) {
-            val toEvict = JNI.flowExpirationIndexerEvictFlow(expirer)
+            val toEvict = JNI.flowTableEvictFlow(flowTable)
             removeFlow(toEvict)
         }
     }
 
-    class NativeManagedFlow(val id: Long) extends ManagedFlow {
-        override val flowMatch: FlowMatch =
-            FlowMatches.fromBytes(JNI.flowTableFlowMatch(flowTable, id))
+    @inline
+    private def slotOffset(id: Long): Int = (id & slotMask).toInt * SlotSize
+
+    @inline
+    private def idAtIndex(index: Int): Long =
+        slots.getLong(slotOffset(index) + SlotIdOffset)
+
+    /**
+     * A flyweight over a slot of the native flow table. The flow match is
+     * only copied from the native table when first requested.
+     */
+    class NativeManagedFlow(val id: Long, private var fmatch: FlowMatch = null)
+            extends ManagedFlow {
+        override def flowMatch: FlowMatch = {
+            if (fmatch eq null) {
+                fmatch = FlowMatches.fromBytes(
+                    JNI.flowTableFlowMatch(flowTable, id))
+            }
+            fmatch
+        }
 
         override def mark: Int = ((id & FlowController.IndexMask).toInt |
                                       (workerId << FlowController.IndexShift))
-        override def sequence: Long = JNI.flowTableFlowSequence(flowTable, id)
+        override def sequence: Long =
+            slots.getLong(slotOffset(id) + SlotSequenceOffset)
         override def assignSequence(seq: Long): Unit =
-            JNI.flowTableFlowSetSequence(flowTable, id, sequence)
+            slots.putLong(slotOffset(id) + SlotSequenceOffset, seq)
 
-        def linkedId: Long = JNI.flowTableFlowLinkedId(flowTable, id)
+        def linkedId: Long =
+            slots.getLong(slotOffset(id) + SlotLinkedIdOffset)
         def setLinkedId(linkedId: Long): Unit =
-            JNI.flowTableFlowSetLinkedId(flowTable, id, linkedId)
+            slots.putLong(slotOffset(id) + SlotLinkedIdOffset, linkedId)
 
         def callbacks(): ArrayList[CallbackSpec] = {
             val count = JNI.flowTableFlowCallbackCount(flowTable, id)
@@ -244,11 +271,10 @@ class NativeFlowController(config: MidolmanConfig,
                 tagsArray(i) = tags.get(i).toLongHash
                 i += 1
             }
-            JNI.flowTagIndexerIndexFlowTags(indexer, id, tagsArray)
+            JNI.flowTableFlowSetTags(flowTable, id, tagsArray)
         }
 
         def forget(): Unit = {
-            JNI.flowTagIndexerRemoveFlow(indexer, id)
             cbRegistry.runAndClear(callbacks())
             JNI.flowTableClearFlow(flowTable, id)
         }
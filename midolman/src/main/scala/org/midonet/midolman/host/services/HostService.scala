@@ -192,12 +192,10 @@ class HostService (config: MidolmanConfig,
             aliveSubscription = null
         }
         try {
-            val f1 = stateStore.removeValue(classOf[Host], hostId, AliveKey,
-                                            null).asFuture
-            val f2 = stateStore.removeValue(classOf[Host], hostId,
-                                            HostKey, null).asFuture
-            Await.ready(f1, timeout)
-            Await.ready(f2, timeout)
+            Await.ready(stateStore.multiValue(Seq(
+                RemoveValueOp(classOf[Host], hostId, AliveKey, null),
+                RemoveValueOp(classOf[Host], hostId, HostKey, null))).asFuture,
+                        timeout)
         } catch {
             case NonFatal(e) =>
                 log.warn("MidoNet agent host service failed to cleanup " +
@@ -86,6 +86,22 @@ abstract class UpcallDatapathConnectionManagerBase(
 
     protected def makeBufferPool() = new BufferPool(1, 8, 8*1024)
 
+    private var routingTable: WorkerRoutingTable = null
+
+    /** Returns the routing table shared by the upcall handlers of all the
+      * channels, such that the packets of a connection go to the same worker
+      * regardless of their input channel. */
+    protected def workerRoutingTable(workers: IndexedSeq[PacketWorker])
+    : WorkerRoutingTable = synchronized {
+        if (routingTable eq null) {
+            routingTable = new WorkerRoutingTable(
+                workers.length, config.workerBuckets,
+                config.workerRebalanceInterval.toNanos,
+                config.workerRebalanceThreshold)
+        }
+        routingTable
+    }
+
     def getDispatcher()(implicit as: ActorSystem) =
         NetlinkCallbackDispatcher.makeBatchCollector()
 
@@ -216,10 +232,14 @@ abstract class UpcallDatapathConnectionManagerBase(
                         new PerThreadICMPErrorContext
                 }
 
-            val NUM_WORKERS = workers.length
+            private val routing = workerRoutingTable(workers)
 
             override def endBatch() {
-                // noop
+                val migrations = routing.maybeRebalance()
+                if (migrations > 0) {
+                    log.debug(s"Migrated $migrations connection buckets " +
+                              "between packet workers")
+                }
             }
 
             override def submit(data: Packet): Boolean = {
@@ -252,7 +272,7 @@ abstract class UpcallDatapathConnectionManagerBase(
                     submitted
                 } else {
                     val hash = getConnectionHash(data)
-                    val worker = Math.abs(hash) % NUM_WORKERS
+                    val worker = routing.route(hash)
                     log.debug(s"Connection hash: $hash -> going to worker $worker")
                     workers(worker).submit(data)
                 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.io
+
+import java.util.concurrent.atomic.{AtomicIntegerArray, AtomicLong, AtomicLongArray}
+
+import org.midonet.Util
+import org.midonet.util.concurrent.NanoClock
+
+object WorkerRoutingTable {
+
+    /** The minimum number of packets received during a rebalance interval
+      * for which the table migrates buckets between workers. */
+    final val MinRebalancePackets = 1024
+
+    /** The maximum number of buckets migrated by a single rebalance. */
+    final val MaxMigrationsPerRebalance = 8
+
+    /** Spreads the connection hash, such that the buckets are selected by
+      * all the bits of the hash. */
+    @inline
+    private def mix(hash: Int): Int = {
+        val h = hash * 0x9E3779B9
+        h ^ (h >>> 16)
+    }
+}
+
+/**
+ * Routes the packets to the packet workers by their connection hash, through
+ * a table of virtual buckets. Each bucket is owned by one worker, and all the
+ * packets of a connection, including its flow state messages, map to the same
+ * bucket.
+ *
+ * Initially the buckets are distributed round-robin across the workers. If a
+ * rebalance interval is set, the table counts the packets routed through each
+ * bucket and, when the most loaded worker exceeds the mean worker load by the
+ * imbalance threshold, migrates its busiest buckets to the least loaded
+ * workers. A bucket is only migrated if that lowers the load of the most
+ * loaded worker, such that a single elephant connection does not bounce
+ * between workers.
+ *
+ * When a bucket migrates, the new owner reads the connection tracking and NAT
+ * state of its connections from the shard of the previous owner, since the
+ * sharded flow state tables fall back to the other shards on a miss, and
+ * adopts the entries into its own shard when its flows reference them. The
+ * entries of the previous owner expire once its flows are removed.
+ *
+ * A migration does not drain or fence the previous owner: the packets of the
+ * bucket already queued on the previous owner are processed concurrently with
+ * the packets routed to the new owner. Until the queue of the previous owner
+ * empties, two workers may therefore simulate packets of the same connection,
+ * reorder them, or both create the state of a new connection, in which case
+ * the last write to the flow state tables wins.
+ *
+ * The table is thread-safe: the upcall threads route the packets and any of
+ * them may perform the periodic rebalance.
+ */
+final class WorkerRoutingTable(val numWorkers: Int,
+                               buckets: Int,
+                               rebalanceInterval: Long,
+                               imbalanceThreshold: Double,
+                               clock: NanoClock = NanoClock.DEFAULT) {
+
+    import WorkerRoutingTable._
+
+    require(numWorkers > 0, "The number of workers must be positive")
+
+    val numBuckets = Util.findNextPositivePowerOfTwo(
+        Math.max(buckets, numWorkers))
+
+    private val mask = numBuckets - 1
+    private val owners = new AtomicIntegerArray(numBuckets)
+    private val loads =
+        if (rebalanceInterval > 0) new AtomicLongArray(numBuckets) else null
+    private val lastRebalance = new AtomicLong(clock.tick)
+
+    {
+        var bucket = 0
+        while (bucket < numBuckets) {
+            owners.set(bucket, bucket % numWorkers)
+            bucket += 1
+        }
+    }
+
+    /** Returns the bucket for the given connection hash. */
+    @inline
+    def bucketOf(hash: Int): Int = mix(hash) & mask
+
+    /** Returns the worker that currently owns the given bucket. */
+    @inline
+    def ownerOf(bucket: Int): Int = owners.get(bucket)
+
+    /** Returns the worker for the given connection hash, and accounts the
+      * packet to the load of its bucket. */
+    def route(hash: Int): Int = {
+        val bucket = bucketOf(hash)
+        if (loads ne null) {
+            loads.incrementAndGet(bucket)
+        }
+        owners.get(bucket)
+    }
+
+    /** Rebalances the buckets if the rebalance interval has elapsed since
+      * the last rebalance. Returns the number of migrated buckets. */
+    def maybeRebalance(): Int = {
+        if (loads eq null) {
+            return 0
+        }
+        val last = lastRebalance.get
+        val now = clock.tick
+        if (now - last < rebalanceInterval ||
+            !lastRebalance.compareAndSet(last, now)) {
+            return 0
+        }
+        rebalance()
+    }
+
+    /** Migrates buckets from the most loaded workers to the least loaded
+      * workers, using the packets counted since the previous rebalance.
+      * Returns the number of migrated buckets. */
+    private[io] def rebalance(): Int = {
+        val bucketLoads = new Array[Long](numBuckets)
+        val workerLoads = new Array[Long](numWorkers)
+        var total = 0L
+        var bucket = 0
+        while (bucket < numBuckets) {
+            val load = loads.getAndSet(bucket, 0L)
+            bucketLoads(bucket) = load
+            workerLoads(owners.get(bucket)) += load
+            total += load
+            bucket += 1
+        }
+        if (total < MinRebalancePackets || numWorkers == 1) {
+            return 0
+        }
+
+        val limit = (total.toDouble / numWorkers) * imbalanceThreshold
+        var migrations = 0
+        while (migrations < MaxMigrationsPerRebalance) {
+            var busiest = 0
+            var idlest = 0
+            var worker = 1
+            while (worker < numWorkers) {
+                if (workerLoads(worker) > workerLoads(busiest)) busiest = worker
+                if (workerLoads(worker) < workerLoads(idlest)) idlest = worker
+                worker += 1
+            }
+            if (workerLoads(busiest) <= limit) {
+                return migrations
+            }
+
+            // Select the busiest bucket of the busiest worker whose migration
+            // leaves both workers below the current maximum load.
+            val gap = workerLoads(busiest) - workerLoads(idlest)
+            var selected = -1
+            bucket = 0
+            while (bucket < numBuckets) {
+                val load = bucketLoads(bucket)
+                if (load > 0 && load < gap && owners.get(bucket) == busiest &&
+                    (selected < 0 || load > bucketLoads(selected))) {
+                    selected = bucket
+                }
+                bucket += 1
+            }
+            if (selected < 0) {
+                return migrations
+            }
+
+            owners.set(selected, idlest)
+            workerLoads(busiest) -= bucketLoads(selected)
+            workerLoads(idlest) += bucketLoads(selected)
+            migrations += 1
+        }
+        migrations
+    }
+}
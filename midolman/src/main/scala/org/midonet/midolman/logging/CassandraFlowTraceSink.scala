@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.logging
+
+import java.util
+import java.util.UUID
+import java.util.concurrent.Semaphore
+
+import scala.concurrent.Future
+import scala.util.{Failure, Success}
+
+import com.datastax.driver.core.{BatchStatement, ResultSet, Session, Statement}
+import com.google.common.util.concurrent.{FutureCallback, Futures}
+
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+
+/**
+  * A flow trace sink that writes the trace events to Cassandra with
+  * asynchronous requests. For every batch drained from the queue, the events
+  * of the same flow trace, which belong to the same Cassandra partition, are
+  * written with a single unlogged batch statement, and the flow record is
+  * written once per batch. The number of outstanding requests is bounded by
+  * `maxInFlight`, after which the sink thread waits and the events
+  * accumulate in the queue.
+  */
+class CassandraFlowTraceSink(sessionFuture: Future[Session], queueSize: Int,
+                             batchSize: Int, maxInFlight: Int)
+    extends QueuedFlowTraceSink("flow-tracing-appender", queueSize,
+                                batchSize) {
+
+    @volatile
+    var session: Session = null
+
+    private var schema: FlowTracingSchema = null
+
+    private val inFlight = new Semaphore(maxInFlight max 1)
+
+    /**
+      * Completes a write request for `count` events of the given trace
+      * request, which may be zero for the flow records.
+      */
+    private class WriteCallback(traceRequestId: UUID, count: Int)
+        extends FutureCallback[ResultSet] {
+        override def onSuccess(result: ResultSet): Unit = {
+            inFlight.release()
+            wrote(count)
+        }
+        override def onFailure(t: Throwable): Unit = {
+            inFlight.release()
+            if (count > 0) drop(traceRequestId, count)
+            log.warn("Failed to send flow trace events to Cassandra " +
+                     s"${t.getMessage}")
+        }
+    }
+
+    override def start(): Unit = {
+        sessionFuture.onComplete {
+            case Success(s) =>
+                schema = new FlowTracingSchema(s)
+                session = s
+                super.start()
+            case Failure(t) =>
+                log.warn(s"Failed to start session to Cassandra: ${t.getMessage}")
+        }(CallingThreadExecutionContext)
+    }
+
+    /**
+      * Drops the events when the Cassandra session is not available, such that
+      * the queue does not retain them.
+      */
+    override def offer(event: FlowTraceEvent): Boolean = {
+        if (session eq null) {
+            drop(event.traceRequestId)
+            false
+        } else {
+            super.offer(event)
+        }
+    }
+
+    @throws[Exception]
+    protected override def writeBatch(events: util.List[FlowTraceEvent])
+    : Unit = {
+        // Group the events by flow trace, preserving their order.
+        val flows = new util.LinkedHashMap[(UUID, UUID), BatchStatement]()
+        var index = 0
+        while (index < events.size()) {
+            val event = events.get(index)
+            val key = (event.traceRequestId, event.flowTraceId)
+            var batch = flows.get(key)
+            if (batch eq null) {
+                batch = new BatchStatement(BatchStatement.Type.UNLOGGED)
+                flows.put(key, batch)
+                execute(schema.bindFlowInsertStatement(
+                    event.traceRequestId, event.flowTraceId,
+                    event.ethSrc, event.ethDst, event.etherType,
+                    event.networkSrc, event.networkDst, event.networkProto,
+                    event.srcPort, event.dstPort),
+                    new WriteCallback(event.traceRequestId, 0))
+            }
+            batch.add(schema.bindDataInsertStatement(
+                event.traceRequestId, event.flowTraceId, event.time,
+                event.host, event.data))
+            index += 1
+        }
+
+        val iterator = flows.entrySet().iterator()
+        while (iterator.hasNext) {
+            val entry = iterator.next()
+            val batch = entry.getValue
+            val statements = batch.getStatements
+            execute(if (statements.size() == 1) statements.iterator().next()
+                    else batch,
+                    new WriteCallback(entry.getKey._1, statements.size()))
+        }
+    }
+
+    private def execute(statement: Statement, callback: WriteCallback)
+    : Unit = {
+        inFlight.acquire()
+        try {
+            Futures.addCallback(session.executeAsync(statement), callback)
+        } catch {
+            case e: Throwable =>
+                inFlight.release()
+                throw e
+        }
+    }
+
+}
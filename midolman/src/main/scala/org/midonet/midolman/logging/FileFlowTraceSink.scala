@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.logging
+
+import java.io.{BufferedWriter, FileOutputStream, OutputStreamWriter, Writer}
+import java.nio.charset.StandardCharsets
+import java.util
+
+import com.datastax.driver.core.utils.UUIDs
+
+/**
+  * A flow trace sink that appends the trace events to a local file, one event
+  * per line, and does not require Cassandra. Each line contains the
+  * space-separated event timestamp, trace request, flow trace, host and flow
+  * key fields, followed by the tab-separated log message.
+  */
+class FileFlowTraceSink(path: String, queueSize: Int, batchSize: Int)
+    extends QueuedFlowTraceSink("flow-tracing-file-appender", queueSize,
+                                batchSize) {
+
+    private var writer: Writer = null
+
+    override def start(): Unit = {
+        writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(path, true), StandardCharsets.UTF_8))
+        super.start()
+    }
+
+    override def stop(): Unit = {
+        super.stop()
+        writer.close()
+    }
+
+    @throws[Exception]
+    protected override def writeBatch(events: util.List[FlowTraceEvent])
+    : Unit = {
+        var index = 0
+        while (index < events.size()) {
+            val event = events.get(index)
+            writer.write(s"${UUIDs.unixTimestamp(event.time)} " +
+                         s"${event.traceRequestId} ${event.flowTraceId} " +
+                         s"${event.host} ${event.ethSrc} ${event.ethDst} " +
+                         s"${event.etherType} ${event.networkSrc} " +
+                         s"${event.networkDst} ${event.networkProto} " +
+                         s"${event.srcPort} ${event.dstPort}\t${event.data}\n")
+            index += 1
+        }
+        writer.flush()
+        wrote(events.size())
+    }
+
+}
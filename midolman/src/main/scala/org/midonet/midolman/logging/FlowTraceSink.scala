@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.logging
+
+import java.util
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+import scala.util.control.NonFatal
+
+import org.jctools.queues.MpscArrayQueue
+import org.slf4j.LoggerFactory
+
+import org.midonet.util.concurrent.WakerUpper.Parkable
+
+/**
+  * A flow trace event, corresponding to a log message emitted during the
+  * simulation of a traced flow.
+  */
+case class FlowTraceEvent(traceRequestId: UUID, flowTraceId: UUID,
+                          time: UUID, host: UUID,
+                          ethSrc: String, ethDst: String, etherType: Int,
+                          networkSrc: String, networkDst: String,
+                          networkProto: Int, srcPort: Int, dstPort: Int,
+                          data: String)
+
+/**
+  * A destination for flow trace events. Implementations must never block
+  * the calling thread: events that cannot be accepted are dropped and
+  * accounted for.
+  */
+trait FlowTraceSink {
+
+    def start(): Unit
+
+    def stop(): Unit
+
+    /**
+      * Offers a trace event to the sink, returning false if the event was
+      * dropped.
+      */
+    def offer(event: FlowTraceEvent): Boolean
+
+    /** The number of events written by the sink. */
+    def written: Long
+
+    /** The number of events dropped by the sink. */
+    def dropped: Long
+
+    /** The number of events dropped for the given trace request. */
+    def dropped(traceRequestId: UUID): Long
+}
+
+/**
+  * A base class for flow trace sinks that buffer the events in a bounded
+  * queue, from which a dedicated thread drains them in batches of up to
+  * `batchSize` events. The thread sends the events in the same order as they
+  * are emitted by the simulation threads (within a given simulation).
+  */
+abstract class QueuedFlowTraceSink(name: String, queueSize: Int,
+                                   batchSize: Int) extends FlowTraceSink {
+
+    private final val StopTimeoutMillis = 1000L
+
+    protected val log = LoggerFactory.getLogger(getClass)
+
+    private val queue = new MpscArrayQueue[FlowTraceEvent](queueSize)
+    private val writtenCount = new AtomicLong
+    private val droppedCount = new AtomicLong
+    private val droppedPerRequest = new ConcurrentHashMap[UUID, AtomicLong]()
+    @volatile private var running = false
+
+    private val sender = new Thread(name) with Parkable {
+        override def run(): Unit = {
+            val batch = new util.ArrayList[FlowTraceEvent](batchSize)
+            while (running) {
+                try {
+                    var event = queue.poll()
+                    if (event eq null) {
+                        park()
+                    } else {
+                        do {
+                            batch.add(event)
+                            event = if (batch.size() < batchSize) queue.poll()
+                                    else null
+                        } while (event ne null)
+                        writeBatch(batch)
+                    }
+                } catch {
+                    case e: InterruptedException =>
+                        log.warn("Interrupted")
+                        running = false
+                    case NonFatal(e) =>
+                        log.warn(s"Failed to write ${batch.size()} flow " +
+                                 s"trace events: ${e.getMessage}")
+                        droppedCount.addAndGet(batch.size())
+                } finally {
+                    batch.clear()
+                }
+            }
+        }
+        override def shouldWakeUp(): Boolean =
+            !running || (queue.peek() ne null)
+    }
+
+    override def start(): Unit = {
+        running = true
+        sender.setDaemon(true)
+        sender.start()
+    }
+
+    override def stop(): Unit = {
+        running = false
+        sender.interrupt()
+        sender.join(StopTimeoutMillis)
+    }
+
+    override def offer(event: FlowTraceEvent): Boolean = {
+        if (queue.offer(event)) {
+            true
+        } else {
+            drop(event.traceRequestId)
+            false
+        }
+    }
+
+    override def written: Long = writtenCount.get
+
+    override def dropped: Long = droppedCount.get
+
+    override def dropped(traceRequestId: UUID): Long = {
+        val counter = droppedPerRequest.get(traceRequestId)
+        if (counter eq null) 0L else counter.get
+    }
+
+    /**
+      * Writes a batch of events. The method is called from the sink thread,
+      * and it may block for back-pressure, in which case the events keep
+      * accumulating in the queue until it is full. Implementations must call
+      * `wrote` when the events have been written.
+      */
+    @throws[Exception]
+    protected def writeBatch(events: util.List[FlowTraceEvent]): Unit
+
+    /** Accounts the given number of events as written. */
+    protected def wrote(count: Int): Unit = {
+        writtenCount.addAndGet(count)
+    }
+
+    /** Accounts the given number of events of a trace request as dropped. */
+    protected def drop(traceRequestId: UUID, count: Int = 1): Unit = {
+        droppedCount.addAndGet(count)
+        var counter = droppedPerRequest.get(traceRequestId)
+        if (counter eq null) {
+            counter = new AtomicLong
+            droppedPerRequest.putIfAbsent(traceRequestId, counter) match {
+                case null =>
+                    log.info("Backpressure triggered on queue of flow " +
+                             s"tracing events (curr. bound: $queueSize): " +
+                             s"dropping events for trace $traceRequestId")
+                case current => counter = current
+            }
+        }
+        counter.addAndGet(count)
+    }
+
+}
@@ -18,22 +18,22 @@ package org.midonet.midolman.logging
 
 import java.util.UUID
 
-import scala.concurrent.Future
-import scala.util.control.NonFatal
-import scala.util.{Failure, Success}
-
 import ch.qos.logback.classic.spi.ILoggingEvent
 import ch.qos.logback.core.AppenderBase
-import com.datastax.driver.core.exceptions.DriverException
-import com.datastax.driver.core.{Session, Statement}
-import org.jctools.queues.SpmcArrayQueue
+import com.datastax.driver.core.utils.UUIDs
 import org.slf4j.LoggerFactory
 
 import org.midonet.conf.HostIdGenerator
-import org.midonet.util.concurrent.CallingThreadExecutionContext
-import org.midonet.util.concurrent.WakerUpper.Parkable
 
-class FlowTracingAppender(sessionFuture: Future[Session])
+/**
+  * A logback appender that converts the log events emitted during the
+  * simulation of traced flows into [[FlowTraceEvent]]s, and offers them to a
+  * [[FlowTraceSink]]. The appender never blocks the simulation threads: the
+  * events are dropped when the sink cannot keep up. The flows are sampled
+  * per trace request when the trace rules match, such that the appender
+  * records every event of the traced flows.
+  */
+class FlowTracingAppender(val sink: FlowTraceSink)
         extends AppenderBase[ILoggingEvent] {
 
     val log = LoggerFactory.getLogger(classOf[FlowTracingAppender])
@@ -45,87 +45,49 @@ class FlowTracingAppender(sessionFuture: Future[Session])
             UUID.randomUUID()
     }
 
-    @volatile
-    var session: Session = null
-
-    var schema: FlowTracingSchema = null
-
-    /* Dedicated thread that sends messages to Cassandra in the same order as
-     * they are emitted by the simulation thread (within a given simulation).
-     */
-    private val sender = new Thread("flow-tracing-appender") with Parkable {
-        override def run(): Unit = while (true) {
-            try {
-                queue.poll() match {
-                    case null => park()
-                    case st => session execute st
-                }
-            } catch {
-                case NonFatal(t: InterruptedException) =>
-                    log.warn("Interrupted")
-                    interrupt()
-                case NonFatal(t: DriverException) =>
-                    log.warn("Failed to send log message to Cassandra " +
-                             s"${t.getMessage}")
-                case NonFatal(t) =>
-                    log.error("Unexpected error", t)
-            }
-        }
-        override def shouldWakeUp(): Boolean = queue.peek() != null
-    }
-
-    val QueueSize = 100000
-    private val queue = new SpmcArrayQueue[Statement](QueueSize)
-
     override def start(): Unit = {
-        sender.setDaemon(true)
-        sessionFuture.onComplete {
-            case Success(s) =>
-                schema = new FlowTracingSchema(s)
-                session = s
-                sender.start()
-            case Failure(t) =>
-                log.warn(s"Failed to start session to Cassandra: ${t.getMessage}")
-        }(CallingThreadExecutionContext)
+        sink.start()
         super.start()
     }
 
-    override def append(event: ILoggingEvent): Unit = if (schema != null) {
+    override def stop(): Unit = {
+        super.stop()
+        sink.stop()
+    }
+
+    override def append(event: ILoggingEvent): Unit = {
         import FlowTracingContext._
         val mdc = event.getMDCPropertyMap
 
-        val requestIds = mdc.get(TraceRequestIdKey).split(",")
-        var i = requestIds.length - 1
-
-        while (i >= 0) {
-            val traceId = UUID.fromString(requestIds(i))
-            val flowTraceId = UUID.fromString(mdc.get(FlowTraceIdKey))
-
-            try {
+        val requestIds = mdc.get(TraceRequestIdKey)
+        val flowTraceIdString = mdc.get(FlowTraceIdKey)
+        if ((requestIds eq null) || (flowTraceIdString eq null)) {
+            return
+        }
 
-                val st1 = schema.bindFlowInsertStatement(
-                    traceId, flowTraceId,
+        try {
+            val traceIds = requestIds.split(",")
+            val flowTraceId = UUID.fromString(flowTraceIdString)
+            val time = UUIDs.timeBased()
+            val message = event.getFormattedMessage
+            var i = traceIds.length - 1
+
+            while (i >= 0) {
+                val traceId = UUID.fromString(traceIds(i))
+                sink.offer(FlowTraceEvent(
+                    traceId, flowTraceId, time, hostId,
                     mdc.get(EthSrcKey), mdc.get(EthDstKey),
                     intOrVal(mdc.get(EtherTypeKey), 0),
                     mdc.get(NetworkSrcKey), mdc.get(NetworkDstKey),
                     intOrVal(mdc.get(NetworkProtoKey), 0),
                     intOrVal(mdc.get(SrcPortKey), 0),
-                    intOrVal(mdc.get(DstPortKey), 0))
-
-                val st2 = schema.bindDataInsertStatement(
-                    traceId, flowTraceId,
-                    hostId, event.getFormattedMessage)
-
-                if (!queue.offer(st1) || !queue.offer(st2)) {
-                    log.info("Backpressure triggered on queue of flow " +
-                             "tracing events emitted to Cassandra (curr. " +
-                             s"bound: $QueueSize)")
-                }
-            } catch {
-                case e: Throwable =>
-                    log.error("Error building statements", e)
+                    intOrVal(mdc.get(DstPortKey), 0),
+                    message))
+                i -= 1
             }
-            i -= 1
+        } catch {
+            case e: Throwable =>
+                log.error("Error building flow trace events", e)
         }
     }
 
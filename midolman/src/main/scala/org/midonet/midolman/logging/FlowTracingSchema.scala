@@ -47,6 +47,10 @@ object FlowTracingSchema {
         INSERT INTO ${FLOW_EVENTS_TABLE}
         (traceRequestId, flowTraceId, time, host, data)
         VALUES(?,?, now(), ?, ?)"""
+    val dataInsertWithTimeCQL = s"""
+        INSERT INTO ${FLOW_EVENTS_TABLE}
+        (traceRequestId, flowTraceId, time, host, data)
+        VALUES(?, ?, ?, ?, ?)"""
     val flowInsertCQL = s"""
         INSERT INTO ${FLOWS_TABLE}
         (traceRequestId, flowTraceId, ethSrc, ethDst, etherType,
@@ -86,6 +90,8 @@ class FlowTracingSchema(session: Session) {
         session.prepare(FlowTracingSchema.flowInsertCQL)
     val dataInsertStatement: PreparedStatement =
         session.prepare(FlowTracingSchema.dataInsertCQL)
+    val dataInsertWithTimeStatement: PreparedStatement =
+        session.prepare(FlowTracingSchema.dataInsertWithTimeCQL)
     val getCountStatement: PreparedStatement =
         session.prepare(FlowTracingSchema.countFlowTracesCQL)
     val getFlowTraceStatement: PreparedStatement =
@@ -119,6 +125,13 @@ class FlowTracingSchema(session: Session) {
                                                      host, data)
     }
 
+    def bindDataInsertStatement(traceRequestId: UUID, flowTraceId: UUID,
+                                time: UUID, host: UUID,
+                                data: String): BoundStatement = {
+        new BoundStatement(dataInsertWithTimeStatement).bind(
+            traceRequestId, flowTraceId, time, host, data)
+    }
+
     def bindFlowCountStatement(traceRequestId: UUID,
                                minTime: Option[Date] = None,
                                maxTime: Option[Date] = None): BoundStatement = {
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring.metrics
+
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.MetricRegistry.name
+
+trait BackChannelMeter
+
+class BackChannelMetrics(val registry: MetricRegistry) {
+
+    /** Flow tag invalidations offered to the back channel shards, counting
+      * once per shard. */
+    val invalidationsOffered = registry.meter(
+        name(classOf[BackChannelMeter], "invalidations", "offered"))
+
+    /** Flow tag invalidations discarded because the same tag was already
+      * pending in the shard. */
+    val invalidationsCoalesced = registry.meter(
+        name(classOf[BackChannelMeter], "invalidations", "coalesced"))
+
+}
@@ -21,6 +21,8 @@ import java.util.concurrent.TimeUnit
 import com.codahale.metrics.{Clock, Gauge, MetricRegistry, Timer}
 import com.codahale.metrics.MetricRegistry.name
 
+import org.midonet.midolman.UpcallScheduler
+import org.midonet.midolman.simulation.SimulationStage
 import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
 
 class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
@@ -47,6 +49,12 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val statePacketsProcessed = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "statePacketsProcessed"))
 
+    val flowStateImported = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "flowStateImported"))
+
+    val flowStatePendingImports = registry.counter(
+        name(classOf[PacketPipelineCounter], workerTag, "flowStatePendingImports"))
+
     val packetsProcessed = registry.register(
         name(classOf[PacketPipelineHistogram], workerTag, "packetsProcessed"),
         new Timer(new HdrHistogramSlidingTimeWindowReservoir(
@@ -69,6 +77,29 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val workerQueueOverflow = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "packetQueue", "overflow"))
 
+    val upcallClassOverflow = UpcallScheduler.ClassNames map { cls =>
+        registry.meter(name(classOf[PacketPipelineMeter], workerTag,
+                            "packetQueue", cls, "overflow"))
+    }
+
+    val upcallClassLatency = UpcallScheduler.ClassNames map { cls =>
+        registry.register(
+            name(classOf[PacketPipelineHistogram], workerTag, "packetQueue",
+                 cls, "latency"),
+            new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                          5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                          Clock.defaultClock)))
+    }
+
+    val stageLatency = SimulationStage.StageNames map { stage =>
+        registry.register(
+            name(classOf[PacketPipelineHistogram], workerTag, "stages",
+                 stage, "latency"),
+            new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                          5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                          Clock.defaultClock)))
+    }
+
     def packetPostponed() {
         packetsPostponed.mark()
         packetsOnHold.inc()
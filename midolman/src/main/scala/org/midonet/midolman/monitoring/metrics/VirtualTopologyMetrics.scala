@@ -154,6 +154,18 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
         }
     }
 
+    /**
+     * Registers the queue depth gauges for the given number of virtual
+     * topology partitions.
+     */
+    def registerPartitions(count: Int, queueDepth: Int => Int): Unit = {
+        for (index <- 0 until count) {
+            registry.register(name(classOf[VirtualTopologyGauge],
+                                   s"partition-$index", "queueDepth"),
+                              gauge(queueDepth(index)))
+        }
+    }
+
     private def gauge(f: => Long): Gauge[Long] = {
         new Gauge[Long] { override def getValue = f }
     }
@@ -55,9 +55,11 @@ case class Chain(id: UUID,
     @VisibleForTesting def isJumpTargetsEmpty: Boolean = jumpTargets.isEmpty
 
     def process(context: PacketContext): RuleResult = {
+        val start = context.stageStart()
         val traversedChains = Chain.traversedChainsThreadLocal.get()
         traversedChains.clear()
         val res = apply(context, traversedChains)
+        context.stageEnd(SimulationStage.Chain, start)
         if (traversedChains.size > 25) {
             context.log.warn(s"Traversed ${traversedChains.size} chains " +
                              s"when applying chain $id")
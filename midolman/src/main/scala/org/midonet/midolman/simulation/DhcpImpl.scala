@@ -16,17 +16,18 @@
 package org.midonet.midolman.simulation
 
 import java.nio.{BufferOverflowException, ByteBuffer}
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 
 import scala.collection.JavaConversions._
 import scala.collection.JavaConverters._
 import scala.collection.mutable
-import scala.concurrent.duration._
+import scala.util.{Failure, Success}
 
-import org.midonet.cluster.data.ZoomConvert
-import org.midonet.cluster.models.Topology
+import org.midonet.midolman.NotYetException
 import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.midolman.topology.devices.Dhcp
-import org.midonet.midolman.topology.devices.Dhcp.{Host, Opt121Route}
+import org.midonet.midolman.topology.devices.Dhcp.Host
 import org.midonet.packets._
 import org.midonet.util.concurrent._
 import org.midonet.util.logging.Logger
@@ -484,6 +485,14 @@ object DhcpValueParser {
 }
 
 object DhcpImpl {
+
+    /**
+     * The DHCP subnets whose last load from the virtual topology failed. The
+     * simulations skip these subnets instead of waiting for them, while every
+     * new request loads the subnet again and updates this map.
+     */
+    private val failedSubnets = new ConcurrentHashMap[UUID, Throwable]()
+
     def apply(vt: VirtualTopology, inPort: Port, request: DHCP,
               sourceMac: MAC, underlayMtu: Int, configMtu: Int,
               log: Logger) = {
@@ -503,17 +512,6 @@ class DhcpImpl(val vt: VirtualTopology,
                val request: DHCP, val sourceMac: MAC,
                val underlayMtu: Int, val configMtu: Int,
                val log: Logger) {
-    import DhcpValueParser._
-
-    private final val timeout = 3 seconds
-    private var serverAddr: IPv4Addr = _
-    private var serverMac: MAC = _
-    private var routerAddr: IPv4Addr = _
-    private var yiaddr: IPv4Addr = _
-    private var yiAddrMaskLen: Int = 0
-    private var opt121Routes: mutable.Buffer[Opt121Route] = _
-    private var dnsServerAddrsBytes: List[Array[Byte]] = Nil
-    private var interfaceMtu: Int = 0
 
     def handleDHCP(port: Port) : Option[Ethernet] = {
         // These fields are decided based on the port configuration.
@@ -536,25 +534,52 @@ class DhcpImpl(val vt: VirtualTopology,
     private type HostAndDhcpOptPair = (Option[Host], Option[Dhcp])
 
     private def getHostAndAssignedSubnet(port: BridgePort): HostAndDhcpOptPair = {
-        // TODO(pino): use an async API
         val bridge = vt.tryGet(classOf[Bridge], port.deviceId)
-        val dhcps = vt.store.getAll(classOf[Topology.Dhcp], bridge.subnetIds)
-            .recover { case _ => Seq.empty } (CallingThreadExecutionContext)
-            .map { d => d.map(ZoomConvert.fromProto(_, classOf[Dhcp]))} (
-                CallingThreadExecutionContext)
-            .await(timeout)
+        val dhcps = bridge.subnetIds.flatMap(tryGetSubnet)
 
         // Look for the DHCP's source MAC in the list of hosts in each subnet
         var host: Option[Host] = None
         val assignment = dhcps.find { dhcp =>
             log.debug(s"Looking up assignment for MAC $sourceMac on subnet " +
                       s"${dhcp.id}")
-            host = dhcp.hosts.find(_.mac == sourceMac)
+            host = dhcp.hostsByMac.get(sourceMac)
             host.isDefined && (host.get.address != null)
         }
         (host, assignment)
     }
 
+    /**
+     * Returns the DHCP subnet with the given identifier, or [[None]] if the
+     * last load of the subnet failed, for instance because the subnet does
+     * not exist or it has been deleted. Every failed load is recorded, such
+     * that a restarted simulation skips the subnet instead of waiting for
+     * the new load, which the virtual topology starts for every simulation.
+     * The method throws a [[NotYetException]] if the subnet is loaded for
+     * the first time: the future of the exception completes successfully
+     * even if loading the subnet fails.
+     */
+    @throws[NotYetException]
+    private def tryGetSubnet(id: UUID): Option[Dhcp] = {
+        try Some(vt.tryGet(classOf[Dhcp], id))
+        catch {
+            case NotYetException(future, msg) =>
+                future.onComplete {
+                    case Success(_) => DhcpImpl.failedSubnets.remove(id)
+                    case Failure(e) => DhcpImpl.failedSubnets.put(id, e)
+                }(CallingThreadExecutionContext)
+                val failure = DhcpImpl.failedSubnets.get(id)
+                if (failure ne null) {
+                    log.debug(s"DHCP subnet $id not available: " +
+                              s"${failure.getMessage}")
+                    None
+                } else {
+                    throw NotYetException(
+                        future.recover { case _ => null }(
+                            CallingThreadExecutionContext), msg)
+                }
+        }
+    }
+
     private def dhcpFromBridgePort(port: BridgePort): Option[Ethernet] = {
         getHostAndAssignedSubnet(port) match {
             case (_, Some(subnet)) if !subnet.enabled =>
@@ -563,67 +588,31 @@ class DhcpImpl(val vt: VirtualTopology,
             case (Some(host), Some(subnet)) =>
                 log.debug(s"Found DHCP static assignment for MAC $sourceMac for " +
                           s"${host.name} address ${host.address}")
-
-                // TODO(pino): the server MAC should be in configuration.
-                serverMac = MAC.fromString("02:a8:9c:de:39:27")
-                serverAddr =
-                    if (subnet.serverAddress ne null) subnet.serverAddress
-                    else IPv4Addr.AnyAddress
-                routerAddr = subnet.defautGateway
-                yiaddr = host.address
-                yiAddrMaskLen = subnet.subnetAddress.getPrefixLen
-
-                dnsServerAddrsBytes =
-                    Option(subnet.dnsServerAddress).map{ _.toList}.getOrElse(Nil)
-                        .map { _.toBytes }
-                opt121Routes = subnet.opt121Routes
-
-                // NOTES on MTU:
-                // - We should never send a DHCP offer MTU option higher than the underlayMtu.
-                // - Subnet mtu takes precedence over global configuration
-
-                (subnet.interfaceMtu match {
-                    case 0 =>
-                        Some(Math.min(configMtu, underlayMtu))
-                    case subnetMtu =>
-                        Some(Math.min(subnetMtu.toInt & 0xffff, underlayMtu))
-                }) match {
-                    case Some(minMtu) =>
-                        interfaceMtu = minMtu
-                        log.debug(s"Building DHCP reply for MAC $sourceMac " +
-                                  s"with MTU $interfaceMtu")
-                        makeDhcpReply(port, host)
-                    case _ =>
-                        interfaceMtu = 0
-                        log.warn("Failed to calculate interface MTU, cannot " +
-                                 "build DHCP reply")
-                        None
-                }
+                makeDhcpReply(port, replyTemplate(subnet, host))
             case _ =>
                 log.debug("No static DHCP assignment for MAC {}", sourceMac)
                 None
         }
     }
 
-    private def opt121ToByteArray(opt121: Opt121Route): mutable.ListBuffer[Byte] = {
-        val bytes = mutable.ListBuffer[Byte]()
-        // First append the destination subnet's maskLength
-        val maskLen = opt121.destinationSubnet.getPrefixLen.toByte
-        bytes.append(maskLen)
-        // Now append the significant octets of the subnet.
-        val dstBytes = opt121.destinationSubnet.getAddress.toBytes
-        if (maskLen > 0) bytes.append(dstBytes(0))
-        if (maskLen > 8) bytes.append(dstBytes(1))
-        if (maskLen > 16) bytes.append(dstBytes(2))
-        if (maskLen > 24) bytes.append(dstBytes(3))
-        // Now append the 4 octets of the gateway.
-        val gwBytes = opt121.gateway.toBytes
-        bytes.appendAll(gwBytes.toList)
-        bytes
+    /**
+     * Returns the reply template for the given subnet and host, compiling a
+     * new template if the subnet does not have one for the host or if the
+     * MTU configuration has changed since the template was compiled.
+     */
+    private def replyTemplate(subnet: Dhcp, host: Host): DhcpReplyTemplate = {
+        var template = subnet.replyTemplates.get(host.mac)
+        if ((template eq null) || !template.isCompiledFor(underlayMtu,
+                                                           configMtu)) {
+            template = DhcpReplyTemplate(subnet, host, underlayMtu, configMtu,
+                                         log)
+            subnet.replyTemplates.put(host.mac, template)
+        }
+        template
     }
 
     private def makeDhcpReply(port: BridgePort,
-                              host: Host): Option[Ethernet] = {
+                              template: DhcpReplyTemplate): Option[Ethernet] = {
         val chaddr = request.getClientHardwareAddress
         if (null == chaddr) {
             log.warn("Dropping DHCP request with missing hardware address")
@@ -671,32 +660,21 @@ class DhcpImpl(val vt: VirtualTopology,
             }
         }
 
-        // Use mutable.HashMap to eliminate the duplication between the Midolman
-        // DHCP extra option handlings and the Neutron ones.
-        val optionMap = mutable.HashMap[Byte, DHCPOption]()
         val typeOpt = reqOptions.get(DHCPOption.Code.DHCP_TYPE.value)
         if (typeOpt.isEmpty) {
             log.warn("Dropping DHCP request: no DHCP message type found")
             throw MalformedDhcpRequestException
         }
 
-        typeOpt.get.getData()(0) match {
+        val replyType = typeOpt.get.getData()(0) match {
             case v if v == DHCPOption.MsgType.DISCOVER.value =>
                 log.debug("Received a DHCP Discover message")
                 // Reply with a dchp OFFER.
-                optionMap.put(DHCPOption.Code.DHCP_TYPE.value,
-                    new DHCPOption(
-                        DHCPOption.Code.DHCP_TYPE.value,
-                        DHCPOption.Code.DHCP_TYPE.length,
-                        Array[Byte](DHCPOption.MsgType.OFFER.value)))
+                DHCPOption.MsgType.OFFER.value
             case v if v == DHCPOption.MsgType.REQUEST.value =>
                 log.debug("Received a DHCP Request message")
                 // Reply with a dchp ACK.
-                optionMap.put(DHCPOption.Code.DHCP_TYPE.value,
-                    new DHCPOption(
-                        DHCPOption.Code.DHCP_TYPE.value,
-                        DHCPOption.Code.DHCP_TYPE.length,
-                        Array[Byte](DHCPOption.MsgType.ACK.value)))
+                var replyType = DHCPOption.MsgType.ACK.value
                 // http://tools.ietf.org/html/rfc2131 Section 3.1, Step 3:
                 // "The client broadcasts a DHCPREQUEST message that MUST include
                 // the 'server identifier' option to indicate which server is has
@@ -710,11 +688,11 @@ class DhcpImpl(val vt: VirtualTopology,
                     case Some(opt) =>
                         // The server id should correspond to this port's address.
                         val theirServId = IPv4Addr.bytesToInt(opt.getData)
-                        if (serverAddr.addr != theirServId) {
+                        if (template.serverAddr.addr != theirServId) {
                             log.warn("Dropping DHCP request: client selected " +
                                      "different server " +
                                      s"${IPv4Addr.intToString(theirServId)} " +
-                                     s"not this $serverAddr")
+                                     s"not this ${template.serverAddr}")
                         }
                 }
                 // The request must contain a requested IP address option.
@@ -728,121 +706,31 @@ class DhcpImpl(val vt: VirtualTopology,
                         val reqIp = IPv4Addr.bytesToInt(opt.getData)
                         // TODO(pino): must keep state and remember the offered ip based
                         // on the chaddr or the client id option.
-                        if (yiaddr.addr != reqIp) {
+                        if (template.yourAddr.addr != reqIp) {
                             log.debug("Sending DHCP NACK: the requested IP "+
                                       s"$reqIp does not match current " +
-                                      s"offer $yiaddr")
+                                      s"offer ${template.yourAddr}")
                             // Overwrite the default ACK with a dhcp NACK
-                            optionMap.put(
-                                DHCPOption.Code.DHCP_TYPE.value,
-                                new DHCPOption(
-                                    DHCPOption.Code.DHCP_TYPE.value,
-                                    DHCPOption.Code.DHCP_TYPE.length,
-                                    Array[Byte](DHCPOption.MsgType.NAK.value)))
+                            replyType = DHCPOption.MsgType.NAK.value
                         }
                 }
+                replyType
             case msgType =>
                 log.warn("Dropping DHCP request: unsupported message type "+
                          s"$msgType:${DHCPOption.msgTypeToName.get(msgType)}")
                 throw UnsupportedDhcpRequestException
         }
 
+        // The options are shared with all replies built from the template.
         val reply = new DHCP
         reply.setOpCode(DHCP.OPCODE_REPLY)
         reply.setTransactionId(request.getTransactionId)
         reply.setHardwareAddressLength(6)
         reply.setHardwareType(ARP.HW_TYPE_ETHERNET.toByte)
         reply.setClientHardwareAddress(sourceMac)
-        reply.setServerIPAddress(serverAddr.addr)
-        reply.setYourIPAddress(yiaddr.addr)
-
-        // TODO(pino): do we need to include the DNS option?
-        optionMap.put(DHCPOption.Code.MASK.value,
-            new DHCPOption(DHCPOption.Code.MASK.value,
-                DHCPOption.Code.MASK.length,
-                IPv4Addr.intToBytes(
-                    ~0 << (32 - yiAddrMaskLen))))
-
-        // Generate the broadcast address... this is nwAddr with 1's in the
-        // last 32-nwAddrLength bits.
-        val mask = ~0 >>> yiAddrMaskLen
-        val bcast = mask | yiaddr.addr
-        log.debug("Setting DHCP broadcast address option to " +
-                  s"${IPv4Addr.intToString(bcast)}")
-        optionMap.put(DHCPOption.Code.BCAST_ADDR.value,
-            new DHCPOption(DHCPOption.Code.BCAST_ADDR.value,
-                DHCPOption.Code.BCAST_ADDR.length,
-                IPv4Addr.intToBytes(bcast)))
-        optionMap.put(DHCPOption.Code.IP_LEASE_TIME.value,
-            new DHCPOption(DHCPOption.Code.IP_LEASE_TIME.value,
-                DHCPOption.Code.IP_LEASE_TIME.length,
-                IPv4Addr.intToBytes((1 day).toSeconds.toInt)))
-        optionMap.put(DHCPOption.Code.INTERFACE_MTU.value,
-            new DHCPOption(DHCPOption.Code.INTERFACE_MTU.value,
-                DHCPOption.Code.INTERFACE_MTU.length,
-                Array[Byte](((interfaceMtu >> 8) & 0xff).toByte,
-                            (interfaceMtu & 0xff).toByte)))
-        if (routerAddr != null) {
-            optionMap.put(DHCPOption.Code.ROUTER.value,
-                new DHCPOption(DHCPOption.Code.ROUTER.value,
-                    DHCPOption.Code.ROUTER.length,
-                    routerAddr.toBytes))
-        }
-        // in MidoNet the DHCP server is the same as the router
-        optionMap.put(DHCPOption.Code.SERVER_ID.value,
-            new DHCPOption(
-                DHCPOption.Code.SERVER_ID.value,
-                DHCPOption.Code.SERVER_ID.length,
-                serverAddr.toBytes))
-
-        if (dnsServerAddrsBytes.nonEmpty) {
-            val len = 4 * dnsServerAddrsBytes.length
-            val buffer = ByteBuffer.allocate(len)
-            dnsServerAddrsBytes.foreach{ bytes => buffer put bytes}
-            optionMap.put(DHCPOption.Code.DNS.value,
-                new DHCPOption(DHCPOption.Code.DNS.value,
-                    len.toByte, buffer.array))
-        }
-        // If there are classless static routes, add the option.
-        if (null != opt121Routes && opt121Routes.nonEmpty) {
-            val bytes = mutable.ListBuffer[Byte]()
-            if (routerAddr != null) {
-                // According to RFC 3442, if classless routes (option 121) are
-                // being provided, then the router option should be ignored.
-                // In this case we want to provide the default route with
-                // option 121 in addition to option 3.
-                val opt121DefaultRoute = Opt121Route(
-                    destinationSubnet = IPv4Addr.AnyAddress.subnet(0),
-                    gateway = routerAddr)
-
-                log.debug("Found router address: adding default route " +
-                          s"to $opt121DefaultRoute")
-                opt121Routes += opt121DefaultRoute
-            }
-            opt121Routes foreach { rt =>
-                log.debug(s"Found classless route $rt")
-                bytes.appendAll(opt121ToByteArray(rt))
-            }
-            log.debug("Adding Option 121 (classless static routes) with " +
-                      s"${opt121Routes.length} routes")
-            // Finally, construct the classless static routes option
-            optionMap.put(DHCPOption.Code.CLASSLESS_ROUTES.value,
-                new DHCPOption(
-                    DHCPOption.Code.CLASSLESS_ROUTES.value(),
-                    bytes.length.toByte,
-                    bytes.toArray))
-        }
-
-        // Add extra DHCP options. This overwrite the existing DHCP extra option
-        // set already before calling this method.
-        setExtraDhcpOptions(host, optionMap)
-
-        val options: mutable.ListBuffer[DHCPOption] =
-            optionMap.values.to[mutable.ListBuffer]
-        // And finally add the END option.
-        options.add(new DHCPOption(DHCPOption.Code.END.value,
-            DHCPOption.Code.END.length, null))
-        reply.setOptions(options)
+        reply.setServerIPAddress(template.serverAddr.addr)
+        reply.setYourIPAddress(template.yourAddr.addr)
+        reply.setOptions(template.options(replyType))
 
         val udp = new UDP
         udp.setSourcePort(67)
@@ -850,7 +738,7 @@ class DhcpImpl(val vt: VirtualTopology,
         udp.setPayload(reply)
 
         val ip = new IPv4
-        ip.setSourceAddress(serverAddr.addr)
+        ip.setSourceAddress(template.serverAddr.addr)
         ip.setDestinationAddress("255.255.255.255")
         ip.setProtocol(UDP.PROTOCOL_NUMBER)
         ip.setPayload(udp)
@@ -859,33 +747,9 @@ class DhcpImpl(val vt: VirtualTopology,
         eth.setEtherType(IPv4.ETHERTYPE)
         eth.setPayload(ip)
 
-        eth.setSourceMACAddress(serverMac)
+        eth.setSourceMACAddress(template.serverMac)
         eth.setDestinationMACAddress(sourceMac)
 
         Some(eth)
     }
-
-    private
-    def setExtraDhcpOptions(host: Host,
-                            optMap: mutable.Map[Byte, DHCPOption]): Unit =
-        for (opt <- host.extraDhcpOptions if host != null) {
-            val dhcpOptOption: Option[DHCPOption] = for {
-                code <- parseDhcpOptionCode(opt.name)
-                option <- CodeToOption.get(code)
-                value <- parseDhcpOptionValue(code, opt.value)
-                if (value.length != 0) &&
-                    (value.length % option.length == 0)
-            } yield new DHCPOption(
-                    code, value.length.toByte, value)
-            if (dhcpOptOption.isDefined) {
-                log.debug(s"Add extra DHCP Option ${opt.name} " +
-                          s"with value ${opt.value}")
-                val dhcpOption = dhcpOptOption.get
-                optMap.put(dhcpOption.getCode, dhcpOption)
-            } else {
-                log.info(s"Invalid DHCP Option: ${opt.name} " +
-                         s"with value ${opt.value}: will be handled as " +
-                         "unknown")
-            }
-        }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.nio.ByteBuffer
+import java.util.{Collections, List => JList}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.duration._
+
+import org.midonet.midolman.topology.devices.Dhcp
+import org.midonet.midolman.topology.devices.Dhcp.{Host, Opt121Route}
+import org.midonet.packets._
+import org.midonet.util.logging.Logger
+
+object DhcpReplyTemplate {
+
+    // TODO(pino): the server MAC should be in configuration.
+    final val ServerMac = MAC.fromString("02:a8:9c:de:39:27")
+
+    final val LeaseTime = (1 day).toSeconds.toInt
+
+    /**
+      * Compiles the reply template for the given DHCP subnet and host. All
+      * option values, including the host extra options, are parsed and
+      * encoded at this time, such that building a reply only requires setting
+      * the per-request fields.
+      */
+    def apply(subnet: Dhcp, host: Host, underlayMtu: Int, configMtu: Int,
+              log: Logger): DhcpReplyTemplate = {
+        val serverAddr =
+            if (subnet.serverAddress ne null) subnet.serverAddress
+            else IPv4Addr.AnyAddress
+        val routerAddr = subnet.defautGateway
+        val yiaddr = host.address
+        val yiAddrMaskLen = subnet.subnetAddress.getPrefixLen
+
+        // NOTES on MTU:
+        // - We should never send a DHCP offer MTU option higher than the
+        //   underlayMtu.
+        // - Subnet mtu takes precedence over global configuration
+        val interfaceMtu = subnet.interfaceMtu match {
+            case 0 => Math.min(configMtu, underlayMtu)
+            case subnetMtu => Math.min(subnetMtu.toInt & 0xffff, underlayMtu)
+        }
+
+        log.debug(s"Compiling DHCP reply template for MAC ${host.mac} " +
+                  s"on subnet ${subnet.id} with MTU $interfaceMtu")
+
+        // Use mutable.HashMap to eliminate the duplication between the
+        // Midolman DHCP extra option handlings and the Neutron ones.
+        val optionMap = mutable.HashMap[Byte, DHCPOption]()
+
+        // TODO(pino): do we need to include the DNS option?
+        optionMap.put(DHCPOption.Code.MASK.value,
+            new DHCPOption(DHCPOption.Code.MASK.value,
+                DHCPOption.Code.MASK.length,
+                IPv4Addr.intToBytes(
+                    ~0 << (32 - yiAddrMaskLen))))
+
+        // Generate the broadcast address... this is nwAddr with 1's in the
+        // last 32-nwAddrLength bits.
+        val mask = ~0 >>> yiAddrMaskLen
+        val bcast = mask | yiaddr.addr
+        optionMap.put(DHCPOption.Code.BCAST_ADDR.value,
+            new DHCPOption(DHCPOption.Code.BCAST_ADDR.value,
+                DHCPOption.Code.BCAST_ADDR.length,
+                IPv4Addr.intToBytes(bcast)))
+        optionMap.put(DHCPOption.Code.IP_LEASE_TIME.value,
+            new DHCPOption(DHCPOption.Code.IP_LEASE_TIME.value,
+                DHCPOption.Code.IP_LEASE_TIME.length,
+                IPv4Addr.intToBytes(LeaseTime)))
+        optionMap.put(DHCPOption.Code.INTERFACE_MTU.value,
+            new DHCPOption(DHCPOption.Code.INTERFACE_MTU.value,
+                DHCPOption.Code.INTERFACE_MTU.length,
+                Array[Byte](((interfaceMtu >> 8) & 0xff).toByte,
+                            (interfaceMtu & 0xff).toByte)))
+        if (routerAddr != null) {
+            optionMap.put(DHCPOption.Code.ROUTER.value,
+                new DHCPOption(DHCPOption.Code.ROUTER.value,
+                    DHCPOption.Code.ROUTER.length,
+                    routerAddr.toBytes))
+        }
+        // in MidoNet the DHCP server is the same as the router
+        optionMap.put(DHCPOption.Code.SERVER_ID.value,
+            new DHCPOption(
+                DHCPOption.Code.SERVER_ID.value,
+                DHCPOption.Code.SERVER_ID.length,
+                serverAddr.toBytes))
+
+        val dnsServerAddrs = Option(subnet.dnsServerAddress)
+            .map(_.asScala.toList).getOrElse(Nil)
+        if (dnsServerAddrs.nonEmpty) {
+            val len = 4 * dnsServerAddrs.length
+            val buffer = ByteBuffer.allocate(len)
+            dnsServerAddrs.foreach { addr => buffer put addr.toBytes }
+            optionMap.put(DHCPOption.Code.DNS.value,
+                new DHCPOption(DHCPOption.Code.DNS.value,
+                    len.toByte, buffer.array))
+        }
+        // If there are classless static routes, add the option.
+        if ((subnet.opt121Routes ne null) && !subnet.opt121Routes.isEmpty) {
+            // Copy the routes, since the subnet is shared by all requests.
+            val opt121Routes = subnet.opt121Routes.asScala.to[mutable.Buffer]
+            if (routerAddr != null) {
+                // According to RFC 3442, if classless routes (option 121) are
+                // being provided, then the router option should be ignored.
+                // In this case we want to provide the default route with
+                // option 121 in addition to option 3.
+                opt121Routes += Opt121Route(
+                    destinationSubnet = IPv4Addr.AnyAddress.subnet(0),
+                    gateway = routerAddr)
+            }
+            val bytes = mutable.ListBuffer[Byte]()
+            opt121Routes foreach { rt => bytes.appendAll(opt121ToByteArray(rt)) }
+            log.debug("Adding Option 121 (classless static routes) with " +
+                      s"${opt121Routes.length} routes")
+            // Finally, construct the classless static routes option
+            optionMap.put(DHCPOption.Code.CLASSLESS_ROUTES.value,
+                new DHCPOption(
+                    DHCPOption.Code.CLASSLESS_ROUTES.value(),
+                    bytes.length.toByte,
+                    bytes.toArray))
+        }
+
+        // Add extra DHCP options. This overwrite the existing DHCP extra option
+        // set already before calling this method.
+        setExtraDhcpOptions(host, optionMap, log)
+
+        new DhcpReplyTemplate(ServerMac, serverAddr, yiaddr, underlayMtu,
+                              configMtu,
+                              options(optionMap, DHCPOption.MsgType.OFFER),
+                              options(optionMap, DHCPOption.MsgType.ACK),
+                              options(optionMap, DHCPOption.MsgType.NAK))
+    }
+
+    /**
+      * Returns the immutable list of options for a reply of the given message
+      * type, including the message type and the END options.
+      */
+    private def options(optionMap: mutable.Map[Byte, DHCPOption],
+                        msgType: DHCPOption.MsgType): JList[DHCPOption] = {
+        val map = optionMap.clone()
+        map.put(DHCPOption.Code.DHCP_TYPE.value,
+                new DHCPOption(DHCPOption.Code.DHCP_TYPE.value,
+                               DHCPOption.Code.DHCP_TYPE.length,
+                               Array[Byte](msgType.value)))
+        val options = new java.util.ArrayList[DHCPOption](map.size + 1)
+        options.addAll(map.values.asJavaCollection)
+        // And finally add the END option.
+        options.add(new DHCPOption(DHCPOption.Code.END.value,
+                                   DHCPOption.Code.END.length, null))
+        Collections.unmodifiableList(options)
+    }
+
+    private def opt121ToByteArray(opt121: Opt121Route): mutable.ListBuffer[Byte] = {
+        val bytes = mutable.ListBuffer[Byte]()
+        // First append the destination subnet's maskLength
+        val maskLen = opt121.destinationSubnet.getPrefixLen.toByte
+        bytes.append(maskLen)
+        // Now append the significant octets of the subnet.
+        val dstBytes = opt121.destinationSubnet.getAddress.toBytes
+        if (maskLen > 0) bytes.append(dstBytes(0))
+        if (maskLen > 8) bytes.append(dstBytes(1))
+        if (maskLen > 16) bytes.append(dstBytes(2))
+        if (maskLen > 24) bytes.append(dstBytes(3))
+        // Now append the 4 octets of the gateway.
+        val gwBytes = opt121.gateway.toBytes
+        bytes.appendAll(gwBytes.toList)
+        bytes
+    }
+
+    private def setExtraDhcpOptions(host: Host,
+                                    optMap: mutable.Map[Byte, DHCPOption],
+                                    log: Logger): Unit = {
+        import DhcpValueParser._
+        if ((host eq null) || (host.extraDhcpOptions eq null)) {
+            return
+        }
+        for (opt <- host.extraDhcpOptions.asScala) {
+            val dhcpOptOption: Option[DHCPOption] = for {
+                code <- parseDhcpOptionCode(opt.name)
+                option <- CodeToOption.get(code)
+                value <- parseDhcpOptionValue(code, opt.value)
+                if (value.length != 0) &&
+                    (value.length % option.length == 0)
+            } yield new DHCPOption(
+                    code, value.length.toByte, value)
+            if (dhcpOptOption.isDefined) {
+                log.debug(s"Add extra DHCP Option ${opt.name} " +
+                          s"with value ${opt.value}")
+                val dhcpOption = dhcpOptOption.get
+                optMap.put(dhcpOption.getCode, dhcpOption)
+            } else {
+                log.info(s"Invalid DHCP Option: ${opt.name} " +
+                         s"with value ${opt.value}: will be handled as " +
+                         "unknown")
+            }
+        }
+    }
+
+}
+
+/**
+  * A precompiled DHCP reply for a host of a DHCP subnet. The template contains
+  * the parsed and encoded option lists for the OFFER, ACK and NAK replies,
+  * which are shared by all replies built from this template.
+  *
+  * Templates are cached by the [[Dhcp]] device, and since a new device is
+  * emitted by the virtual topology whenever the subnet or its hosts change,
+  * the templates of a previous subnet version are never reused. The template
+  * also records the MTU values used to compile the interface MTU option, such
+  * that it is recompiled if the underlay MTU changes.
+  */
+final class DhcpReplyTemplate private(val serverMac: MAC,
+                                      val serverAddr: IPv4Addr,
+                                      val yourAddr: IPv4Addr,
+                                      underlayMtu: Int,
+                                      configMtu: Int,
+                                      offerOptions: JList[DHCPOption],
+                                      ackOptions: JList[DHCPOption],
+                                      nakOptions: JList[DHCPOption]) {
+
+    /**
+      * @return True if the template was compiled for the given MTU values.
+      */
+    def isCompiledFor(underlayMtu: Int, configMtu: Int): Boolean = {
+        this.underlayMtu == underlayMtu && this.configMtu == configMtu
+    }
+
+    /**
+      * @return The options for a reply with the given message type.
+      */
+    def options(msgType: Byte): JList[DHCPOption] = msgType match {
+        case v if v == DHCPOption.MsgType.OFFER.value => offerOptions
+        case v if v == DHCPOption.MsgType.ACK.value => ackOptions
+        case v if v == DHCPOption.MsgType.NAK.value => nakOptions
+        case _ => throw new IllegalArgumentException(
+            s"Unsupported DHCP reply message type $msgType")
+    }
+
+}
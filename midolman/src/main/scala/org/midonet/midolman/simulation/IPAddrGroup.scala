@@ -17,13 +17,15 @@ package org.midonet.midolman.simulation
 
 import java.util.UUID
 
-import org.midonet.packets.IPAddr
+import org.midonet.packets.{IPAddr, IPAddrSet}
 import org.midonet.midolman.topology.VirtualTopology.Device
 
-class IPAddrGroup(val id: UUID, val addrs: Set[IPAddr]) extends Device {
-    def contains(addr: IPAddr) = addrs.contains(addr)
+class IPAddrGroup(val id: UUID, val addrSet: IPAddrSet) extends Device {
+    def this(id: UUID, addrs: Set[IPAddr]) = this(id, IPAddrSet(addrs))
+    def addrs: Set[IPAddr] = addrSet.toSet
+    def contains(addr: IPAddr) = addrSet.contains(addr)
     override def toString =
-        "IPAddrGroup[id=%s, addrs=[%s]]".format(id, addrs.mkString(", "))
+        "IPAddrGroup[id=%s, addrs=[%s]]".format(id, addrSet)
 }
 
 object IPAddrGroup {
@@ -31,6 +33,6 @@ object IPAddrGroup {
      * Added because initializing an immutable set from Java is a pain.
      */
     def fromAddrs(id: UUID, addrs: Array[IPAddr]): IPAddrGroup = {
-        new IPAddrGroup(id, addrs.toSet)
+        new IPAddrGroup(id, IPAddrSet(addrs))
     }
 }
@@ -19,10 +19,13 @@ package org.midonet.midolman.simulation
 import java.lang.{Integer => JInteger}
 import java.util
 import java.util.{ArrayList, Arrays, UUID}
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 
 import scala.collection.JavaConversions._
 
+import com.codahale.metrics.Timer
+
 import org.slf4j.LoggerFactory
 
 import org.midonet.midolman._
@@ -42,6 +45,7 @@ import org.midonet.sdn.flows.FlowTagger.{FlowStateTag, FlowTag}
 import org.midonet.sdn.flows.VirtualAction.{Decap, Encap}
 import org.midonet.util.Clearable
 import org.midonet.util.collection.ArrayListUtil
+import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.functors.Callback0
 import org.midonet.util.logging.Logger
 
@@ -383,6 +387,33 @@ trait Fip64TranslationContext extends Clearable {
     }
 }
 
+/**
+ * Measures the latency of the [[SimulationStage]]s for the sampled packets.
+ * The stage timers are set only for the sampled packets, such that the
+ * timing of the packets that are not sampled costs a null check per stage.
+ */
+trait StageTimingContext {
+    var stageTimers: Array[Timer] = null
+    var ingressStageStart = 0L
+
+    def isStageTimed: Boolean = stageTimers ne null
+
+    def stageStart(): Long =
+        if (stageTimers ne null) NanoClock.DEFAULT.tick else 0L
+
+    def stageEnd(stage: Int, start: Long): Unit = {
+        if (stageTimers ne null) {
+            stageTimers(stage).update(NanoClock.DEFAULT.tick - start,
+                                      TimeUnit.NANOSECONDS)
+        }
+    }
+
+    def resetStageTimingContext(): Unit = {
+        stageTimers = null
+        ingressStageStart = 0L
+    }
+}
+
 /**
  * The PacketContext represents the simulation of a packet traversing the
  * virtual topology. Since a simulation runs-to-completion, always in the
@@ -395,7 +426,8 @@ class PacketContext extends Clearable
         with RedirectContext
         with Fip64TranslationContext
         with RecordedContext
-        with StateContext {
+        with StateContext
+        with StageTimingContext {
     var log = PacketContext.defaultLog
 
     def jlog = log.underlying
@@ -481,6 +513,7 @@ class PacketContext extends Clearable
         resetRecordedContext()
         resetStateContext()
         resetFip64TranslationContext()
+        resetStageTimingContext()
 
         this.log = PacketContext.defaultLog
         this.idle = true
@@ -242,7 +242,16 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
     //  5. port device
     private val continueIn = ContinueWith(context => {
         val dev = device
-        dev.continue(context, dev.process(context))
+        if (context.isStageTimed) {
+            context.stageEnd(SimulationStage.IngressPort,
+                             context.ingressStageStart)
+            val start = context.stageStart()
+            val result = dev.process(context)
+            context.stageEnd(SimulationStage.forDevice(dev), start)
+            dev.continue(context, result)
+        } else {
+            dev.continue(context, dev.process(context))
+        }
     })
 
     private val mirrorAndContinueIn: SimStep =
@@ -301,6 +310,7 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
             ErrorDrop
         } else {
             context.devicesTraversed += 1
+            context.ingressStageStart = context.stageStart()
             ingressCommon(context)
         }
     }
@@ -471,7 +471,9 @@ class Router(override val id: UUID,
         val ipMatch = new FlowMatch()
                       .setNetworkDst(packet.getDestinationIPAddress)
                       .setNetworkSrc(packet.getSourceIPAddress)
+        val start = context.stageStart()
         val rt: Route = routeBalancer.lookup(ipMatch, context.log)
+        context.stageEnd(SimulationStage.RouteLookup, start)
         if (rt == null || rt.nextHop != Route.NextHop.PORT)
             return false
         if (rt.nextHopPort == null)
@@ -299,7 +299,9 @@ abstract class RouterBase[IP <: IPAddr]()
         }
 
         def applyRoutingTable(): (Route, SimulationResult) = {
+            val start = context.stageStart()
             val rt: Route = routeBalancer.lookup(fmatch, context.log)
+            context.stageEnd(SimulationStage.RouteLookup, start)
 
             if (rt == null) {
                 // No route to network
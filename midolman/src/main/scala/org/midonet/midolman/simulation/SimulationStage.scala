@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+/**
+  * The simulation stages whose latency is measured for the packets sampled
+  * by the `stage_latency_sampling` setting. The latency of a stage includes
+  * the latency of the stages nested within it: for example, the ingress port
+  * stage includes the evaluation of the port inbound chains.
+  */
+object SimulationStage {
+
+    /** The ingress port, from ingress until the packet reaches its device. */
+    final val IngressPort = 0
+    /** The processing of a packet by a bridge. */
+    final val Bridge = 1
+    /** The processing of a packet by a router. */
+    final val Router = 2
+    /** The evaluation of a filter chain, including its jump chains. */
+    final val Chain = 3
+    /** The lookup of a route in a router routing table. */
+    final val RouteLookup = 4
+    /** The allocation of a SNAT binding by the NAT leaser. */
+    final val NatLeasing = 5
+    /** The replication of the flow state of a packet. */
+    final val FlowStateReplication = 6
+    /** The handoff of a packet to the datapath output channel. */
+    final val Handoff = 7
+
+    final val StageCount = 8
+    final val StageNames = Array("ingressPort", "bridge", "router", "chain",
+                                 "routeLookup", "natLeasing",
+                                 "flowStateReplication", "handoff")
+
+    /** Returns the stage of the given forwarding device. */
+    def forDevice(device: ForwardingDevice): Int = device match {
+        case _: Bridge => Bridge
+        case _ => Router
+    }
+
+}
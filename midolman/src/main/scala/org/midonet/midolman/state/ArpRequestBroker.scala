@@ -15,9 +15,9 @@
  */
 package org.midonet.midolman.state
 
-import java.lang.{Long => JLong}
 import java.util
-import java.util.{ArrayDeque, Comparator, PriorityQueue, UUID}
+import java.util.UUID
+import java.util.concurrent.TimeUnit.MILLISECONDS
 
 import scala.annotation.tailrec
 import scala.concurrent.{Future, Promise}
@@ -35,6 +35,7 @@ import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.simulation._
 import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
 import org.midonet.sdn.flows.FlowTagger
+import org.midonet.util.collection.TimerWheel
 import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.functors.makeAction1
 
@@ -60,6 +61,10 @@ object ArpRequestBroker {
     val RETRY_MAX_BASE_JITTER: Double = 1.25
     val RETRY_JITTER_GAP: Double = RETRY_MAX_BASE_JITTER - RETRY_MIN_BASE_JITTER
     val RETRY_JITTER_INCREMENT: Double = 0.1
+
+    /** The resolution of the ARP timers of a broker that uses its own timer
+      * wheel. */
+    val TickNanos = MILLISECONDS.toNanos(1)
 }
 
 /**
@@ -77,14 +82,27 @@ object ArpRequestBroker {
  * agents may decide to ARP at the same time for the IP address. To reduce
  * this effect outside of the 1st ARP request, the implementation introduces
  * jitter to the staleness and ARP retry intervals.
+ *
+ * The ARP retries and the expirations of the written entries are scheduled in
+ * a [[TimerWheel]] using the ticks of the given clock. The wheel may be shared
+ * with the simulation thread, in which case its owner advances the wheel.
+ * Otherwise the broker uses its own wheel, which `process` advances.
  */
 class ArpRequestBroker(config: MidolmanConfig,
                        backChannel: SimulationBackChannel,
-                       clock: NanoClock = NanoClock.DEFAULT)
+                       clock: NanoClock = NanoClock.DEFAULT,
+                       timers: TimerWheel[Runnable] = null)
     extends MidolmanLogging {
 
+    import ArpRequestBroker._
+
     override def logSource = "org.midonet.devices.router.arp-table"
 
+    private val ownTimers = timers eq null
+    private val wheel =
+        if (ownTimers) new TimerWheel[Runnable](TickNanos, clock.tick)
+        else timers
+
     private val brokers = new util.HashMap[UUID, SingleRouterArpRequestBroker]()
 
     def numRouters = brokers.size
@@ -94,7 +112,7 @@ class ArpRequestBroker(config: MidolmanConfig,
             case null =>
                 log.debug(s"Building new ARP request broker for router ${router.id}")
                 val broker = new SingleRouterArpRequestBroker(router.id,
-                        router.arpCache, config, backChannel, clock)
+                        router.arpCache, config, backChannel, clock, wheel)
                 brokers.put(router.id, broker)
                 broker
             case broker => broker
@@ -138,11 +156,14 @@ class ArpRequestBroker(config: MidolmanConfig,
         while (tables.hasNext) {
             tables.next().process()
         }
+        if (ownTimers) {
+            wheel.advance(clock.tick, TimerWheel.RunTask)
+        }
     }
 
     def shouldProcess(): Boolean = {
         val tables = brokers.values.iterator()
-        var should = false
+        var should = ownTimers && clock.tick >= wheel.nextDeadline
         while (tables.hasNext && !should) {
             val next = tables.next()
             should = should || next.shouldProcess()
@@ -155,7 +176,8 @@ class SingleRouterArpRequestBroker(id: UUID,
                                    arpCache: ArpCache,
                                    config: MidolmanConfig,
                                    backChannel: SimulationBackChannel,
-                                   clock: NanoClock = NanoClock.DEFAULT)
+                                   clock: NanoClock,
+                                   timers: TimerWheel[Runnable])
     extends MidolmanLogging {
 
     import ArpRequestBroker._
@@ -165,10 +187,6 @@ class SingleRouterArpRequestBroker(id: UUID,
 
     private val random = new Random()
 
-    private val LOOP_COMPARE = new Comparator[ArpLoop] {
-        override def compare(a: ArpLoop, b: ArpLoop) = JLong.compare(a.nextTry, b.nextTry)
-    }
-
     /*
      * Set of IPv4 addresses we are currently ARP'ing for. Used as a guard
      * against the initiation of multiple ARP request loops.
@@ -176,25 +194,16 @@ class SingleRouterArpRequestBroker(id: UUID,
     private val arpLoops = new util.HashSet[IPv4Addr]()
 
     /*
-     * Priority queue of currently active ARP request loops, ordered by
-     * time to their next retry. It will be checked periodically to emit
-     * any pending ARP request or expire any timed out loops.
+     * Number of pending ARP entry expirations. They are scheduled in the
+     * timer wheel for all the arp entries created by this ArpRequestBroker.
+     * In other words, entries for which set() was called on this specific
+     * instance. This instance is responsible for the expiration of the entries
+     * it has itself created. It does not need to worry about other entries
+     * because they are ephemeral and guaranteed to disappear if other nodes
+     * fail. The active ARP request loops are likewise scheduled in the timer
+     * wheel at the time of their next retry.
      */
-    private val arpLoopQ = new PriorityQueue[ArpLoop](32, LOOP_COMPARE)
-    /*
-     * Guarantee arpLoopQ will never be empty
-     */
-    arpLoopQ.add(ImmortalLoop)
-
-    /*
-     * Queue of ARP entry expirations. It contains in FIFO order, all the
-     * arp entries created by this ArpRequestBroker. In other words, entries
-     * for which set() was called on this specific instance. This instance is
-     * responsible for the expiration of the entries it has itself created. It
-     * does not need to worry about other entries because they are ephemeral
-     * and guaranteed to disappear if other nodes fail.
-     */
-    private val expiryQ = new ArrayDeque[(Long, IPv4Addr)]()
+    private var pendingExpirations = 0
 
     /*
      * Unfulfilled MAC promises for all packets that had to be suspended because
@@ -235,29 +244,18 @@ class SingleRouterArpRequestBroker(id: UUID,
      * there are no entries in the expiry queue and there are no MAC promises
      * awaiting fulfillment.
      */
-    def isIdle: Boolean = arpLoops.isEmpty && expiryQ.isEmpty && arpWaiters.isEmpty
+    def isIdle: Boolean =
+        arpLoops.isEmpty && pendingExpirations == 0 && arpWaiters.isEmpty
 
     /*
-     * Checks back-channels (which are private, but exist) and runs all
-     * ARP table book keeping tasks. Including expiries and ARP request
-     * generation.
+     * Checks back-channels (which are private, but exist). The expiries and
+     * the ARP request retries run when the timer wheel advances.
      */
     def process(): Unit = {
         processNewMacs()
-        processArpLoops()
-        processExpirations()
-    }
-
-    @volatile
-    private var nextEvent = Long.MaxValue
-
-    private def updateNextEvent() = {
-        nextEvent = arpLoopQ.peek().nextTry
     }
 
-    def shouldProcess(): Boolean = (!macsDiscovered.isEmpty) || (clock.timeMillis >= nextEvent)
-
-    private def arpLoopIsReady: Boolean = arpLoopQ.peek().nextTry < clock.timeMillis
+    def shouldProcess(): Boolean = !macsDiscovered.isEmpty
 
     /*
      * Queries the ARP table, returning a MAC or throwing a NotYetException
@@ -291,14 +289,11 @@ class SingleRouterArpRequestBroker(id: UUID,
         if (port.portAddress4 eq null)
             return
 
-        val loop = new ArpLoop(ip, port, cookie)
-
         val arp = makeArpRequest(port.portMac, port.portAddress4.getAddress, ip)
         backChannel.tell(GeneratedLogicalPacket(port.id, arp, cookie))
 
         arpLoops.add(ip)
-        arpLoopQ.add(loop)
-        updateNextEvent()
+        new ArpLoop(ip, port, cookie).tick()
     }
 
     /**
@@ -317,7 +312,8 @@ class SingleRouterArpRequestBroker(id: UUID,
             val entry = new ArpEntry(mac, now + config.arptable.expiration,
                                                now + config.arptable.stale, 0)
             arpCache.add(ip, entry)
-            expiryQ.add((entry.expiry, ip))
+            pendingExpirations += 1
+            new Expiration(ip, entry.expiry).schedule(config.arptable.expiration)
         }
     }
 
@@ -331,46 +327,6 @@ class SingleRouterArpRequestBroker(id: UUID,
             waitForArpEntry(ip)
     }
 
-    private def processExpirations() {
-        while ((!expiryQ.isEmpty) && (expiryQ.peek()._1 <= clock.timeMillis)) {
-            val (_, ip) = expiryQ.poll()
-            val entry = arpCache.get(ip)
-
-            /* This is racy because the remove() op is not CAS.
-             * This means we could delete an entry written just now by another
-             * node that refreshed the arp cache entry. The result would be
-             * that MidoNet would have to ARP again, and in this case the race
-             * would not be possible because there would be no expirer to
-             * race with the writer. */
-            if ((entry ne null) && (entry.expiry <= clock.timeMillis))
-                arpCache.remove(ip)
-        }
-    }
-
-    private def processArpLoops() {
-        while (arpLoopIsReady) {
-            val loop = arpLoopQ.poll()
-            val entry = arpCache.get(loop.ip)
-
-            if (upToDate(entry)) {
-                arpLoops.remove(loop.ip)
-                keepPromises(loop.ip, entry.mac)
-            } else if (loop.timedOut) {
-                arpLoops.remove(loop.ip)
-                breakPromises(loop.ip)
-            } else {
-                val arp = makeArpRequest(loop.port.portMac,
-                                         loop.port.portAddress4.getAddress,
-                                         loop.ip)
-                backChannel.tell(
-                    GeneratedLogicalPacket(loop.port.id, arp, loop.cookie))
-                loop.tick()
-                arpLoopQ.add(loop)
-            }
-        }
-        updateNextEvent()
-    }
-
     private def breakPromises(ip: IPv4Addr) {
         val waiters = arpWaiters.removeAll(ip).iterator()
         while (waiters.hasNext)
@@ -407,30 +363,75 @@ class SingleRouterArpRequestBroker(id: UUID,
             { arp.req mac srcMac -> eth_zero ip srcIp --> dstIp}
     }
 
-    class ArpLoop(val ip: IPv4Addr, val port: RouterPort, val cookie: Long) {
-        private val timeout = clock.timeMillis + config.arptable.timeout
+    /*
+     * Expires the ARP entry this broker wrote with the given expiry time. The
+     * expiry is in wall-clock milliseconds, as written to the ARP table, while
+     * the timer runs on the clock ticks: if the timer fires before the entry
+     * expires, the expiration is rescheduled for the remaining time.
+     */
+    private final class Expiration(ip: IPv4Addr, expiry: Long) extends Runnable {
+
+        def schedule(delayMillis: Long): Unit = {
+            timers.schedule(this, clock.tick + MILLISECONDS.toNanos(delayMillis))
+        }
+
+        override def run(): Unit = {
+            val entry = arpCache.get(ip)
+            val now = clock.timeMillis
+
+            /* This is racy because the remove() op is not CAS.
+             * This means we could delete an entry written just now by another
+             * node that refreshed the arp cache entry. The result would be
+             * that MidoNet would have to ARP again, and in this case the race
+             * would not be possible because there would be no expirer to
+             * race with the writer. */
+            if ((entry ne null) && (entry.expiry <= now)) {
+                pendingExpirations -= 1
+                arpCache.remove(ip)
+            } else if ((entry ne null) && (entry.expiry == expiry)) {
+                schedule(expiry - now)
+            } else {
+                pendingExpirations -= 1
+            }
+        }
+    }
+
+    private final class ArpLoop(val ip: IPv4Addr, val port: RouterPort,
+                                val cookie: Long) extends Runnable {
+        private val timeout =
+            clock.tick + MILLISECONDS.toNanos(config.arptable.timeout)
 
         private val baseJitter = random.nextDouble() * RETRY_JITTER_GAP + RETRY_MIN_BASE_JITTER
         private var retries = -1
 
         private def jitter: Double = baseJitter + retries * RETRY_JITTER_INCREMENT
 
-        var _nextTry: Long = 0L
-        def nextTry = _nextTry
-
-        def tick() {
+        /*
+         * Schedules the next retry of this loop.
+         */
+        def tick(): Unit = {
             retries += 1
-            _nextTry = clock.timeMillis + (config.arptable.retryInterval * jitter).toLong
+            val retryInterval = (config.arptable.retryInterval * jitter).toLong
+            timers.schedule(this, clock.tick + MILLISECONDS.toNanos(retryInterval))
         }
 
-        tick()
+        def timedOut: Boolean = clock.tick >= timeout
 
-        def timedOut: Boolean = clock.timeMillis >= timeout
-    }
+        override def run(): Unit = {
+            val entry = arpCache.get(ip)
 
-    object ImmortalLoop extends ArpLoop(IPv4Addr.fromString("255.255.255.255" ), null, -1) {
-        override val nextTry = Long.MaxValue
-        override def tick() {}
-        override def timedOut = false
+            if (upToDate(entry)) {
+                arpLoops.remove(ip)
+                keepPromises(ip, entry.mac)
+            } else if (timedOut) {
+                arpLoops.remove(ip)
+                breakPromises(ip)
+            } else {
+                val arp = makeArpRequest(port.portMac,
+                                         port.portAddress4.getAddress, ip)
+                backChannel.tell(GeneratedLogicalPacket(port.id, arp, cookie))
+                tick()
+            }
+        }
     }
 }
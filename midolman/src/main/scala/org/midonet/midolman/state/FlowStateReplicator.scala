@@ -18,7 +18,7 @@ package org.midonet.midolman.state
 
 import java.net.{DatagramPacket, DatagramSocket, InetAddress}
 import java.nio.ByteBuffer
-import java.util.{ArrayList, Collection, UUID, HashSet => JHashSet, Iterator => JIterator, Set => JSet}
+import java.util.{ArrayDeque, ArrayList, Collection, UUID, HashSet => JHashSet, Iterator => JIterator, Set => JSet}
 
 import scala.util.control.NonFatal
 
@@ -113,6 +113,10 @@ class FlowStateReplicator(
 
     private[state] var localPushState = midolmanConfig.flowState.localPushState
 
+    /* Flow state imported from storage, pending insertion */
+    private val importBatchSize = midolmanConfig.flowState.importBatchSize
+    private val pendingImports = new ArrayDeque[PendingImport]()
+
     val conntrackKeySerializer = new ConnTrackKeySerializer
     val conntrackCbId = cbRegistry.registerCallback(
         new SerializableCallback() {
@@ -186,30 +190,95 @@ class FlowStateReplicator(
         }
     }
 
-    def importFromStorage(batch: FlowStateBatch) {
-        importConnTrack(batch.strongConnTrack.iterator(), ConnTrackState.RETURN_FLOW)
-        importConnTrack(batch.weakConnTrack.iterator(), ConnTrackState.RETURN_FLOW)
-        importNat(batch.strongNat.entrySet().iterator())
-        importNat(batch.weakNat.entrySet().iterator())
+    /**
+     * Queues the flow state imported from storage, and imports immediately
+     * up to `flow_state.import_batch_size` entries. The remaining entries are
+     * imported with subsequent calls to [[importPending()]], such that the
+     * import of the state of a migrated port does not stall the processing
+     * of packets by the worker. Returns the number of imported entries.
+     *
+     * EXPECTED CALLING THREADS: only the packet processing thread that owns
+     * this replicator.
+     */
+    def importFromStorage(batch: FlowStateBatch): Int = {
+        pendingImports.add(new PendingImport(batch))
+        importPending()
+    }
+
+    /**
+     * Whether there is flow state imported from storage that is pending
+     * insertion into the flow state tables.
+     */
+    def hasPendingImports: Boolean = !pendingImports.isEmpty
+
+    /**
+     * Imports up to `flow_state.import_batch_size` pending flow state entries
+     * into the flow state tables, in the order in which their batches were
+     * received. Returns the number of imported entries.
+     */
+    def importPending(): Int = {
+        var count = 0
+        while (count < importBatchSize && !pendingImports.isEmpty) {
+            val pending = pendingImports.peek()
+            count += pending.importEntries(importBatchSize - count)
+            if (pending.isDone) {
+                pendingImports.poll()
+            }
+        }
+        count
     }
 
-    private def importConnTrack(keys: JIterator[ConnTrackKey], v: ConnTrackState.ConnTrackValue) {
-        while (keys.hasNext) {
+    private def importConnTrack(keys: JIterator[ConnTrackKey],
+                                v: ConnTrackState.ConnTrackValue,
+                                limit: Int): Int = {
+        var count = 0
+        while (count < limit && keys.hasNext) {
             val k = keys.next()
             log.debug("importing state key from storage: {}", k)
             conntrackTable.putAndRef(k, v)
             conntrackTable.unref(k)
             flowInvalidation.invalidateFlowsFor(k)
+            count += 1
         }
+        count
     }
 
-    private def importNat(entries: JIterator[java.util.Map.Entry[NatKey, NatBinding]]) {
-        while (entries.hasNext) {
+    private def importNat(entries: JIterator[java.util.Map.Entry[NatKey, NatBinding]],
+                          limit: Int): Int = {
+        var count = 0
+        while (count < limit && entries.hasNext) {
             val e = entries.next()
             log.debug("importing state key from storage: {}", e.getKey)
             natTable.putAndRef(e.getKey, e.getValue)
             natTable.unref(e.getKey)
             flowInvalidation.invalidateFlowsFor(e.getKey)
+            count += 1
+        }
+        count
+    }
+
+    /**
+     * The import progress of a flow state batch received from storage.
+     */
+    private final class PendingImport(batch: FlowStateBatch) {
+        private val strongConnTrack = batch.strongConnTrack.iterator()
+        private val weakConnTrack = batch.weakConnTrack.iterator()
+        private val strongNat = batch.strongNat.entrySet().iterator()
+        private val weakNat = batch.weakNat.entrySet().iterator()
+
+        def importEntries(limit: Int): Int = {
+            var count = importConnTrack(strongConnTrack,
+                                        ConnTrackState.RETURN_FLOW, limit)
+            count += importConnTrack(weakConnTrack,
+                                     ConnTrackState.RETURN_FLOW, limit - count)
+            count += importNat(strongNat, limit - count)
+            count += importNat(weakNat, limit - count)
+            count
+        }
+
+        def isDone: Boolean = {
+            !strongConnTrack.hasNext && !weakConnTrack.hasNext &&
+            !strongNat.hasNext && !weakNat.hasNext
         }
     }
 
@@ -23,7 +23,7 @@ import java.util.concurrent.ThreadLocalRandom
 import com.google.common.hash.Hashing
 
 import org.midonet.midolman.rules.NatTarget
-import org.midonet.midolman.simulation.PacketContext
+import org.midonet.midolman.simulation.{PacketContext, SimulationStage}
 import org.midonet.midolman.state.FlowState.FlowStateKey
 import org.midonet.midolman.state.NatState._
 import org.midonet.odp.FlowMatch
@@ -591,8 +591,12 @@ trait NatState extends FlowState { this: PacketContext =>
             val nat = chooseRandomNatTarget(nats)
             NatBinding(chooseRandomIp(nat), key.transportDst)
         } else if (key.keyType eq FWD_SNAT) {
-            natLeaser.allocateNatBinding(key.deviceId, key.networkDst,
-                                         key.transportDst, nats)
+            val start = stageStart()
+            val binding = natLeaser.allocateNatBinding(key.deviceId,
+                                                       key.networkDst,
+                                                       key.transportDst, nats)
+            stageEnd(SimulationStage.NatLeasing, start)
+            binding
         } else {
             val nat = chooseRandomNatTarget(nats)
             NatBinding(chooseRandomIp(nat), chooseRandomPort(nat))
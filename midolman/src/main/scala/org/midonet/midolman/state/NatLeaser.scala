@@ -40,7 +40,7 @@ object NatLeaser {
     private val BLOCK_MULT = Integer.numberOfTrailingZeros(BLOCK_SIZE)
     private val BLOCK_MASK = BLOCK_SIZE - 1
     val BLOCK_EXPIRATION = 5 minutes
-    private val OBLITERATION_CYCLE = (1 minute).toNanos
+    val OBLITERATION_CYCLE = (1 minute).toNanos
 
     private def blend(ip: IPv4Addr, port: Int): Long =
         (ip.toInt.toLong << 32) | port
@@ -80,6 +80,30 @@ object TraceState {
 
     type TraceKey = TraceKeyStore with FlowStateKey
 
+    /**
+      * Decides whether a flow is traced for a trace request, when the request
+      * has the given sampling probability. The decision is a deterministic
+      * function of the trace request identifier and the hash of the flow
+      * trace key, such that either all or none of the packets of a flow are
+      * traced, and different trace requests matching the same flow sample
+      * independently.
+      */
+    def sample(traceRequestId: UUID, flowHash: Long,
+               probability: Double): Boolean = {
+        if (probability >= 1.0) return true
+        if (probability <= 0.0) return false
+        var hash = traceRequestId.getMostSignificantBits * 31 +
+                   traceRequestId.getLeastSignificantBits
+        hash = hash * 31 + flowHash
+        // Murmur3 finalizer.
+        hash ^= hash >>> 33
+        hash *= 0xff51afd7ed558ccdL
+        hash ^= hash >>> 33
+        hash *= 0xc4ceb9fe1a85ec53L
+        hash ^= hash >>> 33
+        (hash >>> 11) * (1.0 / (1L << 53)) < probability
+    }
+
     class TraceContext(var flowTraceId: UUID = UUIDs.timeBased()) {
         var _enabled = false
         val requests: List[UUID] = new ArrayList[UUID](1)
@@ -159,6 +183,16 @@ trait TraceState extends FlowState { this: PacketContext =>
         traceContext.enabled && traceContext.containsRequest(traceRequestId)
     }
 
+    /**
+      * Returns true if the flow of this packet context is sampled for the
+      * given trace request, with the sampling probability of the request.
+      */
+    def tracingSampled(traceRequestId: UUID, probability: Double): Boolean = {
+        (probability >= 1.0) ||
+            sample(traceRequestId, TraceKey.fromFlowMatch(origMatch).toLongHash,
+                   probability)
+    }
+
     /**
       * Enable tracing for a context and add traceRequestId to the
       * list of trace requests for the context. Returns true if the trace
@@ -42,6 +42,7 @@ import org.midonet.midolman.CallbackRegistry.{CallbackId, CallbackSpec, Serializ
 import org.midonet.midolman.simulation.Bridge.{MacFlowCount, RemoveFlowCallbackGenerator, UntaggedVlanId}
 import org.midonet.midolman.simulation.{Bridge => SimulationBridge, _}
 import org.midonet.midolman.state.ReplicatedMap
+import org.midonet.midolman.topology.VirtualTopology.Partition
 import org.midonet.packets.{IPAddr, IPv4Addr, MAC}
 import org.midonet.sdn.flows.FlowTagger.{tagForArpRequests, tagForBridgePort, tagForBroadcast, tagForFloodedFlowsByDstMac, tagForVlanPort}
 import org.midonet.util.collection.Reducer
@@ -58,12 +59,15 @@ object BridgeMapper {
      * when calling the complete() method, which is used to signal that a port
      * no longer belongs to a bridge.
      */
-    private class PortState[D >: Null <: Port](val portId: UUID)
+    private class PortState[D >: Null <: Port](val portId: UUID,
+                                               vt: VirtualTopology,
+                                               partition: Partition)
                                               (implicit tag: ClassTag[D]){
 
-        def this(id: UUID, peerPortState: LocalPortState)
+        def this(id: UUID, vt: VirtualTopology, partition: Partition,
+                 peerPortState: LocalPortState)
                 (implicit tag: ClassTag[D]) = {
-            this(id)(tag)
+            this(id, vt, partition)(tag)
             currentPeer = peerPortState
         }
 
@@ -71,7 +75,7 @@ object BridgeMapper {
         private var currentPeer: PortState[_ <: Port] = null
         private val mark = PublishSubject.create[Port]()
 
-        val observable = VirtualTopology.observable(classOf[Port], portId)
+        val observable = vt.observableOf(classOf[Port], portId, partition)
             .doOnNext(makeAction1(port => currentPort = port))
             .takeUntil(mark)
 
@@ -303,8 +307,10 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
     override def logSource = "org.midonet.devices.bridge"
     override def logMark = s"bridge:$bridgeId"
 
-    private val mirrorsTracker = new ObjectReferenceTracker(vt, classOf[Mirror], log)
-    private val chainsTracker = new ObjectReferenceTracker(vt, classOf[Chain], log)
+    private val mirrorsTracker =
+        new ObjectReferenceTracker(vt, classOf[Mirror], log, partition)
+    private val chainsTracker =
+        new ObjectReferenceTracker(vt, classOf[Chain], log, partition)
     private var bridge: TopologyBridge = null
     private val localPorts = new mutable.HashMap[UUID, LocalPortState]
     private val peerPorts = new mutable.HashMap[UUID, PeerPortState]
@@ -354,7 +360,7 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
             vt.config.bridge.macPortMappingExpiry, // Initial delay
             2000L, // Update interval
             MILLISECONDS, // Time unit
-            vt.vtScheduler)
+            partition.scheduler)
         .subscribe(makeAction1(onMacExpirationTimer), makeAction1(onThrow))
 
     // A subject that emits updates when the bridge state table have loaded.
@@ -382,7 +388,7 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
     //                           +-----------------------+
     private lazy val stateTableObservable = Observable
         .merge(stateTableSubject)
-        .observeOn(vt.vtScheduler)
+        .observeOn(partition.scheduler)
         .map[TopologyBridge](makeFunc1(stateTableReady))
     private lazy val portsObservable = Observable
         .merge(portsSubject)
@@ -390,7 +396,7 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
         .map[TopologyBridge](makeFunc1(portUpdated))
     private lazy val bridgeObservable = vt.store
         .observable(classOf[TopologyBridge], bridgeId)
-        .observeOn(vt.vtScheduler)
+        .observeOn(partition.scheduler)
         .doOnCompleted(makeAction0(bridgeDeleted()))
         .doOnNext(makeAction1(bridgeUpdated))
     private lazy val deviceObservable = Observable
@@ -524,7 +530,7 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
         // on the ports observable.
         val addedPorts = new mutable.MutableList[PortState[_]]
         for (portId <- portIds if !localPorts.contains(portId)) {
-            val portState = new LocalPortState(portId)
+            val portState = new LocalPortState(portId, vt, partition)
             localPorts += portId -> portState
             addedPorts += portState
         }
@@ -714,7 +720,8 @@ final class BridgeMapper(bridgeId: UUID, override val vt: VirtualTopology,
         if (null != port.peerId && !peerPorts.contains(port.peerId)) {
             log.debug("New peer port {} for local port {}", port.peerId,
                       port.id)
-            val peerPortState = new PeerPortState(port.peerId, portState)
+            val peerPortState =
+                new PeerPortState(port.peerId, vt, partition, portState)
             peerPorts += port.peerId -> peerPortState
             portState setPeer peerPortState
             portsSubject onNext peerPortState.observable
@@ -34,6 +34,7 @@ import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.rules.{JumpRule, Rule => SimRule}
 import org.midonet.midolman.simulation.{RuleLogger, Chain => SimChain, IPAddrGroup => SimIPAddrGroup}
 import org.midonet.midolman.topology.ChainMapper.{IpAddressGroupState, RuleState}
+import org.midonet.midolman.topology.VirtualTopology.Partition
 import org.midonet.util.functors.{makeAction0, makeAction1, makeFunc1}
 import org.midonet.logging.rule.RuleLogEventBinarySerialization.encodeMetadata
 
@@ -45,8 +46,10 @@ object ChainMapper {
      *
      * @param ruleId The id of the rule we want to start observing.
      * @param vt The virtual topology object.
+     * @param partition The virtual topology partition of the chain.
      */
-    private final class RuleState(val ruleId: UUID, vt: VirtualTopology)
+    private final class RuleState(val ruleId: UUID, vt: VirtualTopology,
+                                  partition: Partition)
             extends MidolmanLogging {
         override def logSource = "org.midonet.devices.rule"
         override def logMark = s"rule:$ruleId"
@@ -69,7 +72,7 @@ object ChainMapper {
 
         /** The observable emitting Rule updates. */
         val observable = vt.store.observable(classOf[TopologyRule],ruleId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .onErrorResumeNext(notFoundHandler)
             .takeUntil(mark)
             .map[RuleState](makeFunc1(ruleUpdated))
@@ -106,9 +109,11 @@ object ChainMapper {
      * @param ipAddrGroupId The id of the IP address group we want to
      *                      start observing.
      * @param vt The virtual topology object.
+     * @param partition The virtual topology partition of the chain.
      */
     final class IpAddressGroupState(ipAddrGroupId: UUID,
-                                    vt: VirtualTopology) {
+                                    vt: VirtualTopology,
+                                    partition: Partition) {
         /** The number of rules that reference this IP address group. */
         var refCount = 1
 
@@ -116,8 +121,8 @@ object ChainMapper {
         private val mark = PublishSubject.create[SimIPAddrGroup]()
 
         /** The observable emitting IP address group updates. */
-        val observable = VirtualTopology
-            .observable(classOf[SimIPAddrGroup], ipAddrGroupId)
+        val observable = vt
+            .observableOf(classOf[SimIPAddrGroup], ipAddrGroupId, partition)
             .doOnNext(makeAction1(currentIpAddrGroup = _))
             .takeUntil(mark)
 
@@ -141,7 +146,8 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
     override def logMark = s"chain:$chainId"
 
     private var chainProto: TopologyChain = TopologyChain.newBuilder.build()
-    private val refTracker = new ObjectReferenceTracker(vt, classOf[SimChain], log)
+    private val refTracker =
+        new ObjectReferenceTracker(vt, classOf[SimChain], log, partition)
 
     // The stream of rules that belong to this chain
     private val ruleStream = PublishSubject.create[Observable[RuleState]]()
@@ -159,7 +165,7 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
     private val ipAddrGroups = new mutable.HashMap[UUID, IpAddressGroupState]()
 
     private val ruleLoggerTracker =
-        new ObjectReferenceTracker(vt, classOf[RuleLogger], log)
+        new ObjectReferenceTracker(vt, classOf[RuleLogger], log, partition)
 
     private def subscribeToJumpChain(jumpChainId: UUID): Unit = {
         jumpChains get jumpChainId match {
@@ -197,7 +203,8 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
                 None
             case None =>
                 log.debug("Subscribing to IP address group: {}", ipAddrGroupId)
-                val ipAddrGroupState = new IpAddressGroupState(ipAddrGroupId, vt)
+                val ipAddrGroupState =
+                    new IpAddressGroupState(ipAddrGroupId, vt, partition)
                 ipAddrGroups += ipAddrGroupId -> ipAddrGroupState
                 Some(ipAddrGroupState)
         }
@@ -227,7 +234,7 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
         val addedRules = new mutable.MutableList[RuleState]
         for (ruleId <- ruleIds if !rules.contains(ruleId)) {
             log.debug("Subscribing to rule: {}", ruleId)
-            val ruleState = new RuleState(ruleId, vt)
+            val ruleState = new RuleState(ruleId, vt, partition)
             rules += ruleId -> ruleState
             addedRules += ruleState
         }
@@ -396,7 +403,7 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
 
     private lazy val chainObservable =
         vt.store.observable(classOf[TopologyChain], chainId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .map[TopologyChain](makeFunc1(chainUpdated))
             .doOnCompleted(makeAction0(chainDeleted()))
 
@@ -441,7 +448,8 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
                                    (t: Throwable) => {
                                        traceChainMap.get(chainId) match {
                                            case Some(subject) =>
-                                               subject.doOnTerminate(
+                                               vt.confine(subject, partition)
+                                                 .doOnTerminate(
                                                    makeAction0(chainDeleted()))
                                            case None => throw t
                                        }
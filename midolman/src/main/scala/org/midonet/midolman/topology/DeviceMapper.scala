@@ -33,7 +33,7 @@ import org.midonet.cluster.data.ZoomObject
 import org.midonet.cluster.data.storage.NotFoundException
 import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.topology.DeviceMapper._
-import org.midonet.midolman.topology.VirtualTopology.{Device, Key}
+import org.midonet.midolman.topology.VirtualTopology.{Device, Key, Partition}
 import org.midonet.util.functors._
 import org.midonet.util.logging.Logger
 
@@ -130,6 +130,9 @@ object DeviceMapper {
  *  - all subscribers correspond to a single subscription to storage
  *  - the [[DeviceMapper]] observer can execute the custom actions before
  *    subscribers are notified.
+ *
+ * Every mapper is confined to the thread of its virtual topology
+ * [[Partition]], selected by the device identifier.
  */
 abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
                                          val vt: VirtualTopology)
@@ -138,6 +141,8 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     import DeviceMapper.MapperClosedException
 
     private final val key = Key(clazz, id)
+    /** The virtual topology partition of this mapper. */
+    protected[topology] final lazy val partition: Partition = vt.partitionOf(id)
     private final var state = MapperState.Unsubscribed
     private final val cache = BehaviorSubject.create[D]()
     private final val subscriber = Subscribers.from(cache)
@@ -158,7 +163,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     protected def observable: Observable[D]
 
     override final def call(child: Subscriber[_ >: D]): Unit =
-        vt.vtExecutor.submit(makeRunnable {
+        partition.executor.submit(makeRunnable {
             if (!handleSubscriptionIfTerminal(child)) {
                 if (state == MapperState.Unsubscribed) {
                     state = MapperState.Subscribed
@@ -221,11 +226,18 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     protected def onDeviceChanged(device: D): Unit = {}
 
     /**
-     * Checks that this method is executed on the same thread as the one used
-     * during the initialization of the mapper.
+     * Checks that this method is executed on the thread of the mapper
+     * partition.
      */
     @throws[DeviceMapperException]
-    @inline protected def assertThread(): Unit = vt.assertThread()
+    @inline protected def assertThread(): Unit = vt.assertThread(partition)
+
+    /**
+     * Returns the observable of a virtual topology device, which emits
+     * notifications on the thread of the mapper partition.
+     */
+    protected def topologyObservable[T <: Device](clazz: Class[T], id: UUID)
+    : Observable[T] = vt.observableOf(clazz, id, partition)
 
     /**
      * Synchronize devices with the new list of deviceIds. Complete and remove
@@ -277,8 +289,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
             onError: (UUID, Throwable) => Observable[T] =
                 (id: UUID, e: Throwable) => Observable.error[T](e)): Unit = {
         updateDeviceState(deviceIds, devices, devicesObserver) { id =>
-            new DeviceState[T](id, VirtualTopology
-                .observable[T](clazz, id)
+            new DeviceState[T](id, topologyObservable[T](clazz, id)
                 .doOnCompleted(makeAction0 { onCompleted(id) })
                 .onErrorResumeNext(makeFunc1 { e: Throwable => onError(id, e) }))
         }
@@ -296,7 +307,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
             new DeviceState[T](id, vt.store
                 .observable(uClass, id)
                 .distinctUntilChanged()
-                .observeOn(vt.vtScheduler)
+                .observeOn(partition.scheduler)
                 .map[T](makeFunc1(fromProto[T, U](_, tClass))))
         }
     }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import org.midonet.cluster.data.ZoomConvert
+import org.midonet.cluster.models.Topology
+import org.midonet.midolman.topology.devices.Dhcp
+import org.midonet.util.functors.makeFunc1
+
+/**
+ * This mapper offers an observable of a DHCP subnet simulation object of a
+ * given id. The DHCP subnet is obtained from Zoom as a protocol buffer and
+ * converted into the corresponding simulation object using ZoomConvert. Every
+ * update of the subnet emits a new object, which discards the DHCP reply
+ * templates compiled for the previous version.
+ */
+final class DhcpMapper(id: UUID, vt: VirtualTopology)
+    extends DeviceMapper(classOf[Dhcp], id, vt) {
+
+    override def logSource = "org.midonet.devices.dhcp"
+    override def logMark = s"dhcp:$id"
+
+    protected override val observable =
+        vt.store.observable(classOf[Topology.Dhcp], id)
+            .map[Dhcp](makeFunc1(ZoomConvert.fromProto(_, classOf[Dhcp])))
+            .observeOn(partition.scheduler)
+            .distinctUntilChanged()
+
+}
@@ -16,14 +16,17 @@
 
 package org.midonet.midolman.topology
 
+import java.util
 import java.util.UUID
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
 
 import org.midonet.cluster.models.Topology.{IPAddrGroup => TopologyIPAddrGroup}
 import org.midonet.cluster.util.IPAddressUtil._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.simulation.{IPAddrGroup => SimIPAddrGroup}
+import org.midonet.packets.{IPAddr, IPAddrSet}
 import org.midonet.util.functors.makeFunc1
 
 class IPAddrGroupMapper(addrGroupId: UUID, vt: VirtualTopology) extends
@@ -32,16 +35,37 @@ class IPAddrGroupMapper(addrGroupId: UUID, vt: VirtualTopology) extends
     override def logSource = "org.midonet.devices.ip-group"
     override def logMark = s"ip-group:$addrGroupId"
 
-    private def build(ipAddGroup: TopologyIPAddrGroup)
+    // The addresses of the last group update, used to update the address set
+    // only with the addresses added and removed by the next update. The
+    // addresses are compared as parsed values, such that different spellings
+    // of the same address are the same member.
+    private var members = new util.HashSet[IPAddr]()
+    private var addrSet = IPAddrSet.Empty
+
+    private def build(ipAddrGroup: TopologyIPAddrGroup)
     : SimIPAddrGroup = {
-        val addrs = ipAddGroup.getIpAddrPortsList.asScala.map(ipAddrPort =>
-            toIPAddr(ipAddrPort.getIpAddress)
-        ).toSet
-        new SimIPAddrGroup(ipAddGroup.getId.asJava, addrs)
+        val current = new util.HashSet[IPAddr](
+            ipAddrGroup.getIpAddrPortsCount * 2)
+        val added = new ArrayBuffer[IPAddr]
+        for (ipAddrPort <- ipAddrGroup.getIpAddrPortsList.asScala) {
+            val address = toIPAddr(ipAddrPort.getIpAddress)
+            if (current.add(address) && !members.contains(address)) {
+                added += address
+            }
+        }
+        val removed = new ArrayBuffer[IPAddr]
+        if (members.size + added.size > current.size) {
+            for (address <- members.asScala if !current.contains(address)) {
+                removed += address
+            }
+        }
+        members = current
+        addrSet = addrSet.updated(added, removed)
+        new SimIPAddrGroup(ipAddrGroup.getId.asJava, addrSet)
     }
 
     protected override lazy val observable =
         vt.store.observable(classOf[TopologyIPAddrGroup], addrGroupId)
             .map[SimIPAddrGroup](makeFunc1(build))
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
 }
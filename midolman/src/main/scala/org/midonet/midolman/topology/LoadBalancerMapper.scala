@@ -52,7 +52,7 @@ final class LoadBalancerMapper(loadBalancerId: UUID, vt: VirtualTopology)
 
     private lazy val loadBalancerObservable = vt.store
         .observable[TopologyLb](classOf[TopologyLb], loadBalancerId)
-        .observeOn(vt.vtScheduler)
+        .observeOn(partition.scheduler)
         .doOnCompleted(makeAction0(loadBalancerDeleted()))
         .doOnNext(makeAction1(loadBalancerUpdated))
 
@@ -39,7 +39,7 @@ final class MirrorMapper(id: UUID, vt: VirtualTopology)
     private var mirrorProto: TopologyMirror = TopologyMirror.newBuilder.build()
 
     private val addressGroupsTracker =
-        new ObjectReferenceTracker(vt, classOf[SimIPAddrGroup], log)
+        new ObjectReferenceTracker(vt, classOf[SimIPAddrGroup], log, partition)
 
     private def mirrorUpdated(mirror: TopologyMirror): TopologyMirror = {
         assertThread()
@@ -95,7 +95,7 @@ final class MirrorMapper(id: UUID, vt: VirtualTopology)
 
     private lazy val mirrorObservable =
         vt.store.observable(classOf[TopologyMirror], id)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .map[TopologyMirror](makeFunc1(mirrorUpdated))
             .doOnCompleted(makeAction0(mirrorDeleted()))
 
@@ -27,7 +27,7 @@ import rx.Observable
 import rx.subjects.PublishSubject
 
 import org.midonet.cluster.data.storage.StateKey
-import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.midolman.topology.VirtualTopology.{Device, Partition}
 import org.midonet.util.functors.makeAction1
 import org.midonet.util.logging.Logger
 
@@ -55,10 +55,12 @@ abstract class ObjectReferenceTrackerBase[D >: Null, StateType <: ObjectStateBas
                                          (clazz: Class[D], log: Logger) {
 
     val vt: VirtualTopology
+    /** The virtual topology partition on which the tracker is used. */
+    val partition: Partition
     protected def newState(id: UUID): StateType
 
     @throws[DeviceMapperException]
-    @inline private def assertThread(): Unit = vt.assertThread()
+    @inline private def assertThread(): Unit = vt.assertThread(partition)
 
     private val refsSubject = PublishSubject.create[Observable[D]]
     private val refs = new mutable.HashMap[UUID, StateType]
@@ -140,57 +142,74 @@ abstract class ObjectReferenceTrackerBase[D >: Null, StateType <: ObjectStateBas
     final val refsObservable: Observable[D] = Observable.merge(refsSubject)
 }
 
-class TopologyObjectState[D >: Null <: Device](val clazz: Class[D], val id: UUID)
+class TopologyObjectState[D >: Null <: Device](val clazz: Class[D], val id: UUID,
+                                               val vt: VirtualTopology,
+                                               val partition: Partition)
         extends ObjectStateBase[D] {
-    override val observable = VirtualTopology.observable(clazz, id)
+    override val observable = vt.observableOf(clazz, id, partition)
         .doOnNext(makeAction1(currentObj = _))
         .takeUntil(mark)
 }
 
 
 class ObjectReferenceTracker[D >: Null <: Device](override val vt: VirtualTopology,
-                                                  clazz: Class[D], log: Logger)
+                                                  clazz: Class[D], log: Logger,
+                                                  override val partition: Partition)
         extends ObjectReferenceTrackerBase[D, TopologyObjectState[D]](clazz, log) {
 
-    override def newState(id: UUID) = new TopologyObjectState(clazz, id)
+    def this(vt: VirtualTopology, clazz: Class[D], log: Logger) =
+        this(vt, clazz, log, vt.mainPartition)
+
+    override def newState(id: UUID) =
+        new TopologyObjectState(clazz, id, vt, partition)
 }
 
 class StoreObjectState[D >: Null](val clazz: Class[D],
                                   val id: UUID,
-                                  val vt: VirtualTopology)
+                                  val vt: VirtualTopology,
+                                  val partition: Partition)
         extends ObjectStateBase[D] {
     override val observable = vt.store.observable(clazz, id)
-        .observeOn(vt.vtScheduler)
+        .observeOn(partition.scheduler)
         .doOnNext(makeAction1(currentObj = _))
         .takeUntil(mark)
 }
 
 class StoreObjectReferenceTracker[D >: Null](val vt: VirtualTopology,
-                                             clazz: Class[D], log: Logger)
+                                             clazz: Class[D], log: Logger,
+                                             val partition: Partition)
         extends ObjectReferenceTrackerBase[D, StoreObjectState[D]](clazz, log) {
 
+    def this(vt: VirtualTopology, clazz: Class[D], log: Logger) =
+        this(vt, clazz, log, vt.mainPartition)
+
     override def newState(id: UUID) =
-        new StoreObjectState[D](clazz, id, vt)
+        new StoreObjectState[D](clazz, id, vt, partition)
 }
 
 class StateKeyState[D](val clazz: Class[D],
                        val id: UUID,
                        val key: String,
-                       val vt: VirtualTopology)
+                       val vt: VirtualTopology,
+                       val partition: Partition)
         extends ObjectStateBase[StateKey] {
     override val observable: Observable[StateKey] =
         vt.stateStore.keyObservable(clazz, id, key)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .doOnNext(makeAction1(currentObj = _))
             .takeUntil(mark)
 }
 
 class StateKeyReferenceTracker[D >: Null](val vt: VirtualTopology,
                                           clazz: Class[D], key: String,
-                                          log: Logger)
+                                          log: Logger,
+                                          val partition: Partition)
         extends ObjectReferenceTrackerBase[StateKey, StateKeyState[D]](
             classOf[StateKey], log) {
 
+    def this(vt: VirtualTopology, clazz: Class[D], key: String, log: Logger) =
+        this(vt, clazz, key, log, vt.mainPartition)
+
     override protected def newState(id: UUID): StateKeyState[D] =
-        new StateKeyState[D](clazz, id, key, vt)
+        new StateKeyState[D](clazz, id, key, vt, partition)
 }
@@ -92,7 +92,7 @@ class PoolHealthMonitorMapper(vt: VirtualTopology)
             if (healthMonitorId == null) Observable.empty()
             else vt.store
                 .observable(classOf[Proto.HealthMonitor], healthMonitorId)
-                .observeOn(vt.vtScheduler)
+                .observeOn(partition.scheduler)
                 .map[HealthMonitor](updateHealthMonitor)
                 .takeUntil(mark)
                 .doOnCompleted(completeHealthMonitor)
@@ -121,9 +121,9 @@ class PoolHealthMonitorMapper(vt: VirtualTopology)
         /** The load balancer observable */
         val observable: Observable[LoadBalancer] =
             if (loadBalancerId == null) Observable.empty()
-            else VirtualTopology.observable(classOf[LoadBalancer], loadBalancerId)
+            else topologyObservable(classOf[LoadBalancer], loadBalancerId)
                 .onErrorResumeNext(Observable.empty)
-                .observeOn(vt.vtScheduler)
+                .observeOn(partition.scheduler)
                 .doOnNext(updateLoadBalancer)
                 .takeUntil(mark)
                 .doOnCompleted(completeLoadBalancer)
@@ -213,7 +213,7 @@ class PoolHealthMonitorMapper(vt: VirtualTopology)
         lazy val observable =
             Observable.merge[Any](
                 Observable.merge[Any](funnel),
-                VirtualTopology.observable(classOf[Pool], poolId)
+                topologyObservable(classOf[Pool], poolId)
                     .onErrorResumeNext(Observable.empty())
                     .doOnCompleted(completion)
             )
@@ -264,7 +264,7 @@ class PoolHealthMonitorMapper(vt: VirtualTopology)
         Observable.merge[Any](
             Observable.merge[PoolHealthMonitorEntry](updateSubject),
             poolIdObservable)
-        .observeOn(vt.vtScheduler)
+        .observeOn(partition.scheduler)
         .map[PoolHealthMonitorMap](processUpdate)
         .startWith(PoolHealthMonitorMap(Map.empty))
         .distinctUntilChanged()
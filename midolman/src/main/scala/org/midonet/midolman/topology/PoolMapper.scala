@@ -68,7 +68,7 @@ final class PoolMapper(poolId: UUID, vt: VirtualTopology)
     // Tracks pool member status via the VT's StateStorage.
     private val memberStatusTracker =
         new StateKeyReferenceTracker[TopologyPoolMember](
-            vt, classOf[TopologyPoolMember], StatusKey, log)
+            vt, classOf[TopologyPoolMember], StatusKey, log, partition)
     private val memberStatusObservable = memberStatusTracker.refsObservable
         .map[TopologyPool](makeFunc1 { sk =>
             assertThread()
@@ -88,7 +88,7 @@ final class PoolMapper(poolId: UUID, vt: VirtualTopology)
 
     private lazy val poolObservable = vt.store
         .observable(classOf[TopologyPool], poolId)
-        .observeOn(vt.vtScheduler)
+        .observeOn(partition.scheduler)
         .doOnCompleted(makeAction0(poolDeleted()))
         .doOnNext(makeAction1(poolUpdated))
 
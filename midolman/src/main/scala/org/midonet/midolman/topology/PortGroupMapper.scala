@@ -39,7 +39,7 @@ class PortGroupMapper(id: UUID, vt: VirtualTopology)
             .map[SimulationPortGroup](makeFunc1(toSimPortGroup))
             .doOnNext(makeAction1(
                           (pg: SimulationPortGroup) => vt.invalidate(pg.flowStateTag)))
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
 
     private def toSimPortGroup(pg: TopologyPortGroup): SimulationPortGroup =
         new SimulationPortGroup(pg.getId, pg.getName, pg.getStateful, pg.getPortIdsList)
@@ -74,17 +74,19 @@ final class PortMapper(id: UUID, vt: VirtualTopology,
     private var prevActive: Boolean = false
 
     private val chainsTracker =
-        new ObjectReferenceTracker(vt, classOf[Chain], log)
+        new ObjectReferenceTracker(vt, classOf[Chain], log, partition)
     private val mirrorsTracker =
-        new ObjectReferenceTracker(vt, classOf[Mirror], log)
+        new ObjectReferenceTracker(vt, classOf[Mirror], log, partition)
     private val qosPolicyTracker =
-        new ObjectReferenceTracker(vt, classOf[QosPolicy], log)
+        new ObjectReferenceTracker(vt, classOf[QosPolicy], log, partition)
     private val bridgeTracker =
-        new StoreObjectReferenceTracker(vt, classOf[Network], log)
+        new StoreObjectReferenceTracker(vt, classOf[Network], log, partition)
     private val l2insertionsTracker =
-        new StoreObjectReferenceTracker(vt, classOf[L2Insertion], log)
+        new StoreObjectReferenceTracker(vt, classOf[L2Insertion], log,
+                                        partition)
     private val natRuleTracker =
-        new StoreObjectReferenceTracker(vt, classOf[TopologyRule], log)
+        new StoreObjectReferenceTracker(vt, classOf[TopologyRule],
+                                        log, partition)
     private var peeringTable: StateTable[MAC, IPv4Addr] = StateTable.empty
 
     private def buildPort(ignored: AnyRef): SimulationPort = {
@@ -115,14 +117,14 @@ final class PortMapper(id: UUID, vt: VirtualTopology,
 
     private lazy val portObservable =
         vt.store.observable(classOf[TopologyPort], id)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .doOnNext(makeAction1(topologyPortUpdated))
             .doOnCompleted(makeAction0(portDeleted()))
             .distinctUntilChanged()
 
     private lazy val portStateObservable =
         vt.stateStore.portStateObservable(id, portStateSubject)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .doOnNext(makeAction1(portState = _))
             .onErrorResumeNext(Observable.empty())
 
@@ -43,14 +43,16 @@ class QosPolicyMapper(id: UUID, vt: VirtualTopology)
     override def logMark: String = s"qos-policy:$id"
 
     private val bandwidthRuleTracker =
-        new StoreObjectReferenceTracker(vt, classOf[QosRuleBandwidthLimit], log)
+        new StoreObjectReferenceTracker(vt, classOf[QosRuleBandwidthLimit],
+                                        log, partition)
     private val dscpRuleTracker =
-        new StoreObjectReferenceTracker(vt, classOf[QosRuleDscp], log)
+        new StoreObjectReferenceTracker(vt, classOf[QosRuleDscp],
+                                        log, partition)
 
     private var qosPolicy: QosPolicy = _
     private val qosPolicyObservable =
         vt.store.observable(classOf[QosPolicy], id)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .doOnCompleted(makeAction0(qosPolicyDeleted()))
             .doOnNext(makeAction1(qosPolicyUpdated))
 
@@ -58,7 +60,7 @@ class QosPolicyMapper(id: UUID, vt: VirtualTopology)
         Observable.merge[AnyRef](bandwidthRuleTracker.refsObservable,
                                  dscpRuleTracker.refsObservable,
                                  qosPolicyObservable)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .filter(makeFunc1(isReady))
             .map[SimQosPolicy](makeFunc1(buildQosPolicy))
             .distinctUntilChanged()
@@ -40,6 +40,7 @@ import org.midonet.midolman.simulation.{Chain, LoadBalancer, Mirror, RouterPort,
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
 import org.midonet.midolman.state.ArpCache
 import org.midonet.midolman.topology.RouterMapper._
+import org.midonet.midolman.topology.VirtualTopology.Partition
 import org.midonet.odp.FlowMatch
 import org.midonet.packets.{IPAddr, IPv4Addr}
 import org.midonet.util.collection.IPv4InvalidationArray
@@ -74,6 +75,7 @@ object RouterMapper {
     private class PortState(portId: UUID,
                             vniMap: mutable.HashMap[Int, UUID],
                             vt: VirtualTopology,
+                            partition: Partition,
                             log: Logger) {
 
         @Nullable private var currentPort: RouterPort = null
@@ -92,15 +94,15 @@ object RouterMapper {
         private val portStateSubject = PublishSubject.create[UUID]
         private var portStateReady = false
 
-        private val portObservable = VirtualTopology
-            .observable(classOf[RouterPort], portId)
+        private val portObservable = vt
+            .observableOf(classOf[RouterPort], portId, partition)
             .map[RouteUpdates](makeFunc1(portUpdated))
         private val routesObservable = Observable
             .merge(routesSubject)
             .map[RouteUpdates](makeFunc1(routeUpdated))
         private val learnedRoutesObservable = vt.stateStore
             .portRoutesObservable(portId, portStateSubject)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .map[RouteUpdates](makeFunc1(learnedRoutesUpdated))
 
         // The output observable for this port state. It merges the
@@ -155,7 +157,7 @@ object RouterMapper {
          * - If the port was and remains inactive, then do not emit any updates.
          */
         private def portUpdated(port: RouterPort): RouteUpdates = {
-            vt.assertThread()
+            vt.assertThread(partition)
 
             log.debug("Router port updated: {}", port)
 
@@ -194,7 +196,7 @@ object RouterMapper {
             // observable on the routes observable.
             val addedRoutes = new mutable.MutableList[RouteState]
             for (routeId <- port.routeIds if !routes.contains(routeId)) {
-                val routeState = new RouteState(routeId, vt, log)
+                val routeState = new RouteState(routeId, vt, partition, log)
                 routes += routeId -> routeState
                 addedRoutes += routeState
             }
@@ -224,7 +226,7 @@ object RouterMapper {
         /** A method called when a route is updated. It publishes routes if the
           * port is interior, or exterior and active. */
         private def routeUpdated(updates: RouteUpdates): RouteUpdates = {
-            vt.assertThread()
+            vt.assertThread(partition)
             log.debug("Port route updated: {}", updates)
 
             if (updates eq EmptyRouteUpdates) {
@@ -243,7 +245,7 @@ object RouterMapper {
           * and this one, and returns a [[RouteUpdates]] instance with the
           * difference. */
         private def learnedRoutesUpdated(routes: Set[Route]): RouteUpdates = {
-            vt.assertThread()
+            vt.assertThread(partition)
             log.debug("Learned port routes updated: {} routes",
                       Int.box(routes.size))
             portStateReady = true
@@ -287,13 +289,13 @@ object RouterMapper {
      * used to signal that the route is no longer used by the router or port.
      */
     private class RouteState(val routeId: UUID, vt: VirtualTopology,
-                             log: Logger) {
+                             partition: Partition, log: Logger) {
 
         @Nullable private var currentRoute: Route = null
         private val mark = PublishSubject.create[RouteUpdates]
 
         val observable = vt.store.observable(classOf[TopologyRoute], routeId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .flatMap[RouteUpdates](makeFunc1(routeUpdated))
             .onErrorResumeNext(makeFunc1(routeError))
             .takeUntil(mark)
@@ -358,13 +360,15 @@ object RouterMapper {
      * complete() method, which is used to signal that the load-balancer is no
      * longer used by the router.
      */
-    private class LoadBalancerState(val loadBalancerId: UUID, log: Logger) {
+    private class LoadBalancerState(val loadBalancerId: UUID,
+                                    vt: VirtualTopology, partition: Partition,
+                                    log: Logger) {
 
         private var currentLoadBalancer: LoadBalancer = null
         private val mark = PublishSubject.create[LoadBalancer]
 
-        val observable = VirtualTopology
-            .observable(classOf[LoadBalancer], loadBalancerId)
+        val observable = vt
+            .observableOf(classOf[LoadBalancer], loadBalancerId, partition)
             .onErrorResumeNext(DeviceMapper.handleException(loadBalancerId,
                                                             !isReady, log))
             .doOnNext(makeAction1(currentLoadBalancer = _))
@@ -460,8 +464,10 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         }
     }
 
-    private val chainsTracker = new ObjectReferenceTracker(vt, classOf[Chain], log)
-    private val mirrorsTracker = new ObjectReferenceTracker(vt, classOf[Mirror], log)
+    private val chainsTracker =
+        new ObjectReferenceTracker(vt, classOf[Chain], log, partition)
+    private val mirrorsTracker =
+        new ObjectReferenceTracker(vt, classOf[Mirror], log, partition)
 
     private lazy val mark =
         PublishSubject.create[Config]
@@ -474,7 +480,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
 
     private lazy val routerObservable =
         vt.store.observable(classOf[TopologyRouter], routerId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .doOnCompleted(makeAction0(routerDeleted()))
             .doOnError(makeAction1(routerError))
             .map[Config](makeFunc1(routerUpdated))
@@ -636,7 +642,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         // on the ports observable.
         val addedPorts = new mutable.MutableList[PortState]
         for (portId <- portIds if !ports.contains(portId)) {
-            val portState = new PortState(portId, vniToPort, vt, log)
+            val portState = new PortState(portId, vniToPort, vt, partition, log)
             ports += portId -> portState
             addedPorts += portState
         }
@@ -666,7 +672,8 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         // Create a new load-balancer state and notify its observable on the
         // load-balancer subject.
         if ((loadBalancer eq null) && (cfg.loadBalancer ne null)) {
-            loadBalancer = new LoadBalancerState(cfg.loadBalancer, log)
+            loadBalancer = new LoadBalancerState(cfg.loadBalancer, vt,
+                                                 partition, log)
             loadBalancerSubject onNext loadBalancer.observable
         }
 
@@ -684,7 +691,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         // the local routes map.
         val addedRoutes = new mutable.MutableList[RouteState]
         for (routeId <- routeIds if !localRoutes.contains(routeId)) {
-            val routeState = new RouteState(routeId, vt, log)
+            val routeState = new RouteState(routeId, vt, partition, log)
             localRoutes += routeId -> routeState
             addedRoutes += routeState
         }
@@ -38,12 +38,13 @@ class RuleLoggerMapper(id: UUID, vt: VirtualTopology)
     override def logMark: String = s"rule-logger:$id"
 
     private val logResTracker =
-        new StoreObjectReferenceTracker(vt, classOf[LoggingResource], log)
+        new StoreObjectReferenceTracker(vt, classOf[LoggingResource],
+                                        log, partition)
 
     private var ruleLogger: RuleLogger = null
     private val ruleLoggerObservable =
         vt.store.observable(classOf[RuleLogger], id)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .doOnCompleted(makeAction0(ruleLoggerDeleted()))
             .doOnNext(makeAction1(ruleLoggerUpdated))
 
@@ -54,7 +55,7 @@ class RuleLoggerMapper(id: UUID, vt: VirtualTopology)
     // the LogResource update isn't dropped.
     override val observable: Observable[SimRuleLogger] =
         Observable.merge(logResTracker.refsObservable, ruleLoggerObservable)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .filter(makeFunc1(isReady))
             .map[SimRuleLogger](makeFunc1(build))
             .distinctUntilChanged()
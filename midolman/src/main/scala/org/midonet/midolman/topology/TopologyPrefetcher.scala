@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConverters._
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success}
+
+import com.google.common.util.concurrent.AbstractService
+
+import rx.Subscription
+
+import org.midonet.cluster.models.Topology.{Network => TopologyNetwork, Router => TopologyRouter}
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.midolman.simulation.{Bridge, Chain, LoadBalancer, Port, Router, RouterPort}
+import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.midolman.topology.devices.{Host, TunnelZone}
+import org.midonet.util.functors.makeAction1
+import org.midonet.util.reactivex._
+
+object TopologyPrefetcher {
+
+    /** A reference to a device to prefetch, at a given distance in hops from
+      * the ports bound to the local host. */
+    private case class Ref(clazz: Class[_ <: Device], id: UUID, depth: Int)
+
+}
+
+/**
+  * Preloads the virtual devices reachable from the ports bound to the local
+  * host, such that after an agent restart the first packets of every path do
+  * not wait in the [[org.midonet.midolman.WaitingRoom]] while the devices
+  * are loaded from storage.
+  *
+  * Upon every host update, the prefetcher walks the topology in breadth first
+  * order starting from the newly bound ports and the host tunnel zones, up to
+  * `max_depth` hops and `max_devices` devices per walk, loading at most
+  * `parallelism` devices at the same time. The walk follows the peer ports,
+  * the bridges and routers of every port, their ports and filter chains, and
+  * the router load balancers. The chain mappers load the jump chains and IP
+  * address groups, and the load balancer mappers load the pools, such that
+  * these are prefetched together with the devices that reference them.
+  *
+  * The loaded devices are cached by the virtual topology, and the prefetcher
+  * does not hold any subscription to them. The state of the prefetcher is
+  * confined to the virtual topology thread.
+  */
+class TopologyPrefetcher(vt: VirtualTopology, hostId: UUID)
+    extends AbstractService with MidolmanLogging {
+
+    import TopologyPrefetcher._
+
+    override def logSource = "org.midonet.devices.prefetch"
+
+    private val config = vt.config.topologyPrefetch
+    private implicit val ec = ExecutionContext.fromExecutor(vt.vtExecutor)
+
+    private val visited = new util.HashSet[UUID]
+    private val pending = new util.ArrayDeque[Ref]
+    private var inFlight = 0
+    private var budget = 0
+    private var loaded = 0
+    private var startTime = 0L
+    private var subscription: Subscription = null
+
+    override def doStart(): Unit = {
+        if (config.enabled) {
+            subscription = VirtualTopology.observable(classOf[Host], hostId)
+                .subscribe(makeAction1(hostUpdated), makeAction1(hostError))
+        }
+        notifyStarted()
+    }
+
+    override def doStop(): Unit = {
+        if (subscription ne null) {
+            subscription.unsubscribe()
+            subscription = null
+        }
+        notifyStopped()
+    }
+
+    private def hostUpdated(host: Host): Unit = {
+        vt.assertThread()
+        if (!isRunning) {
+            return
+        }
+        for (portId <- host.portBindings.keys) {
+            enqueue(classOf[Port], portId, depth = 0)
+        }
+        for (tunnelZoneId <- host.tunnelZones.keys) {
+            enqueue(classOf[TunnelZone], tunnelZoneId, depth = 1)
+        }
+        if (startTime == 0L && !pending.isEmpty) {
+            log.debug(s"Prefetching topology of ${host.portBindings.size} " +
+                      "local ports")
+            budget = config.maxDevices
+            loaded = 0
+            startTime = System.nanoTime()
+        }
+        drain()
+    }
+
+    private def hostError(e: Throwable): Unit = {
+        log.warn("Host {} error: topology prefetch stopped", hostId, e)
+    }
+
+    private def enqueue(clazz: Class[_ <: Device], id: UUID, depth: Int): Unit = {
+        if ((id ne null) && depth <= config.maxDepth && visited.add(id)) {
+            pending.add(Ref(clazz, id, depth))
+        }
+    }
+
+    private def enqueueAll(clazz: Class[_ <: Device], ids: util.List[UUID],
+                           depth: Int): Unit = {
+        var index = 0
+        while (index < ids.size()) {
+            enqueue(clazz, ids.get(index), depth)
+            index += 1
+        }
+    }
+
+    /**
+      * Loads the pending devices while the number of devices in flight is
+      * below the configured parallelism and the walk has budget left.
+      */
+    private def drain(): Unit = {
+        while (inFlight < config.parallelism && budget > 0 &&
+               !pending.isEmpty) {
+            val ref = pending.poll()
+            budget -= 1
+            inFlight += 1
+            prefetch(ref) onComplete { result =>
+                inFlight -= 1
+                result match {
+                    case Success(_) => loaded += 1
+                    case Failure(e) =>
+                        log.debug("Failed to prefetch device {}/{}",
+                                  ref.clazz.getSimpleName, ref.id, e)
+                }
+                if (isRunning) drain()
+            }
+        }
+        if (inFlight == 0 && startTime != 0L) {
+            complete()
+        }
+    }
+
+    /**
+      * Completes the current walk. The devices that did not fit in the
+      * budget are removed from the visited set, such that a subsequent walk
+      * may load them.
+      */
+    private def complete(): Unit = {
+        while (!pending.isEmpty) {
+            visited.remove(pending.poll().id)
+        }
+        log.info(s"Prefetched $loaded devices in " +
+                 s"${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)} ms")
+        startTime = 0L
+    }
+
+    /**
+      * Loads a device and enqueues the devices it references.
+      */
+    private def prefetch(ref: Ref): Future[Device] = {
+        val depth = ref.depth + 1
+        vt.get[Device](ref.clazz.asInstanceOf[Class[Device]], ref.id) flatMap {
+            case port: Port =>
+                enqueue(classOf[Port], port.peerId, depth)
+                port match {
+                    case _: RouterPort =>
+                        enqueue(classOf[Router], port.deviceId, depth)
+                    case _ =>
+                        enqueue(classOf[Bridge], port.deviceId, depth)
+                }
+                enqueueAll(classOf[Chain], port.inboundFilters, depth)
+                enqueueAll(classOf[Chain], port.outboundFilters, depth)
+                Future.successful(port)
+            case bridge: Bridge =>
+                enqueueAll(classOf[Chain], bridge.inboundFilters, depth)
+                enqueueAll(classOf[Chain], bridge.outboundFilters, depth)
+                vt.store.observable(classOf[TopologyNetwork], bridge.id)
+                    .take(1).asFuture map { network =>
+                        for (portId <- network.getPortIdsList.asScala) {
+                            enqueue(classOf[Port], portId.asJava, depth)
+                        }
+                        bridge
+                    }
+            case router: Router =>
+                enqueueAll(classOf[Chain], router.cfg.inboundFilters, depth)
+                enqueueAll(classOf[Chain], router.cfg.outboundFilters, depth)
+                enqueue(classOf[LoadBalancer], router.cfg.loadBalancer, depth)
+                vt.store.observable(classOf[TopologyRouter], router.id)
+                    .take(1).asFuture map { r =>
+                        for (portId <- r.getPortIdsList.asScala) {
+                            enqueue(classOf[Port], portId.asJava, depth)
+                        }
+                        router
+                    }
+            case device =>
+                Future.successful(device)
+        }
+    }
+
+}
@@ -68,7 +68,7 @@ trait TraceRequestChainMapper[D <: VirtualDevice] {
     class TraceRequestState(id: UUID) {
         private val mark = PublishSubject.create[TraceRequest]()
         val observable = vt.store.observable(classOf[TraceRequest], id)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .takeUntil(mark)
             .map[TraceRequest](makeFunc1(makeRule))
 
@@ -77,7 +77,7 @@ trait TraceRequestChainMapper[D <: VirtualDevice] {
                                                   classOf[Condition])
             if (tr.getEnabled) {
                 rule = new TraceRule(tr.getId, condition, tr.getLimit,
-                                     traceChainId)
+                                     tr.getSamplingProbability, traceChainId)
                 enabled = true
             } else {
                 enabled = false
@@ -172,7 +172,7 @@ trait TraceRequestChainMapper[D <: VirtualDevice] {
     protected lazy val traceChainObservable =
         Observable.merge[Any](Observable.merge(retriggerObs),
                               Observable.merge(traceRulesObs))
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .filter(makeFunc1(isReadyToBuild))
             .map[TraceChain](makeFunc1(makeTraceChain))
             .map[Option[UUID]](makeFunc1(publishAndReturnId))
@@ -37,7 +37,7 @@ final class TunnelZoneMapper(id: UUID, vt: VirtualTopology)
         vt.store.observable(classOf[TunnelZone], id)
             .map[SimTunnelZone](
                 makeFunc1(ZoomConvert.fromProto(_, classOf[SimTunnelZone])))
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .distinctUntilChanged()
 
 }
@@ -17,21 +17,27 @@ package org.midonet.midolman.topology
 
 import java.util
 import java.util.UUID
+import java.lang.{Long => JLong}
 import java.util.concurrent.{Executors, TimeUnit}
 
 import scala.collection.JavaConverters._
 import scala.concurrent.{ExecutionContext, Future, Promise}
 import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
 
 import com.google.common.util.concurrent.Service.State
 import com.google.common.util.concurrent.{AbstractService, ThreadFactoryBuilder}
 
+import org.apache.curator.framework.state.ConnectionState
+import org.apache.curator.framework.state.ConnectionState.RECONNECTED
+
 import rx.Observable.OnSubscribe
 import rx.functions.Func1
 import rx.subjects.PublishSubject
-import rx.{Observable, Subscriber}
+import rx.{Observable, Subscriber, Subscription}
 
 import org.midonet.cluster.data.getIdString
+import org.midonet.cluster.data.storage.StateStorage.NoOwnerId
 import org.midonet.cluster.data.storage.{NotFoundException, StateResult}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.state.PortStateStorage._
@@ -190,6 +196,7 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
 
     private val vxlanPortMappingService = new VxLanPortMappingService(vt)
     private val gatewayMappingService = new GatewayMappingService(vt)
+    private val topologyPrefetcher = new TopologyPrefetcher(vt, hostId)
 
     // Use a private executor to manage the container handlers. Since the
     // container handler perform I/O operations (e.g. create namespaces, etc.)
@@ -212,6 +219,9 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
                              ioExecutor, containerClasses)
 
     private val activePorts = new util.HashMap[UUID, Integer]
+    private val activeTunnelKeys = new util.HashMap[UUID, JLong]
+    private var activePortsOwnerId = NoOwnerId
+    private var connectionSubscription: Subscription = null
     private val portsActiveSubject = PublishSubject.create[LocalPortActive]
     private val portsActiveObservable = Observable.create(new OnSubscribe[LocalPortActive] {
         override def call(child: Subscriber[_ >: LocalPortActive]): Unit = {
@@ -242,6 +252,13 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
             startService(gatewayMappingService, "gateway mapping")
             startService(vxlanPortMappingService, "VXLAN port mapping")
             startService(containersService, "containers")
+            startService(topologyPrefetcher, "topology prefetch")
+            connectionSubscription = backend.connectionState
+                .observeOn(vt.vtScheduler)
+                .subscribe(makeAction1(connectionStateChanged),
+                           makeAction1 { e: Throwable =>
+                               log.warn("Storage connection state error", e)
+                           })
             notifyStarted()
         } catch {
             case NonFatal(e) =>
@@ -252,8 +269,13 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
     }
 
     override def doStop(): Unit = {
+        if (connectionSubscription ne null) {
+            connectionSubscription.unsubscribe()
+            connectionSubscription = null
+        }
         clearPortsActive().await()
 
+        stopService(topologyPrefetcher, "topology prefetch")
         stopService(containersService, "containers")
         stopService(vxlanPortMappingService, "VXLAN port mapping")
         stopService(gatewayMappingService, "gateway mapping")
@@ -337,8 +359,14 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
                              Boolean.box(active), Long.box(result.ownerId))
                    portsActiveSubject onNext LocalPortActive(portId, portNumber,
                                                              active)
-                   if (active) activePorts.putIfAbsent(portId, portNumber)
-                   else activePorts.remove(portId)
+                   if (active) {
+                       activePorts.putIfAbsent(portId, portNumber)
+                       activeTunnelKeys.put(portId, tunnelKey)
+                       activePortsOwnerId = result.ownerId
+                   } else {
+                       activePorts.remove(portId)
+                       activeTunnelKeys.remove(portId)
+                   }
                })
                .doOnError(makeAction1 { e =>
                    log.error("Failed to set port {} active to {}", portId,
@@ -349,21 +377,83 @@ class VirtualToPhysicalMapper(backend: MidonetBackend,
 
     /**
       * Clears the active flag from all current local ports and returns a future
-      * that completes when the update has finished.
+      * that completes when the update has finished. The ports are cleared
+      * with a single batch of state operations.
       */
     private def clearPortsActive(): Future[_] = {
         val promise = Promise[Any]
         vt.vtExecutor.execute(makeRunnable {
-            val futures = for (entry <- activePorts.entrySet().asScala) yield {
-                setPortActive(entry.getKey, entry.getValue, active = false,
-                              tunnelKey = 0L)
-            }
+            val ports = activePorts.asScala.toIndexedSeq
             activePorts.clear()
-            promise.tryCompleteWith(Future.sequence(futures))
+            activeTunnelKeys.clear()
+            val updates = ports.map { case (portId, _) =>
+                PortActiveUpdate(portId, active = false)
+            }
+            promise.tryCompleteWith(
+                setPortsActive(updates) map { results =>
+                    for (((portId, portNumber), Success(_)) <- ports zip results) {
+                        portsActiveSubject onNext LocalPortActive(
+                            portId, portNumber, active = false)
+                    }
+                })
         })
         promise.future
     }
 
+    /**
+      * Sets again all local ports as active when the storage connection is
+      * restored with a different session than the one that set the ports as
+      * active, since the port active keys are ephemeral and were removed with
+      * the expired session. The ports are set in a single batch of state
+      * operations.
+      */
+    private def connectionStateChanged(state: ConnectionState): Unit = {
+        vt.assertThread()
+        if (state != RECONNECTED || activePorts.isEmpty ||
+            backend.stateStore.ownerId == activePortsOwnerId) {
+            return
+        }
+        log.info(s"Storage session changed: setting ${activePorts.size} " +
+                 "local ports active")
+        val updates = activePorts.keySet.asScala.toIndexedSeq.map { portId =>
+            PortActiveUpdate(portId, active = true,
+                             activeTunnelKeys.get(portId).longValue())
+        }
+        setPortsActive(updates) foreach { results =>
+            for ((update, Success(result)) <- updates zip results
+                 if activePorts.containsKey(update.portId)) {
+                activePortsOwnerId = result.ownerId
+            }
+        }
+    }
+
+    /**
+      * Sets a batch of local ports as active or inactive, and returns a
+      * future with the results that completes on the virtual topology
+      * thread. The method logs the failed updates.
+      */
+    private def setPortsActive(updates: Seq[PortActiveUpdate])
+    : Future[Seq[Try[StateResult]]] = {
+        if (updates.isEmpty) {
+            return Future.successful(Seq.empty)
+        }
+        backend.stateStore.setPortsActive(hostId, updates)
+               .observeOn(vt.vtScheduler)
+               .doOnNext(makeAction1 { results: Seq[Try[StateResult]] =>
+                   for ((update, result) <- updates zip results) result match {
+                       case Success(r) =>
+                           log.debug("Port {} active to {} (owner {})",
+                                     update.portId, Boolean.box(update.active),
+                                     Long.box(r.ownerId))
+                       case Failure(e) =>
+                           log.error("Failed to set port {} active to {}",
+                                     update.portId, Boolean.box(update.active),
+                                     e)
+                   }
+               })
+               .asFuture
+    }
+
     /**
       * An observable that emits notifications when the status of a local port
       * has been updated in the backend storage. The observable will not emit
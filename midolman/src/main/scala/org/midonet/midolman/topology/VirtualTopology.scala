@@ -17,9 +17,9 @@ package org.midonet.midolman.topology
 
 import java.util.UUID
 import java.util.concurrent.atomic.AtomicLong
-import java.util.concurrent.{ConcurrentHashMap, ExecutorService, TimeUnit}
+import java.util.concurrent.{ConcurrentHashMap, ExecutorService, ThreadPoolExecutor, TimeUnit}
 
-import scala.collection.mutable
+import scala.collection.concurrent.TrieMap
 import scala.concurrent.Future
 import scala.util.control.NonFatal
 
@@ -27,9 +27,9 @@ import com.codahale.metrics.MetricRegistry
 import com.google.common.annotations.VisibleForTesting
 import com.google.common.util.concurrent.AbstractService
 
-import rx.Observable
 import rx.Observable.OnSubscribe
 import rx.schedulers.Schedulers
+import rx.{Observable, Scheduler}
 import rx.subjects.Subject
 
 import org.midonet.cluster.data.storage.cached.{StorageWrapper, TopologyCacheClientDiscovery}
@@ -67,6 +67,42 @@ object VirtualTopology {
 
     case class Key(clazz: Class[_], id: UUID)
 
+    /**
+     * A partition of the virtual topology device mappers. The mappers are
+     * assigned to a partition by device identifier, and every partition
+     * confines its mappers to the single thread of its executor. The
+     * partition 0 uses the main virtual topology thread.
+     */
+    final class Partition(val index: Int, val executor: ExecutorService,
+                          executorCheck: () => Boolean) {
+        val scheduler: Scheduler = Schedulers.from(executor)
+
+        /** Indicates whether the current thread is the partition thread. */
+        def isCurrentThread: Boolean = executorCheck()
+
+        /** The number of tasks waiting in the partition executor. */
+        def queueDepth: Int = executor match {
+            case e: ThreadPoolExecutor => e.getQueue.size()
+            case _ => 0
+        }
+    }
+
+    /**
+     * Returns a thread check function that accepts only the first thread
+     * on which it is called.
+     */
+    def threadCheck(): () => Boolean = {
+        val threadId = new AtomicLong(-1)
+        () => {
+            if (threadId.get < 0) {
+                threadId.compareAndSet(-1, Thread.currentThread().getId)
+                true
+            } else {
+                threadId.get == Thread.currentThread().getId
+            }
+        }
+    }
+
     private[topology] var self: VirtualTopology = null
 
     @throws[NotYetException]
@@ -87,10 +123,10 @@ object VirtualTopology {
      * Returns an observable for the virtual device with the specified
      * identifier. Upon subscription to this observable, which may complete
      * asynchronously, the subscriber will receive updates with the current
-     * state of the device.
+     * state of the device on the main virtual topology thread.
      */
     def observable[D <: Device](clazz: Class[D], id: UUID): Observable[D] = {
-        self.observableOf(clazz, id)
+        self.observableOf(clazz, id, self.mainPartition)
     }
 
     /**
@@ -161,6 +197,12 @@ object VirtualTopology {
  * +------------------------------------------------+
  * | Port/Network/RouterMapper extends DeviceMapper | (1 per device)
  * +------------------------------------------------+
+ *
+ * The device mappers are partitioned by device identifier across the main
+ * virtual topology executor and the additional `partitionExecutors`, where
+ * each partition is confined to a single thread. A mapper that composes the
+ * observable of a device from a different partition receives its
+ * notifications on its own partition thread.
  */
 class VirtualTopology(val backend: MidonetBackend,
                       val config: MidolmanConfig,
@@ -170,7 +212,8 @@ class VirtualTopology(val backend: MidonetBackend,
                       val vtExecutor: ExecutorService,
                       val ioExecutor: ExecutorService,
                       vtExecutorCheck: () => Boolean,
-                      cbRegistry: CallbackRegistry)
+                      cbRegistry: CallbackRegistry,
+                      partitionExecutors: Seq[ExecutorService] = Seq.empty)
     extends AbstractService
             with MidolmanLogging
             with DefaultRetriable
@@ -180,7 +223,14 @@ class VirtualTopology(val backend: MidonetBackend,
 
     override def logSource = "org.midonet.devices.devices-service"
 
-    private[midolman] val vtScheduler = Schedulers.from(vtExecutor)
+    private[topology] val partitions: IndexedSeq[Partition] =
+        new Partition(0, vtExecutor, vtExecutorCheck) +:
+        partitionExecutors.zipWithIndex.map { case (executor, index) =>
+            new Partition(index + 1, executor, threadCheck())
+        }.toIndexedSeq
+    private[midolman] val mainPartition = partitions(0)
+
+    private[midolman] val vtScheduler = mainPartition.scheduler
     private val worker = vtScheduler.createWorker()
 
     private[topology] val devices =
@@ -195,7 +245,9 @@ class VirtualTopology(val backend: MidonetBackend,
         metricRegistry, { devices.size() }, { observables.size() },
         { cacheHits.get() }, {  cacheMisses.get() })
 
-    private val traceChains = mutable.Map[UUID, Subject[Chain, Chain]]()
+    metrics.registerPartitions(partitions.size, partitions(_).queueDepth)
+
+    private val traceChains = TrieMap[UUID, Subject[Chain, Chain]]()
 
     private val factories = Map[Class[_], DeviceFactory](
         classOf[BgpPort] -> DeviceFactory(
@@ -208,6 +260,8 @@ class VirtualTopology(val backend: MidonetBackend,
             classOf[Port], new PortMapper(_, this, traceChains)),
         classOf[Chain] -> DeviceFactory(
             classOf[Chain], new ChainMapper(_, this, traceChains)),
+        classOf[Dhcp] -> DeviceFactory(
+            classOf[Dhcp], new DhcpMapper(_, this)),
         classOf[Host] -> DeviceFactory(
             classOf[Host], new HostMapper(_, this)),
         classOf[IPAddrGroup] -> DeviceFactory(
@@ -310,6 +364,38 @@ class VirtualTopology(val backend: MidonetBackend,
         notifyStopped()
     }
 
+    /**
+     * Returns the partition of the device mapper with the given identifier.
+     */
+    private[topology] def partitionOf(id: UUID): Partition = {
+        if (partitions.length == 1 || (id eq null)) mainPartition
+        else partitions(Math.abs(id.hashCode % partitions.length))
+    }
+
+    /**
+     * Returns an observable for the virtual device with the specified
+     * identifier, which emits notifications on the thread of the given
+     * partition.
+     */
+    private[topology] def observableOf[D <: Device](clazz: Class[D], id: UUID,
+                                                    partition: Partition)
+    : Observable[D] = {
+        val observable = observableOf(clazz, id)
+        if (partitionOf(id) eq partition) observable
+        else observable.observeOn(partition.scheduler)
+    }
+
+    /**
+     * Moves the notifications of an observable emitted by a device mapper to
+     * the thread of the given partition, when the topology has more than one
+     * partition.
+     */
+    private[topology] def confine[T](observable: Observable[T],
+                                     partition: Partition): Observable[T] = {
+        if (partitions.length == 1) observable
+        else observable.observeOn(partition.scheduler)
+    }
+
     private def observableOf[D <: Device](clazz: Class[D], id: UUID)
     : Observable[D] = {
         val factory = factories.getOrElse(
@@ -343,8 +429,14 @@ class VirtualTopology(val backend: MidonetBackend,
         simBackChannel.tell(msg)
 
     /** Safely executes a task on the virtual topology thread. */
-    private[topology] def executeVt(task: => Unit) = {
-        vtExecutor.execute(makeRunnable {
+    private[topology] def executeVt(task: => Unit): Unit =
+        executeVt(mainPartition)(task)
+
+    /** Safely executes a task on the thread of a virtual topology
+      * partition. */
+    private[topology] def executeVt(partition: Partition)(task: => Unit)
+    : Unit = {
+        partition.executor.execute(makeRunnable {
             try {
                 task
             } catch {
@@ -379,11 +471,20 @@ class VirtualTopology(val backend: MidonetBackend,
      */
     @throws[DeviceMapperException]
     @inline
-    private[midolman] def assertThread(): Unit = {
-        if (!vtExecutorCheck()) {
+    private[midolman] def assertThread(): Unit = assertThread(mainPartition)
+
+    /**
+     * Checks that this method is executed on the thread of the given
+     * virtual topology partition.
+     */
+    @throws[DeviceMapperException]
+    @inline
+    private[midolman] def assertThread(partition: Partition): Unit = {
+        if (!partition.isCurrentThread) {
             val curThread = Thread.currentThread()
             throw new DeviceMapperException(
-                s"Call expected on VT executor thread but received on " +
+                s"Call expected on VT executor thread of partition " +
+                s"${partition.index} but received on " +
                 s"${curThread.getId} - ${curThread.getName}")
         }
     }
@@ -16,11 +16,16 @@
 
 package org.midonet.midolman.topology.devices
 
+import java.util.concurrent.ConcurrentHashMap
 import java.util.{UUID, List => JList}
 
+import scala.collection.JavaConverters._
+
 import org.midonet.cluster.data.{Zoom, ZoomClass, ZoomField, ZoomObject}
 import org.midonet.cluster.models.Topology
 import org.midonet.cluster.util.{IPAddressUtil, IPSubnetUtil, MACUtil}
+import org.midonet.midolman.simulation.DhcpReplyTemplate
+import org.midonet.midolman.topology.VirtualTopology.Device
 import org.midonet.midolman.topology.devices.Dhcp.Opt121Route
 import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
 
@@ -96,7 +101,24 @@ case class Dhcp @Zoom()(@ZoomField(name = "id")
                         @ZoomField(name = "hosts")
                         hosts: JList[Dhcp.Host],
                         @ZoomField(name = "enabled")
-                        enabled: Boolean) extends ZoomObject {
+                        enabled: Boolean) extends ZoomObject with Device {
+
+    /**
+      * The DHCP hosts indexed by MAC address. If several hosts have the same
+      * MAC address, the index contains the first one.
+      */
+    private[midolman] lazy val hostsByMac: Map[MAC, Dhcp.Host] = {
+        if (hosts eq null) Map.empty
+        else hosts.asScala.reverse.map(host => host.mac -> host).toMap
+    }
+
+    /**
+      * The DHCP reply templates compiled for the hosts of this subnet. The
+      * virtual topology emits a new instance whenever the subnet changes,
+      * such that these templates are discarded with the previous version.
+      */
+    private[midolman] val replyTemplates =
+        new ConcurrentHashMap[MAC, DhcpReplyTemplate]()
 
     override def toString = {
         s"Dhcp [id=$id networkId=$networkId subnetAddress=$subnetAddress " +
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.sdn.flows
+
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+
+object FlowTagCache {
+
+    final val DefaultCapacity = 4096
+
+    /** Mixes a primitive field of a flow tag into the given hash. */
+    @inline
+    def mix(hash: Long, value: Long): Long = {
+        val h = (hash ^ value) * 0x9E3779B97F4A7C15L
+        h ^ (h >>> 29)
+    }
+}
+
+/**
+ * A bounded, direct-mapped cache of flow tags, indexed by a hash of the
+ * primitive fields of the tag. The [[FlowTagger]] looks up a tag by computing
+ * the hash of its fields, and comparing the fields of the tag found at the
+ * corresponding slot: on a miss it creates a new tag that replaces the
+ * previous one.
+ *
+ * The cache interns the tags for the common case where a thread requests the
+ * same tags repeatedly, without boxing the key fields and without weak
+ * references: the cache holds at most `capacity` tags, and an evicted tag is
+ * reclaimed as soon as the flows and messages referencing it are released.
+ * Since tags are compared by value, an evicted tag and its replacement are
+ * interchangeable.
+ *
+ * The class is not thread-safe, and it is meant to be used as a thread-local.
+ */
+final class FlowTagCache(capacity: Int) {
+
+    require(Integer.bitCount(capacity) == 1,
+            "The flow tag cache capacity must be a power of two")
+
+    private val mask = capacity - 1
+    private val tags = new Array[FlowTag](capacity)
+
+    /** Returns the cache slot for the given tag hash. */
+    @inline
+    def slot(hash: Long): Int = (hash ^ (hash >>> 32)).toInt & mask
+
+    /** Returns the tag at the given slot, or `null` if the slot is empty. */
+    @inline
+    def get(slot: Int): FlowTag = tags(slot)
+
+    /** Stores the tag at the given slot, replacing the previous tag, and
+      * returns the tag. */
+    @inline
+    def put[T <: FlowTag](slot: Int, tag: T): T = {
+        tags(slot) = tag
+        tag
+    }
+}
@@ -16,12 +16,9 @@
 
 package org.midonet.sdn.flows
 
-import java.nio.ByteBuffer
-import java.util.{UUID, WeakHashMap}
-import java.lang.ref.WeakReference
+import java.util.UUID
 
 import com.google.common.hash.Hashing
-import scala.reflect.{ClassTag, classTag}
 
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
 import org.midonet.packets.{IPAddr, IPv4Addr, IPv6Addr, MAC}
@@ -82,28 +79,30 @@ object FlowTagger {
     private def ipOr0(ip: IPAddr): Int =
         if (ip == null) 0 else ip.hashCode
 
-    class TagsTrie {
-        private var wrValue: WeakReference[FlowTag] = _
-        private val children = new WeakHashMap[Object, TagsTrie]
-        // TODO: Consider having arrays to hold primitive type keys,
-        //       in order to avoid boxing.
-
-        def getOrAddSegment(key: Object): TagsTrie = {
-            var segment = children.get(key)
-            if (segment eq null) {
-                segment = new TagsTrie
-                children.put(key, segment)
-            }
-            segment
-        }
+    private def vlanOr0(vlanId: java.lang.Short): Long =
+        if (vlanId eq null) 0 else vlanId.shortValue
 
-        def value: FlowTag =
-            if (wrValue ne null) wrValue.get() else null
+    private def isIPv4(ip: IPAddr, address: Int): Boolean = ip match {
+        case ip4: IPv4Addr => ip4.toInt == address
+        case _ => false
+    }
 
-        def value_=(flowTag: FlowTag): Unit =
-            wrValue = new WeakReference[FlowTag](flowTag)
+    private val tagCache = new ThreadLocal[FlowTagCache] {
+        override def initialValue = new FlowTagCache(FlowTagCache.DefaultCapacity)
     }
 
+    @inline
+    private def hashOf(tagType: Byte, value: Long): Long =
+        FlowTagCache.mix(tagType, value)
+
+    @inline
+    private def hashOf(tagType: Byte, value1: Long, value2: Long): Long =
+        FlowTagCache.mix(FlowTagCache.mix(tagType, value1), value2)
+
+    @inline
+    private def hashOf(tagType: Byte, id: UUID, value: Long): Long =
+        FlowTagCache.mix(hashOf(tagType, msbOr0(id), lsbOr0(id)), value)
+
     /**
      * Tag for the flows related to the specified device.
      */
@@ -127,43 +126,48 @@ object FlowTagger {
     class RuleLoggerDeviceTag(device: UUID) extends DeviceTag(device)
     class QosPolicyDeviceTag(device: UUID) extends DeviceTag(device)
 
-    val cachedDeviceTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
-    val deviceTagMap = Map[ClassTag[_], UUID => DeviceTag] (
-        classTag[LoadBalancerDeviceTag] -> (new LoadBalancerDeviceTag(_)),
-        classTag[PoolDeviceTag] -> (new PoolDeviceTag(_)),
-        classTag[PortGroupDeviceTag] -> (new PortGroupDeviceTag(_)),
-        classTag[BridgeDeviceTag] -> (new BridgeDeviceTag(_)),
-        classTag[RouterDeviceTag] -> (new RouterDeviceTag(_)),
-        classTag[PortDeviceTag] -> (new PortDeviceTag(_)),
-        classTag[MirrorDeviceTag] -> (new MirrorDeviceTag(_)),
-        classTag[ChainDeviceTag] -> (new ChainDeviceTag(_)))
-
-    private def tagForDevice[T <: DeviceTag](device: UUID)(implicit ctag: ClassTag[T]): FlowTag = {
-        val segment = cachedDeviceTags.get().getOrAddSegment(device)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = deviceTagMap.get(ctag)
-                .map({ factory => factory(device) })
-                .getOrElse({ new DeviceTag(device) })
-            segment.value = tag
+    private def tagForDevice(device: UUID, tagClass: Class[_ <: DeviceTag],
+                             factory: UUID => DeviceTag): FlowTag = {
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.Device, device,
+                                     System.identityHashCode(tagClass)))
+        cache.get(slot) match {
+            case tag: DeviceTag if (tag.getClass eq tagClass) &&
+                                   tag.device == device => tag
+            case _ => cache.put(slot, factory(device))
         }
-        tag
     }
 
-    def tagForLoadBalancer(device: UUID) = tagForDevice[LoadBalancerDeviceTag](device)
-    def tagForPool(device: UUID) = tagForDevice[PoolDeviceTag](device)
-    def tagForPortGroup(device: UUID) = tagForDevice[PortGroupDeviceTag](device)
-    def tagForBridge(device: UUID) = tagForDevice[BridgeDeviceTag](device)
-    def tagForRouter(device: UUID) = tagForDevice[RouterDeviceTag](device)
-    def tagForPort(device: UUID) = tagForDevice[PortDeviceTag](device)
-    def tagForChain(device: UUID) = tagForDevice[ChainDeviceTag](device)
-    def tagForMirror(device: UUID) = tagForDevice[MirrorDeviceTag](device)
-    def tagForRuleLogger(device: UUID) = tagForDevice[RuleLoggerDeviceTag](device)
-    def tagForQosPolicy(device: UUID) = tagForDevice[QosPolicyDeviceTag](device)
-
+    private val LoadBalancerTagFactory = (id: UUID) => new LoadBalancerDeviceTag(id)
+    private val PoolTagFactory = (id: UUID) => new PoolDeviceTag(id)
+    private val PortGroupTagFactory = (id: UUID) => new PortGroupDeviceTag(id)
+    private val BridgeTagFactory = (id: UUID) => new BridgeDeviceTag(id)
+    private val RouterTagFactory = (id: UUID) => new RouterDeviceTag(id)
+    private val PortTagFactory = (id: UUID) => new PortDeviceTag(id)
+    private val ChainTagFactory = (id: UUID) => new ChainDeviceTag(id)
+    private val MirrorTagFactory = (id: UUID) => new MirrorDeviceTag(id)
+    private val DeviceTagFactory = (id: UUID) => new DeviceTag(id)
+
+    def tagForLoadBalancer(device: UUID) =
+        tagForDevice(device, classOf[LoadBalancerDeviceTag], LoadBalancerTagFactory)
+    def tagForPool(device: UUID) =
+        tagForDevice(device, classOf[PoolDeviceTag], PoolTagFactory)
+    def tagForPortGroup(device: UUID) =
+        tagForDevice(device, classOf[PortGroupDeviceTag], PortGroupTagFactory)
+    def tagForBridge(device: UUID) =
+        tagForDevice(device, classOf[BridgeDeviceTag], BridgeTagFactory)
+    def tagForRouter(device: UUID) =
+        tagForDevice(device, classOf[RouterDeviceTag], RouterTagFactory)
+    def tagForPort(device: UUID) =
+        tagForDevice(device, classOf[PortDeviceTag], PortTagFactory)
+    def tagForChain(device: UUID) =
+        tagForDevice(device, classOf[ChainDeviceTag], ChainTagFactory)
+    def tagForMirror(device: UUID) =
+        tagForDevice(device, classOf[MirrorDeviceTag], MirrorTagFactory)
+    def tagForRuleLogger(device: UUID) =
+        tagForDevice(device, classOf[DeviceTag], DeviceTagFactory)
+    def tagForQosPolicy(device: UUID) =
+        tagForDevice(device, classOf[DeviceTag], DeviceTagFactory)
     case class PortTxTag(port: UUID) extends FlowTag with MeterTag {
         override def toString = "port:tx:" + port
         override lazy val toLongHash =
@@ -172,18 +176,14 @@ object FlowTagger {
                 putLong(lsbOr0(port)).hash().asLong
     }
 
-    val cachedPortTxTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForPortTx(device: UUID): FlowTag = {
-        val segment = cachedPortTxTags.get().getOrAddSegment(device)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new PortTxTag(device)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.PortTx, msbOr0(device),
+                                     lsbOr0(device)))
+        cache.get(slot) match {
+            case tag: PortTxTag if tag.port == device => tag
+            case _ => cache.put(slot, PortTxTag(device))
         }
-        tag
     }
 
     case class PortRxTag(port: UUID) extends FlowTag with MeterTag {
@@ -195,18 +195,14 @@ object FlowTagger {
                 hash().asLong
     }
 
-    val cachedPortRxTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForPortRx(device: UUID): FlowTag = {
-        val segment = cachedPortRxTags.get().getOrAddSegment(device)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new PortRxTag(device)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.PortRx, msbOr0(device),
+                                     lsbOr0(device)))
+        cache.get(slot) match {
+            case tag: PortRxTag if tag.port == device => tag
+            case _ => cache.put(slot, PortRxTag(device))
         }
-        tag
     }
 
     /**
@@ -225,21 +221,18 @@ object FlowTagger {
                 hash().asLong
     }
 
-    val cachedVlanFloodTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForFloodedFlowsByDstMac(bridgeId: UUID, vlanId: java.lang.Short,
                                    dstMac: MAC): FlowTag = {
-        val segment = cachedVlanFloodTags.get().getOrAddSegment(bridgeId)
-                                               .getOrAddSegment(vlanId)
-                                               .getOrAddSegment(dstMac)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new VlanFloodTag(bridgeId, vlanId, dstMac)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(FlowTagCache.mix(
+            hashOf(TagTypes.VlanFlood, bridgeId, macOr0(dstMac)),
+            vlanOr0(vlanId)))
+        cache.get(slot) match {
+            case tag: VlanFloodTag if tag.bridgeId == bridgeId &&
+                                      tag.vlanId == vlanId &&
+                                      tag.dstMac == dstMac => tag
+            case _ => cache.put(slot, VlanFloodTag(bridgeId, vlanId, dstMac))
         }
-        tag
     }
 
     /**
@@ -255,18 +248,14 @@ object FlowTagger {
                 hash().asLong
     }
 
-    val cachedArpRequestTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForArpRequests(bridgeId: UUID): FlowTag = {
-        val segment = cachedArpRequestTags.get().getOrAddSegment(bridgeId)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new ArpRequestTag(bridgeId)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.ArpRequest, msbOr0(bridgeId),
+                                     lsbOr0(bridgeId)))
+        cache.get(slot) match {
+            case tag: ArpRequestTag if tag.bridgeId == bridgeId => tag
+            case _ => cache.put(slot, ArpRequestTag(bridgeId))
         }
-        tag
     }
 
     /**
@@ -287,22 +276,19 @@ object FlowTagger {
                 hash().asLong
     }
 
-    val cachedVlanPortTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForVlanPort(bridgeId: UUID, mac: MAC, vlanId: java.lang.Short,
                        port: UUID): FlowTag = {
-        val segment = cachedVlanPortTags.get().getOrAddSegment(bridgeId)
-                                              .getOrAddSegment(mac)
-                                              .getOrAddSegment(vlanId)
-                                              .getOrAddSegment(port)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new VlanPortTag(bridgeId, mac, vlanId, port)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(FlowTagCache.mix(FlowTagCache.mix(FlowTagCache.mix(
+            hashOf(TagTypes.VlanPort, bridgeId, macOr0(mac)), vlanOr0(vlanId)),
+            msbOr0(port)), lsbOr0(port)))
+        cache.get(slot) match {
+            case tag: VlanPortTag if tag.bridgeId == bridgeId &&
+                                     tag.mac == mac &&
+                                     tag.vlanId == vlanId &&
+                                     tag.port == port => tag
+            case _ => cache.put(slot, VlanPortTag(bridgeId, mac, vlanId, port))
         }
-        tag
     }
 
     /**
@@ -318,18 +304,14 @@ object FlowTagger {
                 hash().asLong
     }
 
-    val cachedBroadcastTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForBroadcast(bridgeId: UUID): FlowTag = {
-        val segment = cachedBroadcastTags.get().getOrAddSegment(bridgeId)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new BroadcastTag(bridgeId)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.Broadcast, msbOr0(bridgeId),
+                                     lsbOr0(bridgeId)))
+        cache.get(slot) match {
+            case tag: BroadcastTag if tag.bridgeId == bridgeId => tag
+            case _ => cache.put(slot, BroadcastTag(bridgeId))
         }
-        tag
     }
 
     /**
@@ -345,19 +327,16 @@ object FlowTagger {
                 putLong(lsbOr0(logicalPortId)).hash().asLong
     }
 
-    val cachedBridgePortTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForBridgePort(bridgeId: UUID, logicalPortId: UUID): FlowTag = {
-        val segment = cachedBridgePortTags.get().getOrAddSegment(bridgeId)
-                                                .getOrAddSegment(logicalPortId)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new BridgePortTag(bridgeId, logicalPortId)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(FlowTagCache.mix(
+            hashOf(TagTypes.BridgePort, bridgeId, msbOr0(logicalPortId)),
+            lsbOr0(logicalPortId)))
+        cache.get(slot) match {
+            case tag: BridgePortTag if tag.bridgeId == bridgeId &&
+                                      tag.logicalPortId == logicalPortId => tag
+            case _ => cache.put(slot, BridgePortTag(bridgeId, logicalPortId))
         }
-        tag
     }
 
     /**
@@ -370,18 +349,13 @@ object FlowTagger {
                 putInt(port).hash().asLong
     }
 
-    val cachedDpPortTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
-    def tagForDpPort(port: Integer): FlowTag = {
-        val segment = cachedDpPortTags.get().getOrAddSegment(port)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new DpPortTag(port)
-            segment.value = tag
+    def tagForDpPort(port: Int): FlowTag = {
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.DpPort, port))
+        cache.get(slot) match {
+            case tag: DpPortTag if tag.port.intValue == port => tag
+            case _ => cache.put(slot, DpPortTag(port))
         }
-        tag
     }
 
     /**
@@ -394,19 +368,14 @@ object FlowTagger {
                 putInt(srcIp).putInt(dstIp).hash().asLong
     }
 
-    val cachedTunnelRouteTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
-    def tagForTunnelRoute(srcIp: Integer, dstIp: Integer): FlowTag = {
-        val segment = cachedTunnelRouteTags.get().getOrAddSegment(srcIp)
-                                                 .getOrAddSegment(dstIp)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new TunnelRouteTag(srcIp, dstIp)
-            segment.value = tag
+    def tagForTunnelRoute(srcIp: Int, dstIp: Int): FlowTag = {
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.TunnelRoute, srcIp, dstIp))
+        cache.get(slot) match {
+            case tag: TunnelRouteTag if tag.srcIp.intValue == srcIp &&
+                                        tag.dstIp.intValue == dstIp => tag
+            case _ => cache.put(slot, TunnelRouteTag(srcIp, dstIp))
         }
-        tag
     }
 
     /**
@@ -419,18 +388,13 @@ object FlowTagger {
                 putLong(key).hash().asLong
     }
 
-    val cachedTunnelKeyTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
-    def tagForTunnelKey(key: java.lang.Long): FlowTag = {
-        val segment = cachedTunnelKeyTags.get().getOrAddSegment(key)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new TunnelKeyTag(key)
-            segment.value = tag
+    def tagForTunnelKey(key: Long): FlowTag = {
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.TunnelKey, key))
+        cache.get(slot) match {
+            case tag: TunnelKeyTag if tag.key.longValue == key => tag
+            case _ => cache.put(slot, TunnelKeyTag(key))
         }
-        tag
     }
 
     /**
@@ -445,20 +409,17 @@ object FlowTagger {
                 putInt(routeHashCode).hash().asLong
     }
 
-    val cachedRouteTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForRoute(route: Route): FlowTag = {
-        val routeHashCode: Integer = route.hashCode()
-        val segment = cachedRouteTags.get().getOrAddSegment(route.routerId)
-                                           .getOrAddSegment(routeHashCode)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new RouteTag(route.routerId, routeHashCode)
-            segment.value = tag
+        val routeHashCode = route.hashCode()
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.Route, route.routerId,
+                                     routeHashCode))
+        cache.get(slot) match {
+            case tag: RouteTag if tag.routerId == route.routerId &&
+                                  tag.routeHashCode.intValue == routeHashCode =>
+                tag
+            case _ => cache.put(slot, RouteTag(route.routerId, routeHashCode))
         }
-        tag
     }
 
     /*
@@ -474,31 +435,28 @@ object FlowTagger {
                 hash().asLong
     }
 
-    val cachedDestinationIpTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForDestinationIp(routerId: UUID, ipDestination: IPv6Addr): FlowTag = {
-        val segment = cachedDestinationIpTags.get().getOrAddSegment(routerId)
-                                                   .getOrAddSegment(ipDestination)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new DestinationIpTag(routerId, ipDestination)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(FlowTagCache.mix(
+            hashOf(TagTypes.DestinationIp, routerId, ipDestination.upperWord),
+            ipDestination.lowerWord))
+        cache.get(slot) match {
+            case tag: DestinationIpTag if tag.routerId == routerId &&
+                                          tag.ipDestination == ipDestination =>
+                tag
+            case _ => cache.put(slot, DestinationIpTag(routerId, ipDestination))
         }
-        tag
     }
 
     def tagForDestinationIp(routerId: UUID, ipDestination: IPv4Addr): FlowTag = {
-        val ip = IPv4Addr(ipDestination.toInt & 0xfffffff0)
-        val segment = cachedDestinationIpTags.get().getOrAddSegment(routerId)
-            .getOrAddSegment(ip)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new DestinationIpTag(routerId, ip)
-            segment.value = tag
+        val ip = ipDestination.toInt & 0xfffffff0
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.DestinationIp, routerId, ip))
+        cache.get(slot) match {
+            case tag: DestinationIpTag if tag.routerId == routerId &&
+                                          isIPv4(tag.ipDestination, ip) => tag
+            case _ => cache.put(slot, DestinationIpTag(routerId, IPv4Addr(ip)))
         }
-        tag
     }
 
     /**
@@ -514,19 +472,15 @@ object FlowTagger {
                 putInt(ipOr0(ipDestination)).hash().asLong
     }
 
-    val cachedArpEntryTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForArpEntry(routerId: UUID, ipDestination: IPAddr): FlowTag = {
-        val segment = cachedArpEntryTags.get().getOrAddSegment(routerId)
-            .getOrAddSegment(ipDestination)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = new ArpEntryTag(routerId, ipDestination)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.ArpEntry, routerId,
+                                     ipOr0(ipDestination)))
+        cache.get(slot) match {
+            case tag: ArpEntryTag if tag.routerId == routerId &&
+                                     tag.ipDestination == ipDestination => tag
+            case _ => cache.put(slot, ArpEntryTag(routerId, ipDestination))
         }
-        tag
     }
 
     /**
@@ -540,21 +494,16 @@ object FlowTagger {
 
     }
 
-    val cachedUserTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForUserMeter(meterName: String): UserTag = {
         if (meterName eq null) {
             null
         } else {
-            val segment = cachedUserTags.get().getOrAddSegment(meterName)
-            var tag = segment.value
-            if (tag eq null) {
-                tag = UserTag(meterName)
-                segment.value = tag
+            val cache = tagCache.get()
+            val slot = cache.slot(hashOf(TagTypes.User, meterName.hashCode))
+            cache.get(slot) match {
+                case tag: UserTag if tag.name == meterName => tag
+                case _ => cache.put(slot, UserTag(meterName))
             }
-            tag.asInstanceOf[UserTag]
         }
     }
 
@@ -569,18 +518,14 @@ object FlowTagger {
                 putLong(lsbOr0(device)).hash().asLong
     }
 
-    val cachedFlowStateDeviceTags = new ThreadLocal[TagsTrie] {
-        override def initialValue = new TagsTrie
-    }
-
     def tagForFlowStateDevice(device: UUID): FlowTag = {
-        val segment = cachedFlowStateDeviceTags.get().getOrAddSegment(device)
-        var tag = segment.value
-        if (tag eq null) {
-            tag = FlowStateDeviceTag(device)
-            segment.value = tag
+        val cache = tagCache.get()
+        val slot = cache.slot(hashOf(TagTypes.FlowStateDevice, msbOr0(device),
+                                     lsbOr0(device)))
+        cache.get(slot) match {
+            case tag: FlowStateDeviceTag if tag.device == device => tag
+            case _ => cache.put(slot, FlowStateDeviceTag(device))
         }
-        tag
     }
 }
 
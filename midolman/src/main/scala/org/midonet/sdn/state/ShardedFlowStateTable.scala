@@ -17,7 +17,8 @@
 package org.midonet.sdn.state
 
 import java.util.ArrayList
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.function.BiFunction
 
 import org.slf4j.LoggerFactory
 
@@ -42,7 +43,12 @@ import org.midonet.util.logging.Logger
  * distribute shards among threads in a way that results in no keyspace overlap.
  *
  * Gets, on the other hand, will fall back to the parent and the other shards
- * if a key is not found locally.
+ * if a key is not found locally. A ref on a shard of a key found in another
+ * shard adopts the entry into the local shard, such that a thread that takes
+ * over the connections of another thread keeps their state alive. The table
+ * counts the shards holding an entry for every key, such that the expiration
+ * of a key held by several shards can release the resources associated with
+ * the key exactly once, when the last holder expires it.
  *
  * unref() calls may require coordination, but they are meant to happen in an
  * external thread or pool, not a shard-owning thread.
@@ -56,6 +62,35 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
     private val defaultLogger =
         Logger(LoggerFactory.getLogger("org.midonet.state.table"))
 
+    // The number of shards holding an entry for a key.
+    private val holders = new ConcurrentHashMap[K, Integer]()
+    private val incrementHolders = new BiFunction[Integer, Integer, Integer] {
+        override def apply(count: Integer, one: Integer): Integer =
+            count + one
+    }
+    private val decrementHolders = new BiFunction[K, Integer, Integer] {
+        override def apply(key: K, count: Integer): Integer =
+            if (count <= 1) null else count - 1
+    }
+
+    /** Adds a shard holding the given key. */
+    private def hold(key: K): Unit =
+        holders.merge(key, 1, incrementHolders)
+
+    /**
+     * Removes a shard holding the given key, and returns whether it was the
+     * last holder. The decision is atomic, such that when several shards
+     * expire the same key concurrently, exactly one of them is the last.
+     */
+    private def release(key: K): Boolean =
+        holders.computeIfPresent(key, decrementHolders) eq null
+
+    /** The number of shards holding an entry for the given key. */
+    private[state] def holderCount(key: K): Int = {
+        val count = holders.get(key)
+        if (count eq null) 0 else count.intValue()
+    }
+
     protected def newShard(workerId: Int, log: Logger): FlowStateShard
 
     def addShard(log: Logger = defaultLogger) = {
@@ -91,7 +126,7 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
     override def ref(key: K): V = {
         var i = 0
         while (i < shards.size) {
-            val v = shards.get(i).ref(key)
+            val v = shards.get(i).shallowRef(key)
             if (v != null)
                 return v
             i += 1
@@ -165,8 +200,13 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
             extends FlowStateTable[K, V] {
         def map: TimedExpirationMap[K, V]
 
-        override def putAndRef(key: K, value: V): V =
-            map.putAndRef(key, value)
+        override def putAndRef(key: K, value: V): V = {
+            val oldValue = map.putAndRef(key, value)
+            if (oldValue == null) {
+                hold(key)
+            }
+            oldValue
+        }
 
         override def get(key: K) = {
             val v = map.get(key)
@@ -179,9 +219,26 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
         def shallowGet(key: K): V =
             map.get(key)
 
-        override def ref(key: K): V =
+        def shallowRef(key: K): V =
             map.ref(key)
 
+        override def ref(key: K): V = {
+            val v = map.ref(key)
+            if (v != null)
+                v
+            else
+                adopt(key)
+        }
+
+        private def adopt(key: K): V = {
+            val v = BaseShardedFlowStateTable.this.get(key, workerId)
+            if (v != null) {
+                log.debug(s"Adopting entry $key from another shard")
+                putAndRef(key, v)
+            }
+            v
+        }
+
         override def getRefCount(key: K): Int =
             map.refCount(key)
 
@@ -198,11 +255,31 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
         override def fold[U](seed: U, func: Reducer[K, V, U]): U =
             map.fold(seed, func)
 
-        override def expireIdleEntries() =
-            map.obliterateIdleEntries(tickMillis)
+        override def expireIdleEntries(): Unit =
+            expireIdleEntries((), map.identityReducer)
 
         override def expireIdleEntries[U](seed: U, func: Reducer[K, V, U]): U =
-            map.obliterateIdleEntries(tickMillis, seed, func)
+            expireIdleEntries(seed, func, null)
+
+        /**
+         * Expires the idle entries of this shard, calling `func` for every
+         * expired entry and, if not null, `lastHolderFunc` for the entries
+         * that no other shard holds. If several shards hold the same key,
+         * `lastHolderFunc` is called only by the last shard that expires it,
+         * which allows releasing the resources shared by the holders of the
+         * key exactly once.
+         */
+        def expireIdleEntries[U](seed: U, func: Reducer[K, V, U],
+                                 lastHolderFunc: Reducer[K, V, U]): U =
+            map.obliterateIdleEntries(tickMillis, seed, new Reducer[K, V, U] {
+                override def apply(acc: U, key: K, value: V): U = {
+                    val result = func(acc, key, value)
+                    if (release(key) && (lastHolderFunc ne null))
+                        lastHolderFunc(result, key, value)
+                    else
+                        result
+                }
+            })
     }
 }
 
@@ -34,7 +34,7 @@ import org.midonet.services.flowstate.transfer.StateTransferProtocolBuilder._
 import org.midonet.services.flowstate.transfer.StateTransferProtocolParser._
 import org.midonet.services.flowstate.transfer.client.FlowStateRemoteClient
 import org.midonet.services.flowstate.transfer.internal.{InvalidStateRequest, StateRequestInternal, StateRequestRaw, StateRequestRemote}
-import org.midonet.util.io.stream.{ByteBufferBlockReader, TimedBlockHeader}
+import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.logging.Logging
 
 import io.netty.buffer.ByteBuf
@@ -112,49 +112,46 @@ class FlowStateReadHandler(context: Context)
             }
         }
 
+    /** Streams the valid storage blocks to the socket, each block prefixed
+      * with its size. The blocks are sent as read-only slices of the memory
+      * mapped file, including their [[FlowStateBlock]] header, such that the
+      * compressed flow state is neither copied to the heap nor decompressed,
+      * and the receiver validates each block with its header. */
     private def pipeRawBlocksToSocket(portId: UUID,
-                                      reader: ByteBufferBlockReader[TimedBlockHeader],
-                                      headerBuff: Array[Byte],
-                                      blockBuff: Array[Byte],
+                                      blocks: Iterator[ByteBuffer],
                                       ctx: ChannelHandlerContext): Unit = {
         try {
-            reader.read(headerBuff)
-            var header = FlowStateBlock(ByteBuffer.wrap(headerBuff))
-            var next = reader.read(blockBuff, 0, header.blockLength)
-
+            val expirationTime = context.config.expirationTime.toNanos
+            val now = NanoClock.DEFAULT.tick
             var outstandingBytes = 0
-            while (next > 0) {
-                ctx.write(copyInt(next + FlowStateBlock.headerSize))
-                ctx.write(copiedBuffer(headerBuff))
-                val f = ctx.writeAndFlush(copiedBuffer(blockBuff))
-                outstandingBytes += blockBuff.length
-                if (outstandingBytes > MaxOutstandingBytes) {
-                    f.addListener(
-                        (f: GenFuture) => {
-                            try {
+            while (blocks.hasNext) {
+                val block = blocks.next().asReadOnlyBuffer()
+                val header = FlowStateBlock(block)
+                if (header.isValid && header.blockLength > 0 &&
+                    now - header.lastEntryTime < expirationTime) {
+                    val length = FlowStateBlock.headerSize + header.blockLength
+                    block.clear().limit(length)
+                    ctx.write(copyInt(length))
+                    val f = ctx.writeAndFlush(wrappedBuffer(block))
+                    outstandingBytes += length
+                    if (outstandingBytes > MaxOutstandingBytes) {
+                        f.addListener(
+                            (f: GenFuture) => {
                                 if (f.isSuccess) {
-                                    pipeRawBlocksToSocket(portId, reader,
-                                                          headerBuff,
-                                                          blockBuff,
-                                                          ctx)
+                                    pipeRawBlocksToSocket(portId, blocks, ctx)
                                 } else {
                                     handleStorageError(ctx, portId, f.cause)
                                 }
-                            } catch {
-                                case NonFatal(e) => handleStorageError(
-                                    ctx, portId, e)
-                            }
-                        })
-                    return // don't write eof
-                } else {
-                    reader.read(headerBuff)
-                    header = FlowStateBlock(ByteBuffer.wrap(headerBuff))
-                    next = reader.read(blockBuff, 0, header.blockLength)
+                            })
+                        return // don't write eof
+                    }
                 }
             }
             ctx.writeAndFlush(eof).addListener(
-                (f: GenFuture) => { ctx.close() })
-            context.ioManager.remove(portId)
+                (f: GenFuture) => {
+                    ctx.close()
+                    context.ioManager.remove(portId)
+                })
         } catch {
             case NonFatal(e) => handleStorageError(ctx, portId, e)
         }
@@ -166,10 +163,7 @@ class FlowStateReadHandler(context: Context)
             writeAndFlushWithHeader(ctx, ack)
 
             val in = getByteBufferBlockReader(portId)
-            val headerBuff = new Array[Byte](FlowStateBlock.headerSize)
-            val blockBuff = new Array[Byte](context.config.blockSize)
-
-            pipeRawBlocksToSocket(portId, in, headerBuff, blockBuff, ctx)
+            pipeRawBlocksToSocket(portId, in.buffers.iterator, ctx)
         } catch {
             case NonFatal(e) => handleStorageError(ctx, portId, e)
         }
@@ -18,6 +18,7 @@ package org.midonet.services.flowstate.transfer.client
 
 import java.io.{Closeable, DataInputStream, IOException}
 import java.net.{InetSocketAddress, Socket}
+import java.nio.ByteBuffer
 import java.util.UUID
 
 import scala.concurrent.duration._
@@ -27,6 +28,7 @@ import org.midonet.cluster.flowstate.FlowStateTransfer.{StateRequest, StateRespo
 import org.midonet.cluster.util.UUIDUtil.fromProto
 import org.midonet.midolman.config.FlowStateConfig
 import org.midonet.packets.SbeEncoder
+import org.midonet.services.flowstate.stream.FlowStateBlock
 import org.midonet.services.flowstate.transfer.StateTransferProtocolBuilder._
 import org.midonet.services.flowstate.transfer.StateTransferProtocolParser._
 import org.midonet.services.flowstate.transfer.internal._
@@ -200,12 +202,23 @@ class FlowStateRemoteClient(override val flowStateConfig: FlowStateConfig)
         }
     }
 
+    /** Reads the raw storage blocks sent by the previous owner, and writes
+      * their compressed flow state to local storage as is. A block whose
+      * header is not valid or does not match the received length is
+      * ignored. */
     private def pipelinedReadWriteRawState(dis: DataInputStream,
                                            writer: ByteBufferBlockWriter[_]): Unit = {
         var next = dis.readInt()
         while (next > 0) {
-            val buffer = readBytes(dis, next)
-            writer.write(buffer)
+            val block = readBytes(dis, next)
+            val header = FlowStateBlock(ByteBuffer.wrap(block))
+            if (header.isValid &&
+                header.blockLength == next - FlowStateBlock.headerSize) {
+                writer.write(block, FlowStateBlock.headerSize,
+                             header.blockLength)
+            } else {
+                log warn s"Ignoring invalid raw flow state block: $header"
+            }
             next = dis.readInt()
         }
     }
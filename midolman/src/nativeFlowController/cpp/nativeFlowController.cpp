@@ -16,9 +16,8 @@
 #include <algorithm>
 #include <cassert>
 #include <iostream>
-#include <functional>
+#include <limits>
 #include <nativeFlowController.h>
-#include <nativeFlowExpirationIndexer.h>
 #include "org_midonet_midolman_flows_NativeFlowControllerJNI.h"
 
 const std::string jba2str(JNIEnv *env, jbyteArray ba) {
@@ -44,9 +43,10 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_createFlowTable
 
 jlong
 Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTablePutFlow
-(JNIEnv *env, jclass, jlong pointer, jbyteArray flowMatch) {
+(JNIEnv *env, jclass, jlong pointer, jbyteArray flowMatch,
+ jlong expiration, jint expirationType) {
   auto table = reinterpret_cast<FlowTable*>(pointer);
-  return table->put(jba2str(env, flowMatch));
+  return table->put(jba2str(env, flowMatch), expiration, expirationType);
 }
 
 jlong
@@ -56,11 +56,11 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableClearFlow
     table->clear(flowId);
 }
 
-jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableIdAtIndex
-(JNIEnv *env, jclass, jlong pointer, jint index) {
+jobject
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableSlots
+(JNIEnv *env, jclass, jlong pointer) {
   auto table = reinterpret_cast<FlowTable*>(pointer);
-  return table->id_at_index(index);
+  return env->NewDirectByteBuffer(table->slots(), table->slots_size());
 }
 
 jint
@@ -77,34 +77,6 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowMatch
   return str2jba(env, table->get(flowId).flow_match());
 }
 
-jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowSequence
-(JNIEnv *env, jclass, jlong pointer, jlong flowId) {
-  auto table = reinterpret_cast<FlowTable*>(pointer);
-  return table->get(flowId).sequence();
-}
-
-void
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowSetSequence
-(JNIEnv *env, jclass, jlong pointer, jlong flowId, jlong sequence) {
-  auto table = reinterpret_cast<FlowTable*>(pointer);
-  table->get(flowId).set_sequence(sequence);
-}
-
-jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowLinkedId
-(JNIEnv *env, jclass, jlong pointer, jlong flowId) {
-  auto table = reinterpret_cast<FlowTable*>(pointer);
-  return table->get(flowId).linked_id();
-}
-
-void
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowSetLinkedId
-(JNIEnv *env, jclass, jlong pointer, jlong flowId, jlong linkedFlowId) {
-  auto table = reinterpret_cast<FlowTable*>(pointer);
-  table->get(flowId).set_linked_id(linkedFlowId);
-}
-
 void
 Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowAddCallback
 (JNIEnv *env, jclass, jlong pointer, jlong flowId, jlong cbId, jbyteArray args) {
@@ -132,86 +104,57 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowCallbackArg
   return str2jba(env, table->get(flowId).callbacks().at(index).args());
 }
 
-jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_createFlowTagIndexer
-(JNIEnv *env, jclass) {
-  return reinterpret_cast<jlong>(new FlowTagIndexer());
-}
-
 void
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerIndexFlowTags
-(JNIEnv *env, jclass, jlong pointer, jlong flow, jlongArray tagsArray) {
-  auto indexer = reinterpret_cast<FlowTagIndexer*>(pointer);
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableFlowSetTags
+(JNIEnv *env, jclass, jlong pointer, jlong flowId, jlongArray tagsArray) {
+  auto table = reinterpret_cast<FlowTable*>(pointer);
   auto tagCount = env->GetArrayLength(tagsArray);
   jlong *elements = env->GetLongArrayElements(tagsArray, 0);
-  std::vector<FlowTag> tags(tagCount);
-  for (int i = 0; i < tagCount; i++) {
-    tags.push_back(elements[i]);
-  }
+  std::vector<FlowTag> tags(elements, elements + tagCount);
   env->ReleaseLongArrayElements(tagsArray, elements, JNI_ABORT);
-  indexer->index_flow_tags(flow, tags);
-}
-
-void
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerRemoveFlow
-(JNIEnv *env, jclass, jlong pointer, jlong flow) {
-  auto indexer = reinterpret_cast<FlowTagIndexer*>(pointer);
-  indexer->remove_flow(flow);
+  table->set_tags(flowId, tags);
 }
 
 jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidate
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableInvalidate
 (JNIEnv *env, jclass, jlong pointer, jlong tag) {
-  auto indexer = reinterpret_cast<FlowTagIndexer*>(pointer);
-  auto invalids = new std::vector<FlowId>(indexer->invalidate(tag));
+  auto table = reinterpret_cast<FlowTable*>(pointer);
+  auto invalids = new std::vector<FlowId>(table->invalidate(tag));
   return reinterpret_cast<jlong>(invalids);
 }
 
 jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidFlowsCount
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableInvalidFlowsCount
 (JNIEnv *env, jclass, jlong invalidPointer) {
   auto invalids = reinterpret_cast<std::vector<FlowId>*>(invalidPointer);
   return invalids->size();
 }
 
-jlong Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidFlowsGet
+jlong Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableInvalidFlowsGet
 (JNIEnv *env, jclass, jlong invalidPointer, jint index) {
   auto invalids = reinterpret_cast<std::vector<FlowId>*>(invalidPointer);
   return invalids->at(index);
 }
 
 jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidFlowsFree
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableInvalidFlowsFree
 (JNIEnv *env, jclass, jlong invalidPointer) {
   auto invalids = reinterpret_cast<std::vector<FlowId>*>(invalidPointer);
   delete invalids;
 }
 
 jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_createFlowExpirationIndexer
-(JNIEnv *env, jclass) {
-  return reinterpret_cast<jlong>(new FlowExpirationIndexer());
-}
-
-void
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerEnqueueFlowExpiration
-(JNIEnv *env, jclass, jlong pointer, jlong id, jlong expiration, jint expirationType) {
-  auto expirer = reinterpret_cast<FlowExpirationIndexer*>(pointer);
-  expirer->enqueue_flow_expiration(id, expiration, expirationType);
-}
-
-jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerPollForExpired
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTablePollForExpired
 (JNIEnv *env, jclass, jlong pointer, jlong now) {
-  auto expirer = reinterpret_cast<FlowExpirationIndexer*>(pointer);
-  return expirer->poll_for_expired(now);
+  auto table = reinterpret_cast<FlowTable*>(pointer);
+  return table->poll_for_expired(now);
 }
 
 jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerEvictFlow
+Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTableEvictFlow
 (JNIEnv *env, jclass, jlong pointer) {
-  auto expirer = reinterpret_cast<FlowExpirationIndexer*>(pointer);
-  return expirer->evict_flow();
+  auto table = reinterpret_cast<FlowTable*>(pointer);
+  return table->evict_flow();
 }
 
 CallbackSpec::CallbackSpec(): m_cb_id(-1), m_args() {}
@@ -227,23 +170,20 @@ std::string CallbackSpec::args() const {
 }
 
 Flow::Flow()
-  : m_id(NULL_ID), m_flow_match(),
-    m_sequence(-1), m_linked_id(NULL_ID),
-    m_callbacks() {}
+  : m_expiration(0), m_expiration_type(0),
+    m_flow_match(), m_tags(), m_callbacks() {}
 
-Flow::Flow(FlowId id, std::string& flow_match)
-  : m_id(id), m_flow_match(flow_match),
-    m_sequence(-1), m_linked_id(NULL_ID),
-    m_callbacks() {}
+Flow::Flow(std::string& flow_match, long long expiration, int expiration_type)
+  : m_expiration(expiration), m_expiration_type(expiration_type),
+    m_flow_match(flow_match), m_tags(), m_callbacks() {}
 
-FlowId Flow::id() const { return m_id; }
 std::string Flow::flow_match() const { return m_flow_match; }
 
-long long Flow::sequence() const { return m_sequence; }
-void Flow::set_sequence(long long sequence) { m_sequence = sequence; }
+long long Flow::expiration() const { return m_expiration; }
+int Flow::expiration_type() const { return m_expiration_type; }
 
-FlowId Flow::linked_id() const { return m_linked_id; }
-void Flow::set_linked_id(FlowId linked_id) { m_linked_id = linked_id; }
+const std::vector<FlowTag>& Flow::tags() const { return m_tags; }
+void Flow::set_tags(std::vector<FlowTag> tags) { m_tags = tags; }
 
 std::vector<CallbackSpec> Flow::callbacks() const {
   return m_callbacks;
@@ -279,7 +219,8 @@ int next_pos_power_of_two(int input) {
 FlowTable::FlowTable(int max_flows)
   : m_max_flows(std::min(next_pos_power_of_two(max_flows), MAX_TABLE_SIZE)),
     m_mask(m_max_flows - 1),
-    m_table(m_max_flows), m_id_counter(0), m_occupied(0) {}
+    m_slots(m_max_flows, EMPTY_SLOT), m_table(m_max_flows),
+    m_id_counter(0), m_occupied(0) {}
 
 
 int FlowTable::occupied() const {
@@ -287,21 +228,27 @@ int FlowTable::occupied() const {
 }
 
 FlowId FlowTable::id_at_index(int index) const {
-  return m_table[index & m_mask].id();
+  return m_slots[index & m_mask].id;
 }
 
-FlowId FlowTable::put(std::string fmatch) {
+FlowId FlowTable::put(std::string fmatch, long long expiration,
+                     int expiration_type) {
   int index = ++m_id_counter & m_mask;
   int start = index;
   FlowId id = NULL_ID;
   do {
-     if (m_table[index].id() == NULL_ID) {
-       m_table[index] = Flow(m_id_counter, fmatch);
+     if (m_slots[index].id == NULL_ID) {
+       m_slots[index] = EMPTY_SLOT;
+       m_slots[index].id = m_id_counter;
+       m_table[index] = Flow(fmatch, expiration, expiration_type);
        id = m_id_counter;
        m_occupied++;
      }
      index = ++m_id_counter & m_mask;
    } while (index != start && id == NULL_ID);
+  if (id != NULL_ID) {
+    m_expiration_queues[expiration_type].push(id);
+  }
   return id;
 }
 
@@ -309,36 +256,91 @@ Flow& FlowTable::get(FlowId id) {
   return m_table[id & m_mask];
 }
 
+FlowSlot& FlowTable::slot(FlowId id) {
+  return m_slots[id & m_mask];
+}
+
 void FlowTable::clear(FlowId id) {
-  m_table[id & m_mask] = Flow();
+  auto& flow = get(id);
+  m_tag_indexer.remove_flow(id, flow.tags());
+  flow = Flow();
+  slot(id) = EMPTY_SLOT;
   m_occupied--;
 }
 
-void FlowTagIndexer::index_flow_tags(FlowId id, std::vector<FlowTag> tags) {
-  auto& id_iters = m_flows_to_tags[id];
-  id_iters.reserve(tags.size());
+FlowSlot* FlowTable::slots() {
+  return m_slots.data();
+}
+
+long long FlowTable::slots_size() const {
+  return static_cast<long long>(m_slots.size()) * sizeof(FlowSlot);
+}
+
+void FlowTable::set_tags(FlowId id, std::vector<FlowTag> tags) {
+  auto& flow = get(id);
+  m_tag_indexer.remove_flow(id, flow.tags());
+  flow.set_tags(tags);
+  m_tag_indexer.index_flow_tags(id, flow.tags());
+}
+
+/*
+ * Returns the flows with the given tag, which are no longer indexed by that
+ * tag. The flows keep their slot and their other tags until cleared.
+ */
+std::vector<FlowId> FlowTable::invalidate(FlowTag tag) {
+  return m_tag_indexer.invalidate(tag);
+}
+
+int FlowTable::tag_count() const {
+  return m_tag_indexer.tag_count();
+}
 
+/*
+ * Returns a flow whose deadline has passed, or NULL_ID if none. The queues
+ * may still hold the identifiers of flows already cleared, for instance by
+ * an invalidation: these are skipped, since their slot is empty or holds
+ * another flow.
+ */
+FlowId FlowTable::poll_for_expired(long long now) {
+  for (int type = 0; type < MAX_EXPIRATION_TYPE; type++) {
+    auto& queue = m_expiration_queues[type];
+    while (!queue.empty()) {
+      FlowId id = queue.front();
+      if (slot(id).id != id) {
+        queue.pop();
+      } else if (now < get(id).expiration()) {
+        break;
+      } else {
+        queue.pop();
+        return id;
+      }
+    }
+  }
+  return NULL_ID;
+}
+
+FlowId FlowTable::evict_flow() {
+  return poll_for_expired(std::numeric_limits<long long>::max());
+}
+
+void FlowTagIndexer::index_flow_tags(FlowId id,
+                                     const std::vector<FlowTag>& tags) {
   auto tagiter = tags.begin();
   while (tagiter != tags.end()) {
-    auto tag = *tagiter;
-    auto& list = m_tags_to_flows[tag];
-    auto it = list.emplace(list.begin(), id);
-    id_iters.push_back(std::make_tuple(tag, std::reference_wrapper<FlowIdList>(list), it));
+    m_tags_to_flows[*tagiter].insert(id);
     tagiter++;
   }
 }
 
+/*
+ * Returns the flows with the given tag and removes the tag from the index.
+ * The flows remain indexed by their other tags until removed.
+ */
 std::vector<FlowId> FlowTagIndexer::invalidate(FlowTag tag) {
   auto iter = m_tags_to_flows.find(tag);
   if (iter != m_tags_to_flows.end()) {
     std::vector<FlowId> invalidated(iter->second.begin(), iter->second.end());
     m_tags_to_flows.erase(iter);
-
-    auto invalidated_iter = invalidated.begin();
-    while (invalidated_iter != invalidated.end()) {
-      remove_flow(*invalidated_iter, true, tag);
-      invalidated_iter++;
-    }
     return invalidated;
   } else {
     return std::vector<FlowId>();
@@ -354,29 +356,17 @@ std::vector<FlowId> FlowTagIndexer::flows_for_tag(FlowTag tag) const {
   }
 }
 
-void FlowTagIndexer::remove_flow(FlowId id,
-                                 bool invalidating,
-                                 FlowTag invalidTag) {
-  // find list of tags for flow
-  auto entry = m_flows_to_tags.find(id);
-  if (entry != m_flows_to_tags.end()) {
-    auto& tags_vector = entry->second;
-    auto iter = tags_vector.begin();
-    while (iter != tags_vector.end()) {
-      auto tag = std::get<0>(*iter);
-      auto& ids = std::get<1>(*iter);
-      auto id_iter = std::get<2>(*iter);
-
-      iter++;
-
-      if (!invalidating || invalidTag != tag) {
-        ids.erase(id_iter);
-        if (ids.empty()) {
-          m_tags_to_flows.erase(tag);
-        }
+void FlowTagIndexer::remove_flow(FlowId id, const std::vector<FlowTag>& tags) {
+  auto tagiter = tags.begin();
+  while (tagiter != tags.end()) {
+    auto entry = m_tags_to_flows.find(*tagiter);
+    if (entry != m_tags_to_flows.end()) {
+      entry->second.erase(id);
+      if (entry->second.empty()) {
+        m_tags_to_flows.erase(entry);
       }
     }
-    m_flows_to_tags.erase(entry);
+    tagiter++;
   }
 }
 
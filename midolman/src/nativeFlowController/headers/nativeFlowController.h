@@ -18,19 +18,22 @@
 
 #include <string>
 #include <vector>
-#include <list>
-#include <tuple>
+#include <queue>
 #include <unordered_map>
+#include <unordered_set>
 
 using FlowId = long long;
 using FlowTag = long long;
 const FlowId NULL_ID = -839193346820535158;
 
 // See FlowController.scala
-const int INDEX_SHIFT = 28;
+const int INDEX_SHIFT = 26;
 const int INDEX_MASK = (1 << INDEX_SHIFT) - 1;
 const int MAX_TABLE_SIZE = INDEX_MASK;
 
+// See FlowExpirationIndexer.scala
+const int MAX_EXPIRATION_TYPE = 4;
+
 class CallbackSpec {
 public:
   CallbackSpec();
@@ -44,30 +47,66 @@ private:
   std::string m_args;
 };
 
+/*
+ * The fields of a flow table slot that the JVM reads and writes through a
+ * direct byte buffer over the slot array, without crossing JNI. The layout
+ * must match the slot offsets in NativeFlowController.scala.
+ */
+struct FlowSlot {
+  FlowId id;
+  long long sequence;
+  FlowId linked_id;
+};
+
+const FlowSlot EMPTY_SLOT = { NULL_ID, -1, NULL_ID };
+
 class Flow {
 public:
   Flow();
-  Flow(FlowId id, std::string& flow_match);
-  FlowId id() const;
+  Flow(std::string& flow_match, long long expiration, int expiration_type);
   std::string flow_match() const;
 
-  long long sequence() const;
-  void set_sequence(long long sequence);
+  long long expiration() const;
+  int expiration_type() const;
 
-  FlowId linked_id() const;
-  void set_linked_id(FlowId linked_id);
+  const std::vector<FlowTag>& tags() const;
+  void set_tags(std::vector<FlowTag> tags);
 
   std::vector<CallbackSpec> callbacks() const;
   void add_callback(CallbackSpec spec);
 
 private:
-  FlowId m_id;
-  long long m_sequence;
-  FlowId m_linked_id;
+  long long m_expiration;
+  int m_expiration_type;
   std::string m_flow_match;
+  std::vector<FlowTag> m_tags;
   std::vector<CallbackSpec> m_callbacks;
 };
 
+/*
+ * Indexes the flows by tag. The tags of each flow are stored in its flow
+ * table slot, and they must be given back when removing the flow.
+ */
+class FlowTagIndexer {
+public:
+  void index_flow_tags(FlowId id, const std::vector<FlowTag>& tags);
+  std::vector<FlowId> invalidate(FlowTag tag);
+  std::vector<FlowId> flows_for_tag(FlowTag tag) const;
+  void remove_flow(FlowId id, const std::vector<FlowTag>& tags);
+  int tag_count() const;
+
+private:
+  std::unordered_map<FlowTag, std::unordered_set<FlowId>> m_tags_to_flows;
+};
+
+/*
+ * The flow table of a packet worker. Every slot stores the flow match,
+ * sequence, expiration and tags of a flow. The identifier, sequence and
+ * linked flow of the slots are kept in a separate contiguous array, which
+ * is shared with the JVM. The table expires the flows in the order of their
+ * deadlines, keeping a queue of flow identifiers for each expiration type,
+ * where the deadline is read from the flow slot.
+ */
 class FlowTable {
 public:
   FlowTable(int max_flows);
@@ -75,37 +114,30 @@ public:
   int occupied() const;
   FlowId id_at_index(int index) const;
 
-  FlowId put(std::string fmatch);
+  FlowId put(std::string fmatch, long long expiration, int expiration_type);
   Flow& get(FlowId id);
-  bool exists(FlowId id);
+  FlowSlot& slot(FlowId id);
   void clear(FlowId id);
 
-  FlowId candidate_for_eviction();
+  FlowSlot* slots();
+  long long slots_size() const;
+
+  void set_tags(FlowId id, std::vector<FlowTag> tags);
+  std::vector<FlowId> invalidate(FlowTag tag);
+  int tag_count() const;
+
+  FlowId poll_for_expired(long long now);
+  FlowId evict_flow();
 
 private:
   const int m_max_flows;
   const int m_mask;
+  std::vector<FlowSlot> m_slots;
   std::vector<Flow> m_table;
   long long m_id_counter;
   int m_occupied;
-};
-
-class FlowTagIndexer {
-public:
-  void index_flow_tags(FlowId id, std::vector<FlowTag> tag);
-  std::vector<FlowId> invalidate(FlowTag tag);
-  std::vector<FlowId> flows_for_tag(FlowTag tag) const;
-  void remove_flow(FlowId id,
-                   bool invalidating = false,
-                   FlowTag invalidTag = -1);
-  int tag_count() const;
-
-private:
-  using FlowIdList = std::list<FlowId>;
-  using FlowIdReference = std::tuple<FlowTag,FlowIdList&,FlowIdList::iterator>;
-
-  std::unordered_map<FlowTag, FlowIdList> m_tags_to_flows;
-  std::unordered_map<FlowId, std::vector<FlowIdReference>> m_flows_to_tags;
+  FlowTagIndexer m_tag_indexer;
+  std::queue<FlowId> m_expiration_queues[MAX_EXPIRATION_TYPE];
 };
 
 int leading_zeros(int input);
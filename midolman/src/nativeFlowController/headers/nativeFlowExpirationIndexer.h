@@ -1,36 +0,0 @@
-/*
- * Copyright 2017 Midokura SARL
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-#ifndef _NATIVE_FLOW_EXPIRATION_INDEXER_H
-#define _NATIVE_FLOW_EXPIRATION_INDEXER_H
-
-#include <nativeFlowController.h>
-#include <queue>
-
-class FlowExpirationIndexer {
-public:
-  FlowExpirationIndexer();
-
-  void enqueue_flow_expiration(FlowId id, long long expiration, int expiration_type);
-  FlowId poll_for_expired(long long now);
-  FlowId evict_flow();
-
-private:
-  using ExpirationQueue = std::queue<std::pair<FlowId, long long>>;
-  static const int MAX_EXPIRATION_TYPE = 4;
-  ExpirationQueue m_expiration_queues[MAX_EXPIRATION_TYPE];
-};
-
-#endif // _NATIVE_FLOW_EXPIRATION_INDEXER_H
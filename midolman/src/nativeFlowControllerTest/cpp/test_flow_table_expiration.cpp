@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "gtest/gtest.h"
+
+#include <chrono>
+#include <nativeFlowController.h>
+
+using namespace testing;
+using namespace std::chrono;
+
+const long long error_exp = duration_cast<nanoseconds>(seconds(5)).count();
+const long long flow_exp = duration_cast<nanoseconds>(minutes(1)).count();
+const long long stateful_exp = duration_cast<nanoseconds>(seconds(30)).count();
+const long long tunnel_exp = duration_cast<nanoseconds>(minutes(5)).count();
+
+const int error_type = 0;
+const int flow_type = 1;
+const int stateful_type = 2;
+const int tunnel_type = 3;
+
+TEST(FlowTableExpiration, test_flow_removed_on_hard_timeout) {
+  FlowTable table(4);
+  std::string match("match");
+
+  long long now = 0;
+
+  FlowId flow1 = table.put(match, now+flow_exp, flow_type);
+  FlowId result = NULL_ID;
+
+  now += duration_cast<nanoseconds>(seconds(59)).count();
+  result = table.poll_for_expired(now);
+  ASSERT_EQ(result, NULL_ID);
+
+  now += duration_cast<nanoseconds>(seconds(2)).count();
+  result = table.poll_for_expired(now);
+  ASSERT_EQ(result, flow1);
+  result = table.poll_for_expired(now);
+  ASSERT_EQ(result, NULL_ID);
+}
+
+TEST(FlowTableExpiration, test_multiple_expiration_types) {
+  FlowTable table(4);
+  std::string match("match");
+
+  long long now = 0;
+
+  auto id1 = table.put(match, now+error_exp, error_type);
+  auto id2 = table.put(match, now+flow_exp, flow_type);
+  auto id3 = table.put(match, now+stateful_exp, stateful_type);
+  auto id4 = table.put(match, now+tunnel_exp, tunnel_type);
+
+  ASSERT_EQ(table.get(id1).expiration_type(), error_type);
+  ASSERT_EQ(table.get(id4).expiration(), now+tunnel_exp);
+
+  now += duration_cast<nanoseconds>(minutes(10)).count();
+
+  ASSERT_EQ(table.poll_for_expired(now), id1);
+  ASSERT_EQ(table.poll_for_expired(now), id2);
+  ASSERT_EQ(table.poll_for_expired(now), id3);
+  ASSERT_EQ(table.poll_for_expired(now), id4);
+  ASSERT_EQ(table.poll_for_expired(now), NULL_ID);
+}
+
+TEST(FlowTableExpiration, test_multiple_expiration_types_in_order) {
+  FlowTable table(4);
+  std::string match("match");
+
+  long long now = 0;
+
+  auto id1 = table.put(match, now+error_exp, error_type);
+  auto id2 = table.put(match, now+flow_exp, flow_type);
+  auto id3 = table.put(match, now+stateful_exp, stateful_type);
+  auto id4 = table.put(match, now+tunnel_exp, tunnel_type);
+
+  now += duration_cast<nanoseconds>(seconds(5)).count();
+  ASSERT_EQ(table.poll_for_expired(now), id1);
+
+  now += duration_cast<nanoseconds>(seconds(25)).count();
+  ASSERT_EQ(table.poll_for_expired(now), id3);
+
+  now += duration_cast<nanoseconds>(seconds(30)).count();
+  ASSERT_EQ(table.poll_for_expired(now), id2);
+
+  now += duration_cast<nanoseconds>(minutes(4)).count();
+  ASSERT_EQ(table.poll_for_expired(now), id4);
+  ASSERT_EQ(table.poll_for_expired(now), NULL_ID);
+}
+
+TEST(FlowTableExpiration, test_cleared_flows_are_skipped) {
+  FlowTable table(4);
+  std::string match("match");
+
+  auto id1 = table.put(match, flow_exp, flow_type);
+  auto id2 = table.put(match, flow_exp, flow_type);
+  table.clear(id1);
+
+  long long now = duration_cast<nanoseconds>(minutes(2)).count();
+  ASSERT_EQ(table.poll_for_expired(now), id2);
+  ASSERT_EQ(table.poll_for_expired(now), NULL_ID);
+}
+
+TEST(FlowTableExpiration, test_evict_flows) {
+  FlowTable table(4);
+  std::string match("match");
+
+  FlowId ids[3];
+  for (int i = 0; i < 3; i++) {
+    ids[i] = table.put(match, flow_exp, flow_type);
+  }
+
+  ASSERT_EQ(table.evict_flow(), ids[0]);
+  ASSERT_EQ(table.evict_flow(), ids[1]);
+  ASSERT_EQ(table.evict_flow(), ids[2]);
+  ASSERT_EQ(table.evict_flow(), NULL_ID);
+}
@@ -40,7 +40,7 @@ TEST(Utils, next_pos_power_of_two) {
 TEST(FlowTable, test_put_and_get) {
   FlowTable table(4);
   std::string match1("match1");
-  auto id = table.put(match1);
+  auto id = table.put(match1, 0, 0);
   ASSERT_NE(id, NULL_ID);
 
   ASSERT_EQ(table.get(id).flow_match(), match1);
@@ -54,11 +54,11 @@ TEST(FlowTable, test_put_to_full_table) {
   std::string match4("match4");
   std::string match5("match5");
 
-  ASSERT_NE(table.put(match1), NULL_ID);
-  ASSERT_NE(table.put(match2), NULL_ID);
-  ASSERT_NE(table.put(match3), NULL_ID);
-  ASSERT_NE(table.put(match4), NULL_ID);
-  ASSERT_EQ(table.put(match5), NULL_ID);
+  ASSERT_NE(table.put(match1, 0, 0), NULL_ID);
+  ASSERT_NE(table.put(match2, 0, 0), NULL_ID);
+  ASSERT_NE(table.put(match3, 0, 0), NULL_ID);
+  ASSERT_NE(table.put(match4, 0, 0), NULL_ID);
+  ASSERT_EQ(table.put(match5, 0, 0), NULL_ID);
   ASSERT_EQ(table.occupied(), 4);
 }
 
@@ -69,15 +69,34 @@ TEST(FlowTable, test_clear_flow) {
   std::string match3("match3");
   std::string match4("match4");
 
-  auto id1 = table.put(match1);
-  auto id2 = table.put(match2);
-  auto id3 = table.put(match3);
-  auto id4 = table.put(match4);
+  auto id1 = table.put(match1, 0, 0);
+  auto id2 = table.put(match2, 0, 0);
+  auto id3 = table.put(match3, 0, 0);
+  auto id4 = table.put(match4, 0, 0);
 
   ASSERT_EQ(table.occupied(), 4);
   table.clear(id2);
   ASSERT_EQ(table.occupied(), 3);
-  ASSERT_EQ(table.get(id2).id(), NULL_ID);
+  ASSERT_EQ(table.slot(id2).id, NULL_ID);
+}
+
+TEST(FlowTable, test_slots_are_shared) {
+  FlowTable table(4);
+  std::string match1("match1");
+  auto id = table.put(match1, 0, 0);
+
+  ASSERT_EQ(table.slots_size(), 4 * 24);
+  FlowSlot* slots = table.slots();
+  ASSERT_EQ(slots[id & 3].id, id);
+  ASSERT_EQ(slots[id & 3].sequence, -1);
+  ASSERT_EQ(slots[id & 3].linked_id, NULL_ID);
+
+  slots[id & 3].sequence = 42;
+  ASSERT_EQ(table.slot(id).sequence, 42);
+
+  table.clear(id);
+  ASSERT_EQ(slots[id & 3].id, NULL_ID);
+  ASSERT_EQ(slots[id & 3].sequence, -1);
 }
 
 TEST(FlowTagIndexer, test_flow_removed) {
@@ -99,6 +118,7 @@ TEST(FlowTagIndexer, test_multiple_tags) {
   auto flows_to_remove = indexer.invalidate(tag1);
   ASSERT_EQ(flows_to_remove.size(), 1);
   ASSERT_EQ(flows_to_remove.at(0), id);
+  indexer.remove_flow(id, {tag1, tag2});
 
   flows_to_remove = indexer.invalidate(tag2);
   ASSERT_EQ(flows_to_remove.size(), 0);
@@ -132,6 +152,8 @@ TEST(FlowTagIndexer, test_multiple_flows_invalidated) {
   ASSERT_EQ(flows_to_remove.size(), 2);
   ASSERT_EQ(find_flow(flows_to_remove, id1), true);
   ASSERT_EQ(find_flow(flows_to_remove, id2), true);
+  indexer.remove_flow(id1, {tag1});
+  indexer.remove_flow(id2, {tag1, tag2});
 
   flows_to_remove = indexer.invalidate(tag2);
   ASSERT_EQ(flows_to_remove.size(), 0);
@@ -160,7 +182,7 @@ TEST(FlowTagIndexer, test_flow_removed_from_tag_list) {
   ASSERT_EQ(find_flow(flows_for_tag2, id1), true);
   ASSERT_EQ(find_flow(flows_for_tag2, id2), true);
 
-  indexer.remove_flow(id1);
+  indexer.remove_flow(id1, {tag1, tag2});
 
   flows_for_tag1 = indexer.flows_for_tag(tag1);
   ASSERT_EQ(flows_for_tag1.size(), 1);
@@ -181,13 +203,38 @@ TEST(FlowTagIndexer, test_tag_removed_when_no_more_flows) {
   indexer.index_flow_tags(id2, {tag});
   ASSERT_EQ(indexer.tag_count(), 1);
 
-  indexer.remove_flow(id1);
+  indexer.remove_flow(id1, {tag});
   ASSERT_EQ(indexer.tag_count(), 1);
 
-  indexer.remove_flow(id2);
+  indexer.remove_flow(id2, {tag});
   ASSERT_EQ(indexer.tag_count(), 0);
 }
 
+TEST(FlowTable, test_tags_stored_in_slot) {
+  FlowTable table(4);
+  std::string match1("match1");
+  std::string match2("match2");
+  FlowTag tag1 = 0xd00dbeef;
+  FlowTag tag2 = 0xbabebeef;
+
+  auto id1 = table.put(match1, 0, 0);
+  auto id2 = table.put(match2, 0, 0);
+  table.set_tags(id1, {tag1, tag2});
+  table.set_tags(id2, {tag2});
+  ASSERT_EQ(table.get(id1).tags().size(), 2);
+  ASSERT_EQ(table.tag_count(), 2);
+
+  auto invalidated = table.invalidate(tag1);
+  ASSERT_EQ(invalidated.size(), 1);
+  ASSERT_EQ(invalidated.at(0), id1);
+
+  table.clear(id1);
+  ASSERT_EQ(table.tag_count(), 1);
+  invalidated = table.invalidate(tag2);
+  ASSERT_EQ(invalidated.size(), 1);
+  ASSERT_EQ(invalidated.at(0), id2);
+}
+
 int main(int argc, char **argv) {
   testing::InitGoogleTest(&argc, argv);
   return RUN_ALL_TESTS();
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.cluster.data.storage.ScalableStateTable.TableEntry
+import org.midonet.cluster.data.storage.StateTableEncoder.MacToIdEncoder
+import org.midonet.packets.MAC
+
+/**
+  * Measures the cost of a state table update when one entry is replaced in
+  * a table of the given size, when the update re-decodes all entries as a
+  * full listing does, and when it only decodes the changes with the
+  * [[StateTableNodeIndex]].
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class StateTableNodeIndexBenchmark {
+
+    @Param(Array("10000", "100000", "1000000"))
+    var size: Int = _
+
+    private val encoder = MacToIdEncoder
+    private def decode(name: String): TableEntry[MAC, java.util.UUID] = {
+        val (key, value, version) = encoder.decodePath(name)
+        TableEntry(key, value, version)
+    }
+
+    private var index: StateTableNodeIndex[MAC, java.util.UUID] = _
+    private var names: util.ArrayList[String] = _
+    private var version = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        names = new util.ArrayList[String](size + 1)
+        while (version < size) {
+            names.add(nextName())
+        }
+        index = new StateTableNodeIndex[MAC, java.util.UUID](decode)
+        index.update(names)
+    }
+
+    private def nextName(): String = {
+        version += 1
+        encoder.encodePath(MAC.random(), java.util.UUID.randomUUID(), version)
+    }
+
+    /** Replaces the oldest entry, as a MAC entry that expires and the MAC
+      * learned at another port. */
+    private def replace(): Unit = {
+        names.set(version % size, nextName())
+    }
+
+    @Benchmark
+    def fullUpdate(bh: Blackhole): Unit = {
+        replace()
+        val cache = new util.HashMap[MAC, TableEntry[MAC, java.util.UUID]](size)
+        var i = 0
+        while (i < names.size()) {
+            val entry = decode(names.get(i))
+            cache.put(entry.key, entry)
+            i += 1
+        }
+        bh.consume(cache)
+    }
+
+    @Benchmark
+    def indexUpdate(bh: Blackhole): Unit = {
+        replace()
+        bh.consume(index.update(names))
+    }
+}
@@ -752,6 +752,69 @@ public class TestCondition {
         Assert.assertTrue(cond.matches(pktCtx));
     }
 
+    @Test
+    public void testCompiledMatchesAsNotCompiled() {
+        Condition cond = new Condition();
+        Condition compiled = new Condition();
+        for (Condition c : new Condition[] { cond, compiled }) {
+            c.etherType = (int) IPv4.ETHERTYPE;
+            c.nwProto = 6;
+            c.tpDst = new Range<>(1000, 2000);
+            c.nwSrcIp = new IPv4Subnet(srcIpAddr.toString(), 24);
+        }
+        compiled.compile();
+        pktCtx.inPortId_$eq(UUID.randomUUID());
+
+        for (boolean inv : new boolean[] { false, true }) {
+            for (Condition c : new Condition[] { cond, compiled }) {
+                c.conjunctionInv = inv;
+            }
+            assertTrue(cond.matches(pktCtx) != inv);
+            assertTrue(compiled.matches(pktCtx) != inv);
+            pktMatch.setDstPort(2001);
+            assertFalse(cond.matches(pktCtx) != inv);
+            assertFalse(compiled.matches(pktCtx) != inv);
+            pktMatch.setDstPort(1234);
+            pktMatch.setNetworkSrc(dstIpAddr);
+            assertFalse(cond.matches(pktCtx) != inv);
+            assertFalse(compiled.matches(pktCtx) != inv);
+            pktMatch.setNetworkSrc(srcIpAddr);
+        }
+
+        compiled.conjunctionInv = false;
+        compiled.tpDstInv = true;
+        assertFalse(compiled.matches(pktCtx));
+        pktMatch.setDstPort(80);
+        assertTrue(compiled.matches(pktCtx));
+    }
+
+    @Test
+    public void testCompiledReadsOnlyConditionFields() {
+        Condition cond = new Condition();
+        cond.nwProto = 6;
+        cond.tpDst = new Range<>(1234);
+        cond.fragmentPolicy = FragmentPolicy.ANY;
+        cond.compile();
+
+        pktMatch.clearSeenFields();
+        assertTrue(cond.matches(pktCtx));
+        assertTrue(pktMatch.isSeen(FlowMatch.Field.NetworkProto));
+        assertTrue(pktMatch.isSeen(FlowMatch.Field.DstPort));
+        assertFalse(pktMatch.isSeen(FlowMatch.Field.EthSrc));
+        assertFalse(pktMatch.isSeen(FlowMatch.Field.NetworkSrc));
+        assertFalse(pktMatch.isSeen(FlowMatch.Field.SrcPort));
+        assertFalse(pktMatch.isSeen(FlowMatch.Field.FragmentType));
+
+        Condition empty = new Condition();
+        empty.compile();
+        pktMatch.clearSeenFields();
+        assertTrue(empty.matches(pktCtx));
+        assertTrue(pktMatch.isSeen(FlowMatch.Field.FragmentType));
+        assertFalse(pktMatch.isSeen(FlowMatch.Field.EtherType));
+        empty.conjunctionInv = true;
+        assertFalse(empty.matches(pktCtx));
+    }
+
     @Test
     public void testSerialization() throws IOException, ClassNotFoundException {
         Condition cond = new Condition();
@@ -33,6 +33,7 @@ import org.midonet.midolman.rules.RuleResult.Action;
 import org.midonet.midolman.simulation.PacketContext;
 import org.midonet.midolman.state.HappyGoLuckyLeaser$;
 import org.midonet.midolman.state.TraceState;
+import org.midonet.midolman.state.TraceState$;
 import org.midonet.odp.FlowMatch;
 import org.midonet.odp.Packet;
 import org.midonet.packets.Ethernet;
@@ -338,6 +339,53 @@ public class TestRules {
                            pktCtx.tracingEnabled(requestId));
     }
 
+    private boolean traces(Rule rule) {
+        PacketContext pktCtx = PacketContext.generatedForJava(
+            1, new Packet(createTracePacket(), pktMatch), pktMatch, null);
+        pktCtx.initialize(conntrackTx, natTx, HappyGoLuckyLeaser$.MODULE$,
+                          traceTx);
+        pktCtx.inPortId_$eq(inPort);
+        try {
+            rule.process(pktCtx);
+            return false;
+        } catch (Exception tre) {
+            Assert.assertEquals("Should be trace required exception",
+                                tre, TraceRequiredException.instance());
+            return true;
+        }
+    }
+
+    @Test
+    public void testTraceRuleSampling() {
+        Rule never = new TraceRule(UUID.randomUUID(), cond, Long.MAX_VALUE,
+                                   0.0, UUID.randomUUID());
+        Assert.assertFalse("A flow is never sampled with probability 0",
+                           traces(never));
+
+        Rule always = new TraceRule(UUID.randomUUID(), cond, Long.MAX_VALUE,
+                                    1.0, UUID.randomUUID());
+        Assert.assertTrue("A flow is always sampled with probability 1",
+                          traces(always));
+
+        Rule half = new TraceRule(UUID.randomUUID(), cond, Long.MAX_VALUE,
+                                  0.5, UUID.randomUUID());
+        boolean sampled = traces(half);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("The sampling of a flow does not change",
+                                sampled, traces(half));
+        }
+
+        UUID requestId = UUID.randomUUID();
+        Random random = new Random();
+        int count = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (TraceState$.MODULE$.sample(requestId, random.nextLong(), 0.5))
+                count++;
+        }
+        Assert.assertTrue("Approximately half of the flows are sampled",
+                          count > 400 && count < 600);
+    }
+
     @Test
     public void testJumpRule() {
         Rule rule = new JumpRule(cond, jumpChainId, jumpChainName);
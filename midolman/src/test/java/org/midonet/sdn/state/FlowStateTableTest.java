@@ -17,7 +17,13 @@
 package org.midonet.sdn.state;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
@@ -204,6 +210,96 @@ public class FlowStateTableTest {
         assertThat(shard.get(key("bar")), nullValue());
     }
 
+    @Test
+    public void testRefAdoptsEntryFromOtherShard() {
+        FlowStateTable<TestKey, Integer> owner = shards.get(0);
+        FlowStateTable<TestKey, Integer> adopter = shards.get(1);
+
+        owner.putAndRef(key("foo"), 1);
+        owner.unref(key("foo"));
+
+        assertThat(adopter.ref(key("foo")), equalTo(1));
+        assertThat(adopter.getRefCount(key("foo")), equalTo(1));
+
+        clock.time_$eq(IDLE_EXPIRATION.toNanos() + 1);
+        owner.expireIdleEntries();
+        adopter.expireIdleEntries();
+
+        assertThat(owner.get(key("foo")), equalTo(1));
+        assertThat(global.get(key("foo")), equalTo(1));
+        assertThat(adopter.ref(key("bar")), nullValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLastHolderExpiresAdoptedEntry() throws Exception {
+        final BaseShardedFlowStateTable<TestKey, Integer>.FlowStateShard owner =
+            (BaseShardedFlowStateTable<TestKey, Integer>.FlowStateShard)
+                shards.get(0);
+        final BaseShardedFlowStateTable<TestKey, Integer>.FlowStateShard adopter =
+            (BaseShardedFlowStateTable<TestKey, Integer>.FlowStateShard)
+                shards.get(1);
+
+        owner.putAndRef(key("foo"), 1);
+        assertThat(adopter.ref(key("foo")), equalTo(1));
+        assertThat(global.holderCount(key("foo")), equalTo(2));
+        owner.unref(key("foo"));
+        adopter.unref(key("foo"));
+
+        clock.time_$eq(IDLE_EXPIRATION.toNanos() + 1);
+
+        // Both shards expire the key concurrently: the barrier makes both
+        // of them obliterate their entry before either decides whether it
+        // is the last holder.
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger expired = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        final Reducer<TestKey, Integer, Object> expire =
+            new Reducer<TestKey, Integer, Object>() {
+                @Override
+                public Object apply(Object seed, TestKey key, Integer value) {
+                    expired.incrementAndGet();
+                    try {
+                        barrier.await(5, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    return seed;
+                }
+            };
+        final Reducer<TestKey, Integer, Object> release =
+            new Reducer<TestKey, Integer, Object>() {
+                @Override
+                public Object apply(Object seed, TestKey key, Integer value) {
+                    released.incrementAndGet();
+                    return seed;
+                }
+            };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (final BaseShardedFlowStateTable<TestKey, Integer>.FlowStateShard
+                     shard : Arrays.asList(owner, adopter)) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return shard.expireIdleEntries(null, expire, release);
+                    }
+                }));
+            }
+            for (Future<Object> future : futures)
+                future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(expired.get(), equalTo(2));
+        assertThat(released.get(), equalTo(1));
+        assertThat(global.holderCount(key("foo")), equalTo(0));
+        assertThat(global.get(key("foo")), nullValue());
+    }
+
     @Test
     public void testTransactionDupePut() {
         FlowStateTable<TestKey, Integer> shard = shards.get(0);
@@ -47,7 +47,8 @@ import org.midonet.packets._
 import org.midonet.packets.util.PacketBuilder
 import org.midonet.sdn.flows.FlowTagger
 import org.midonet.sdn.flows.FlowTagger.FlowTag
-import org.midonet.util.concurrent.MockClock
+import org.midonet.util.collection.TimerWheel
+import org.midonet.util.concurrent.{MockClock, NanoClock}
 import org.midonet.util.eventloop.{Reactor, TryCatchReactor}
 
 @RunWith(classOf[JUnitRunner])
@@ -411,6 +412,31 @@ class ArpRequestBrokerTest extends Suite
         arps should be ('empty)
     }
 
+    def testRetriesWithSharedTimers(): Unit = {
+        val timers = new TimerWheel[Runnable](TickNanos, clock.tick)
+        arpBroker = new ArpRequestBroker(config, backChannel, clock, timers)
+
+        val futures = addMoreWaiters(List.empty)
+        expectEmitArp()
+
+        // the broker does not advance a shared wheel
+        clock.time += NANOS.convert((ARP_RETRY * RETRY_MAX_BASE_JITTER).toLong, MILLIS)
+        arpBroker.shouldProcess() should be (false)
+        arpBroker.process()
+        arps should be ('empty)
+
+        timers.advance(clock.tick, TimerWheel.RunTask)
+        expectEmitArp()
+
+        clock.time += NANOS.convert(ARP_TIMEOUT, MILLIS)
+        timers.advance(clock.tick, TimerWheel.RunTask)
+        arps should be ('empty)
+        for (f <- futures) {
+            f should be ('completed)
+            f.value.get should be ('failure)
+        }
+    }
+
     def testExpiresEntries(): Unit = {
         arpBroker.set(THEIR_IP, THEIR_MAC, router)
         eventually(ZK_RTT_TIMEOUT) {
@@ -426,4 +452,34 @@ class ArpRequestBrokerTest extends Suite
         }
         arps should be ('empty)
     }
+
+    def testExpiresEntriesWithSkewedClocks(): Unit = {
+        class SkewedClock extends NanoClock {
+            var tick = 0L
+            var timeMillis = 0L
+        }
+        val skewedClock = new SkewedClock
+        arpBroker = new ArpRequestBroker(config, backChannel, skewedClock)
+
+        arpBroker.set(THEIR_IP, THEIR_MAC, router)
+        eventually(ZK_RTT_TIMEOUT) {
+            arpBroker.get(THEIR_IP, port, router, -1) should be (THEIR_MAC)
+        }
+        arpBroker.process()
+        arps.clear()
+
+        // the timer fires before the entry expires on the wall clock
+        skewedClock.tick += NANOS.convert(ARP_EXPIRATION, MILLIS)
+        skewedClock.timeMillis += ARP_EXPIRATION - 10
+        arpBroker.process()
+        arpCache.get(THEIR_IP) should not be (null)
+
+        skewedClock.tick += NANOS.convert(10, MILLIS)
+        skewedClock.timeMillis += 10
+        arpBroker.process()
+        eventually(ZK_RTT_TIMEOUT) {
+            arpCache.get(THEIR_IP) should be (null)
+        }
+        arps should be ('empty)
+    }
 }
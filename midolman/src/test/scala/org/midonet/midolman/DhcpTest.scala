@@ -25,15 +25,20 @@ import scala.collection.mutable
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
+import org.midonet.cluster.models.Topology
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.PacketWorkflow.GeneratedLogicalPacket
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.layer3.Route._
 import org.midonet.midolman.simulation.{Bridge, DhcpValueParser, Router}
+import org.midonet.midolman.topology.devices.Dhcp
 import org.midonet.midolman.topology.devices.Dhcp.Opt121Route
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.midolman.util.VirtualConfigurationBuilders.DhcpOpt121Route
 import org.midonet.packets._
 import org.midonet.packets.util.PacketBuilder._
+import org.midonet.util.concurrent.toFutureOps
 
 @RunWith(classOf[JUnitRunner])
 class DhcpTest extends MidolmanSpec {
@@ -152,7 +157,7 @@ class DhcpTest extends MidolmanSpec {
                    bridgeIntPort1, bridgeIntPort2, bridgeIntPort3,
                    bridgePort1, bridgePort2, bridgePort3)
         fetchDevice[Router](router)
-        fetchDevice[Bridge](bridge)
+        fetchDevice[Bridge](bridge).subnetIds.foreach(fetchDevice[Dhcp](_))
 
         workflow = packetWorkflow(Map(bridgePortNumber1 -> bridgePort1,
                                       bridgePortNumber2 -> bridgePort2,
@@ -226,6 +231,42 @@ class DhcpTest extends MidolmanSpec {
         dhcpReplyForVm2.getServerIPAddress should be (routerIp3.getIntAddress)
     }
 
+    scenario("Dhcp replies reuse the compiled template") {
+        val dhcpReply1 = sendDhcpDiscoveryAndGetDhcpOffer()
+        val dhcpReply2 = sendDhcpDiscoveryAndGetDhcpOffer()
+        dhcpReply1.getOptions should be theSameInstanceAs dhcpReply2.getOptions
+
+        val hostNameOption = ("host-name", "foobar")
+        setDhcpHostOptions(bridge, dhcpSubnet1, dhcpHost1, Map(hostNameOption))
+
+        val dhcpReply3 = sendDhcpDiscoveryAndGetDhcpOffer()
+        dhcpReply3.getOptions should not be theSameInstanceAs (dhcpReply1.getOptions)
+        dhcpReply3.getOptions.contains(
+            extraDhcpOptToDhcpOption(hostNameOption).get) shouldBe true
+    }
+
+    scenario("Dhcp skips the subnets that do not exist") {
+        Given("A bridge with a DHCP subnet that does not exist")
+        val store = injector.getInstance(classOf[MidonetBackend]).store
+        val missingId = UUID.randomUUID()
+        val network = store.get(classOf[Topology.Network], bridge).await()
+        store.update(network.toBuilder.clearDhcpIds()
+                         .addDhcpIds(missingId.asProto)
+                         .addAllDhcpIds(network.getDhcpIdsList)
+                         .build())
+        fetchDevice[Bridge](bridge).subnetIds.head shouldBe missingId
+
+        When("Sending a first DHCP request, which may wait for the subnet")
+        injectDhcpDiscover(bridgePort1, bridgePortNumber1, vm1Mac)
+        simBackChannel.find[GeneratedLogicalPacket]()
+
+        Then("The next DHCP requests are served from the other subnets")
+        for (i <- 0 until 2) {
+            val dhcpReply = sendDhcpDiscoveryAndGetDhcpOffer()
+            dhcpReply.getServerIPAddress should be (routerIp2.getIntAddress)
+        }
+    }
+
     scenario("Dhcp Extra Option") {
         val hostNameOption = (DHCPOption.Code.HOST_NAME.value.toString, "foobar")
         val extraDhcpOpts = Map(hostNameOption)
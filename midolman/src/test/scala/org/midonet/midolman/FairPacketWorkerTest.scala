@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.collection.JavaConverters._
+
+import com.codahale.metrics.MetricRegistry
+import com.lmax.disruptor.{EventHandler, TimeoutHandler}
+
+import org.junit.runner.RunWith
+import org.scalatest.concurrent.Eventually
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.time.{Millis, Seconds, Span}
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.UpcallScheduler._
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.midolman.state.FlowStateAgentPackets
+import org.midonet.odp.{FlowMatch, Packet}
+import org.midonet.packets.{ARP, IPv4, TCP, UDP}
+
+@RunWith(classOf[JUnitRunner])
+class FairPacketWorkerTest extends FeatureSpec with Matchers
+                           with GivenWhenThen with BeforeAndAfter
+                           with Eventually {
+
+    private class RecordingWorkflow extends EventHandler[PacketWorkflow.PacketRef]
+                                    with TimeoutHandler {
+        val packets = new LinkedBlockingQueue[Packet]()
+        val timeouts = new AtomicInteger()
+
+        override def onEvent(ref: PacketWorkflow.PacketRef, sequence: Long,
+                             endOfBatch: Boolean): Unit = {
+            packets.offer(ref.packet)
+        }
+
+        override def onTimeout(sequence: Long): Unit = {
+            timeouts.incrementAndGet()
+        }
+    }
+
+    private var workflow: RecordingWorkflow = _
+    private var worker: FairPacketWorker = _
+
+    implicit val patience: PatienceConfig = new PatienceConfig(
+        Span(5, Seconds),
+        Span(10, Millis))
+
+    before {
+        workflow = new RecordingWorkflow
+    }
+
+    after {
+        if (worker ne null) {
+            worker.shutdownNow()
+            worker.join(5000)
+            worker = null
+        }
+    }
+
+    private def createWorker(weights: Array[Int] = Array(4, 2, 1),
+                             queueSize: Int = 64,
+                             sourceQueues: Int = 4): FairPacketWorker = {
+        val metrics = new PacketPipelineMetrics(new MetricRegistry, 0)
+        worker = new FairPacketWorker(
+            workflow, new UpcallScheduler(weights, queueSize, sourceQueues,
+                                          metrics), 0)
+        worker
+    }
+
+    private def packet(fmatch: FlowMatch): Packet = new Packet(null, fmatch)
+
+    private def arp(port: Int) = packet(new FlowMatch()
+        .setInputPortNumber(port)
+        .setEtherType(ARP.ETHERTYPE))
+
+    private def dhcp(port: Int) = packet(new FlowMatch()
+        .setInputPortNumber(port)
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkProto(UDP.PROTOCOL_NUMBER)
+        .setSrcPort(68).setDstPort(67))
+
+    private def bgp(port: Int) = packet(new FlowMatch()
+        .setInputPortNumber(port)
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkProto(TCP.PROTOCOL_NUMBER)
+        .setSrcPort(40000).setDstPort(179))
+
+    private def flowState(peer: Int) = packet(new FlowMatch()
+        .setTunnelKey(FlowStateAgentPackets.TUNNEL_KEY)
+        .setTunnelSrc(peer)
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkProto(UDP.PROTOCOL_NUMBER))
+
+    private def data(port: Int) = packet(new FlowMatch()
+        .setInputPortNumber(port)
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkProto(TCP.PROTOCOL_NUMBER)
+        .setSrcPort(40000).setDstPort(80))
+
+    private def processed(count: Int): Seq[Packet] = {
+        eventually { workflow.packets.size shouldBe count }
+        workflow.packets.asScala.toSeq
+    }
+
+    feature("Fair packet worker classifies the upcalls") {
+        scenario("Control packets are processed before queued data") {
+            Given("A worker with data packets queued before it starts")
+            val w = createWorker()
+            val flood = for (i <- 0 until 32) yield data(1)
+            flood foreach { p => w.submit(p) shouldBe true }
+
+            And("Control and flow state packets queued after the data")
+            val control = Seq(arp(2), dhcp(2), bgp(2))
+            val state = flowState(0x0a000001)
+            control foreach { p => w.submit(p) shouldBe true }
+            w.submit(state) shouldBe true
+
+            When("The worker starts")
+            w.start()
+
+            Then("The worker processes all packets")
+            val packets = processed(36)
+
+            And("The control and flow state packets are processed first")
+            packets.take(4).toSet shouldBe (control :+ state).toSet
+            packets.drop(4) shouldBe flood
+        }
+
+        scenario("The worker handles timeouts when it is idle") {
+            Given("A started worker without packets")
+            val w = createWorker()
+            w.start()
+
+            Then("The worker calls the workflow timeout handler")
+            eventually { workflow.timeouts.get should be > 0 }
+        }
+    }
+
+    feature("Fair packet worker drops per source") {
+        scenario("A source flooding data only drops its own packets") {
+            val w = createWorker(queueSize = 8, sourceQueues = 2)
+            for (i <- 0 until 8) {
+                w.submit(data(1)) shouldBe true
+            }
+            w.submit(data(1)) shouldBe false
+            w.submit(data(2)) shouldBe true
+        }
+
+        scenario("A source flooding ARP does not starve other sources") {
+            Given("A worker where port 1 fills its control queue")
+            val w = createWorker(queueSize = 8, sourceQueues = 2)
+            for (i <- 0 until 8) {
+                w.submit(arp(1)) shouldBe true
+            }
+
+            Then("Further ARP and DHCP packets from port 1 are dropped")
+            w.submit(arp(1)) shouldBe false
+            w.submit(dhcp(1)) shouldBe false
+
+            And("The control packets from port 2 are accepted")
+            val other = Seq(arp(2), dhcp(2))
+            other foreach { p => w.submit(p) shouldBe true }
+
+            When("The worker starts")
+            w.start()
+
+            Then("The control queues of both ports are served round robin")
+            processed(10).take(4) should contain allOf (other(0), other(1))
+        }
+
+        scenario("A peer flooding flow state does not starve other peers") {
+            val w = createWorker(queueSize = 8, sourceQueues = 2)
+            for (i <- 0 until 8) {
+                w.submit(flowState(1)) shouldBe true
+            }
+            w.submit(flowState(1)) shouldBe false
+            w.submit(flowState(2)) shouldBe true
+        }
+    }
+
+    feature("Fair packet worker schedules with deficit round robin") {
+        scenario("Classes are processed in proportion to their weights") {
+            Given("A worker with packets of every class queued")
+            val w = createWorker()
+            for (i <- 0 until 16) {
+                w.submit(arp(1)) shouldBe true
+                w.submit(flowState(1)) shouldBe true
+                w.submit(data(1)) shouldBe true
+            }
+
+            When("The worker starts")
+            w.start()
+
+            Then("Each round processes the classes by their weights")
+            val classes = processed(48).map(p => classify(p.getMatch))
+            val round = classes.take(14)
+            round.count(_ == Control) shouldBe 8
+            round.count(_ == FlowState) shouldBe 4
+            round.count(_ == Data) shouldBe 2
+
+            And("The classes with remaining packets share the later rounds")
+            classes.count(_ == Data) shouldBe 16
+        }
+
+        scenario("Sources of the same class share the class weight") {
+            Given("A worker with data packets from two sources")
+            val w = createWorker(sourceQueues = 2)
+            val first = for (i <- 0 until 8) yield data(1)
+            val second = for (i <- 0 until 8) yield data(2)
+            first foreach { p => w.submit(p) shouldBe true }
+            second foreach { p => w.submit(p) shouldBe true }
+
+            When("The worker starts")
+            w.start()
+
+            Then("The sources alternate and keep the order of their packets")
+            val packets = processed(16)
+            packets.grouped(2).foreach { pair =>
+                pair.map(_.getMatch.getInputPortNumber).toSet shouldBe Set(1, 2)
+            }
+            packets.filter(first.contains) shouldBe first
+            packets.filter(second.contains) shouldBe second
+        }
+    }
+}
@@ -39,7 +39,7 @@ import org.midonet.midolman.flows.NativeFlowMatchList
 import org.midonet.midolman.host.scanner.InterfaceScanner
 import org.midonet.midolman.host.services.{QosService, TcRequestHandler}
 import org.midonet.midolman.io._
-import org.midonet.midolman.logging.FlowTracingAppender
+import org.midonet.midolman.logging.{CassandraFlowTraceSink, FlowTracingAppender}
 import org.midonet.midolman.services.{HostIdProvider, MidolmanActorsService, SelectLoopService}
 import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
 import org.midonet.midolman.state.NatState.NatKey
@@ -116,8 +116,12 @@ class MockMidolmanModule(override val hostId: UUID,
             cbRegistry)
     }
 
-    protected override def flowTracingAppender()=
-        new FlowTracingAppender(Future.failed(new Exception))
+    protected override def flowTracingAppender() = {
+        val tracing = config.flowTracing
+        new FlowTracingAppender(new CassandraFlowTraceSink(
+            Future.failed(new Exception), tracing.queueSize,
+            tracing.batchSize, tracing.maxInFlight))
+    }
 
     protected override def bindHostService(): Unit = { }
 
@@ -15,6 +15,7 @@
  */
 package org.midonet.midolman
 
+import java.util.UUID
 import java.util.concurrent.atomic.AtomicInteger
 
 import scala.collection.mutable
@@ -24,6 +25,8 @@ import org.scalatest.junit.JUnitRunner
 import org.junit.runner.RunWith
 
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.FlowTag
 
 @RunWith(classOf[JUnitRunner])
 class SimulationBackChannelTest extends FeatureSpec with Matchers with BeforeAndAfter {
@@ -153,4 +156,59 @@ class SimulationBackChannelTest extends FeatureSpec with Matchers with BeforeAnd
             backChannel.hasMessages should be (false)
         }
     }
+
+    feature("coalesces flow invalidations") {
+        scenario("duplicate tags are processed once by every shard") {
+            val tag1 = FlowTagger.tagForBridge(UUID.randomUUID())
+            val tag2 = FlowTagger.tagForBridge(UUID.randomUUID())
+            backChannel.tell(tag1)
+            backChannel.tell(tag2)
+            backChannel.tell(tag1)
+            p1.tell(tag2)
+
+            process(p1)
+            processedMsgs should contain theSameElementsAs Seq(tag1, tag2)
+            process(p2)
+            processedMsgs should contain theSameElementsAs Seq(tag1, tag2)
+            c1 should have size 4
+        }
+
+        scenario("tags and messages are processed in order") {
+            val tag1 = FlowTagger.tagForBridge(UUID.randomUUID())
+            val tag2 = FlowTagger.tagForBridge(UUID.randomUUID())
+            p1.tell(Message("foo"))
+            p1.tell(tag1)
+            p1.tell(Message("bar"))
+            p1.tell(tag2)
+            p1.tell(tag1)
+
+            process(p1)
+            processedMsgs.reverse should be (
+                List(Message("foo"), tag1, Message("bar"), tag2))
+        }
+
+        scenario("shards with pending tags report messages") {
+            val tag = FlowTagger.tagForBridge(UUID.randomUUID())
+            backChannel.tell(tag)
+            p1.hasMessages should be (true)
+            backChannel.hasMessages should be (true)
+
+            p1.poll() should be (tag)
+            p1.hasMessages should be (false)
+        }
+
+        scenario("a tag invalidated after being polled is processed again") {
+            val tag1 = FlowTagger.tagForBridge(UUID.randomUUID())
+            val tag2 = FlowTagger.tagForBridge(UUID.randomUUID())
+            p1.tell(tag1)
+            p1.tell(tag2)
+
+            val first = p1.poll()
+            p1.tell(first.asInstanceOf[FlowTag])
+
+            process(p1)
+            processedMsgs should contain theSameElementsAs Seq(tag1, tag2)
+            p1.hasMessages should be (false)
+        }
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.midolman.UpcallScheduler._
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.midolman.state.FlowStateAgentPackets
+import org.midonet.odp.{FlowMatch, Packet}
+import org.midonet.packets.{ARP, IPv4, TCP, UDP}
+
+@RunWith(classOf[JUnitRunner])
+class UpcallSchedulerTest extends FeatureSpec with Matchers {
+
+    private def packet(fmatch: FlowMatch): Packet = new Packet(null, fmatch)
+
+    private def arp(port: Int = 1) = packet(new FlowMatch()
+        .setInputPortNumber(port)
+        .setEtherType(ARP.ETHERTYPE))
+
+    private def dhcp(port: Int = 1) = packet(new FlowMatch()
+        .setInputPortNumber(port)
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkProto(UDP.PROTOCOL_NUMBER)
+        .setSrcPort(68).setDstPort(67))
+
+    private def flowState() = packet(new FlowMatch()
+        .setTunnelKey(FlowStateAgentPackets.TUNNEL_KEY)
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkProto(UDP.PROTOCOL_NUMBER))
+
+    private def data(port: Int) = packet(new FlowMatch()
+        .setInputPortNumber(port)
+        .setEtherType(IPv4.ETHERTYPE)
+        .setNetworkProto(TCP.PROTOCOL_NUMBER)
+        .setSrcPort(40000).setDstPort(80))
+
+    private def scheduler(weights: Array[Int] = Array(4, 2, 1),
+                          queueSize: Int = 64, sourceQueues: Int = 4) =
+        new UpcallScheduler(weights, queueSize, sourceQueues,
+                            new PacketPipelineMetrics(new MetricRegistry, 0))
+
+    private def drain(s: UpcallScheduler, max: Int): Seq[Packet] = {
+        val batch = new Array[Packet](max)
+        val count = s.poll(batch, max)
+        batch.take(count).toSeq
+    }
+
+    feature("Upcall classification") {
+        scenario("Packets are classified by traffic class") {
+            classify(arp().getMatch) shouldBe Control
+            classify(dhcp().getMatch) shouldBe Control
+            classify(flowState().getMatch) shouldBe FlowState
+            classify(data(1).getMatch) shouldBe Data
+        }
+
+        scenario("Classification does not mark fields as seen") {
+            val fmatch = data(1).getMatch
+            classify(fmatch)
+            fmatch.getSeenFields shouldBe 0L
+        }
+    }
+
+    feature("Weighted fair scheduling") {
+        scenario("Control traffic is not starved by data traffic") {
+            val s = scheduler()
+            val flood = for (i <- 0 until 32) yield data(1)
+            flood foreach { p => s.offer(p) shouldBe true }
+            val control = arp()
+            s.offer(control) shouldBe true
+
+            drain(s, 4) should contain (control)
+        }
+
+        scenario("Classes are served in proportion to their weights") {
+            val s = scheduler()
+            for (i <- 0 until 16) {
+                s.offer(arp()) shouldBe true
+                s.offer(flowState()) shouldBe true
+                s.offer(data(1)) shouldBe true
+            }
+
+            val classes = drain(s, 14).map(p => classify(p.getMatch))
+            classes.count(_ == Control) shouldBe 8
+            classes.count(_ == FlowState) shouldBe 4
+            classes.count(_ == Data) shouldBe 2
+        }
+
+        scenario("Data sources are served round robin") {
+            val s = scheduler(sourceQueues = 2)
+            val flood = for (i <- 0 until 16) yield data(1)
+            flood foreach { p => s.offer(p) shouldBe true }
+            val other = data(2)
+            s.offer(other) shouldBe true
+
+            drain(s, 2) should contain (other)
+        }
+
+        scenario("Packets of a source preserve their order") {
+            val s = scheduler()
+            val packets = for (i <- 0 until 16) yield data(1)
+            packets foreach { p => s.offer(p) shouldBe true }
+
+            drain(s, 16) shouldBe packets
+            s.isEmpty shouldBe true
+        }
+
+        scenario("A full source queue drops only its packets") {
+            val s = scheduler(queueSize = 8, sourceQueues = 2)
+            for (i <- 0 until 8) {
+                s.offer(data(1)) shouldBe true
+            }
+            s.offer(data(1)) shouldBe false
+            s.offer(data(2)) shouldBe true
+            s.offer(arp()) shouldBe true
+        }
+    }
+}
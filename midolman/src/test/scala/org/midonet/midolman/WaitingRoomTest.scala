@@ -23,11 +23,19 @@ import org.scalatest.{Matchers, FeatureSpec}
 import org.scalatest.junit.JUnitRunner
 import org.junit.runner.RunWith
 
+import org.midonet.util.collection.TimerWheel
+
 @RunWith(classOf[JUnitRunner])
 class WaitingRoomTest extends FeatureSpec with Matchers {
 
     val to = TimeUnit.MILLISECONDS.toNanos(500)
 
+    def evictions[T](wr: WaitingRoom[T]) = {
+        val buf = new ListBuffer[T]()
+        wr.doExpirations(buf.+=)
+        buf.toList
+    }
+
     feature("Add a waiter") {
 
         scenario("Construction") {
@@ -40,12 +48,6 @@ class WaitingRoomTest extends FeatureSpec with Matchers {
             wr.timeout shouldEqual TimeUnit.SECONDS.toNanos(3)
         }
 
-        def evictions[T](wr: WaitingRoom[T]) = {
-            val buf = new ListBuffer[T]()
-            wr.doExpirations(buf.+=)
-            buf.toList
-        }
-
         scenario("Each waiter triggers a cleanup of timed out waiters") {
             val wr = new WaitingRoom[Int](to)
             val w1 = 1
@@ -88,6 +90,41 @@ class WaitingRoomTest extends FeatureSpec with Matchers {
         }
     }
 
+    feature("Shared timer wheel") {
+        scenario("The owner of the wheel advances the timeouts") {
+            val timers = new TimerWheel[Runnable](WaitingRoom.TickNanos,
+                                                  System.nanoTime())
+            val wr = new WaitingRoom[Int](to, timers)
+            List(1, 2, 3) foreach wr.enter
+            wr leave 2
+            timers.size shouldBe 2
+
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(to))
+
+            // the room does not advance a shared wheel
+            evictions(wr) shouldBe empty
+            wr.count shouldBe 2
+
+            timers.advance(System.nanoTime(), TimerWheel.RunTask) shouldBe 2
+            wr.count shouldBe 2
+            evictions(wr) shouldEqual List(1, 3)
+            wr.count shouldBe 0
+        }
+
+        scenario("A waiter leaving after timing out is not expired") {
+            val timers = new TimerWheel[Runnable](WaitingRoom.TickNanos,
+                                                  System.nanoTime())
+            val wr = new WaitingRoom[Int](to, timers)
+            List(1, 2) foreach wr.enter
+
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(to))
+            timers.advance(System.nanoTime(), TimerWheel.RunTask)
+            wr leave 1
+
+            evictions(wr) shouldEqual List(2)
+        }
+    }
+
     feature("Reentry of objects") {
         scenario("A waiter is added, completes, and is added again.") {
             val wr = new WaitingRoom[AtomicInteger](to)
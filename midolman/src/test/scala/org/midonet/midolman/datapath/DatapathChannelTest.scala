@@ -123,6 +123,31 @@ class DatapathChannelTest extends MidolmanSpec {
             new Ethernet().deserialize(bb) should be (ethernet)
         }
 
+        scenario ("Can execute batches of packets") {
+            val count = 10
+            for (i <- 0 until count) {
+                val context = packetContextFor(ethernet, UUID.randomUUID())
+                context.packetActions.addAll(actions)
+                dpChannel.handoff(context)
+            }
+
+            barrier.waitFor(count - 1)
+            nlChannel.packetsWritten.get() should be (count)
+
+            var messages = 0
+            while (!nlChannel.written.isEmpty) {
+                val bb = nlChannel.written.poll()
+                var offset = 0
+                while (offset < bb.limit()) {
+                    bb.getInt(offset + NetlinkMessage.NLMSG_PID_OFFSET) should be (10)
+                    bb.getInt(offset + NetlinkMessage.GENL_HEADER_SIZE) should be (datapathId)
+                    offset += bb.getInt(offset + NetlinkMessage.NLMSG_LEN_OFFSET)
+                    messages += 1
+                }
+            }
+            messages should be (count)
+        }
+
         scenario ("Can create flows") {
             val context = packetContextFor(ethernet, UUID.randomUUID())
             context.flowActions.addAll(actions)
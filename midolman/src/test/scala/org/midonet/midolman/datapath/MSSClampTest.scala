@@ -186,6 +186,29 @@ class MSSClampTest extends FlatSpec with Matchers {
         success.get shouldBe true
     }
 
+    it should "discard the original packet bytes only if it changes MSS" in {
+        val inner = { eth src srcMac1 dst dstMac1 } <<
+                    { ip4 src srcIp1 dst dstIp1 } <<
+                    { tcp src srcPort1 dst dstPort1 flags synFlags mss 1460 }
+        val unchanged = makeCtx(inner, withData = true)
+        PacketExecutor.clampMss(unchanged, log)
+        unchanged.packet.hasOriginalData shouldBe true
+
+        val outer = { eth src srcMac2 dst dstMac2 } <<
+                    { ip4 src srcIp2 dst dstIp2 } <<
+                    { udp src srcPort2 dst dstPort2 } <<
+                    { vxlan vni 5 } <<
+                    { eth src srcMac1 dst dstMac1 } <<
+                    { ip4 src srcIp1 dst dstIp2 } <<
+                    { tcp src srcPort1 dst dstPort1 flags synFlags mss 1460 }
+        val changed = makeCtx(outer, withData = true)
+        val data = changed.packet.getData
+        PacketExecutor.clampMss(changed, log)
+        changed.packet.hasOriginalData shouldBe false
+        changed.packet.getData should not be data
+        checkMss(Ethernet.deserialize(changed.packet.getData), 1410)
+    }
+
     private def clampAndCheck(ctx: PacketContext, mss: Short,
                               checksumCleared: Boolean): Unit = {
         val eth = ctx.packet.getEthernet
@@ -197,8 +220,16 @@ class MSSClampTest extends FlatSpec with Matchers {
 
     private var cookie = 1
     private def makeCtx(bldr: PacketBuilder[Ethernet],
-                        setInputPort: Boolean = true): PacketContext = {
-        val pkt = new Packet(bldr.packet, new FlowMatch())
+                        setInputPort: Boolean = true,
+                        withData: Boolean = false): PacketContext = {
+        val eth: Ethernet = bldr.packet
+        val pkt =
+            if (withData) {
+                val data = eth.serialize()
+                new Packet(eth, new FlowMatch(), data.length, data)
+            } else {
+                new Packet(eth, new FlowMatch())
+            }
         val ctx = PacketContext.generated(cookie, pkt, pkt.getMatch)
         cookie += 1
         if (setInputPort)
@@ -86,6 +86,21 @@ class NativeFlowControllerTest extends MidolmanSpec with MockitoSugar {
                                                 mockEq(tags))
         }
 
+        scenario("A flow keeps its assigned sequence") {
+            Given("A flow in the flow controller")
+            val managedFlow = flowController.addFlow(
+                FlowMatches.generateFlowMatch(random),
+                Lists.newArrayList(),
+                Lists.newArrayList(),
+                FlowExpirationIndexer.FLOW_EXPIRATION)
+
+            When("Assigning a sequence to the flow")
+            managedFlow.assignSequence(42L)
+
+            Then("The flow returns the assigned sequence")
+            managedFlow.sequence shouldBe 42L
+        }
+
         scenario("A flow is removed") {
             Given("A flow in the flow controller")
             val managedFlow = flowController.addFlow(
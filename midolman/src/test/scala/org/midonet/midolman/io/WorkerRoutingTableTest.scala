@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.io
+
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.util.concurrent.MockClock
+
+@RunWith(classOf[JUnitRunner])
+class WorkerRoutingTableTest extends FeatureSpec with Matchers
+                             with GivenWhenThen {
+
+    private val Interval = 1000000000L
+
+    private def workerLoads(table: WorkerRoutingTable,
+                            hashes: Seq[Int]): Array[Int] = {
+        val loads = new Array[Int](table.numWorkers)
+        for (hash <- hashes) {
+            loads(table.ownerOf(table.bucketOf(hash))) += 1
+        }
+        loads
+    }
+
+    feature("The table routes connections to workers") {
+        scenario("Buckets are distributed across the workers") {
+            Given("A routing table for four workers")
+            val table = new WorkerRoutingTable(4, 1000, 0L, 1.5)
+
+            Then("The number of buckets is rounded to a power of two")
+            table.numBuckets shouldBe 1024
+
+            And("Each worker owns the same number of buckets")
+            (0 until table.numBuckets)
+                .groupBy(table.ownerOf)
+                .mapValues(_.size) shouldBe Map(0 -> 256, 1 -> 256,
+                                                2 -> 256, 3 -> 256)
+        }
+
+        scenario("A connection is always routed to the same worker") {
+            Given("A routing table")
+            val table = new WorkerRoutingTable(8, 1024, 0L, 1.5)
+
+            Then("The same hash is routed to the same worker")
+            for (_ <- 0 until 1000) {
+                val hash = Random.nextInt()
+                val worker = table.route(hash)
+                worker should (be >= 0 and be < 8)
+                table.route(hash) shouldBe worker
+            }
+        }
+
+        scenario("More workers than buckets") {
+            Given("A routing table with fewer buckets than workers")
+            val table = new WorkerRoutingTable(32, 4, 0L, 1.5)
+
+            Then("Every worker owns at least one bucket")
+            table.numBuckets shouldBe 32
+            (0 until table.numBuckets).map(table.ownerOf).toSet shouldBe
+                (0 until 32).toSet
+        }
+    }
+
+    feature("The table rebalances the buckets") {
+        scenario("Rebalancing is disabled") {
+            Given("A routing table without a rebalance interval")
+            val clock = new MockClock
+            val table = new WorkerRoutingTable(2, 64, 0L, 1.5, clock)
+
+            When("Routing packets and advancing the clock")
+            for (_ <- 0 until 10000) table.route(0)
+            clock.time = Interval * 10
+
+            Then("No buckets are migrated")
+            table.maybeRebalance() shouldBe 0
+        }
+
+        scenario("Buckets migrate from the most loaded worker") {
+            Given("A routing table for two workers")
+            val clock = new MockClock
+            val table = new WorkerRoutingTable(2, 64, Interval, 1.2, clock)
+
+            And("Many connections owned by the first worker")
+            val hashes = Iterator.continually(Random.nextInt())
+                .filter(hash => table.ownerOf(table.bucketOf(hash)) == 0)
+                .take(200).toSeq
+
+            When("Routing packets for these connections")
+            for (hash <- hashes; _ <- 0 until 10) table.route(hash)
+
+            Then("The table does not rebalance before the interval")
+            table.maybeRebalance() shouldBe 0
+
+            When("The rebalance interval elapses")
+            clock.time = Interval
+            val migrations = table.maybeRebalance()
+
+            Then("Buckets are migrated to the second worker")
+            migrations should be > 0
+            val loads = workerLoads(table, hashes)
+            loads(1) should be > 0
+
+            And("The load of the first worker is reduced")
+            loads(0) should be < hashes.size
+        }
+
+        scenario("A single elephant connection is not migrated") {
+            Given("A routing table for two workers")
+            val clock = new MockClock
+            val table = new WorkerRoutingTable(2, 64, Interval, 1.2, clock)
+
+            When("Routing packets for a single connection")
+            val hash = Random.nextInt()
+            val worker = table.ownerOf(table.bucketOf(hash))
+            for (_ <- 0 until 10000) table.route(hash)
+
+            And("The rebalance interval elapses")
+            clock.time = Interval
+
+            Then("The bucket of the connection is not migrated")
+            table.maybeRebalance() shouldBe 0
+            table.route(hash) shouldBe worker
+        }
+
+        scenario("Balanced load is not rebalanced") {
+            Given("A routing table for four workers")
+            val clock = new MockClock
+            val table = new WorkerRoutingTable(4, 64, Interval, 1.5, clock)
+
+            When("Routing the same number of packets to every bucket")
+            val hashes = (0 until table.numBuckets).map { bucket =>
+                Iterator.continually(Random.nextInt())
+                    .find(table.bucketOf(_) == bucket).get
+            }
+            for (hash <- hashes; _ <- 0 until 100) table.route(hash)
+
+            And("The rebalance interval elapses")
+            clock.time = Interval
+
+            Then("No buckets are migrated")
+            table.maybeRebalance() shouldBe 0
+        }
+    }
+}
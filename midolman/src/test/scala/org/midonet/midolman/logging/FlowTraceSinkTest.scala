@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.logging
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Promise
+
+import com.datastax.driver.core.Session
+import com.datastax.driver.core.utils.UUIDs
+
+import org.junit.runner.RunWith
+import org.scalatest.concurrent.Eventually
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class FlowTraceSinkTest extends FeatureSpec with Matchers with GivenWhenThen
+                        with Eventually {
+
+    private def event(traceRequestId: UUID, data: String): FlowTraceEvent = {
+        FlowTraceEvent(traceRequestId, UUID.randomUUID(), UUIDs.timeBased(),
+                       UUID.randomUUID(), "ac:ca:ba:00:00:01",
+                       "ac:ca:ba:00:00:02", 0x800, "10.0.0.1", "10.0.0.2",
+                       17, 1000, 2000, data)
+    }
+
+    feature("File flow trace sink") {
+        scenario("Writes events to file") {
+            Given("A file sink")
+            val file = File.createTempFile("flow-tracing", ".log")
+            file.deleteOnExit()
+            val sink = new FileFlowTraceSink(file.getAbsolutePath, 16, 4)
+            sink.start()
+
+            When("Offering events to the sink")
+            val traceRequestId = UUID.randomUUID()
+            for (i <- 0 until 10) {
+                sink.offer(event(traceRequestId, s"message $i")) shouldBe true
+            }
+
+            Then("The events are written to the file")
+            eventually { sink.written shouldBe 10 }
+            sink.stop()
+
+            val lines = Files.readAllLines(file.toPath,
+                                           StandardCharsets.UTF_8).asScala
+            lines should have size 10
+            for (i <- 0 until 10) {
+                lines(i) should include (traceRequestId.toString)
+                lines(i) should endWith (s"\tmessage $i")
+            }
+            sink.dropped shouldBe 0
+        }
+
+        scenario("Drops events when the queue is full") {
+            Given("A file sink that is not started")
+            val file = File.createTempFile("flow-tracing", ".log")
+            file.deleteOnExit()
+            val sink = new FileFlowTraceSink(file.getAbsolutePath, 4, 4)
+
+            When("Offering more events than the queue size")
+            val traceRequestId1 = UUID.randomUUID()
+            val traceRequestId2 = UUID.randomUUID()
+            for (i <- 0 until 4) {
+                sink.offer(event(traceRequestId1, s"message $i")) shouldBe true
+            }
+            sink.offer(event(traceRequestId1, "message 4")) shouldBe false
+            sink.offer(event(traceRequestId2, "message 5")) shouldBe false
+            sink.offer(event(traceRequestId2, "message 6")) shouldBe false
+
+            Then("The sink accounts the dropped events per trace request")
+            sink.dropped shouldBe 3
+            sink.dropped(traceRequestId1) shouldBe 1
+            sink.dropped(traceRequestId2) shouldBe 2
+        }
+    }
+
+    feature("Cassandra flow trace sink") {
+        scenario("Drops events while the session is not available") {
+            Given("A Cassandra sink without a session")
+            val sink = new CassandraFlowTraceSink(Promise[Session]().future,
+                                                  16, 4, 4)
+            sink.start()
+
+            When("Offering events to the sink")
+            val traceRequestId = UUID.randomUUID()
+            sink.offer(event(traceRequestId, "message 0")) shouldBe false
+            sink.offer(event(traceRequestId, "message 1")) shouldBe false
+
+            Then("The sink accounts the dropped events")
+            sink.dropped shouldBe 2
+            sink.dropped(traceRequestId) shouldBe 2
+            sink.written shouldBe 0
+        }
+    }
+}
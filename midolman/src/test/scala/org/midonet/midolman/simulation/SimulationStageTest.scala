@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+
+import com.codahale.metrics.Timer
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.rules.{Condition, RuleResult}
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.packets.Ethernet
+import org.midonet.packets.util.PacketBuilder._
+
+@RunWith(classOf[JUnitRunner])
+class SimulationStageTest extends MidolmanSpec {
+
+    private var bridge: UUID = _
+    private var inPort: UUID = _
+    private var outPort: UUID = _
+
+    private val frame: Ethernet =
+        { eth src "02:00:00:00:00:01" dst "02:00:00:00:00:02" } <<
+        { ip4 src "10.0.0.1" dst "10.0.0.2" } <<
+        { udp src 10000 dst 10001 }
+
+    override def beforeTest(): Unit = {
+        bridge = newBridge("bridge")
+        inPort = newBridgePort(bridge)
+        outPort = newBridgePort(bridge)
+        materializePort(inPort, hostId, "port0")
+        materializePort(outPort, hostId, "port1")
+
+        val chain = newInboundChainOnBridge("bridge-in", bridge)
+        newLiteralRuleOnChain(chain, 1, new Condition(),
+                              RuleResult.Action.ACCEPT)
+
+        fetchChains(chain)
+        fetchPorts(inPort, outPort)
+        fetchDevice[Bridge](bridge)
+    }
+
+    private def newTimers(): Array[Timer] =
+        Array.fill(SimulationStage.StageCount)(new Timer())
+
+    feature("The simulation measures the stage latency") {
+        scenario("A sampled packet records the traversed stages") {
+            Given("A packet context with stage timers")
+            val timers = newTimers()
+            val context = packetContextFor(frame, inPort)
+            context.stageTimers = timers
+
+            When("Simulating the packet")
+            simulate(context)
+
+            Then("The traversed stages are measured")
+            timers(SimulationStage.IngressPort).getCount shouldBe 1
+            timers(SimulationStage.Bridge).getCount shouldBe 1
+            timers(SimulationStage.Chain).getCount shouldBe 1
+
+            And("The stages not traversed are not measured")
+            timers(SimulationStage.Router).getCount shouldBe 0
+            timers(SimulationStage.RouteLookup).getCount shouldBe 0
+            timers(SimulationStage.NatLeasing).getCount shouldBe 0
+        }
+
+        scenario("A packet that is not sampled does not record the stages") {
+            Given("A packet context without stage timers")
+            val context = packetContextFor(frame, inPort)
+
+            When("Simulating the packet")
+            simulate(context)
+
+            Then("The context is not timed")
+            context.isStageTimed shouldBe false
+        }
+    }
+}
@@ -629,22 +629,65 @@ class FlowStateReplicatorTest extends MidolmanSpec with TopologyBuilder {
             flowState2.strongConnTrack.isEmpty shouldBe true
 
             When("Importing it")
-            recipient.importFromStorage(flowState)
+            recipient.importFromStorage(flowState) shouldBe 1
 
             Then("Flows tagged with it should be invalidated")
             mockFlowInvalidation should haveInvalidated (connTrackKeys.head)
+            recipient.hasPendingImports shouldBe false
+        }
+
+        scenario("Imports large batches incrementally") {
+            Given("A replicator that imports one entry at a time")
+            val replicator = new TestableFlowStateReplicator(
+                recipientUnderlay, MidolmanConfig.forTests(
+                    ConfigFactory.parseString(
+                        "agent.minions.flow_state.import_batch_size : 1")))
+
+            And("A flow state batch with conntrack and nat entries")
+            val flowState = HostRequestProxy.EmptyFlowStateBatch
+            flowState.strongConnTrack.add(connTrackKeys.head)
+            flowState.weakConnTrack.add(connTrackKeys(1))
+            for ((k, v) <- natMappings) {
+                flowState.strongNat.put(k, v)
+            }
+
+            When("Importing it")
+            Then("Only the first entry is imported")
+            replicator.importFromStorage(flowState) shouldBe 1
+            replicator.conntrackTable.entries.keySet shouldBe
+                Set(connTrackKeys.head)
+            replicator.hasPendingImports shouldBe true
+
+            When("Importing the pending entries")
+            var imported = 1
+            while (replicator.hasPendingImports) {
+                replicator.importPending() shouldBe 1
+                imported += 1
+            }
+
+            Then("All entries are imported")
+            imported shouldBe flowState.size()
+            replicator.conntrackTable.entries.keySet shouldBe
+                connTrackKeys.toSet
+            replicator.natTable.entries shouldBe natMappings
+            val keys: Seq[FlowTag] = connTrackKeys ++ natMappings.keys
+            mockFlowInvalidation should haveInvalidated (keys: _*)
+
+            And("There is nothing else to import")
+            replicator.importPending() shouldBe 0
         }
     }
 
     class TestableFlowStateReplicator(
-            val underlay: UnderlayResolver) extends {
+            val underlay: UnderlayResolver,
+            replicatorConfig: MidolmanConfig = midolmanConfig) extends {
         val conntrackTable = new MockFlowStateTable[ConnTrackKey, ConnTrackValue]()
         val natTable = new MockFlowStateTable[NatKey, NatBinding]()
         val traceTable = new MockFlowStateTable[TraceKey, TraceContext]()
         var localConfig = midolmanConfig
     } with FlowStateReplicator(conntrackTable, natTable, traceTable,
                                hostId, peerResolver, underlay,
-                               mockFlowInvalidation, midolmanConfig,
+                               mockFlowInvalidation, replicatorConfig,
                                cbRegistry) {
 
         var numIncomingFlowStateMessagesReceived = 0
@@ -27,6 +27,7 @@ import org.scalatest.junit.JUnitRunner
 import rx.Observable
 
 import org.midonet.cluster.data.storage.{NotFoundException, Storage}
+import org.midonet.cluster.models.Commons
 import org.midonet.cluster.models.Topology.{IPAddrGroup => TopologyIPAddrGroup}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.topology.{TopologyBuilder, TopologyMatchers}
@@ -114,6 +115,41 @@ class IPAddrGroupMapperTest extends MidolmanSpec with TopologyBuilder
             updatedSimIpAddrGroup shouldBeDeviceOf updatedProto
         }
 
+        scenario("The mapper compares the addresses by value") {
+            Given("An ipAddrGroup with an IPv6 address")
+            val ipAddrGroup = buildAndStoreIpAddrGroup()
+            var updatedProto = setIpAddress(ipAddrGroup, "fe80::1")
+
+            And("An ipAddrGroup mapper")
+            val mapper = new IPAddrGroupMapper(ipAddrGroup.getId.asJava, vt)
+
+            And("An observer to the ipAddrGroup mapper")
+            val obs = new DeviceObserver[SimAddrGroup](vt)
+
+            When("The observer subscribes to an observable on the mapper")
+            Observable.create(mapper).subscribe(obs)
+
+            Then("The observer should see the address")
+            obs.awaitOnNext(1, timeout) shouldBe true
+            val address = IPAddr.fromString("fe80::1")
+            obs.getOnNextEvents.asScala.last.contains(address) shouldBe true
+
+            When("The address is spelled differently")
+            updatedProto = setIpAddress(updatedProto, "fe80:0:0:0:0:0:0:1")
+
+            Then("The group still contains the address")
+            obs.awaitOnNext(2, timeout) shouldBe true
+            obs.getOnNextEvents.asScala.last.contains(address) shouldBe true
+            obs.getOnNextEvents.asScala.last.addrs shouldBe Set(address)
+
+            When("We remove the ip from the IPAddrGroup")
+            removeAllIps(updatedProto)
+
+            Then("The group does not contain the address")
+            obs.awaitOnNext(3, timeout) shouldBe true
+            obs.getOnNextEvents.asScala.last.contains(address) shouldBe false
+        }
+
         scenario("The mapper completes on IPAddrGroup delete") {
             Given("An IPAddrGroup")
             val ipAddrGroup = buildAndStoreIpAddrGroup()
@@ -158,6 +194,20 @@ class IPAddrGroupMapperTest extends MidolmanSpec with TopologyBuilder
         updatedIpAddrGroup
     }
 
+    private def setIpAddress(ipAddrGroup: TopologyIPAddrGroup, ip: String)
+    : TopologyIPAddrGroup = {
+        val address = Commons.IPAddress.newBuilder()
+            .setVersion(Commons.IPVersion.V6)
+            .setAddress(ip)
+        val updatedIpAddrGroup = ipAddrGroup.toBuilder
+            .clearIpAddrPorts()
+            .addIpAddrPorts(TopologyIPAddrGroup.IPAddrPorts.newBuilder()
+                                .setIpAddress(address))
+            .build()
+        store.update(updatedIpAddrGroup)
+        updatedIpAddrGroup
+    }
+
     private def buildAndStoreIpAddrGroup(): TopologyIPAddrGroup = {
         val ipAddrGroup = createIpAddrGroup()
         store.create(ipAddrGroup)
@@ -16,11 +16,14 @@
 package org.midonet.midolman.topology
 
 import java.util.UUID
+import java.util.concurrent.{ExecutorService, Executors}
 
 import scala.collection.mutable
 import scala.concurrent.duration._
 import scala.util.Random
 
+import com.codahale.metrics.MetricRegistry
+
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -28,16 +31,19 @@ import rx.Observable
 
 import org.midonet.cluster.data.storage._
 import org.midonet.cluster.models.Topology.Rule.NatTarget
-import org.midonet.cluster.models.Topology.{Rule, Mirror => TopologyMirror, Port => TopologyPort}
+import org.midonet.cluster.models.Topology.{L2Insertion, Rule, Mirror => TopologyMirror, Port => TopologyPort}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend.ActiveKey
 import org.midonet.cluster.state.PortStateStorage._
 import org.midonet.cluster.topology.{TopologyBuilder, TopologyMatchers}
 import org.midonet.cluster.topology.TopologyBuilder._
 import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.{CallbackRegistry, SimulationBackChannel}
 import org.midonet.midolman.topology.TopologyTest.DeviceObserver
 import org.midonet.midolman.simulation.{BridgePort, Mirror, RouterPort, VxLanPort, Port => SimPort}
 import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.mock.MockRuleLogEventChannel
+import org.midonet.util.concurrent.SameThreadButAfterExecutorService
 import org.midonet.util.reactivex._
 
 @RunWith(classOf[JUnitRunner])
@@ -474,5 +480,74 @@ class PortMapperTest extends MidolmanSpec with TopologyBuilder
             val device3 = obs.getOnNextEvents.get(2)
             device3 shouldBeDeviceOf port
         }
+
+        scenario("The port receives the insertions on its partition") {
+            Given("A topology with two partitions")
+            val executor = Executors.newSingleThreadExecutor()
+            val partitioned = newPartitionedTopology(executor)
+
+            And("A port identifier assigned to the second partition")
+            var id = UUID.randomUUID
+            while (partitioned.partitionOf(id).index != 1) {
+                id = UUID.randomUUID
+            }
+
+            And("A bridge with a port and a service port")
+            val bridge = createBridge()
+            val port = createBridgePort(id = id,
+                                        bridgeId = Some(bridge.getId.asJava))
+            val srvPort = createBridgePort(bridgeId = Some(bridge.getId.asJava))
+            store.multi(Seq(CreateOp(bridge), CreateOp(port),
+                            CreateOp(srvPort)))
+
+            And("An L2 insertion for the port")
+            val insertion = L2Insertion.newBuilder
+                .setId(UUID.randomUUID.asProto)
+                .setPortId(port.getId)
+                .setSrvPortId(srvPort.getId)
+                .setPosition(1)
+                .setVlan(10)
+                .build()
+            store.create(insertion)
+
+            And("A port mapper")
+            val mapper = new PortMapper(id, partitioned, mutable.Map())
+
+            And("An observer to the port mapper")
+            val obs = new DeviceObserver[SimPort](partitioned)
+
+            try {
+                When("The observer subscribes to an observable on the mapper")
+                Observable.create(mapper).subscribe(obs)
+
+                Then("The observer should receive the port with the service " +
+                     "port")
+                obs.awaitOnNext(1, timeout) shouldBe true
+                obs.getOnErrorEvents shouldBe empty
+                val device = obs.getOnNextEvents.get(0)
+                device shouldBeDeviceOf port
+                device.servicePorts should contain only srvPort.getId.asJava
+            } finally {
+                executor.shutdown()
+            }
+        }
+    }
+
+    private def newPartitionedTopology(executor: ExecutorService)
+    : VirtualTopology = {
+        val threadId = Thread.currentThread().getId
+        val topology = new VirtualTopology(
+            injector.getInstance(classOf[MidonetBackend]),
+            vt.config,
+            injector.getInstance(classOf[SimulationBackChannel]),
+            new MockRuleLogEventChannel,
+            new MetricRegistry,
+            new SameThreadButAfterExecutorService,
+            new SameThreadButAfterExecutorService,
+            () => threadId == Thread.currentThread().getId,
+            injector.getInstance(classOf[CallbackRegistry]),
+            Seq(executor))
+        topology.startAsync().awaitRunning()
+        topology
     }
 }
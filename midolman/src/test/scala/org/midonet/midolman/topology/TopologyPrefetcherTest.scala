@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import com.typesafe.config.{Config, ConfigFactory}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.storage.{CreateOp, Storage}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.util.MidonetEventually
+
+@RunWith(classOf[JUnitRunner])
+class TopologyPrefetcherTest extends MidolmanSpec with TopologyBuilder
+                             with MidonetEventually {
+
+    private var vt: VirtualTopology = _
+    private var store: Storage = _
+    private var prefetcher: TopologyPrefetcher = _
+
+    protected override def fillConfig(config: Config): Config = {
+        super.fillConfig(config.withFallback(ConfigFactory.parseString(
+            """
+              |agent.midolman.topology_prefetch.enabled = true
+              |agent.midolman.topology_prefetch.max_depth = 3
+              |agent.midolman.topology_prefetch.parallelism = 2
+            """.stripMargin)))
+    }
+
+    protected override def beforeTest(): Unit = {
+        vt = injector.getInstance(classOf[VirtualTopology])
+        store = injector.getInstance(classOf[MidonetBackend]).store
+    }
+
+    protected override def afterTest(): Unit = {
+        if (prefetcher ne null) {
+            prefetcher.stopAsync().awaitTerminated()
+        }
+    }
+
+    private def isCached(id: UUID): Boolean = vt.devices.containsKey(id)
+
+    feature("The prefetcher loads the topology of the local ports") {
+        scenario("Devices reachable from a bound port are loaded") {
+            Given("A bridge with a chain and a port bound to the host")
+            val chain = createChain()
+            val bridge = createBridge(inboundFilterId = Some(chain.getId))
+            val boundPort = createBridgePort(bridgeId = Some(bridge.getId),
+                                             hostId = Some(hostId),
+                                             interfaceName = Some("eth0"))
+
+            And("A router connected to the bridge")
+            val router = createRouter()
+            val routerPort = createRouterPort(routerId = Some(router.getId))
+            val bridgePort = createBridgePort(bridgeId = Some(bridge.getId),
+                                              peerId = Some(routerPort.getId))
+            val uplinkPort = createRouterPort(routerId = Some(router.getId))
+
+            And("A device beyond the maximum depth")
+            val farBridge = createBridge()
+            val farPort = createBridgePort(bridgeId = Some(farBridge.getId),
+                                           peerId = Some(uplinkPort.getId))
+
+            store.multi(Seq(CreateOp(createHost(hostId)), CreateOp(chain),
+                            CreateOp(bridge), CreateOp(boundPort),
+                            CreateOp(router), CreateOp(routerPort),
+                            CreateOp(bridgePort), CreateOp(uplinkPort),
+                            CreateOp(farBridge), CreateOp(farPort)))
+
+            When("Starting the prefetcher")
+            prefetcher = new TopologyPrefetcher(vt, hostId)
+            prefetcher.startAsync().awaitRunning()
+
+            Then("The devices within the maximum depth are loaded")
+            eventually {
+                isCached(boundPort.getId) shouldBe true
+                isCached(bridge.getId) shouldBe true
+                isCached(chain.getId) shouldBe true
+                isCached(bridgePort.getId) shouldBe true
+                isCached(routerPort.getId) shouldBe true
+            }
+
+            And("The devices beyond the maximum depth are not loaded")
+            isCached(farPort.getId) shouldBe false
+            isCached(farBridge.getId) shouldBe false
+        }
+
+        scenario("The prefetcher loads the ports bound later") {
+            Given("A host without bound ports")
+            val bridge = createBridge()
+            val port = createBridgePort(bridgeId = Some(bridge.getId))
+            store.multi(Seq(CreateOp(createHost(hostId)), CreateOp(bridge),
+                            CreateOp(port)))
+
+            And("A started prefetcher")
+            prefetcher = new TopologyPrefetcher(vt, hostId)
+            prefetcher.startAsync().awaitRunning()
+
+            When("Binding the port to the host")
+            store.update(port.toBuilder.setHostId(hostId.asProto)
+                             .setInterfaceName("eth0").build())
+
+            Then("The port and its bridge are loaded")
+            eventually {
+                isCached(port.getId) shouldBe true
+                isCached(bridge.getId) shouldBe true
+            }
+        }
+    }
+}
@@ -16,10 +16,15 @@
 package org.midonet.midolman.topology
 
 import java.util.UUID
+import java.util.concurrent.{Callable, CopyOnWriteArrayList, ExecutorService, Executors}
 
+import scala.collection.JavaConverters._
 import scala.concurrent.Await.{ready, result}
 import scala.concurrent.Future
 import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 import rx.{Notification, Observable}
@@ -28,12 +33,14 @@ import org.midonet.cluster.models.Topology.{Router, Port => TopologyPort}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.UUIDUtil._
-import org.midonet.midolman.NotYetException
+import org.midonet.midolman.{CallbackRegistry, NotYetException, SimulationBackChannel}
 import org.midonet.midolman.topology.TopologyTest.DeviceObserver
 import org.midonet.midolman.topology.VirtualTopology.Key
-import org.midonet.midolman.simulation.{Port => SimulationPort}
+import org.midonet.midolman.simulation.{Bridge => SimulationBridge, IPAddrGroup => SimulationIPAddrGroup, Port => SimulationPort}
 import org.midonet.midolman.topology.devices.{BgpPort, BgpRouter}
 import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.mock.MockRuleLogEventChannel
+import org.midonet.util.concurrent.SameThreadButAfterExecutorService
 
 @RunWith(classOf[JUnitRunner])
 class VirtualTopologyTest extends MidolmanSpec with TopologyBuilder {
@@ -590,4 +597,131 @@ class VirtualTopologyTest extends MidolmanSpec with TopologyBuilder {
             vt.observables.containsKey(Key(classOf[BgpPort], port.getId)) shouldBe false
         }
     }
+
+    feature("The topology partitions the device mappers") {
+        scenario("Devices are assigned to partitions by identifier") {
+            Given("A topology with three partitions")
+            val partitioned = newPartitionedTopology(partitions = 3)
+
+            Then("Every device is assigned to the same partition")
+            val ids = for (index <- 0 until 32) yield UUID.randomUUID
+            for (id <- ids) {
+                partitioned.partitionOf(id) shouldBe partitioned.partitionOf(id)
+            }
+
+            And("The devices are spread across all partitions")
+            ids.map(partitioned.partitionOf(_).index).toSet shouldBe Set(0, 1, 2)
+        }
+
+        scenario("The observer receives devices from any partition") {
+            Given("A topology with two partitions")
+            val partitioned = newPartitionedTopology(partitions = 2)
+
+            And("A bridge with two ports")
+            val port1 = createBridgePort(bridgeId = Some(bridgeId))
+            val port2 = createBridgePort(bridgeId = Some(bridgeId))
+            store.multi(Seq(CreateOp(port1), CreateOp(port2)))
+
+            When("Subscribing to the bridge and the ports")
+            val bridgeObserver = new DeviceObserver[SimulationBridge](partitioned)
+            val portObserver = new DeviceObserver[SimulationPort](partitioned)
+            VirtualTopology.observable(classOf[SimulationBridge], bridgeId)
+                           .subscribe(bridgeObserver)
+            VirtualTopology.observable(classOf[SimulationPort], port1.getId)
+                           .subscribe(portObserver)
+            VirtualTopology.observable(classOf[SimulationPort], port2.getId)
+                           .subscribe(portObserver)
+
+            Then("The observers should receive the devices")
+            bridgeObserver.awaitOnNext(1, timeout) shouldBe true
+            portObserver.awaitOnNext(2, timeout) shouldBe true
+            bridgeObserver.getOnNextEvents.get(0).id shouldBe bridgeId
+            portObserver.getOnNextEvents.asScala.map(_.id) should contain theSameElementsAs
+                Seq(port1.getId.asJava, port2.getId.asJava)
+        }
+
+        scenario("Mappers run on the thread of their partition") {
+            Given("Three single-thread partition executors")
+            val executors = Seq.fill(3)(Executors.newSingleThreadExecutor())
+            val threads = executors.map(threadOf)
+
+            And("A topology with three partitions using the executors")
+            val partitioned = newThreadedTopology(executors, threads.head)
+
+            And("Several address groups")
+            val groups = for (index <- 0 until 16) yield createIpAddrGroup()
+            store.multi(groups.map(CreateOp(_)))
+
+            When("Subscribing to a mapper for every address group")
+            val observers = for (group <- groups) yield {
+                val id = group.getId.asJava
+                val observer = new ThreadObserver
+                Observable.create(new IPAddrGroupMapper(id, partitioned))
+                          .subscribe(observer)
+                id -> observer
+            }
+
+            Then("Every mapper notifies on the thread of its partition")
+            for ((id, observer) <- observers) {
+                observer.awaitOnNext(1, timeout) shouldBe true
+                observer.getOnNextEvents.get(0).id shouldBe id
+                observer.threads.asScala.toSet shouldBe
+                    Set(threads(partitioned.partitionOf(id).index))
+            }
+
+            And("The mappers use more than one partition thread")
+            observers.map(_._2.threads.get(0)).toSet.size should be > 1
+
+            executors.foreach(_.shutdown())
+        }
+    }
+
+    private class ThreadObserver
+        extends DeviceObserver[SimulationIPAddrGroup](vt) {
+        val threads = new CopyOnWriteArrayList[Thread]()
+        override def onNext(group: SimulationIPAddrGroup): Unit = {
+            threads.add(Thread.currentThread())
+            super.onNext(group)
+        }
+    }
+
+    private def threadOf(executor: ExecutorService): Thread = {
+        executor.submit(new Callable[Thread] {
+            override def call(): Thread = Thread.currentThread()
+        }).get
+    }
+
+    private def newThreadedTopology(executors: Seq[ExecutorService],
+                                    mainThread: Thread): VirtualTopology = {
+        val topology = new VirtualTopology(
+            injector.getInstance(classOf[MidonetBackend]),
+            vt.config,
+            injector.getInstance(classOf[SimulationBackChannel]),
+            new MockRuleLogEventChannel,
+            new MetricRegistry,
+            executors.head,
+            new SameThreadButAfterExecutorService,
+            () => Thread.currentThread() eq mainThread,
+            injector.getInstance(classOf[CallbackRegistry]),
+            executors.tail)
+        topology.startAsync().awaitRunning()
+        topology
+    }
+
+    private def newPartitionedTopology(partitions: Int): VirtualTopology = {
+        val threadId = Thread.currentThread().getId
+        val topology = new VirtualTopology(
+            injector.getInstance(classOf[MidonetBackend]),
+            vt.config,
+            injector.getInstance(classOf[SimulationBackChannel]),
+            new MockRuleLogEventChannel,
+            new MetricRegistry,
+            new SameThreadButAfterExecutorService,
+            new SameThreadButAfterExecutorService,
+            () => threadId == Thread.currentThread().getId,
+            injector.getInstance(classOf[CallbackRegistry]),
+            Seq.fill(partitions - 1)(new SameThreadButAfterExecutorService))
+        topology.startAsync().awaitRunning()
+        topology
+    }
 }
@@ -138,6 +138,7 @@ trait MidolmanSpec extends FeatureSpecLike
             """cassandra.servers = "localhost:9171"
               |agent.midolman.stats_http_server_port = 0
               |agent.midolman.jmx_server.enabled = false
+              |agent.midolman.topology_prefetch.enabled = false
             """.stripMargin
 
         config.withFallback(ConfigFactory.parseString(defaults))
@@ -38,7 +38,7 @@ class FlowTaggerTest extends FeatureSpecLike
                      with BeforeAndAfter
                      with GivenWhenThen {
 
-    feature("FlowTags are cached and weakly referenced") {
+    feature("FlowTags are cached and released when evicted") {
         val tagTypes = mutable.Set[Class[_]]()
         var size = 0
         val tagClasses = flowTags()
@@ -80,8 +80,46 @@ class FlowTaggerTest extends FeatureSpecLike
         )
     }
 
+    feature("FlowTags are distinguished by their fields") {
+        scenario("Tags with different fields") {
+            Given("Two tags with different fields")
+            val bridgeId = UUID.randomUUID()
+            val mac = MAC.random()
+            val tag1 = tagForVlanPort(bridgeId, mac, 1.toShort, bridgeId)
+            val tag2 = tagForVlanPort(bridgeId, mac, 2.toShort, bridgeId)
+
+            Then("The tags are different")
+            tag1 should not be tag2
+            tagForVlanPort(bridgeId, mac, 1.toShort, bridgeId) shouldBe tag1
+            tagForVlanPort(bridgeId, mac, 2.toShort, bridgeId) shouldBe tag2
+        }
+
+        scenario("Device tags for the same device") {
+            Given("A device identifier")
+            val id = UUID.randomUUID()
+
+            Then("The tags of different device types have the device type")
+            tagForBridge(id).getClass shouldBe classOf[BridgeDeviceTag]
+            tagForPort(id).getClass shouldBe classOf[PortDeviceTag]
+            tagForBridge(id) should be theSameInstanceAs tagForBridge(id)
+        }
+
+        scenario("Tags evicted from the cache") {
+            Given("A tag")
+            val tag = tagForDpPort(1)
+
+            When("Filling the tag cache")
+            for (port <- 2 until FlowTagCache.DefaultCapacity * 32) {
+                tagForDpPort(port)
+            }
+
+            Then("A new tag is equal to the evicted tag")
+            tagForDpPort(1) shouldBe tag
+        }
+    }
+
     val doFlowTagChecks = flowTagIsCached _ andThen (WeakReference(_)) andThen
-                          flowTagIsWeaklyReferenced
+                          flowTagIsReleasedWhenEvicted
 
     def flowTagIsCached(getTag: () => FlowTag): FlowTag = {
         val tag = getTag()
@@ -89,7 +127,11 @@ class FlowTaggerTest extends FeatureSpecLike
         tag
     }
 
-    def flowTagIsWeaklyReferenced(flowTag: WeakReference[FlowTag]): Unit = {
+    def flowTagIsReleasedWhenEvicted(flowTag: WeakReference[FlowTag]): Unit = {
+        // Fill the bounded tag cache such that the tag is evicted.
+        for (port <- 0 until FlowTagCache.DefaultCapacity * 32) {
+            tagForDpPort(port)
+        }
         var retries = 100
         while (flowTag.underlying.get() ne null) {
             System.gc()
@@ -16,6 +16,8 @@
 
 package org.midonet.services.flowstate
 
+import java.io.DataOutputStream
+import java.net.ServerSocket
 import java.nio.ByteBuffer
 import java.nio.file.{Files, Paths}
 import java.util.UUID
@@ -24,7 +26,7 @@ import java.util.concurrent.TimeUnit
 import scala.collection.JavaConverters._
 
 import org.junit.runner.RunWith
-import org.mockito.Mockito.{atLeastOnce, mock, times, verify}
+import org.mockito.Mockito.{atLeastOnce, mock, never, times, verify}
 import org.mockito.{ArgumentCaptor, Matchers => mockito}
 import org.scalatest.junit.JUnitRunner
 
@@ -33,7 +35,9 @@ import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.services.flowstate.handlers._
 import org.midonet.services.flowstate.stream.{ByteBufferBlockReader, Context, FlowStateBlock, FlowStateManager}
+import org.midonet.services.flowstate.transfer.StateTransferProtocolBuilder._
 import org.midonet.services.flowstate.transfer.client._
+import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.io.stream.{ByteBufferBlockWriter, TimedBlockHeader}
 import org.midonet.util.netty.ServerFrontEnd
 
@@ -56,31 +60,88 @@ class FlowStateTransferTest extends FlowStateBaseTest with TopologyBuilder {
     private var server: ServerFrontEnd = _
 
     private def currentRawState(context: Context, portId: UUID) = {
-        var raw = new collection.mutable.ArrayBuffer[Byte]()
+        val raw = new collection.mutable.ArrayBuffer[Byte]()
         val in = ByteBufferBlockReader(context, portId)
-        val headerBuff = new Array[Byte](FlowStateBlock.headerSize)
-        val blockBuff = new Array[Byte](context.config.blockSize)
-
-        in.read(headerBuff)
-        var header = FlowStateBlock(ByteBuffer.wrap(headerBuff))
-        var next = in.read(blockBuff, 0, header.blockLength)
-
-        while (next > 0) {
-            raw ++= headerBuff
-            raw ++= blockBuff.slice(0, next)
-
-            in.read(headerBuff)
-            header = FlowStateBlock(ByteBuffer.wrap(headerBuff))
-            next = in.read(blockBuff, 0, header.blockLength)
+        for (buffer <- in.buffers.iterator) {
+            val block = buffer.duplicate()
+            val header = FlowStateBlock(block)
+            if (header.isValid && header.blockLength > 0) {
+                val data = new Array[Byte](header.blockLength)
+                block.position(FlowStateBlock.headerSize)
+                block.get(data)
+                raw ++= data
+            }
         }
-
         raw
     }
 
     private def allWrittenBytes(writer: ByteBufferBlockWriter[TimedBlockHeader]) = {
-        val responseCaptor = ArgumentCaptor.forClass(classOf[Array[Byte]])
-        verify(writer, atLeastOnce).write(responseCaptor.capture())
-        responseCaptor.getAllValues.asScala.flatten
+        val blockCaptor = ArgumentCaptor.forClass(classOf[Array[Byte]])
+        val offsetCaptor = ArgumentCaptor.forClass(classOf[Int])
+        val lengthCaptor = ArgumentCaptor.forClass(classOf[Int])
+        verify(writer, atLeastOnce).write(blockCaptor.capture(),
+                                          offsetCaptor.capture(),
+                                          lengthCaptor.capture())
+        val blocks = blockCaptor.getAllValues.asScala
+        val offsets = offsetCaptor.getAllValues.asScala
+        val lengths = lengthCaptor.getAllValues.asScala
+        blocks.indices flatMap { index =>
+            blocks(index).slice(offsets(index), offsets(index) + lengths(index))
+        }
+    }
+
+    /** Builds a raw storage block with the given data, as sent by a flow
+      * state minion. */
+    private def rawBlock(data: Array[Byte]): Array[Byte] = {
+        val buffer = ByteBuffer.allocate(FlowStateBlock.headerSize + data.length)
+        FlowStateBlock.reset(buffer)
+        buffer.put(data)
+        FlowStateBlock.update(buffer)
+        buffer.array()
+    }
+
+    /** Serves a single raw flow state request on the given port, replying
+      * with the given blocks as a previous owner would. */
+    private def serveRawBlocks(port: Int, portId: UUID,
+                               blocks: Seq[Array[Byte]]): ServerSocket = {
+        val server = new ServerSocket(port)
+        val thread = new Thread(new Runnable {
+            override def run(): Unit = {
+                val socket = server.accept()
+                try {
+                    socket.getInputStream.read(new Array[Byte](1024))
+                    val out = new DataOutputStream(socket.getOutputStream)
+                    val ack = buildAck(portId).toByteArray
+                    out.writeInt(ack.length)
+                    out.write(ack)
+                    for (block <- blocks) {
+                        out.writeInt(block.length)
+                        out.write(block)
+                    }
+                    out.writeInt(0)
+                    out.flush()
+                } finally {
+                    socket.close()
+                }
+            }
+        })
+        thread.setDaemon(true)
+        thread.start()
+        server
+    }
+
+    private def receiveRawBlocks(blocks: Seq[Array[Byte]])
+    : ByteBufferBlockWriter[TimedBlockHeader] = {
+        val portId = UUID.randomUUID()
+        val writer = mock(classOf[ByteBufferBlockWriter[TimedBlockHeader]])
+        val server = serveRawBlocks(config.flowState.port, portId, blocks)
+        try {
+            new FlowStateRemoteClient(config.flowState)
+                .rawPipelinedFlowStateFrom("127.0.0.1", portId, writer)
+        } finally {
+            server.close()
+        }
+        writer
     }
 
     before {
@@ -128,12 +189,70 @@ class FlowStateTransferTest extends FlowStateBaseTest with TopologyBuilder {
             remoteClient.rawPipelinedFlowStateFrom("127.0.0.1", portId, writer)
 
             Then("The flow state for the given portId was received")
-            verify(writer, times(1)).write(mockito.any())
+            verify(writer, times(1)).write(mockito.any(), mockito.anyInt(),
+                                           mockito.anyInt())
             And("The received raw response maintained its integrity")
             val receivedRaw = allWrittenBytes(writer)
             receivedRaw shouldBe initialRaw
         }
 
+        scenario("The receiver skips a raw block with an invalid header") {
+            Given("Two valid blocks and a block with an invalid header")
+            val data1 = Array[Byte](1, 2, 3, 4)
+            val data2 = Array[Byte](5, 6, 7, 8)
+            val invalid = rawBlock(Array[Byte](9, 9, 9, 9))
+            invalid(0) = 'Y'.toByte
+
+            When("The blocks are received from the previous owner")
+            val writer = receiveRawBlocks(
+                Seq(rawBlock(data1), invalid, rawBlock(data2)))
+
+            Then("Only the valid blocks are written to local storage")
+            verify(writer, times(2)).write(mockito.any(), mockito.anyInt(),
+                                           mockito.anyInt())
+            allWrittenBytes(writer) shouldBe (data1 ++ data2).toSeq
+        }
+
+        scenario("The receiver skips a raw block with a length mismatch") {
+            Given("Two valid blocks and a block with a wrong length")
+            val data1 = Array[Byte](1, 2, 3, 4)
+            val data2 = Array[Byte](5, 6, 7, 8)
+            val mismatched = rawBlock(Array[Byte](9, 9, 9, 9))
+            ByteBuffer.wrap(mismatched).putInt(FlowStateBlock.LengthOffset, 8)
+
+            When("The blocks are received from the previous owner")
+            val writer = receiveRawBlocks(
+                Seq(rawBlock(data1), mismatched, rawBlock(data2)))
+
+            Then("Only the valid blocks are written to local storage")
+            verify(writer, times(2)).write(mockito.any(), mockito.anyInt(),
+                                           mockito.anyInt())
+            allWrittenBytes(writer) shouldBe (data1 ++ data2).toSeq
+        }
+
+        scenario("The sender does not send expired raw blocks") {
+            Given("A previous port id of the server agent")
+            val portId = handler.validPortId
+
+            And("The stored blocks for the port have expired")
+            val expired = NanoClock.DEFAULT.tick -
+                          configAlt.flowState.expirationTime.toNanos - 1
+            val in = ByteBufferBlockReader(streamContextAlt, portId)
+            for (buffer <- in.buffers.iterator) {
+                if (FlowStateBlock(buffer).isValid) {
+                    buffer.putLong(FlowStateBlock.LastTimeOffset, expired)
+                }
+            }
+
+            When("The flow state is requested by the TCP client")
+            val writer = mock(classOf[ByteBufferBlockWriter[TimedBlockHeader]])
+            remoteClient.rawPipelinedFlowStateFrom("127.0.0.1", portId, writer)
+
+            Then("No flow state was written for the port")
+            verify(writer, never()).write(mockito.any(), mockito.anyInt(),
+                                          mockito.anyInt())
+        }
+
         scenario("A internal flow state request between minion and agent") {
             Given("A previous port id of the server agent")
             val portId = handler.validPortId
@@ -32,6 +32,7 @@ public class DtoTraceRequest {
     public Condition condition;
     public long creationTimestampMs;
     public long limit = Long.MAX_VALUE;
+    public double samplingProbability = 1.0;
     public boolean enabled;
     public URI uri;
 
@@ -64,6 +65,7 @@ public class DtoTraceRequest {
                Objects.equals(deviceId, dto.deviceId) &&
                creationTimestampMs == dto.creationTimestampMs &&
                limit == dto.limit &&
+               samplingProbability == dto.samplingProbability &&
                enabled == dto.enabled;
     }
 }
@@ -18,6 +18,8 @@ package org.midonet.cluster.rest_api.models;
 import java.net.URI;
 import java.util.UUID;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.NotNull;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -62,6 +64,11 @@ public class TraceRequest extends UriResource {
     @ZoomField(name = "limit")
     public long limit = Long.MAX_VALUE;
 
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    @ZoomField(name = "sampling_probability")
+    public double samplingProbability = 1.0;
+
     @NotNull
     @ZoomField(name = "enabled")
     public boolean enabled;
@@ -140,6 +147,7 @@ public class TraceRequest extends UriResource {
             .add("deviceId", deviceId)
             .add("creationTimestampMs", creationTimestampMs)
             .add("limit", limit)
+            .add("samplingProbability", samplingProbability)
             .add("enabled", enabled);
         condition.addConditionToStringHelper(tsh);
         return tsh.toString();
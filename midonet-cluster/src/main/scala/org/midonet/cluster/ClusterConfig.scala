@@ -119,6 +119,7 @@ class C3POConfig(val conf: Config) extends ScheduledMinionConfig[C3POMinion] {
     def jdbcDriver = conf.getString(s"$prefix.jdbc_driver_class")
     def user = conf.getString(s"$prefix.user")
     def password = conf.getString(s"$prefix.password")
+    def maxTasksPerCommit = conf.getInt(s"$prefix.max_tasks_per_commit")
 }
 
 class HeartbeatConfig(val conf: Config) extends ScheduledMinionConfig[Heartbeat] {
@@ -193,6 +194,10 @@ class StateProxyConfig(val conf: Config) extends MinionConfig[StateProxy] {
         conf.getInt(s"$prefix.initial_subscriber_queue_size")
     def notifyBatchSize =
         conf.getInt(s"$prefix.notify_batch_size")
+    def changeLogSize =
+        conf.getInt(s"$prefix.change_log_size")
+    def compressionThreshold =
+        conf.getInt(s"$prefix.compression_threshold")
     def cacheThreads = conf.getInt(s"$prefix.cache_threads")
     def serverAddress = conf.getString(s"$prefix.server.address")
     def serverPort = conf.getInt(s"$prefix.server.port")
@@ -219,6 +224,9 @@ class RecyclerConfig(val conf: Config) extends MinionConfig[Recycler] {
     override def isEnabled = conf.getBoolean(s"$prefix.enabled")
     def interval = conf.getDuration(s"$prefix.interval", TimeUnit.MINUTES) minutes
     def throttlingRate = conf.getInt(s"$prefix.throttling_rate")
+    def maxInFlight = conf.getInt(s"$prefix.max_in_flight")
+    def batchSize = conf.getInt(s"$prefix.batch_size")
+    def targetLatency = conf.getDuration(s"$prefix.target_latency", TimeUnit.MILLISECONDS) millis
     def shutdownTimeout = conf.getDuration(s"$prefix.shutdown_interval", TimeUnit.MILLISECONDS) millis
 }
 
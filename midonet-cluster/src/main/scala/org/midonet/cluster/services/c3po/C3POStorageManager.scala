@@ -83,6 +83,8 @@ class C3POStorageManager(config: ClusterConfig,
 
     private val log = LoggerFactory.getLogger(C3poStorageManagerLog)
 
+    private val maxTasksPerCommit = config.c3po.maxTasksPerCommit
+
     private var initialized = false
 
     private def initStorageManagerState(): Unit = {
@@ -149,9 +151,17 @@ class C3POStorageManager(config: ClusterConfig,
     def interpretAndExecTxn(txn: Transaction): Unit = {
         assert(initialized)
 
-        // Changing this to process one task at a time instead of processing
-        // all tasks in a transaction atomically. Although the latter would
-        // technically be more correct, the tasks within multi-task
+        // The tasks of a transaction are translated and committed in windows
+        // of up to `max_tasks_per_commit` tasks, where each window is a single
+        // storage transaction that also updates the last processed task ID.
+        // This is possible because the storage transaction provides
+        // read-your-writes semantics: the translator of a task can read, list
+        // and delete the objects created by the previous tasks of the same
+        // window before they are committed.
+        //
+        // If a window fails for any reason, none of its tasks is persisted, and
+        // the tasks are executed again one at a time, each in its own storage
+        // transaction. This is correct because the tasks within multi-task
         // high-level operation transactions are ordered such that there's no
         // problem with executing them non-atomically.
         //
@@ -162,14 +172,48 @@ class C3POStorageManager(config: ClusterConfig,
         // the gateway port we immediately try to process the next task (update
         // the router) and do not attempt to process any other tasks until this
         // succeeds, there's no problem.
-        //
-        // Why not execute the tasks atomically anyway? There's a problem when
-        // the translator for the second task asks the topology store for the
-        // object created in the first task. Since the first task isn't
-        // committed yet, the topology store can't find it. We plan to address
-        // this in the future, but it will likely involve significant changes to
-        // Storage interface and implementing classes.
-        for (task <- txn.tasks) try {
+        val windowSize = Math.max(1, maxTasksPerCommit)
+        for (window <- txn.tasks.grouped(windowSize)) {
+            if (window.size == 1 || !tryExecTasks(txn, window)) {
+                for (task <- window) {
+                    execTask(txn, task)
+                }
+            }
+        }
+    }
+
+    /** Translates and commits the given tasks in a single storage
+      * transaction. The method returns `false` if the translation or the
+      * commit failed, in which case none of the tasks were persisted. */
+    private def tryExecTasks(txn: Transaction,
+                             tasks: List[Task[_ <: Message]]): Boolean = {
+        try {
+            val tx = backend.store.transaction(ZoomOwner.ClusterNeutron)
+            try {
+                for (task <- tasks) {
+                    translate(tx, task.op)
+                }
+                tx.update(C3POState.at(tasks.last.taskId))
+                tx.commit()
+            } finally {
+                tx.close()
+            }
+            log.info(s"Executed C3PO tasks with IDs ${tasks.head.taskId} to " +
+                     s"${tasks.last.taskId}.")
+            true
+        } catch {
+            case NonFatal(e) =>
+                log.info(s"Failed to execute C3PO tasks with IDs " +
+                         s"${tasks.head.taskId} to ${tasks.last.taskId} in " +
+                         s"transaction ${txn.txnId} in a single commit: " +
+                         "executing the tasks individually", e)
+                false
+        }
+    }
+
+    @throws[ProcessingException]
+    private def execTask(txn: Transaction, task: Task[_ <: Message]): Unit = {
+        try {
             val newState = C3POState.at(task.taskId)
             val tx = backend.store.transaction(ZoomOwner.ClusterNeutron)
             try {
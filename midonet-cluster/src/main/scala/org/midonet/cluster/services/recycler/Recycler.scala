@@ -195,7 +195,11 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
                      s"${context.skippedTables} skipped] " +
                      s"[legacy: ${context.totalLegacy} total " +
                      s"${context.deletedLegacy} deleted " +
-                     s"${context.skippedLegacy} skipped]"
+                     s"${context.skippedLegacy} skipped] " +
+                     s"[nodes: ${context.deletedNodes} deleted with " +
+                     s"${context.deleteRequests._1} requests " +
+                     s"${context.deleteRequests._2} batched " +
+                     f"${context.throughput}%.1f nodes/s]"
 
             tasksSubject onNext Success(context)
 
@@ -27,7 +27,7 @@ import com.google.common.util.concurrent.RateLimiter
 import com.typesafe.scalalogging.Logger
 
 import org.apache.curator.framework.CuratorFramework
-import org.apache.curator.utils.{PathUtils, ZKPaths}
+import org.apache.curator.utils.ZKPaths
 import org.apache.zookeeper.KeeperException.NoNodeException
 import org.apache.zookeeper.ZooKeeper
 import org.apache.zookeeper.data.Stat
@@ -51,7 +51,9 @@ object RecyclingContext {
   * Contains the context for a recycling operation. An instance of this
   * class contains the state variable for a recycling operation, including
   * the start and finish timestamps, and the NSDB entries that have been
-  * recycled (namespaces, objects, state paths).
+  * recycled (namespaces, objects, state paths). The orphan entries are
+  * deleted with a [[RecyclingPipeline]], which issues asynchronous batched
+  * requests to ZooKeeper.
   */
 class RecyclingContext(val config: RecyclerConfig,
                        val curator: CuratorFramework,
@@ -76,6 +78,7 @@ class RecyclingContext(val config: RecyclerConfig,
     private val legacyObjects = new util.HashMap[Class[_], Set[String]]()
 
     private val limiter = RateLimiter.create(config.throttlingRate)
+    private var pipeline: RecyclingPipeline = null
 
     private var stepIndex = 0
 
@@ -121,6 +124,29 @@ class RecyclingContext(val config: RecyclerConfig,
       */
     def nsdbVersion = version
 
+    /**
+      * @return The number of NSDB nodes deleted during recycling.
+      */
+    def deletedNodes: Long = {
+        if (pipeline ne null) pipeline.deletedNodes else 0L
+    }
+
+    /**
+      * @return The number of asynchronous NSDB requests issued for deletion,
+      *         and the number of those requests that were multi-deletes.
+      */
+    def deleteRequests: (Long, Long) = {
+        if (pipeline ne null) (pipeline.requests, pipeline.multiRequests)
+        else (0L, 0L)
+    }
+
+    /**
+      * @return The deletion throughput in NSDB nodes per second.
+      */
+    def throughput: Double = {
+        if (pipeline ne null) pipeline.throughput else 0.0
+    }
+
     @throws[RecyclingException]
     def recycle(): Unit = {
         if (state.getCount == 0) {
@@ -175,6 +201,10 @@ class RecyclingContext(val config: RecyclerConfig,
                                                  isError = true, inner = null)
             }
         timestamp = statAfter.getMtime
+        pipeline = new RecyclingPipeline(() => zk, timestamp,
+                                         config.maxInFlight, config.batchSize,
+                                         config.targetLatency, limiter,
+                                         () => canceled, log)
     }
 
     /**
@@ -223,30 +253,19 @@ class RecyclingContext(val config: RecyclerConfig,
 
         log debug s"Found ${orphan.size} orphan namespaces"
 
-        val stat = new Stat()
         for (namespace <- orphan) {
-
-            try {
-                log debug s"Verifying namespace $namespace"
-                val path = store.stateNamespacePath(namespace)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug s"Deleting namespace $namespace verified with " +
-                              s"timestamp ${stat.getCtime}"
-                    delete(path, stat.getVersion)
+            log debug s"Deleting namespace $namespace"
+            pipeline.delete(store.stateNamespacePath(namespace)) {
+                case RecyclingPipeline.Deleted =>
                     deletedNamespaces += 1
-                } else {
-                    log debug s"Skipping namespace $namespace with timestamp " +
-                              s"${stat.getCtime} newer than $timestamp"
+                case RecyclingPipeline.Skipped =>
                     skippedNamespaces += 1
-                }
-            } catch {
-                case NonFatal(e) =>
+                case RecyclingPipeline.Failed(e) =>
                     log.warn(s"Failed to delete namespace $namespace", e)
                     skippedNamespaces += 1
             }
         }
+        pipeline.await()
     }
 
     /**
@@ -295,7 +314,6 @@ class RecyclingContext(val config: RecyclerConfig,
 
         log debug s"Deleting orphan object state for ${hosts.size} hosts ${step()}"
 
-        val stat = new Stat()
         for (entry <- stateObjects.entrySet().asScala;
              id <- entry.getValue
              if !modelObjects.get(entry.getKey._2).contains(id)) {
@@ -303,30 +321,20 @@ class RecyclingContext(val config: RecyclerConfig,
             val host = entry.getKey._1
             val clazz = entry.getKey._2
 
-            try {
-                log debug s"Verifying object ${clazz.getSimpleName}:$id " +
-                          s"at host $host"
-
-                val path = store.stateObjectPath(host, clazz, id)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting state for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
+            log debug s"Deleting state for object ${clazz.getSimpleName}:$id " +
+                      s"at host $host"
+            pipeline.delete(store.stateObjectPath(host, clazz, id)) {
+                case RecyclingPipeline.Deleted =>
                     deletedObjects += 1
-                } else {
-                    log debug "Skipping state for object with timestamp " +
-                              s"${stat.getCtime}"
+                case RecyclingPipeline.Skipped =>
                     skippedObjects += 1
-                }
-            } catch {
-                case NonFatal(e) =>
+                case RecyclingPipeline.Failed(e) =>
                     log.warn("Failed to delete state for object " +
                              s"${clazz.getSimpleName}:$id host $host", e)
                     skippedObjects += 1
             }
         }
+        pipeline.await()
     }
 
     /**
@@ -359,35 +367,23 @@ class RecyclingContext(val config: RecyclerConfig,
 
         log debug s"Deleting orphan object tables ${step()}"
 
-        val stat = new Stat()
         for (clazz <- store.objectClasses.keys;
              id <- tableObjects.get(clazz)
              if !modelObjects.get(clazz).contains(id)) {
 
-            try {
-                log debug s"Verifying tables for object ${clazz.getSimpleName}" +
-                          s":$id"
-
-                val path = store.tablesObjectPath(clazz, id)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
+            log debug s"Deleting tables for object ${clazz.getSimpleName}:$id"
+            pipeline.delete(store.tablesObjectPath(clazz, id)) {
+                case RecyclingPipeline.Deleted =>
                     deletedTables += 1
-                } else {
-                    log debug "Skipping tables for object with timestamp " +
-                              s"${stat.getCtime}"
+                case RecyclingPipeline.Skipped =>
                     skippedTables += 1
-                }
-            } catch {
-                case NonFatal(e) =>
+                case RecyclingPipeline.Failed(e) =>
                     log.warn("Failed to delete tables for object " +
                              s"${clazz.getSimpleName}:$id", e)
                     skippedTables += 1
             }
         }
+        pipeline.await()
     }
 
     /**
@@ -428,36 +424,26 @@ class RecyclingContext(val config: RecyclerConfig,
 
         log debug s"Deleting orphan object legacy tables ${step()}"
 
-        val stat = new Stat()
         for (clazz <- RecyclingContext.LegacyClasses.keys;
              id <- legacyObjects.get(clazz)
              if !modelObjects.get(clazz).contains(id)) {
 
-            try {
-                log debug s"Verifying legacy tables for object " +
-                          s"${clazz.getSimpleName}:$id"
-
-                val path =
-                    s"${store.rootPath}${RecyclingContext.LegacyClasses(clazz)}/$id"
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting legacy tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
+            log debug s"Deleting legacy tables for object " +
+                      s"${clazz.getSimpleName}:$id"
+            val path =
+                s"${store.rootPath}${RecyclingContext.LegacyClasses(clazz)}/$id"
+            pipeline.delete(path) {
+                case RecyclingPipeline.Deleted =>
                     deletedLegacy += 1
-                } else {
-                    log debug "Skipping legacy tables for object with timestamp " +
-                              s"${stat.getCtime}"
+                case RecyclingPipeline.Skipped =>
                     skippedLegacy += 1
-                }
-            } catch {
-                case NonFatal(e) =>
+                case RecyclingPipeline.Failed(e) =>
                     log.warn("Failed to delete legacy tables for object " +
                              s"${clazz.getSimpleName}:$id", e)
                     skippedLegacy += 1
             }
         }
+        pipeline.await()
     }
 
     /**
@@ -509,43 +495,6 @@ class RecyclingContext(val config: RecyclerConfig,
         }
     }
 
-    @throws[RecyclingException]
-    private def delete(path: String, version: Int): Unit = {
-        throttle()
-        try {
-            deleteWithChildren(path, version)
-        } catch {
-            case NonFatal(e) => throw new RecyclingStorageException(e)
-        }
-    }
-
-    @throws[Exception]
-    private def deleteWithChildren(path: String, version: Int): Boolean = {
-        PathUtils.validatePath(path)
-
-        val children = zk.getChildren(path, null).asScala
-
-        val stat = new Stat
-        val pathsWithVersion = for (child <- children) yield {
-            val childPath = ZKPaths.makePath(path, child)
-            zk.getData(childPath, null, stat)
-            if (stat.getCtime >= timestamp) {
-                return false
-            }
-            (childPath, stat.getVersion)
-        }
-
-        var delete = true
-        for ((childPath, childVersion) <- pathsWithVersion) {
-            delete &= deleteWithChildren(childPath, childVersion)
-        }
-
-        if (delete) {
-            zk.delete(path, version)
-        }
-        delete
-    }
-
     /**
       * Returns the underlying [[ZooKeeper]] client.
       */
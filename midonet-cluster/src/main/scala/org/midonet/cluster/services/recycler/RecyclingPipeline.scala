@@ -0,0 +1,423 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.recycler
+
+import java.util
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration.Duration
+import scala.util.control.NonFatal
+
+import com.google.common.util.concurrent.RateLimiter
+import com.typesafe.scalalogging.Logger
+
+import org.apache.curator.utils.ZKPaths
+import org.apache.zookeeper.AsyncCallback.{Children2Callback, MultiCallback}
+import org.apache.zookeeper.KeeperException.Code
+import org.apache.zookeeper.data.Stat
+import org.apache.zookeeper.{KeeperException, Op, OpResult, ZooKeeper}
+
+object RecyclingPipeline {
+
+    private final val PollIntervalMillis = 10L
+    private final val ProgressIntervalNanos = TimeUnit.SECONDS.toNanos(10)
+
+    /**
+      * The result of deleting a recyclable subtree.
+      */
+    sealed trait Result
+    /** The subtree has been deleted. */
+    case object Deleted extends Result
+    /** The subtree, or one of its nodes, was created after the recycling
+      * timestamp and it has not been deleted. */
+    case object Skipped extends Result
+    /** The subtree could not be deleted because of a storage error. */
+    case class Failed(e: Throwable) extends Result
+
+    /**
+      * A subtree submitted for deletion. The nodes of the subtree are
+      * discovered asynchronously, and they are accessed only from the
+      * ZooKeeper event thread until the subtree is ready for deletion.
+      */
+    private class Subtree(val path: String, val callback: Result => Unit) {
+        val nodes = new util.ArrayList[Node]
+        var pending = 0
+        var newerNode: String = null
+        var error: Throwable = null
+    }
+
+    private case class Node(path: String, version: Int, depth: Int)
+
+    private val NodeOrdering = new util.Comparator[Node] {
+        override def compare(a: Node, b: Node): Int =
+            Integer.compare(b.depth, a.depth)
+    }
+
+    private trait Operation
+    private case class Inspect(subtree: Subtree, path: String, depth: Int)
+        extends Operation
+    private case class Delete(subtrees: List[Subtree], offset: Int)
+        extends Operation
+    private case class Complete(subtree: Subtree, result: Result)
+        extends Operation
+
+}
+
+/**
+  * Deletes NSDB subtrees using pipelined asynchronous ZooKeeper requests.
+  *
+  * For every submitted path, the pipeline walks the subtree with
+  * asynchronous `getChildren` requests, verifying that none of its nodes
+  * were created after the recycling `timestamp`. Subtrees that can be
+  * recycled are grouped into ZooKeeper `multi` requests of up to `batchSize`
+  * delete operations, such that several sibling subtrees are deleted in a
+  * single round trip. If a batch fails, its subtrees are retried individually
+  * such that a single modified subtree does not prevent the deletion of the
+  * others.
+  *
+  * The number of outstanding requests is bounded by a congestion window that
+  * adapts to the ZooKeeper latency: the window grows by one request per round
+  * trip while the request latency is below `targetLatency`, and it halves at
+  * most once per round trip otherwise. Requests are additionally throttled
+  * by the given rate `limiter`.
+  *
+  * All requests are issued, and all result callbacks are called, from the
+  * thread calling `delete` and `await`. The ZooKeeper event thread only
+  * processes the responses and enqueues follow-up operations.
+  */
+class RecyclingPipeline(zk: () => ZooKeeper,
+                        timestamp: Long,
+                        maxInFlight: Int,
+                        batchSize: Int,
+                        targetLatency: Duration,
+                        limiter: RateLimiter,
+                        isCanceled: () => Boolean,
+                        log: Logger) {
+
+    import RecyclingPipeline._
+
+    private val queue = new LinkedBlockingQueue[Operation]()
+    private val maxWindow = maxInFlight max 1
+    private val maxBatch = batchSize max 1
+    private val targetLatencyNanos = targetLatency.toNanos
+
+    // Number of submitted subtrees that have not completed yet: only
+    // accessed from the pipeline thread.
+    private var outstanding = 0
+
+    // The current batch of subtrees ready for deletion.
+    private val batch = new util.ArrayList[Subtree]
+    private var batchOps = 0
+
+    // Congestion window state, guarded by the lock.
+    private val lock = new Object
+    private var window = maxWindow.toDouble
+    private var inFlight = 0
+    private var averageLatency = 0L
+    private var lastDecrease = 0L
+
+    private val startTime = System.nanoTime()
+    private var lastProgress = startTime
+
+    @volatile var requests = 0L
+    @volatile var multiRequests = 0L
+    @volatile var deletedNodes = 0L
+
+    private val childrenCallback = new Children2Callback {
+        override def processResult(rc: Int, path: String, ctx: Object,
+                                   children: util.List[String],
+                                   stat: Stat): Unit = {
+            val (inspect, issuedAt) = ctx.asInstanceOf[(Inspect, Long)]
+            release(issuedAt)
+            inspected(inspect, Code.get(rc), children, stat)
+        }
+    }
+
+    private val multiCallback = new MultiCallback {
+        override def processResult(rc: Int, path: String, ctx: Object,
+                                   results: util.List[OpResult]): Unit = {
+            val (delete, issuedAt) = ctx.asInstanceOf[(Delete, Long)]
+            release(issuedAt)
+            deleted(delete, Code.get(rc))
+        }
+    }
+
+    /**
+      * Submits the subtree at the given path for deletion. The method blocks
+      * while the number of outstanding subtrees exceeds the pipeline
+      * capacity, and the `callback` is called from the current thread when
+      * the subtree is deleted or skipped.
+      */
+    @throws[RecyclingException]
+    def delete(path: String)(callback: Result => Unit): Unit = {
+        while (outstanding >= maxWindow * maxBatch) {
+            step()
+        }
+        val subtree = new Subtree(path, callback)
+        subtree.pending = 1
+        outstanding += 1
+        queue.offer(Inspect(subtree, path, depth = 0))
+    }
+
+    /**
+      * Waits until all submitted subtrees have completed.
+      */
+    @throws[RecyclingException]
+    def await(): Unit = {
+        while (outstanding > 0) {
+            step()
+        }
+    }
+
+    /**
+      * @return The number of subtree nodes deleted per second since the
+      *         pipeline was created.
+      */
+    def throughput: Double = {
+        val elapsed = System.nanoTime() - startTime
+        if (elapsed > 0) deletedNodes * 1e9 / elapsed else 0.0
+    }
+
+    /**
+      * @return The current average request latency in milliseconds.
+      */
+    def latencyMillis: Double = lock.synchronized { averageLatency / 1e6 }
+
+    /**
+      * Processes the next pending operation. If there is no operation pending,
+      * the method flushes the current deletion batch.
+      */
+    @throws[RecyclingException]
+    private def step(): Unit = {
+        verifyCanceled()
+        queue.poll(PollIntervalMillis, TimeUnit.MILLISECONDS) match {
+            case Complete(subtree, result) =>
+                outstanding -= 1
+                subtree.callback(result)
+            case op: Operation =>
+                acquire()
+                try issue(op)
+                catch {
+                    case NonFatal(e) =>
+                        abandon()
+                        throw new RecyclingStorageException(e)
+                }
+            case null =>
+                flush()
+        }
+        reportProgress()
+    }
+
+    private def issue(op: Operation): Unit = {
+        val issuedAt = System.nanoTime()
+        requests += 1
+        op match {
+            case inspect: Inspect =>
+                zk().getChildren(inspect.path, false, childrenCallback,
+                                 (inspect, issuedAt))
+            case delete @ Delete(subtrees, offset) =>
+                val ops = new util.ArrayList[Op](maxBatch)
+                for (subtree <- subtrees) {
+                    val end = subtree.nodes.size min (offset + maxBatch)
+                    for (index <- offset until end) {
+                        val node = subtree.nodes.get(index)
+                        ops.add(Op.delete(node.path, node.version))
+                    }
+                }
+                multiRequests += 1
+                zk().multi(ops, multiCallback, (delete, issuedAt))
+        }
+    }
+
+    /**
+      * Handles the result of inspecting a subtree node: called from the
+      * ZooKeeper event thread.
+      */
+    private def inspected(inspect: Inspect, code: Code,
+                          children: util.List[String], stat: Stat): Unit = {
+        val subtree = inspect.subtree
+        code match {
+            case Code.OK if subtree.newerNode ne null =>
+            case Code.OK if subtree.error ne null =>
+            case Code.OK if stat.getCtime >= timestamp =>
+                subtree.newerNode = inspect.path
+            case Code.OK =>
+                subtree.nodes.add(Node(inspect.path, stat.getVersion,
+                                       inspect.depth))
+                for (child <- children.asScala) {
+                    subtree.pending += 1
+                    queue.offer(Inspect(subtree,
+                                        ZKPaths.makePath(inspect.path, child),
+                                        inspect.depth + 1))
+                }
+            case Code.NONODE if inspect.depth > 0 =>
+                // A child deleted concurrently does not prevent the deletion
+                // of the subtree.
+            case _ =>
+                subtree.error = KeeperException.create(code, inspect.path)
+        }
+
+        subtree.pending -= 1
+        if (subtree.pending == 0) {
+            if (subtree.error ne null) {
+                queue.offer(Complete(subtree, Failed(subtree.error)))
+            } else if (subtree.newerNode ne null) {
+                log debug s"Skipping ${subtree.path}: node " +
+                          s"${subtree.newerNode} newer than $timestamp"
+                queue.offer(Complete(subtree, Skipped))
+            } else {
+                subtree.nodes.sort(NodeOrdering)
+                enqueue(subtree)
+            }
+        }
+    }
+
+    /**
+      * Handles the result of a multi delete request: called from the
+      * ZooKeeper event thread.
+      */
+    private def deleted(delete: Delete, code: Code): Unit = {
+        if (code == Code.OK) {
+            for (subtree <- delete.subtrees) {
+                val end = subtree.nodes.size min (delete.offset + maxBatch)
+                deletedNodes += end - delete.offset
+                if (end < subtree.nodes.size) {
+                    queue.offer(Delete(List(subtree), end))
+                } else {
+                    queue.offer(Complete(subtree, Deleted))
+                }
+            }
+        } else if (delete.subtrees.size > 1) {
+            log debug s"Batch deletion of ${delete.subtrees.size} subtrees " +
+                      s"failed with $code: retrying individually"
+            for (subtree <- delete.subtrees) {
+                queue.offer(Delete(List(subtree), 0))
+            }
+        } else {
+            val subtree = delete.subtrees.head
+            queue.offer(Complete(subtree, code match {
+                case Code.NOTEMPTY | Code.BADVERSION | Code.NONODE =>
+                    log debug s"Skipping ${subtree.path}: subtree modified " +
+                              s"during recycling ($code)"
+                    Skipped
+                case _ =>
+                    Failed(KeeperException.create(code, subtree.path))
+            }))
+        }
+    }
+
+    /**
+      * Adds a subtree ready for deletion to the current batch. Subtrees
+      * larger than the batch size are deleted separately in consecutive
+      * multi requests.
+      */
+    private def enqueue(subtree: Subtree): Unit = batch.synchronized {
+        if (subtree.nodes.size >= maxBatch) {
+            queue.offer(Delete(List(subtree), 0))
+            return
+        }
+        if (batchOps + subtree.nodes.size > maxBatch) {
+            flush()
+        }
+        batch.add(subtree)
+        batchOps += subtree.nodes.size
+    }
+
+    private def flush(): Unit = batch.synchronized {
+        if (!batch.isEmpty) {
+            queue.offer(Delete(batch.asScala.toList, 0))
+            batch.clear()
+            batchOps = 0
+        }
+    }
+
+    /**
+      * Acquires a slot in the congestion window, waiting for outstanding
+      * requests to complete if the window is full.
+      */
+    @throws[RecyclingException]
+    private def acquire(): Unit = {
+        lock.synchronized {
+            while (inFlight >= window.toInt) {
+                lock.wait(PollIntervalMillis)
+                verifyCanceled()
+            }
+            inFlight += 1
+        }
+        try {
+            limiter.acquire()
+            verifyCanceled()
+        } catch {
+            case NonFatal(e) =>
+                abandon()
+                throw e
+        }
+    }
+
+    /**
+      * Releases a slot in the congestion window and updates the window size
+      * using the latency of the completed request.
+      */
+    private def release(issuedAt: Long): Unit = lock.synchronized {
+        val now = System.nanoTime()
+        val latency = now - issuedAt
+        averageLatency =
+            if (averageLatency == 0) latency
+            else averageLatency + ((latency - averageLatency) >> 3)
+
+        if (latency <= targetLatencyNanos) {
+            window = (window + 1.0 / window) min maxWindow
+        } else if (now - lastDecrease > averageLatency) {
+            window = (window / 2) max 1.0
+            lastDecrease = now
+        }
+
+        inFlight -= 1
+        lock.notify()
+    }
+
+    /**
+      * Releases a slot in the congestion window acquired for a request that
+      * was not issued, without updating the window size.
+      */
+    private def abandon(): Unit = lock.synchronized {
+        inFlight -= 1
+        lock.notify()
+    }
+
+    private def reportProgress(): Unit = {
+        val now = System.nanoTime()
+        if (now - lastProgress >= ProgressIntervalNanos) {
+            lastProgress = now
+            log info f"NSDB recycling progress: $deletedNodes nodes deleted " +
+                     f"with $requests requests ($multiRequests batched) " +
+                     f"[throughput: $throughput%.1f nodes/s] " +
+                     f"[latency: $latencyMillis%.2f ms] " +
+                     f"[window: ${lock.synchronized { window.toInt }}]"
+        }
+    }
+
+    @throws[RecyclingException]
+    private def verifyCanceled(): Unit = {
+        if (isCanceled()) {
+            log debug "Recycling canceled"
+            throw new RecyclingCanceledException
+        }
+    }
+
+}
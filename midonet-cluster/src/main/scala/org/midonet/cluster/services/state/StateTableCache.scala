@@ -55,6 +55,10 @@ object StateTableCache {
                                observer: StateTableObserver)
         extends StateTableSubscription {
 
+        // Whether the observer receives the compressed updates shared by the
+        // cache.
+        val compression = observer.acceptsCompression
+
         private val unsubscribed = new AtomicBoolean()
         // The last version or -1L if the initial snapshot was not sent: this
         // indicates that the initial snapshot is still pending, and
@@ -63,6 +67,9 @@ object StateTableCache {
         // The queue is volatile such that it can be nulled during unsubscribe.
         @volatile private var queue =
             new util.ArrayDeque[Notify](cache.initialSubscriberQueueSize)
+        // The snapshot currently streamed to the observer, which takes
+        // precedence over the queued notifications.
+        private var stream: SnapshotStream = null
         private var sending = false
 
         /**
@@ -108,13 +115,37 @@ object StateTableCache {
         }
 
         /**
-          * Emits to the underlying subscriber a snapshot of the current table
-          * entries. This method is always called on the cache dispatcher thread.
+          * Streams to the underlying subscriber a snapshot of the current
+          * table entries. The snapshot updates are built one at a time, when
+          * the observer completes the previous notification, and they replace
+          * any pending notifications. This method is always called on the
+          * cache dispatcher thread.
+          */
+        def snapshot(snapshotStream: SnapshotStream,
+                     currentVersion: Long): Unit = {
+            val currentQueue = queue
+            if (currentQueue ne null) {
+                currentQueue.clear()
+                version = currentVersion
+                stream = snapshotStream
+                if (!sending) {
+                    sending = true
+                    send(nextNotify())
+                }
+            }
+        }
+
+        /**
+          * Emits to the underlying subscriber the differential updates since
+          * the version requested by the subscriber, replacing any pending
+          * notifications. This method is always called on the cache
+          * dispatcher thread.
           */
-        def snapshot(updates: Array[Update], currentVersion: Long): Unit = {
+        def resume(updates: Array[Update], currentVersion: Long): Unit = {
             val currentQueue = queue
             if (currentQueue ne null) {
                 currentQueue.clear()
+                stream = null
                 version = currentVersion
                 enqueue(updates)
             }
@@ -125,15 +156,15 @@ object StateTableCache {
           * table entries with respect to the last available snapshot in the
           * cache. This method is always called on the cache dispatcher thread.
           */
-        def diff(updates: Array[Update], lastVersion: Long,
-                 currentVersion: Long): Unit = {
+        def diff(change: Change): Unit = {
             if (version == -1L) {
                 return
             }
             val currentQueue = queue
             if (currentQueue ne null) {
-                if (version == lastVersion) {
-                    version = currentVersion
+                if (version == change.lastVersion) {
+                    version = change.version
+                    val updates = change.updates(compression)
                     if (updates.length > 0) {
                         enqueue(updates)
                     }
@@ -190,9 +221,8 @@ object StateTableCache {
                 observer.next(notify).onComplete { result =>
                     // Accessing the observer queue on the cache dispatcher
                     // thread.
-                    val currentQueue = queue
-                    if (currentQueue ne null) {
-                        send(currentQueue.poll())
+                    if (queue ne null) {
+                        send(nextNotify())
                     }
                 }(cache.dispatcher)
             } catch {
@@ -201,14 +231,39 @@ object StateTableCache {
                              s"notification for subscription $id", e)
                     // Sending the next message on the cache dispatcher thread.
                     cache.dispatcher.execute(makeRunnable {
-                        val currentQueue = queue
-                        if (currentQueue ne null) {
-                            send(currentQueue.poll())
+                        if (queue ne null) {
+                            send(nextNotify())
                         }
                     })
             }
         }
 
+        /**
+          * Returns the next notification to send to the observer: the next
+          * update of the current snapshot stream if any, or otherwise the
+          * next queued notification. This method is always called on the
+          * cache dispatcher thread.
+          */
+        private def nextNotify(): Notify = {
+            val currentQueue = queue
+            if (currentQueue eq null) {
+                return null
+            }
+            val currentStream = stream
+            if (currentStream ne null) {
+                val update = currentStream.next()
+                if (!currentStream.hasNext) {
+                    stream = null
+                }
+                Notify.newBuilder()
+                      .setSubscriptionId(id)
+                      .setUpdate(update)
+                      .build()
+            } else {
+                currentQueue.poll()
+            }
+        }
+
         /**
           * Builds a [[Notify.Completed]] message for the specified exception.
           */
@@ -307,6 +362,130 @@ object StateTableCache {
 
     private type TableEntries = util.HashMap[String, TableEntry]
 
+    /**
+      * A change of the state table from `lastVersion` to `version`, with the
+      * differential updates notified for this change. The compressed updates
+      * are computed once, when first requested, and shared by all
+      * subscriptions accepting compression.
+      */
+    private class Change(val lastVersion: Long,
+                         val version: Long,
+                         uncompressed: Array[Update],
+                         threshold: Int) {
+
+        private var compressed: Array[Update] = null
+
+        def updates(compression: Boolean): Array[Update] = {
+            if (!compression) {
+                uncompressed
+            } else {
+                if (compressed eq null) {
+                    compressed = compress(uncompressed, threshold)
+                }
+                compressed
+            }
+        }
+    }
+
+    /**
+      * Builds the [[Update]] notifications for a snapshot of the table
+      * entries, in batches of at most `batchSize` entries. A snapshot always
+      * emits one update, even if empty. The batches are built once, when
+      * first requested by a [[SnapshotStream]], and shared by all
+      * subscriptions streaming the same snapshot, as are the compressed
+      * batches. Since the cache never modifies a published entries map, the
+      * snapshot remains consistent while it is streamed. The batches are only
+      * accessed on the cache dispatcher thread.
+      */
+    private class Snapshot(val entries: TableEntries, val version: Long,
+                           batchSize: Int, threshold: Int) {
+
+        private val iterator = entries.values().iterator()
+        val batchCount =
+            if (entries.isEmpty) 1
+            else (entries.size() - 1) / batchSize + 1
+        private val batches = new Array[Update](batchCount)
+        private var compressed: Array[Update] = null
+        private var built = 0
+
+        def batch(index: Int, compression: Boolean): Update = {
+            while (built <= index) {
+                batches(built) = build(built)
+                built += 1
+            }
+            if (!compression) {
+                batches(index)
+            } else {
+                if (compressed eq null) {
+                    compressed = new Array[Update](batchCount)
+                }
+                if (compressed(index) eq null) {
+                    compressed(index) =
+                        StateUpdateCompression.compress(batches(index),
+                                                        threshold)
+                }
+                compressed(index)
+            }
+        }
+
+        private def build(index: Int): Update = {
+            val builder = Update.newBuilder()
+                .setType(Update.Type.SNAPSHOT)
+                .setCurrentVersion(version)
+            if (index == 0)
+                builder.setBegin(true)
+            if (index == batchCount - 1)
+                builder.setEnd(true)
+
+            while (builder.getEntriesCount < batchSize && iterator.hasNext) {
+                val entry = iterator.next()
+                builder.addEntries(Notify.Entry.newBuilder()
+                                       .setKey(entry.key)
+                                       .setValue(entry.value)
+                                       .setVersion(entry.version))
+            }
+            builder.build()
+        }
+    }
+
+    /**
+      * Streams the batches of a shared [[Snapshot]] to a subscription.
+      */
+    private class SnapshotStream(snapshot: Snapshot, compression: Boolean) {
+
+        private var index = 0
+
+        def hasNext: Boolean = index < snapshot.batchCount
+
+        def next(): Update = {
+            val update = snapshot.batch(index, compression)
+            index += 1
+            update
+        }
+    }
+
+    /**
+      * Compresses the given updates, returning the same array if none of the
+      * updates exceed the compression threshold.
+      */
+    private def compress(updates: Array[Update], threshold: Int)
+    : Array[Update] = {
+        var result = updates
+        var index = 0
+        while (index < updates.length) {
+            val update =
+                StateUpdateCompression.compress(updates(index), threshold)
+            if (update ne updates(index)) {
+                if (result eq updates) {
+                    result = updates.clone()
+                }
+                result(index) = update
+            }
+            index += 1
+        }
+        result
+    }
+
     private final val NoSubscriptions = new Array[Subscription](0)
     private final val NoUpdates = new Array[Update](0)
     private final val EmptyPendingMap = Map.empty[Subscription, Runnable]
@@ -365,11 +544,17 @@ class StateTableCache(val config: StateProxyConfig,
         config.initialSubscriberQueueSize
     private[state] val notifyBatchSize =
         config.notifyBatchSize
+    private[state] val compressionThreshold =
+        config.compressionThreshold
+    private val changeLogSize = config.changeLogSize
 
     // The local cache map.
     @volatile private var cache = new TableEntries
     // The current table version.
     private var version = -1L
+    // The snapshot of the current cache, shared by the subscriptions
+    // requesting a snapshot at the same version.
+    private var snapshot: Snapshot = null
     // Stores the subscriptions received before the cache is synchronized
     // with the backend. We use scala immutable sets, but the overhead is
     // acceptable since this is expected only for few subscriptions.
@@ -380,6 +565,10 @@ class StateTableCache(val config: StateProxyConfig,
     // faster than the cache can process.
     private val eventQueue = new AtomicReference[CuratorEvent](null)
 
+    // The most recent changes, ordered by version, used to resume the
+    // subscriptions of clients that reconnect with a recent version.
+    private val changeLog = new util.ArrayDeque[Change](changeLogSize max 1)
+
     private val diffAddCache = new util.ArrayList[TableEntry](8)
     private val diffRemoveCache = new util.ArrayList[TableEntry](8)
 
@@ -538,6 +727,7 @@ class StateTableCache(val config: StateProxyConfig,
             watcher = null
             callback = null
             cache = null
+            snapshot = null
         }
     }
 
@@ -751,6 +941,7 @@ class StateTableCache(val config: StateProxyConfig,
 
         // Update the cache.
         cache = newCache
+        snapshot = null
 
         // Compute the differential updates based on the current batch size.
         val updateCount = diffAddCache.size() + diffRemoveCache.size()
@@ -817,12 +1008,18 @@ class StateTableCache(val config: StateProxyConfig,
             NoUpdates
         }
 
+        val change = new Change(lastVersion, version, updates,
+                                compressionThreshold)
+        if (lastVersion >= 0 && lastVersion != version) {
+            logChange(change)
+        }
+
         if (pending.get eq null) {
             // Send the updates to all current subscribers.
             val currentSubscriptions = subscriptions
             var subIndex = 0
             while (subIndex < currentSubscriptions.length) {
-                currentSubscriptions(subIndex).diff(updates, lastVersion, version)
+                currentSubscriptions(subIndex).diff(change)
                 subIndex += 1
             }
         } else {
@@ -843,14 +1040,73 @@ class StateTableCache(val config: StateProxyConfig,
             var subIndex = 0
             while (subIndex < currentSubscriptions.length) {
                 if (!pendingSubscriptions.contains(currentSubscriptions(subIndex))) {
-                    currentSubscriptions(subIndex).diff(updates, lastVersion,
-                                                        version)
+                    currentSubscriptions(subIndex).diff(change)
                 }
                 subIndex += 1
             }
         }
     }
 
+    /**
+      * Appends a change to the change log, evicting the oldest change when
+      * the log is full. This method must be executed on the dispatcher thread.
+      */
+    private def logChange(change: Change): Unit = {
+        if (changeLogSize <= 0) {
+            return
+        }
+        while (changeLog.size() >= changeLogSize) {
+            changeLog.pollFirst()
+        }
+        changeLog.offerLast(change)
+    }
+
+    /**
+      * Returns the differential updates since the given version, or `null`
+      * if the version is not available in the change log. If the version is
+      * the current version, the method returns a single empty update, which
+      * confirms the current version to the subscriber. The updates are
+      * compressed if `compression` is set. This method must be executed on
+      * the dispatcher thread.
+      */
+    private def updatesSince(lastVersion: Long, compression: Boolean)
+    : Array[Update] = {
+        if (version < 0) {
+            return null
+        }
+        val updates = new util.ArrayList[Update]()
+        if (lastVersion != version) {
+            var found = false
+            val iterator = changeLog.iterator()
+            while (iterator.hasNext) {
+                val change = iterator.next()
+                if (change.lastVersion == lastVersion) {
+                    found = true
+                }
+                if (found) {
+                    val changeUpdates = change.updates(compression)
+                    var index = 0
+                    while (index < changeUpdates.length) {
+                        updates.add(changeUpdates(index))
+                        index += 1
+                    }
+                }
+            }
+            if (!found) {
+                return null
+            }
+        }
+        if (updates.isEmpty) {
+            updates.add(Update.newBuilder()
+                            .setType(Update.Type.RELATIVE)
+                            .setCurrentVersion(version)
+                            .setBegin(true)
+                            .setEnd(true)
+                            .build())
+        }
+        updates.toArray(new Array[Update](updates.size()))
+    }
+
     /**
       * Computes the latency of a state table operation assuming that the
       * context includes the start timestamp. Returns -1 otherwise.
@@ -937,61 +1193,32 @@ class StateTableCache(val config: StateProxyConfig,
     @throws[Exception]
     private def requestRefreshUnsafe(subscription: Subscription,
                                      lastVersion: Option[Long]): Unit = {
-        // TODO: Add versioning support.
-
         val currentCache = cache
         if (currentCache eq null) {
             return
         }
 
-        // Build the list of updates for the current snapshot: a snapshot
-        // always emits one update, even if empty.
-        val batchCount =
-            if (currentCache.isEmpty) 1
-            else (currentCache.size() - 1) / notifyBatchSize + 1
-
-        /**
-          * @return A new [[Update]] builder for the given batch index.
-          */
-        def newUpdateBuilder(index: Int): Update.Builder = {
-            if (index >= batchCount) {
-                return null
-            }
-            val builder = Update.newBuilder()
-                .setType(Update.Type.SNAPSHOT)
-                .setCurrentVersion(version)
-            if (index == 0)
-                builder.setBegin(true)
-            if (index == batchCount - 1)
-                builder.setEnd(true)
-            builder
-        }
-
-        var index = 0
-
-        val updates = new Array[Update](batchCount)
-        var builder = newUpdateBuilder(index)
-
-        val iterator = cache.values().iterator()
-        while (iterator.hasNext) {
-            val entry = iterator.next()
-
-            builder.addEntries(Notify.Entry.newBuilder()
-                                   .setKey(entry.key)
-                                   .setValue(entry.value)
-                                   .setVersion(entry.version))
-            if (builder.getEntriesCount == notifyBatchSize) {
-                updates(index) = builder.build()
-                index += 1
-                builder = newUpdateBuilder(index)
+        // If the requested version is available in the change log, send only
+        // the missed differential updates.
+        if (lastVersion.isDefined) {
+            val updates = updatesSince(lastVersion.get,
+                                       subscription.compression)
+            if (updates ne null) {
+                Log debug s"($logId) Resuming subscription ${subscription.id} " +
+                          s"from version ${lastVersion.get} to $version"
+                subscription.resume(updates, version)
+                return
             }
         }
 
-        if (builder ne null) {
-            updates(index) = builder.build()
+        // Otherwise, stream a snapshot of the current entries, sharing the
+        // snapshot batches with the other subscriptions at this version.
+        if ((snapshot eq null) || (snapshot.entries ne currentCache)) {
+            snapshot = new Snapshot(currentCache, version, notifyBatchSize,
+                                    compressionThreshold)
         }
-
-        subscription.snapshot(updates, version)
+        subscription.snapshot(
+            new SnapshotStream(snapshot, subscription.compression), version)
     }
 
 }
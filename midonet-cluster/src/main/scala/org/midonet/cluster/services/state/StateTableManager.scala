@@ -234,7 +234,8 @@ class StateTableManager(config: StateProxyConfig, backend: MidonetBackend) {
         do {
             subscriptionId = try {
                 context.subscribeTo(tableKey, getOrCreateTableCache(tableKey),
-                                    requestId, lastVersion)
+                                    requestId, lastVersion,
+                                    request.getAcceptCompression)
             } catch {
                 case e: StateTableCacheClosedException => -1L
             }
@@ -32,4 +32,11 @@ trait StateTableObserver {
       */
     def next(notify: Notify): Future[AnyRef]
 
+    /**
+      * Indicates whether the observer accepts updates with compressed
+      * entries. The cache compresses each update once and shares the
+      * compressed update with all observers accepting compression.
+      */
+    def acceptsCompression: Boolean = false
+
 }
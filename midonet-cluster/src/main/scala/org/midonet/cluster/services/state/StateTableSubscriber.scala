@@ -26,12 +26,15 @@ import org.midonet.cluster.services.state.server.ClientHandler
   * Wraps a subscription to a state table and acts as a [[StateTableObserver]]
   * relaying notifications to the corresponding [[ClientHandler]]. The class
   * also ensures that the ACKNOWLEDGE response for a SUBSCRIBE request
-  * is always sent before subsequent state table updates.
+  * is always sent before subsequent state table updates. If the client
+  * accepts compression, the cache sends the updates with the entries of
+  * large updates compressed.
   */
 class StateTableSubscriber(val key: StateTableKey, handler: ClientHandler,
                            cache: StateTableCache, requestId: Long,
                            lastVersion: Option[Long],
-                           onComplete: (StateTableSubscriber) => Unit)
+                           onComplete: (StateTableSubscriber) => Unit,
+                           acceptCompression: Boolean = false)
     extends StateTableObserver {
 
     // The promise completes with the delivery of the subscribe
@@ -79,6 +82,11 @@ class StateTableSubscriber(val key: StateTableKey, handler: ClientHandler,
         }
     }
 
+    /**
+      * @see [[StateTableObserver.acceptsCompression]]
+      */
+    override def acceptsCompression: Boolean = acceptCompression
+
     /**
       * Sends an ACKNOWLEDGE response to complete the SUBSCRIBE transaction.
       */
@@ -66,7 +66,8 @@ class ClientContext(handler: ClientHandler) {
       */
     @throws[StateTableException]
     def subscribeTo(key: StateTableKey, cache: StateTableCache,
-                    requestId: Long, lastVersion: Option[Long]): Long = {
+                    requestId: Long, lastVersion: Option[Long],
+                    acceptCompression: Boolean = false): Long = {
         if (subscriberList.isClosed) {
             throw serverShutdownException
         }
@@ -79,7 +80,7 @@ class ClientContext(handler: ClientHandler) {
                     key, handler, cache, requestId, lastVersion, { sub =>
                         // Remove the subscription on a terminal notification.
                         subscriberList.remove(sub)
-                    })
+                    }, acceptCompression)
             }, subscriber => {
                 // Deleter function: closes the subscriber.
                 subscriber.unsubscribe()
@@ -59,7 +59,25 @@ object SessionInventory {
 
     /** generate an update response */
     def updateBuilder(m: Message, reqId: UUID = null): Response.Builder = {
-        val u: Update = m match {
+        val u = update(m)
+        updateHeaderBuilder(extractId(m), reqId).setUpdate(u)
+    }
+
+    /** generate an update response without the update payload */
+    def updateHeaderBuilder(objInfo: ObservableId, reqId: UUID)
+    : Response.Builder = {
+        val response = Response.newBuilder()
+                               .setType(ResponseType.UPDATE)
+                               .setObjType(typeOf(objInfo.ofType).get)
+                               .setObjId(toProto(objInfo.id))
+        if (reqId != null)
+            response.setReqId(toProto(reqId))
+        response
+    }
+
+    /** generate the update payload for a topology object */
+    def update(m: Message): Update = {
+        m match {
             case h: BgpNetwork => Update.newBuilder().setBgpNetwork(h).build()
             case h: BgpPeer => Update.newBuilder().setBgpPeer(h).build()
             case h: Chain => Update.newBuilder().setChain(h).build()
@@ -91,15 +109,6 @@ object SessionInventory {
             case h: Vtep => Update.newBuilder().setVtep(h).build()
             case _ => throw new UnknownTopologyEntityException
         }
-        val objInfo = extractId(m)
-        val response = Response.newBuilder()
-                               .setType(ResponseType.UPDATE)
-                               .setObjType(typeOf(objInfo.ofType).get)
-                               .setObjId(toProto(objInfo.id))
-                               .setUpdate(u)
-        if (reqId != null)
-            response.setReqId(toProto(reqId))
-        response
     }
 
     /** generate a deletion response */
@@ -188,8 +197,9 @@ object SessionInventory {
  *
  * @param reqId is the request originating this stream (used for notifications
  *              to user)
+ * @param cache is the cache of encoded updates shared by all sessions
  */
-protected class StorageTransformer(val reqId: UUID)
+protected class StorageTransformer(val reqId: UUID, val cache: UpdateCache)
     extends Observable.Transformer[Message, Response.Builder] {
 
     override def call(s: Observable[Message])
@@ -211,17 +221,19 @@ protected class StorageTransformer(val reqId: UUID)
         extends OnSubscribe[Response.Builder] {
         /* Remember the subscription to the source observable */
         private var sub: Subscription = null
+        private var converter: StorageEventConverter = null
 
         /** Propagate the unsubscription to the source */
         def cancel(): Unit = {
             if (sub != null) sub.unsubscribe()
+            if (converter != null) converter.release()
         }
 
         /** Bind the subscriber to the source */
         override def call(client: Subscriber[_ >: Response.Builder]): Unit = {
-            sub = source.subscribe(new StorageEventConverter(
-                client.asInstanceOf[Subscriber[Response.Builder]],
-                reqId))
+            converter = new StorageEventConverter(
+                client.asInstanceOf[Subscriber[Response.Builder]], reqId)
+            sub = source.subscribe(converter)
         }
     }
 
@@ -237,24 +249,42 @@ protected class StorageTransformer(val reqId: UUID)
         import org.midonet.cluster.services.topology.server.SessionInventory._
 
         private var oId: ObservableId = null
+        private var retained = false
+
+        /** Releases the reference to the cached updates of the object */
+        def release(): Unit = synchronized {
+            if (retained) {
+                retained = false
+                cache.release(oId)
+            }
+        }
 
         override def onCompleted(): Unit = {
+            release()
             if (oId != null)
                 observer.onNext(deletionBuilder(oId.id, oId.ofType, reqId))
             observer.onCompleted()
         }
-        override def onError(exc: Throwable): Unit = exc match {
-            case e: NotFoundException =>
-                observer.onNext(errorBuilder(reqId, "not found"))
-                observer.onCompleted()
-            case t: Throwable =>
-                observer.onNext(errorBuilder(reqId, "error on watch"))
-                observer.onError(t)
+        override def onError(exc: Throwable): Unit = {
+            release()
+            exc match {
+                case e: NotFoundException =>
+                    observer.onNext(errorBuilder(reqId, "not found"))
+                    observer.onCompleted()
+                case t: Throwable =>
+                    observer.onNext(errorBuilder(reqId, "error on watch"))
+                    observer.onError(t)
+            }
         }
         override def onNext(data: Message): Unit = {
-            if (oId == null)
+            if (oId == null) {
                 oId = extractId(data)
-            observer.onNext(updateBuilder(data, reqId))
+                if (oId != null) synchronized {
+                    cache.retain(oId)
+                    retained = true
+                }
+            }
+            observer.onNext(cache.updateResponse(oId, data, reqId))
         }
     }
 }
@@ -362,6 +392,9 @@ class SessionInventory(private val store: Storage,
       * point in time. */
     private val inventory = new ConcurrentHashMap[Any, Session]()
 
+    /** The encoded updates shared by all sessions */
+    private[server] val updateCache = new UpdateCache
+
     /** Action for backpressure overflows */
     private val logOverflow = makeAction0 {
         log.error("excessive backpressure from topology updates")
@@ -512,10 +545,13 @@ class SessionInventory(private val store: Storage,
                                          reqId: UUID): Unit = {
             log.debug("Watch: " + id + " ({})",  ofType)
             val obsId = ObservableId(id, ofType)
-            val src = store.observable(ofType.asInstanceOf[Class[Message]], id)
+            val src = updateCache.observable(
+                obsId, store.observable(ofType.asInstanceOf[Class[Message]], id))
             try {
                 val oldReq = funnel.add(
-                    obsId, src.compose(new StorageTransformer(reqId)), reqId)
+                    obsId, src.compose(new StorageTransformer(reqId,
+                                                              updateCache)),
+                    reqId)
                 if (reqId == oldReq)
                     funnel.inject(ackBuilder(accept = true, reqId))
                 else
@@ -543,7 +579,9 @@ class SessionInventory(private val store: Storage,
             val obsId = ObservableId(null, ofType)
             val src: Observable[Observable[Response.Builder]] =
                 store.observable(ofType.asInstanceOf[Class[Message]]).map(
-                    makeFunc1 {_.compose(new StorageTransformer(reqId))}
+                    makeFunc1 {
+                        _.compose(new StorageTransformer(reqId, updateCache))
+                    }
                 )
             try {
                 val oldReq = funnel.add(obsId, Observable.merge(src), reqId)
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.topology.server
+
+import java.util.concurrent.ConcurrentHashMap
+
+import com.google.protobuf.{Message, UnknownFieldSet}
+
+import rx.Observable
+
+import org.midonet.cluster.rpc.Commands.Response
+import org.midonet.cluster.services.topology.server.SessionInventory.{ObservableId, update, updateBuilder, updateHeaderBuilder}
+import org.midonet.util.functors.makeAction0
+
+/**
+ * A cache of the encoded update payloads shared by all sessions of a
+ * [[SessionInventory]], such that an object watched by many sessions is
+ * serialized only once per version, instead of once per session.
+ *
+ * The cache entries are keyed by the object type and identifier, and are
+ * reference counted by the session watches: an entry is created by the first
+ * watch of an object and removed when the last watch is released. The
+ * version of an entry is the object instance emitted by the object
+ * observable, which the cache shares across all watching sessions, such that
+ * every object version is deserialized once and emitted as the same instance
+ * to all sessions, regardless of whether storage shares the deserialized
+ * objects across its subscribers.
+ *
+ * The encoded payload is the serialized `update` field of the [[Response]],
+ * which is added to the per-session responses as an unknown field. This is
+ * identical on the wire to setting the `update` field, but the encoding is
+ * copied verbatim when the response is serialized for every session.
+ */
+class UpdateCache {
+
+    private class Entry(var refCount: Int) {
+        var message: Message = null
+        var payload: UnknownFieldSet = null
+    }
+
+    /**
+     * The object observable shared by the watching sessions. The observable
+     * replays the last object version to new subscribers, and is removed
+     * from the cache when the last subscriber unsubscribes or when the
+     * object observable terminates.
+     */
+    private class SharedObservable(id: ObservableId,
+                                   source: Observable[Message]) {
+        val observable: Observable[Message] = source
+            .doOnTerminate(makeAction0 { observables.remove(id, this) })
+            .doOnUnsubscribe(makeAction0 { observables.remove(id, this) })
+            .replay(1)
+            .refCount()
+    }
+
+    private val entries = new ConcurrentHashMap[ObservableId, Entry]()
+    private val observables =
+        new ConcurrentHashMap[ObservableId, SharedObservable]()
+
+    /**
+     * Returns the observable of the given object shared by all watching
+     * sessions, creating it from the given source if the object is not
+     * currently watched.
+     */
+    def observable(id: ObservableId, source: => Observable[Message])
+    : Observable[Message] = {
+        var shared = observables.get(id)
+        if (shared eq null) {
+            val created = new SharedObservable(id, source)
+            shared = observables.putIfAbsent(id, created) match {
+                case null => created
+                case existing => existing
+            }
+        }
+        shared.observable
+    }
+
+    /** Adds a reference to the cache entry of the given object. */
+    def retain(id: ObservableId): Unit = entries.synchronized {
+        val entry = entries.get(id)
+        if (entry eq null) entries.put(id, new Entry(1))
+        else entry.refCount += 1
+    }
+
+    /** Removes a reference to the cache entry of the given object. */
+    def release(id: ObservableId): Unit = entries.synchronized {
+        val entry = entries.get(id)
+        if (entry ne null) {
+            entry.refCount -= 1
+            if (entry.refCount <= 0) entries.remove(id)
+        }
+    }
+
+    /** The number of objects currently cached. */
+    def size: Int = entries.size()
+
+    /**
+     * Generates an update response for the given object, reusing the cached
+     * encoded payload if the same object version was already encoded. If
+     * the object is not referenced by any watch, the method returns a
+     * regular update response.
+     */
+    def updateResponse(id: ObservableId, m: Message, reqId: java.util.UUID)
+    : Response.Builder = {
+        val entry = if (id ne null) entries.get(id) else null
+        if (entry eq null) {
+            return updateBuilder(m, reqId)
+        }
+        val payload = entry.synchronized {
+            if (entry.message ne m) {
+                entry.payload = UnknownFieldSet.newBuilder()
+                    .addField(Response.UPDATE_FIELD_NUMBER,
+                              UnknownFieldSet.Field.newBuilder()
+                                  .addLengthDelimited(update(m).toByteString)
+                                  .build())
+                    .build()
+                entry.message = m
+            }
+            entry.payload
+        }
+        updateHeaderBuilder(id, reqId).setUnknownFields(payload)
+    }
+}
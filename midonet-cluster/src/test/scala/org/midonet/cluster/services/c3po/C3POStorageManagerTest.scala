@@ -27,7 +27,7 @@ import org.mockito.Mockito._
 import org.scalatest.junit.JUnitRunner
 import org.scalatest.{BeforeAndAfterEach, FlatSpec}
 
-import org.midonet.cluster.ClusterConfig
+import org.midonet.cluster.{C3POConfig, ClusterConfig}
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
 import org.midonet.cluster.data.storage.{PersistenceOp, Storage, StorageException, UpdateValidator, Transaction => ZoomTransaction}
 import org.midonet.cluster.models.Commons
@@ -104,8 +104,12 @@ class C3POStorageManagerTest extends FlatSpec with BeforeAndAfterEach {
 
     type TranslatorMap = Map[Class[_], Translator[_]]
 
-    def buildManager(translatorMap: TranslatorMap = Map.empty): Unit = {
+    def buildManager(translatorMap: TranslatorMap = Map.empty,
+                     maxTasksPerCommit: Int = 16): Unit = {
         val config = mock(classOf[ClusterConfig])
+        val c3poConfig = mock(classOf[C3POConfig])
+        when(config.c3po).thenReturn(c3poConfig)
+        when(c3poConfig.maxTasksPerCommit).thenReturn(maxTasksPerCommit)
         val sequenceDispenser = mock(classOf[SequenceDispenser])
         val backend = mock(classOf[MidonetBackend])
         when(backend.store).thenReturn(storage)
@@ -208,10 +212,7 @@ class C3POStorageManagerTest extends FlatSpec with BeforeAndAfterEach {
     }
     */
 
-    // TODO: Actually, it should execute each transaction as a single multi
-    // call. See comment in C3POStorageManager.interpretAndExecTxn.
-    "Neutron transaction" should " execute each task as a separate " +
-                                 " multi call." in {
+    private def mockTransactionTranslators(): Unit = {
         when(mockNetworkTranslator
                 .translateOp(transaction, Create(neutronNetwork)))
                 .thenReturn(List(Create(neutronNetwork),
@@ -220,11 +221,37 @@ class C3POStorageManagerTest extends FlatSpec with BeforeAndAfterEach {
                 .translateOp(transaction, Create(neutronNetworkPort)))
                 .thenReturn(List(Create(neutronNetworkPort),
                                  Create(midoPort)))
+    }
 
-        buildManager(Map(classOf[NeutronNetwork] -> mockNetworkTranslator,
-                         classOf[NeutronPort] -> mockPortTranslator,
-                         classOf[NeutronRoute] -> mockExtraTranslator))
+    private def transactionTranslators: TranslatorMap =
+        Map(classOf[NeutronNetwork] -> mockNetworkTranslator,
+            classOf[NeutronPort] -> mockPortTranslator,
+            classOf[NeutronRoute] -> mockExtraTranslator)
 
+    "Neutron transaction" should "execute all tasks in a single " +
+                                 "commit." in {
+        mockTransactionTranslators()
+        buildManager(transactionTranslators)
+
+        storageManager.interpretAndExecTxn(
+                txn("txn1", c3poCreate(2, neutronNetwork),
+                            c3poCreate(3, neutronNetworkPort)))
+
+        verify(transaction).create(neutronNetwork)
+        verify(transaction).create(midoNetwork)
+        verify(transaction).create(neutronNetworkPort)
+        verify(transaction).create(midoPort)
+        verify(transaction, never()).update(C3POState.at(2), null)
+        verify(transaction).update(C3POState.at(3), null)
+        verify(transaction, times(1)).commit()
+
+        verify(mockExtraTranslator, never()).translate(anyObject(), anyObject())
+    }
+
+    "Neutron transaction" should "execute each task as a separate " +
+                                 "commit with one task per commit." in {
+        mockTransactionTranslators()
+        buildManager(transactionTranslators, maxTasksPerCommit = 1)
 
         storageManager.interpretAndExecTxn(
                 txn("txn1", c3poCreate(2, neutronNetwork),
@@ -237,10 +264,30 @@ class C3POStorageManagerTest extends FlatSpec with BeforeAndAfterEach {
         verify(transaction).create(neutronNetworkPort)
         verify(transaction).create(midoPort)
         verify(transaction).update(C3POState.at(3), null)
+        verify(transaction, times(2)).commit()
 
         verify(mockExtraTranslator, never()).translate(anyObject(), anyObject())
     }
 
+    "Neutron transaction" should "execute each task as a separate " +
+                                 "commit when the single commit fails." in {
+        mockTransactionTranslators()
+        doThrow(new StorageException("Storage failure test"))
+            .doNothing()
+            .when(transaction).commit()
+
+        buildManager(transactionTranslators)
+
+        storageManager.interpretAndExecTxn(
+                txn("txn1", c3poCreate(2, neutronNetwork),
+                            c3poCreate(3, neutronNetworkPort)))
+
+        verify(transaction).update(C3POState.at(2), null)
+        verify(transaction, times(2)).update(C3POState.at(3), null)
+        verify(transaction, times(3)).commit()
+        verify(transaction, times(3)).close()
+    }
+
     "Model translation failure" should "throw C3PODataManagerException" in {
         doThrow(new TranslationException(Create(neutronNetwork),
                                          null, "Translation failure test"))
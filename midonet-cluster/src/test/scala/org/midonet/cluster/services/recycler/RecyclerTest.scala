@@ -129,6 +129,9 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
               |cluster.recycler.enabled : true
               |cluster.recycler.interval : 1h
               |cluster.recycler.throttling_rate : 1000000001
+              |cluster.recycler.max_in_flight : 8
+              |cluster.recycler.batch_size : 4
+              |cluster.recycler.target_latency : 100ms
               |cluster.recycler.shutdown_interval : 10s
             """.stripMargin)
         )
@@ -360,6 +363,45 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
                    .forPath(store.stateNamespacePath(namespace)) shouldBe null
         }
 
+        scenario("Namespaces with children are deleted in batches") {
+            Given("A recycling service")
+            val recycler = newRecycler()
+            recycler.mockedClock.time = System.currentTimeMillis() +
+                                        clusterConfig.recycler.interval.toMillis
+
+            And("Several namespaces with more nodes than the batch size")
+            val namespaces = for (index <- 0 until 10) yield {
+                val namespace = UUID.randomUUID().toString
+                val path = store.stateNamespacePath(namespace)
+                curator.create().forPath(path)
+                for (child <- 0 until index) {
+                    curator.create().creatingParentsIfNeeded()
+                           .forPath(s"$path/$child/leaf")
+                }
+                waitForExpiry(path)
+                path
+            }
+
+            When("The recycler starts")
+            recycler.startAsync().awaitRunning()
+
+            Then("The recycler should run the recycling task")
+            val result = recycler.tasks.toBlocking.first()
+
+            And("All namespaces should be deleted")
+            result.isSuccess shouldBe true
+            result.get.deletedNamespaces shouldBe 10
+            result.get.deletedNodes should be >= 100L
+
+            And("The recycler stops")
+            recycler.stopAsync().awaitTerminated()
+
+            And("The namespaces should not exist")
+            for (path <- namespaces) {
+                curator.checkExists().forPath(path) shouldBe null
+            }
+        }
+
         scenario("Namespaces for existing hosts") {
             Given("A recycling service")
             val recycler = newRecycler()
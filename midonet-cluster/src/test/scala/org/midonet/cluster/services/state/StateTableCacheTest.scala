@@ -52,9 +52,11 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
                           with ZookeeperTestSuite {
 
     private class TestObserver(auto: Boolean = true,
-                               doThrow: Boolean = false)
+                               doThrow: Boolean = false,
+                               compression: Boolean = false)
         extends TestAwaitableObserver[Notify] with StateTableObserver {
         var promise = Promise[AnyRef]()
+        override def acceptsCompression: Boolean = compression
         override def next(notify: Notify): Future[AnyRef] = {
             onNext(notify)
             if (doThrow) throw new Exception()
@@ -150,6 +152,8 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
             s"""
                |cluster.state_proxy.initial_subscriber_queue_size : 16
                |cluster.state_proxy.notify_batch_size : 4
+               |cluster.state_proxy.change_log_size : 4
+               |cluster.state_proxy.compression_threshold : 0
              """.stripMargin))
     }
 
@@ -577,6 +581,66 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
             cache.close()
         }
 
+        scenario("Cache compresses the updates once for all observers") {
+            Given("A cache with a compression threshold")
+            proxyConfig = new StateProxyConfig(ConfigFactory.parseString(
+                s"""
+                   |cluster.state_proxy.initial_subscriber_queue_size : 16
+                   |cluster.state_proxy.notify_batch_size : 64
+                   |cluster.state_proxy.change_log_size : 4
+                   |cluster.state_proxy.compression_threshold : 1
+                 """.stripMargin))
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+
+            And("Many entries with the same value")
+            val value = UUID.randomUUID()
+            for (index <- 0 until 32) {
+                addEntry(id, MAC.random(), value)
+            }
+
+            And("Two observers accepting compression and one that does not")
+            val observer1 = new TestObserver(compression = true)
+            val observer2 = new TestObserver(compression = true)
+            val observer3 = new TestObserver
+
+            When("The observers subscribe")
+            cache.subscribe(observer1, lastVersion = None)
+            cache.subscribe(observer2, lastVersion = None)
+            cache.subscribe(observer3, lastVersion = None)
+
+            Then("All observers receive the snapshot")
+            observer1.awaitOnNext(1, timeout) shouldBe true
+            observer2.awaitOnNext(1, timeout) shouldBe true
+            observer3.awaitOnNext(1, timeout) shouldBe true
+
+            And("The compressing observers share the same compressed update")
+            val snapshot1 = observer1.getOnNextEvents.get(0).getUpdate
+            val snapshot2 = observer2.getOnNextEvents.get(0).getUpdate
+            snapshot1.hasCompressedEntries shouldBe true
+            snapshot2 should be theSameInstanceAs snapshot1
+
+            And("The other observer receives the uncompressed snapshot")
+            observer3.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = true, 32)
+
+            When("Adding another entry")
+            addEntry(id, MAC.random(), value)
+
+            Then("The compressing observers share the same update")
+            observer1.awaitOnNext(2, timeout) shouldBe true
+            observer2.awaitOnNext(2, timeout) shouldBe true
+            val update1 = observer1.getOnNextEvents.get(1).getUpdate
+            val update2 = observer2.getOnNextEvents.get(1).getUpdate
+            update2 should be theSameInstanceAs update1
+
+            And("The other observer receives the update")
+            observer3.awaitOnNext(2, timeout) shouldBe true
+            observer3.getOnNextEvents.get(1).getUpdate.getEntriesCount shouldBe 1
+
+            cache.close()
+        }
+
         scenario("State table handles a throwing observer") {
             Given("A state table cache")
             var closed = false
@@ -884,6 +948,109 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
         }
     }
 
+    feature("Cache resumes subscriptions from a version") {
+        scenario("Observer resumes from a version in the change log") {
+            Given("A state table cache with an entry")
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+            val key1 = MAC.random()
+            val value1 = UUID.randomUUID()
+            addEntry(id, key1, value1)
+
+            And("A first observer")
+            val observer1 = new TestObserver
+            cache.subscribe(observer1, lastVersion = None)
+            observer1.awaitOnNext(1, timeout) shouldBe true
+            val version1 = observer1.getOnNextEvents.get(0).getUpdate
+                                    .getCurrentVersion
+
+            When("Adding a second entry")
+            val key2 = MAC.random()
+            val value2 = UUID.randomUUID()
+            addEntry(id, key2, value2)
+            observer1.awaitOnNext(2, timeout) shouldBe true
+            val version2 = observer1.getOnNextEvents.get(1).getUpdate
+                                    .getCurrentVersion
+
+            And("A second observer subscribes with the first version")
+            val observer2 = new TestObserver
+            cache.subscribe(observer2, lastVersion = Some(version1))
+
+            Then("The observer receives only the missed update")
+            observer2.awaitOnNext(1, timeout) shouldBe true
+            observer2.getOnNextEvents.get(0) shouldBeUpdateFor(begin = true,
+                end = true, key2 -> value2)
+            observer2.getOnNextEvents.get(0).getUpdate
+                     .getCurrentVersion shouldBe version2
+
+            When("A third observer subscribes with the current version")
+            val observer3 = new TestObserver
+            cache.subscribe(observer3, lastVersion = Some(version2))
+
+            Then("The observer receives an empty update")
+            observer3.awaitOnNext(1, timeout) shouldBe true
+            observer3.getOnNextEvents.get(0) shouldBeUpdateFor(begin = true,
+                end = true)
+
+            When("A fourth observer subscribes with an unknown version")
+            val observer4 = new TestObserver
+            cache.subscribe(observer4, lastVersion = Some(version2 + 1000))
+
+            Then("The observer receives a snapshot")
+            observer4.awaitOnNext(1, timeout) shouldBe true
+            observer4.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = true, key1 -> value1, key2 -> value2)
+
+            When("Adding a third entry")
+            val key3 = MAC.random()
+            val value3 = UUID.randomUUID()
+            addEntry(id, key3, value3)
+
+            Then("All resumed observers receive the update")
+            observer2.awaitOnNext(2, timeout) shouldBe true
+            observer2.getOnNextEvents.get(1) shouldBeUpdateFor(begin = true,
+                end = true, key3 -> value3)
+            observer3.awaitOnNext(2, timeout) shouldBe true
+            observer3.getOnNextEvents.get(1) shouldBeUpdateFor(begin = true,
+                end = true, key3 -> value3)
+
+            cache.close()
+        }
+
+        scenario("Cache streams the snapshot on demand") {
+            Given("A state table cache with ten entries")
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+            for (index <- 0 until 10) {
+                addEntry(id, MAC.random(), UUID.randomUUID())
+            }
+
+            And("An observer with back-pressure")
+            val observer = new TestObserver(auto = false)
+
+            When("The observer subscribes")
+            cache.subscribe(observer, lastVersion = None)
+
+            Then("The observer receives the first snapshot message")
+            observer.awaitOnNext(1, timeout) shouldBe true
+            observer.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = false, 4)
+            observer.getOnNextEvents.size() shouldBe 1
+
+            When("The observer completes the promise")
+            observer.promise.trySuccess(None)
+
+            Then("The observer receives the rest of the snapshot")
+            observer.awaitOnNext(3, timeout) shouldBe true
+            observer.getOnNextEvents.get(1) shouldBeSnapshotFor(begin = false,
+                end = false, 4)
+            observer.getOnNextEvents.get(2) shouldBeSnapshotFor(begin = false,
+                end = true, 2)
+
+            cache.close()
+        }
+    }
+
     feature("Cache handles connection changes") {
         scenario("Connection closed by client") {
             Given("A state table cache")
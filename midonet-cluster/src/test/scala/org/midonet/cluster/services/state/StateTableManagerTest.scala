@@ -92,6 +92,8 @@ class StateTableManagerTest extends FeatureSpec with Matchers
            |cluster.state_proxy.server.shutdown_timeout : 10ms
            |cluster.state_proxy.initial_subscriber_queue_size : 4
            |cluster.state_proxy.notify_batch_size : 16
+           |cluster.state_proxy.change_log_size : 16
+           |cluster.state_proxy.compression_threshold : 0
          """.stripMargin))
 
     private def newBackend = new TestBackend
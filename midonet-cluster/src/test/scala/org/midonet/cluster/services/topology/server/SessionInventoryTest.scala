@@ -69,11 +69,17 @@ class SessionInventoryTest extends FeatureSpec
         rsp.getType == ResponseType.ERROR &&
             UUIDUtil.fromProto(rsp.getReqId) == id
 
-    def isBridge(rsp: Response, id: UUID, name: String) =
-        rsp.getType == ResponseType.UPDATE &&
-        rsp.hasUpdate && rsp.getUpdate.hasNetwork &&
-        UUIDUtil.fromProto(rsp.getUpdate.getNetwork.getId) == id &&
-        rsp.getUpdate.getNetwork.getName == name
+    /** Decodes a response as received by a client: the updates of watched
+      * objects are pre-encoded by the session inventory. */
+    def decode(rsp: Response): Response = Response.parseFrom(rsp.toByteString)
+
+    def isBridge(rsp: Response, id: UUID, name: String) = {
+        val decoded = decode(rsp)
+        decoded.getType == ResponseType.UPDATE &&
+        decoded.hasUpdate && decoded.getUpdate.hasNetwork &&
+        UUIDUtil.fromProto(decoded.getUpdate.getNetwork.getId) == id &&
+        decoded.getUpdate.getNetwork.getName == name
+    }
 
     def isDeletion(rsp: Response, id: UUID) =
         rsp.getType == ResponseType.DELETION &&
@@ -373,6 +379,44 @@ class SessionInventoryTest extends FeatureSpec
 
         }
 
+        scenario("watching sessions share the encoded updates")
+        {
+            val session1 = inv.claim(UUID.randomUUID())
+            val session2 = inv.claim(UUID.randomUUID())
+            val collector1 = new TestAwaitableObserver[Response]
+            val collector2 = new TestAwaitableObserver[Response]
+            val subs1 = session1.observable().subscribe(collector1)
+            val subs2 = session2.observable().subscribe(collector2)
+
+            val req1 = UUID.randomUUID()
+            val req2 = UUID.randomUUID()
+            val oId = UUID.randomUUID()
+
+            store.create(bridge(oId, "bridge"))
+            session1.watch(oId, classOf[Network], req1)
+            session2.watch(oId, classOf[Network], req2)
+
+            collector1.awaitOnNext(2, WAIT_TIME) shouldBe true
+            collector2.awaitOnNext(2, WAIT_TIME) shouldBe true
+            inv.updateCache.size shouldBe 1
+
+            val update1 = collector1.getOnNextEvents.find(isBridge(_, oId, "bridge")).get
+            val update2 = collector2.getOnNextEvents.find(isBridge(_, oId, "bridge")).get
+            update1.getUnknownFields should be theSameInstanceAs update2.getUnknownFields
+            UUIDUtil.fromProto(update1.getReqId) shouldBe req1
+            UUIDUtil.fromProto(update2.getReqId) shouldBe req2
+
+            session1.unwatch(oId, classOf[Network], UUID.randomUUID())
+            collector1.awaitOnNext(3, WAIT_TIME) shouldBe true
+            inv.updateCache.size shouldBe 1
+            session2.unwatch(oId, classOf[Network], UUID.randomUUID())
+            collector2.awaitOnNext(3, WAIT_TIME) shouldBe true
+            inv.updateCache.size shouldBe 0
+
+            subs1.unsubscribe()
+            subs2.unsubscribe()
+        }
+
         scenario("unwatch non-registered")
         {
             val sId = UUID.randomUUID()
@@ -528,7 +572,7 @@ class SessionInventoryTest extends FeatureSpec
             events.exists(rsp => isAck(rsp, req)) shouldBe true
             events
                 .filterNot(rsp => isAck(rsp, req))
-                .map(rsp => rsp.getUpdate.getNetwork.getName).toSet shouldBe
+                .map(rsp => decode(rsp).getUpdate.getNetwork.getName).toSet shouldBe
                 bridges.map(b => b.getName).toSet
         }
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.topology.server
+
+import java.util.UUID
+
+import scala.collection.JavaConversions._
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.rpc.Commands.{Response, ResponseType}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.util.{MidonetBackendTest, UUIDUtil}
+import org.midonet.util.reactivex.TestAwaitableObserver
+
+/** Tests the encoded updates shared by the sessions of the Topology API
+  * service with a ZOOM storage. */
+@RunWith(classOf[JUnitRunner])
+class SessionInventoryZoomTest extends FeatureSpec
+                                       with MidonetBackendTest
+                                       with Matchers
+                                       with GivenWhenThen {
+
+    private var store: ZookeeperObjectMapper = _
+    private var inv: SessionInventory = _
+
+    private val timeout = 5 seconds
+
+    protected override def setup(): Unit = {
+        super.setup()
+        store = new ZookeeperObjectMapper(
+            config, MidonetBackend.ClusterNamespaceId.toString, curator,
+            curator, stateTables, reactor, new StorageMetrics(new MetricRegistry))
+        store.registerClass(classOf[Network])
+        store.build()
+        inv = new SessionInventory(store)
+    }
+
+    private def network(id: UUID, name: String) = Network.newBuilder()
+        .setId(UUIDUtil.toProto(id))
+        .setName(name)
+        .build()
+
+    private def updates(collector: TestAwaitableObserver[Response])
+    : Seq[Response] = {
+        collector.getOnNextEvents.filter(_.getType == ResponseType.UPDATE)
+    }
+
+    private def nameOf(rsp: Response): String = {
+        Response.parseFrom(rsp.toByteString).getUpdate.getNetwork.getName
+    }
+
+    feature("Sessions share the encoded updates") {
+        scenario("Sessions watching an object share every version") {
+            Given("Two sessions")
+            val session1 = inv.claim(UUID.randomUUID())
+            val session2 = inv.claim(UUID.randomUUID())
+            val collector1 = new TestAwaitableObserver[Response]
+            val collector2 = new TestAwaitableObserver[Response]
+            val subs1 = session1.observable().subscribe(collector1)
+            val subs2 = session2.observable().subscribe(collector2)
+
+            And("A network")
+            val id = UUID.randomUUID()
+            store.create(network(id, "network-1"))
+
+            When("Both sessions watch the network")
+            session1.watch(id, classOf[Network], UUID.randomUUID())
+            session2.watch(id, classOf[Network], UUID.randomUUID())
+
+            Then("Both sessions receive the same encoded update")
+            collector1.awaitOnNext(2, timeout) shouldBe true
+            collector2.awaitOnNext(2, timeout) shouldBe true
+            updates(collector1).head.getUnknownFields should be theSameInstanceAs
+                updates(collector2).head.getUnknownFields
+            nameOf(updates(collector1).head) shouldBe "network-1"
+
+            When("The network is updated")
+            store.update(network(id, "network-2"))
+
+            Then("Both sessions receive the same encoded update")
+            collector1.awaitOnNext(3, timeout) shouldBe true
+            collector2.awaitOnNext(3, timeout) shouldBe true
+            updates(collector1).last.getUnknownFields should be theSameInstanceAs
+                updates(collector2).last.getUnknownFields
+            nameOf(updates(collector1).last) shouldBe "network-2"
+
+            And("The update has the request identifier of each session")
+            updates(collector1).last.getReqId should not be
+                updates(collector2).last.getReqId
+
+            subs1.unsubscribe()
+            subs2.unsubscribe()
+        }
+
+        scenario("A session watching a shared object after an update") {
+            Given("A session watching a network")
+            val session1 = inv.claim(UUID.randomUUID())
+            val collector1 = new TestAwaitableObserver[Response]
+            val subs1 = session1.observable().subscribe(collector1)
+            val id = UUID.randomUUID()
+            store.create(network(id, "network-1"))
+            session1.watch(id, classOf[Network], UUID.randomUUID())
+            collector1.awaitOnNext(2, timeout) shouldBe true
+
+            When("The network is updated")
+            store.update(network(id, "network-2"))
+            collector1.awaitOnNext(3, timeout) shouldBe true
+
+            And("A second session watches the network")
+            val session2 = inv.claim(UUID.randomUUID())
+            val collector2 = new TestAwaitableObserver[Response]
+            val subs2 = session2.observable().subscribe(collector2)
+            session2.watch(id, classOf[Network], UUID.randomUUID())
+
+            Then("The second session receives the last encoded update")
+            collector2.awaitOnNext(2, timeout) shouldBe true
+            nameOf(updates(collector2).last) shouldBe "network-2"
+            updates(collector2).last.getUnknownFields should be theSameInstanceAs
+                updates(collector1).last.getUnknownFields
+
+            subs1.unsubscribe()
+            subs2.unsubscribe()
+        }
+    }
+}
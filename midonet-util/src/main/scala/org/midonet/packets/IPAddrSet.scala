@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.packets
+
+import java.util.{Arrays, Comparator}
+
+object IPAddrSet {
+
+    final val Empty = new IPAddrSet(Array.emptyIntArray, Array.emptyLongArray)
+
+    def apply(addrs: Iterable[IPAddr]): IPAddrSet = {
+        Empty.updated(addrs, Iterable.empty)
+    }
+
+    private val V6Comparator = new Comparator[IPv6Addr] {
+        override def compare(a: IPv6Addr, b: IPv6Addr): Int = {
+            compareV6(a.upperWord, a.lowerWord, b.upperWord, b.lowerWord)
+        }
+    }
+
+    @inline
+    private def compareV6(upper1: Long, lower1: Long,
+                          upper2: Long, lower2: Long): Int = {
+        val result = java.lang.Long.compare(upper1, upper2)
+        if (result != 0) result else java.lang.Long.compare(lower1, lower2)
+    }
+
+    /** Returns the index of the given IPv6 address in an array of sorted
+      * upper and lower word pairs, or a negative value if the address is not
+      * found. */
+    private def searchV6(words: Array[Long], upper: Long, lower: Long): Int = {
+        var low = 0
+        var high = (words.length >> 1) - 1
+        while (low <= high) {
+            val middle = (low + high) >>> 1
+            val result = compareV6(words(middle << 1), words((middle << 1) + 1),
+                                   upper, lower)
+            if (result < 0) low = middle + 1
+            else if (result > 0) high = middle - 1
+            else return middle
+        }
+        -(low + 1)
+    }
+
+    /** Splits the given addresses into a sorted array of IPv4 addresses and
+      * a sorted array of IPv6 upper and lower word pairs. The arrays may
+      * contain duplicates. */
+    private def split(addrs: Iterable[IPAddr]): (Array[Int], Array[Long]) = {
+        var countV4 = 0
+        var countV6 = 0
+        for (addr <- addrs) addr match {
+            case _: IPv4Addr => countV4 += 1
+            case _: IPv6Addr => countV6 += 1
+            case _ =>
+        }
+        val v4 = new Array[Int](countV4)
+        val v6 = new Array[IPv6Addr](countV6)
+        countV4 = 0
+        countV6 = 0
+        for (addr <- addrs) addr match {
+            case ip: IPv4Addr => v4(countV4) = ip.addr; countV4 += 1
+            case ip: IPv6Addr => v6(countV6) = ip; countV6 += 1
+            case _ =>
+        }
+        Arrays.sort(v4)
+        Arrays.sort(v6, V6Comparator)
+        val words = new Array[Long](countV6 << 1)
+        var index = 0
+        while (index < countV6) {
+            words(index << 1) = v6(index).upperWord
+            words((index << 1) + 1) = v6(index).lowerWord
+            index += 1
+        }
+        (v4, words)
+    }
+
+    /** Merges the sorted arrays of IPv4 addresses, returning the sorted
+      * addresses without duplicates of `current` and `added` that are not
+      * in `removed`. */
+    private def mergeV4(current: Array[Int], added: Array[Int],
+                        removed: Array[Int]): Array[Int] = {
+        if (added.length == 0 && removed.length == 0) {
+            return current
+        }
+        val result = new Array[Int](current.length + added.length)
+        var i = 0
+        var j = 0
+        var k = 0
+        var n = 0
+        while (i < current.length || j < added.length) {
+            val value =
+                if (j >= added.length ||
+                    (i < current.length && current(i) <= added(j))) {
+                    i += 1; current(i - 1)
+                } else {
+                    j += 1; added(j - 1)
+                }
+            if (n == 0 || result(n - 1) != value) {
+                while (k < removed.length && removed(k) < value) k += 1
+                if (k >= removed.length || removed(k) != value) {
+                    result(n) = value
+                    n += 1
+                }
+            }
+        }
+        if (n == result.length) result else Arrays.copyOf(result, n)
+    }
+
+    /** Merges the sorted arrays of IPv6 word pairs, with the same semantics
+      * as [[mergeV4()]]. */
+    private def mergeV6(current: Array[Long], added: Array[Long],
+                        removed: Array[Long]): Array[Long] = {
+        if (added.length == 0 && removed.length == 0) {
+            return current
+        }
+        val result = new Array[Long](current.length + added.length)
+        var i = 0
+        var j = 0
+        var k = 0
+        var n = 0
+        while (i < current.length || j < added.length) {
+            var upper = 0L
+            var lower = 0L
+            if (j >= added.length ||
+                (i < current.length &&
+                 compareV6(current(i), current(i + 1), added(j),
+                           added(j + 1)) <= 0)) {
+                upper = current(i)
+                lower = current(i + 1)
+                i += 2
+            } else {
+                upper = added(j)
+                lower = added(j + 1)
+                j += 2
+            }
+            if (n == 0 || result(n - 2) != upper || result(n - 1) != lower) {
+                while (k < removed.length &&
+                       compareV6(removed(k), removed(k + 1), upper, lower) < 0) {
+                    k += 2
+                }
+                if (k >= removed.length || removed(k) != upper ||
+                    removed(k + 1) != lower) {
+                    result(n) = upper
+                    result(n + 1) = lower
+                    n += 2
+                }
+            }
+        }
+        if (n == result.length) result else Arrays.copyOf(result, n)
+    }
+}
+
+/**
+ * An immutable set of IPv4 and IPv6 addresses, stored as sorted arrays of
+ * primitive address words instead of boxed [[IPAddr]] objects. A lookup is a
+ * binary search that does not allocate, and a new set is derived from an
+ * existing one by merging the sorted arrays with the added and removed
+ * addresses, without hashing or boxing the current members.
+ */
+final class IPAddrSet private(private val v4: Array[Int],
+                               private val v6: Array[Long]) {
+
+    import IPAddrSet._
+
+    /** The number of addresses in the set. */
+    def size: Int = v4.length + (v6.length >> 1)
+
+    def isEmpty: Boolean = size == 0
+
+    /** Returns whether the set contains the given address. */
+    def contains(addr: IPAddr): Boolean = addr match {
+        case ip: IPv4Addr => contains(ip.addr)
+        case ip: IPv6Addr => contains(ip.upperWord, ip.lowerWord)
+        case _ => false
+    }
+
+    /** Returns whether the set contains the given IPv4 address. */
+    def contains(addr: Int): Boolean = {
+        Arrays.binarySearch(v4, addr) >= 0
+    }
+
+    /** Returns whether the set contains the IPv6 address with the given
+      * upper and lower words. */
+    def contains(upperWord: Long, lowerWord: Long): Boolean = {
+        searchV6(v6, upperWord, lowerWord) >= 0
+    }
+
+    /** Returns a new set with the added addresses and without the removed
+      * addresses. An address both added and removed is not in the new set. */
+    def updated(added: Iterable[IPAddr], removed: Iterable[IPAddr]): IPAddrSet = {
+        if (added.isEmpty && removed.isEmpty) {
+            return this
+        }
+        val (addedV4, addedV6) = split(added)
+        val (removedV4, removedV6) = split(removed)
+        new IPAddrSet(mergeV4(v4, addedV4, removedV4),
+                      mergeV6(v6, addedV6, removedV6))
+    }
+
+    /** Returns the addresses of this set as boxed [[IPAddr]] objects. */
+    def toSet: Set[IPAddr] = {
+        val builder = Set.newBuilder[IPAddr]
+        var index = 0
+        while (index < v4.length) {
+            builder += IPv4Addr(v4(index))
+            index += 1
+        }
+        index = 0
+        while (index < v6.length) {
+            builder += new IPv6Addr(v6(index), v6(index + 1))
+            index += 2
+        }
+        builder.result()
+    }
+
+    override def equals(obj: Any): Boolean = obj match {
+        case set: IPAddrSet =>
+            Arrays.equals(v4, set.v4) && Arrays.equals(v6, set.v6)
+        case _ => false
+    }
+
+    override def hashCode: Int = {
+        31 * Arrays.hashCode(v4) + Arrays.hashCode(v6)
+    }
+
+    override def toString = toSet.mkString(", ")
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+object TimerWheel {
+
+    final val SlotBits = 6
+    final val Slots = 1 << SlotBits
+    final val SlotMask = Slots - 1
+    final val Levels = 4
+
+    // The index of the list holding the timeouts being expired.
+    private final val Expiring = Levels * Slots
+
+    /** Runs the expired tasks of a wheel of [[Runnable]] values. */
+    final val RunTask: Runnable => Unit = _.run()
+
+    /**
+      * A timeout scheduled in a [[TimerWheel]]. The timeout is linked in the
+      * slot of the wheel that covers its deadline, and it can be cancelled in
+      * constant time.
+      */
+    final class Timeout[T] private[TimerWheel](val value: T,
+                                               val deadline: Long) {
+        private[TimerWheel] var tick = 0L
+        private[TimerWheel] var slot = -1
+        private[TimerWheel] var prev: Timeout[T] = null
+        private[TimerWheel] var next: Timeout[T] = null
+
+        /** Indicates whether the timeout is still pending in the wheel. */
+        def isScheduled: Boolean = slot >= 0
+    }
+}
+
+/**
+  * A hierarchical timing wheel, which expires values at or after a deadline.
+  * Scheduling and cancelling a timeout take constant time, and advancing the
+  * wheel takes time proportional to the number of elapsed ticks and expired
+  * timeouts, independent of the number of pending timeouts.
+  *
+  * The wheel has [[TimerWheel.Levels]] levels of [[TimerWheel.Slots]] slots.
+  * The slots of the first level cover one tick each, and the slots of every
+  * other level cover all the slots of the level below. Timeouts are placed in
+  * the lowest level that covers their deadline, and they cascade to the lower
+  * levels as the wheel advances. Timeouts beyond the range of the wheel are
+  * placed in the top level and re-placed when that slot cascades.
+  *
+  * A timeout never expires before its deadline: the tick only determines the
+  * slot, while the deadline is compared against the current time.
+  *
+  * The function called when advancing the wheel may schedule and cancel
+  * timeouts, including the timeouts of the batch being expired, but it must
+  * not advance the wheel.
+  *
+  * This class is not thread safe, and all instances are expected to be
+  * confined to a thread.
+  *
+  * @param tickNanos The duration of a tick, in nanoseconds.
+  * @param startTime The initial time of the wheel, in nanoseconds.
+  */
+final class TimerWheel[T](val tickNanos: Long, startTime: Long) {
+
+    import TimerWheel._
+
+    require(tickNanos > 0, "The tick duration must be positive")
+
+    private val heads = new Array[Timeout[T]](Levels * Slots + 1)
+    private val tails = new Array[Timeout[T]](Levels * Slots + 1)
+    private val levelCounts = new Array[Int](Levels + 1)
+    private var currentTick = 0L
+    private var count = 0
+
+    private var expiring = false
+    private var expiringTime = 0L
+
+    // A lower bound of the time at which the wheel has timeouts to expire or
+    // to cascade, which is recomputed when the wheel advances.
+    private var deadline = Long.MaxValue
+    private var deadlineValid = true
+
+    /** The number of pending timeouts. */
+    def size: Int = count
+
+    def isEmpty: Boolean = count == 0
+
+    /**
+      * Schedules the given value to expire at or after the given deadline,
+      * in nanoseconds.
+      */
+    def schedule(value: T, deadline: Long): Timeout[T] = {
+        val timeout = new Timeout[T](value, deadline)
+        timeout.tick = Math.max(tickOf(deadline), currentTick)
+        if (expiring && deadline - expiringTime <= 0) {
+            // Expire the timeout with the current batch.
+            link(timeout, Expiring)
+        } else {
+            insert(timeout)
+        }
+        count += 1
+        if (deadlineValid && deadline < this.deadline) {
+            this.deadline = deadline
+        }
+        timeout
+    }
+
+    /**
+      * Cancels the given timeout. Returns false if the timeout has already
+      * expired or has been cancelled.
+      */
+    def cancel(timeout: Timeout[T]): Boolean = {
+        if (timeout.isScheduled) {
+            unlink(timeout)
+            count -= 1
+            true
+        } else {
+            false
+        }
+    }
+
+    /**
+      * Returns a lower bound of the time, in nanoseconds, at which advancing
+      * the wheel may expire timeouts, or [[Long.MaxValue]] if the wheel is
+      * empty. Callers may use this value to sleep until there is work to do.
+      */
+    def nextDeadline: Long = {
+        if (!deadlineValid) {
+            deadline = computeNextDeadline()
+            deadlineValid = true
+        }
+        deadline
+    }
+
+    /**
+      * Advances the wheel to the given time, in nanoseconds, and calls the
+      * given function for the values of all the timeouts whose deadline
+      * elapsed, in deadline tick order. Returns the number of expired
+      * timeouts.
+      */
+    def advance(now: Long, f: T => Unit): Int = {
+        if (expiring) {
+            throw new IllegalStateException(
+                "The wheel cannot be advanced while expiring timeouts")
+        }
+        val target = tickOf(now)
+        var expired = 0
+        while (currentTick < target && count > 0) {
+            if (levelCounts(0) > 0) {
+                expired += expire((currentTick & SlotMask).toInt, now, f)
+                currentTick += 1
+            } else {
+                // Skip the empty ticks up to the next cascade.
+                currentTick = Math.min(target, (currentTick | SlotMask) + 1)
+            }
+            if ((currentTick & SlotMask) == 0) {
+                cascade()
+            }
+        }
+        if (count == 0) {
+            currentTick = Math.max(target, currentTick)
+        } else {
+            expired += expire((currentTick & SlotMask).toInt, now, f)
+        }
+        deadlineValid = false
+        expired
+    }
+
+    @inline
+    private def tickOf(time: Long): Long = (time - startTime) / tickNanos
+
+    @inline
+    private def timeOf(tick: Long): Long = startTime + tick * tickNanos
+
+    /** Expires the due timeouts of the given first level slot. The timeouts
+      * move to a separate list while the function is called, such that the
+      * function can cancel them and schedule new timeouts. */
+    private def expire(index: Int, now: Long, f: T => Unit): Int = {
+        var timeout = detach(index)
+        while (timeout ne null) {
+            val next = timeout.next
+            timeout.next = null
+            link(timeout, Expiring)
+            timeout = next
+        }
+        var expired = 0
+        expiring = true
+        expiringTime = now
+        try {
+            while (heads(Expiring) ne null) {
+                timeout = heads(Expiring)
+                unlink(timeout)
+                if (timeout.deadline - now <= 0) {
+                    count -= 1
+                    expired += 1
+                    f(timeout.value)
+                } else {
+                    timeout.tick = Math.max(timeout.tick, currentTick)
+                    insert(timeout)
+                }
+            }
+        } finally {
+            expiring = false
+            // Return the timeouts left by a failed function to the wheel.
+            while (heads(Expiring) ne null) {
+                timeout = heads(Expiring)
+                unlink(timeout)
+                timeout.tick = Math.max(timeout.tick, currentTick)
+                insert(timeout)
+            }
+        }
+        expired
+    }
+
+    /** Moves the timeouts of the upper level slots that start at the current
+      * tick to the lower levels. */
+    private def cascade(): Unit = {
+        var level = 1
+        while (level < Levels &&
+               (currentTick & ((1L << (level * SlotBits)) - 1)) == 0) {
+            val index = level * Slots +
+                        ((currentTick >>> (level * SlotBits)) & SlotMask).toInt
+            var timeout = detach(index)
+            while (timeout ne null) {
+                val next = timeout.next
+                timeout.next = null
+                insert(timeout)
+                timeout = next
+            }
+            level += 1
+        }
+    }
+
+    private def insert(timeout: Timeout[T]): Unit = {
+        val delta = timeout.tick - currentTick
+        var level = 0
+        while (level < Levels - 1 && delta >= (1L << ((level + 1) * SlotBits))) {
+            level += 1
+        }
+        val tick =
+            if (delta >= (1L << (Levels * SlotBits))) currentTick - 1
+            else timeout.tick
+        link(timeout, level * Slots +
+                      ((tick >>> (level * SlotBits)) & SlotMask).toInt)
+    }
+
+    private def link(timeout: Timeout[T], index: Int): Unit = {
+        timeout.slot = index
+        levelCounts(index / Slots) += 1
+        val tail = tails(index)
+        if (tail eq null) {
+            heads(index) = timeout
+        } else {
+            tail.next = timeout
+            timeout.prev = tail
+        }
+        tails(index) = timeout
+    }
+
+    private def unlink(timeout: Timeout[T]): Unit = {
+        val index = timeout.slot
+        if (timeout.prev eq null) heads(index) = timeout.next
+        else timeout.prev.next = timeout.next
+        if (timeout.next eq null) tails(index) = timeout.prev
+        else timeout.next.prev = timeout.prev
+        timeout.prev = null
+        timeout.next = null
+        levelCounts(index / Slots) -= 1
+        timeout.slot = -1
+    }
+
+    /** Removes all the timeouts from the given slot, and returns the first
+      * timeout, whose next references link the removed timeouts. */
+    private def detach(index: Int): Timeout[T] = {
+        val head = heads(index)
+        heads(index) = null
+        tails(index) = null
+        var timeout = head
+        while (timeout ne null) {
+            timeout.prev = null
+            timeout.slot = -1
+            levelCounts(index / Slots) -= 1
+            timeout = timeout.next
+        }
+        head
+    }
+
+    private def computeNextDeadline(): Long = {
+        if (count == 0) {
+            return Long.MaxValue
+        }
+        // The first level slots hold the timeouts of the next ticks: take
+        // the earliest deadline of the first non-empty slot.
+        var earliest = Long.MaxValue
+        var offset = 0
+        while (offset < Slots) {
+            var timeout = heads(((currentTick + offset) & SlotMask).toInt)
+            if (timeout ne null) {
+                while (timeout ne null) {
+                    earliest = Math.min(earliest, timeout.deadline)
+                    timeout = timeout.next
+                }
+                offset = Slots
+            }
+            offset += 1
+        }
+        // The upper levels may hold earlier timeouts, which cascade before
+        // the first level deadline: take the earliest time when a non-empty
+        // upper level slot cascades.
+        var level = 1
+        while (level < Levels) {
+            val shift = level * SlotBits
+            offset = 1
+            while (offset <= Slots) {
+                val tick = (currentTick >>> shift) + offset
+                if (heads(level * Slots + (tick & SlotMask).toInt) ne null) {
+                    earliest = Math.min(earliest, timeOf(tick << shift))
+                    offset = Slots
+                }
+                offset += 1
+            }
+            level += 1
+        }
+        earliest
+    }
+}
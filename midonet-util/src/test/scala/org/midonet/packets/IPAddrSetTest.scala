@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.packets
+
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class IPAddrSetTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    private val random = new Random()
+
+    private def randomAddrs(count: Int): Seq[IPAddr] = {
+        for (_ <- 0 until count) yield {
+            if (random.nextBoolean()) IPv4Addr.random else IPv6Addr.random
+        }
+    }
+
+    feature("The set contains the added addresses") {
+        scenario("Empty set") {
+            Given("An empty set")
+            val set = IPAddrSet.Empty
+
+            Then("The set does not contain any address")
+            set.isEmpty shouldBe true
+            set.contains(IPv4Addr.random) shouldBe false
+            set.contains(IPv6Addr.random) shouldBe false
+            set.contains(null: IPAddr) shouldBe false
+        }
+
+        scenario("IPv4 and IPv6 addresses") {
+            Given("A set of random addresses")
+            val addrs = randomAddrs(1000)
+            val set = IPAddrSet(addrs)
+
+            Then("The set contains all addresses")
+            set.size shouldBe addrs.toSet.size
+            for (addr <- addrs) {
+                set.contains(addr) shouldBe true
+            }
+            set.toSet shouldBe addrs.toSet
+
+            And("The set does not contain other addresses")
+            for (addr <- randomAddrs(1000) if !addrs.contains(addr)) {
+                set.contains(addr) shouldBe false
+            }
+        }
+
+        scenario("Addresses with the sign bit set") {
+            Given("A set with addresses with and without the sign bit")
+            val addrs = Seq(IPv4Addr("10.0.0.1"), IPv4Addr("192.168.0.1"),
+                            IPv4Addr("255.255.255.255"), IPv4Addr("0.0.0.0"),
+                            IPv6Addr("::1"), IPv6Addr("fe80::1"),
+                            IPv6Addr("8000::"), IPv6Addr("::8000:0:0:0"))
+            val set = IPAddrSet(addrs)
+
+            Then("The set contains all addresses")
+            for (addr <- addrs) {
+                set.contains(addr) shouldBe true
+            }
+            set.contains(IPv4Addr("10.0.0.2")) shouldBe false
+            set.contains(IPv6Addr("fe80::2")) shouldBe false
+        }
+
+        scenario("Duplicate addresses") {
+            Given("A set with duplicate addresses")
+            val set = IPAddrSet(Seq(IPv4Addr("10.0.0.1"), IPv4Addr("10.0.0.1"),
+                                    IPv6Addr("::1"), IPv6Addr("::1")))
+
+            Then("The set contains each address once")
+            set.size shouldBe 2
+        }
+    }
+
+    feature("The set is updated incrementally") {
+        scenario("Adding and removing addresses") {
+            Given("A set of random addresses")
+            val addrs = randomAddrs(1000)
+            val set = IPAddrSet(addrs)
+
+            When("Adding and removing addresses")
+            val added = randomAddrs(100).filterNot(addrs.contains)
+            val removed = random.shuffle(addrs).take(100)
+            val updated = set.updated(added, removed)
+
+            Then("The updated set contains the expected addresses")
+            val expected = (addrs.toSet ++ added) -- removed
+            updated.toSet shouldBe expected
+            updated shouldBe IPAddrSet(expected)
+            for (addr <- removed) {
+                updated.contains(addr) shouldBe false
+            }
+
+            And("The original set is not modified")
+            set.toSet shouldBe addrs.toSet
+        }
+
+        scenario("Adding existing and removing missing addresses") {
+            Given("A set of addresses")
+            val addrs = Seq(IPv4Addr("10.0.0.1"), IPv6Addr("::1"))
+            val set = IPAddrSet(addrs)
+
+            When("Adding the same addresses and removing other addresses")
+            val updated = set.updated(addrs, Seq(IPv4Addr("10.0.0.2"),
+                                                 IPv6Addr("::2")))
+
+            Then("The set is not modified")
+            updated shouldBe set
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import scala.collection.mutable
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class TimerWheelTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    private val Tick = 10L
+
+    private def advance[T](wheel: TimerWheel[T], now: Long): Seq[T] = {
+        val expired = new mutable.ArrayBuffer[T]()
+        wheel.advance(now, expired += _) shouldBe expired.size
+        expired
+    }
+
+    feature("The wheel expires timeouts") {
+        scenario("A timeout expires at its deadline") {
+            Given("A wheel with a timeout")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            wheel.schedule("a", 105L)
+            wheel.size shouldBe 1
+
+            Then("The timeout does not expire before its deadline")
+            advance(wheel, 100L) shouldBe empty
+            advance(wheel, 104L) shouldBe empty
+
+            And("The timeout expires at its deadline")
+            advance(wheel, 105L) shouldBe Seq("a")
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("Timeouts expire in deadline order") {
+            Given("A wheel with several timeouts")
+            val wheel = new TimerWheel[Int](Tick, 0L)
+            wheel.schedule(3, 3000L)
+            wheel.schedule(1, 100L)
+            wheel.schedule(2, 2000L)
+            wheel.schedule(4, 3000L)
+
+            Then("The timeouts expire in order")
+            advance(wheel, 5000L) shouldBe Seq(1, 2, 3, 4)
+        }
+
+        scenario("A timeout with an elapsed deadline expires on advance") {
+            Given("A wheel advanced to a later time")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            advance(wheel, 1000L)
+
+            When("Scheduling a timeout in the past")
+            wheel.schedule("a", 500L)
+
+            Then("The timeout expires on the next advance")
+            advance(wheel, 1000L) shouldBe Seq("a")
+        }
+
+        scenario("A cancelled timeout does not expire") {
+            Given("A wheel with two timeouts")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            val a = wheel.schedule("a", 100L)
+            wheel.schedule("b", 100L)
+
+            When("Cancelling a timeout")
+            wheel.cancel(a) shouldBe true
+            a.isScheduled shouldBe false
+            wheel.size shouldBe 1
+
+            Then("The timeout cannot be cancelled again")
+            wheel.cancel(a) shouldBe false
+
+            And("Only the other timeout expires")
+            advance(wheel, 100L) shouldBe Seq("b")
+        }
+
+        scenario("Timeouts cascade from the upper levels") {
+            Given("A wheel with timeouts on every level and beyond its range")
+            val wheel = new TimerWheel[Long](Tick, 0L)
+            val deadlines = Seq(50L, 5000L, 500000L, 50000000L,
+                                Tick * (1L << 26))
+            for (deadline <- deadlines) {
+                wheel.schedule(deadline, deadline)
+            }
+
+            Then("Every timeout expires at its deadline")
+            for (deadline <- deadlines) {
+                advance(wheel, deadline - 1) shouldBe empty
+                advance(wheel, deadline) shouldBe Seq(deadline)
+            }
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("A callback cancels a timeout of the same batch") {
+            Given("A wheel with two timeouts with the same deadline")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            val timeouts = mutable.Map[String, TimerWheel.Timeout[String]]()
+            timeouts("a") = wheel.schedule("a", 100L)
+            timeouts("b") = wheel.schedule("b", 100L)
+
+            When("The first expired timeout cancels the other")
+            val expired = new mutable.ArrayBuffer[String]()
+            wheel.advance(100L, { value =>
+                expired += value
+                wheel.cancel(timeouts(if (value == "a") "b" else "a"))
+                    .shouldBe(true)
+            }) shouldBe 1
+
+            Then("Only one timeout expires")
+            expired should have size 1
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("A callback schedules a due timeout") {
+            Given("A wheel with a timeout")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            wheel.schedule("a", 100L)
+
+            When("The expired timeout schedules another due timeout")
+            val expired = new mutable.ArrayBuffer[String]()
+            wheel.advance(1000L, { value =>
+                expired += value
+                if (value == "a") wheel.schedule("b", 500L)
+            }) shouldBe 2
+
+            Then("Both timeouts expire in the same advance")
+            expired shouldBe Seq("a", "b")
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("A callback cannot advance the wheel") {
+            Given("A wheel with a timeout")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            wheel.schedule("a", 100L)
+            wheel.schedule("b", 100L)
+
+            Then("Advancing the wheel from a callback fails")
+            intercept[IllegalStateException] {
+                wheel.advance(100L, _ => wheel.advance(200L, _ => { }))
+            }
+
+            And("The timeouts that were not expired remain in the wheel")
+            wheel.size shouldBe 1
+            advance(wheel, 100L) shouldBe Seq("b")
+        }
+    }
+
+    feature("The wheel returns the next deadline") {
+        scenario("An empty wheel") {
+            new TimerWheel[String](Tick, 0L).nextDeadline shouldBe Long.MaxValue
+        }
+
+        scenario("The deadline of the first level") {
+            Given("A wheel with timeouts in the first level")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            wheel.schedule("a", 305L)
+            wheel.schedule("b", 205L)
+
+            Then("The next deadline is the earliest deadline")
+            wheel.nextDeadline shouldBe 205L
+        }
+
+        scenario("An upper level timeout before a first level timeout") {
+            Given("A wheel with a timeout in the second level")
+            val wheel = new TimerWheel[String](Tick, 0L)
+            wheel.schedule("a", 64 * Tick)
+
+            When("Advancing the wheel and scheduling a later timeout in the " +
+                 "first level")
+            advance(wheel, 60 * Tick) shouldBe empty
+            wheel.schedule("b", 100 * Tick)
+
+            Then("The next deadline is not after the first timeout")
+            wheel.nextDeadline should be <= 64 * Tick
+            advance(wheel, 64 * Tick) shouldBe Seq("a")
+            wheel.nextDeadline shouldBe 100 * Tick
+        }
+    }
+
+    feature("The wheel expires random timeouts") {
+        scenario("Random timeouts expire exactly once at their deadline") {
+            Given("A wheel with random timeouts")
+            val random = new Random(42)
+            val wheel = new TimerWheel[Int](Tick, 0L)
+            val deadlines = Array.fill(2000)(1L + random.nextInt(1 << 24))
+            val timeouts = deadlines.zipWithIndex.map { case (deadline, i) =>
+                wheel.schedule(i, deadline)
+            }
+
+            And("Some cancelled timeouts")
+            val cancelled = (0 until 200).map(_ => random.nextInt(2000)).toSet
+            cancelled.foreach(i => wheel.cancel(timeouts(i)))
+
+            When("Advancing the wheel in random steps")
+            Then("The expired timeouts are those whose deadline elapsed")
+            var now = 0L
+            val expired = mutable.Set[Int]()
+            while (!wheel.isEmpty) {
+                wheel.nextDeadline should be <= deadlines.indices
+                    .filterNot(i => expired(i) || cancelled(i))
+                    .map(deadlines(_)).min
+                val previous = now
+                now += random.nextInt(100000)
+
+                val batch = advance(wheel, now)
+                batch.foreach { i =>
+                    deadlines(i) should be > previous
+                    deadlines(i) should be <= now
+                }
+                expired ++= batch
+            }
+
+            And("All the timeouts that were not cancelled expired")
+            expired shouldBe deadlines.indices.filterNot(cancelled).toSet
+            wheel.nextDeadline shouldBe Long.MaxValue
+        }
+    }
+}
@@ -85,12 +85,28 @@ public class MockNetlinkChannel extends NetlinkChannel {
                                ? ByteBuffer.allocateDirect(size)
                                : ByteBuffer.allocate(size);
         clone.order(src.order());
+        packetsWritten.addAndGet(countMessages(src));
         clone.put(src);
         written.add(clone);
-        packetsWritten.incrementAndGet();
         return size;
     }
 
+    /** Counts the netlink messages in a buffer that may batch several. */
+    private static int countMessages(ByteBuffer src) {
+        int count = 0;
+        int offset = src.position();
+        while (offset < src.limit()) {
+            count++;
+            if (src.limit() - offset < 4)
+                break;
+            int len = src.getInt(offset + NetlinkMessage.NLMSG_LEN_OFFSET);
+            if (len <= 0)
+                break;
+            offset += (len + 3) & ~3;
+        }
+        return Math.max(count, 1);
+    }
+
     @Override
     protected void implCloseSelectableChannel() {
 
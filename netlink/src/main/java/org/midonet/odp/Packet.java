@@ -42,6 +42,7 @@ public class Packet {
     private Long userData;
     private Reason reason;
     private Ethernet eth;
+    private byte[] data;
     public final int packetLen;
 
     // user field used by midolman packet pipeline to track time statistics,
@@ -54,6 +55,16 @@ public class Packet {
         this.packetLen = len;
     }
 
+    /**
+     * Creates a packet that retains the original bytes received from the
+     * datapath, such that executing the packet does not require serializing
+     * the {@link Ethernet} again, unless the packet is modified.
+     */
+    public Packet(Ethernet eth, FlowMatch match, int len, byte[] data) {
+        this(eth, match, len);
+        this.data = data;
+    }
+
     public Packet(Ethernet eth, FlowMatch match) {
         this(eth, match, (eth != null) ? eth.length() : 0);
     }
@@ -64,10 +75,33 @@ public class Packet {
 
     public void setEthernet(Ethernet eth) {
         this.eth = eth;
+        this.data = null;
     }
 
+    /**
+     * Returns the packet bytes: the original bytes received from the datapath
+     * if the packet has them and it was not modified, or the serialization of
+     * the packet {@link Ethernet} otherwise.
+     */
     public byte[] getData() {
-        return eth.serialize();
+        return (data != null) ? data : eth.serialize();
+    }
+
+    /**
+     * Returns whether the packet still has the original bytes received from
+     * the datapath.
+     */
+    public boolean hasOriginalData() {
+        return data != null;
+    }
+
+    /**
+     * Discards the original bytes of the packet. This method must be called
+     * whenever the packet {@link Ethernet} is modified in place, such that
+     * the modification is serialized when the packet is executed.
+     */
+    public void invalidateData() {
+        data = null;
     }
 
     public FlowMatch getMatch() {
@@ -77,6 +77,7 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
     static class PacketBuilder implements AttributeHandler {
         private ArrayList<FlowKey> keys = new ArrayList<>(16);
         private Ethernet eth;
+        private byte[] data;
         private Long userData;
         private int packetLen = 0;
 
@@ -88,9 +89,10 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
                 return null;
             }
             FlowKeys.addUserspaceKeys(eth, keys);
-            Packet p = new Packet(eth, new FlowMatch(keys), packetLen);
+            Packet p = new Packet(eth, new FlowMatch(keys), packetLen, data);
             p.setUserData(userData);
             eth = null;
+            data = null;
             keys.clear();
             userData = null;
             return p;
@@ -100,14 +102,20 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
         public void use(ByteBuffer buffer, short id) {
             switch(NetlinkMessage.unnest(id)) {
                 case OpenVSwitch.Packet.Attr.Packet:
+                    // Keep a copy of the packet bytes, since the buffer is
+                    // reused: the packet can then be executed without
+                    // serializing it again.
                     ByteOrder originalOrder = buffer.order();
                     try {
                         eth = new Ethernet();
                         packetLen = buffer.remaining();
+                        data = new byte[packetLen];
+                        buffer.duplicate().get(data);
                         eth.deserialize(buffer);
                     } catch (Exception e) {
                         log.warn("Dropping malformed packet", e);
                         this.eth = null;
+                        this.data = null;
                     } finally {
                         buffer.order(originalOrder);
                     }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
+
+import scala.util.control.NonFatal
+
+import org.apache.curator.framework.CuratorFramework
+import org.apache.curator.framework.api.{BackgroundCallback, CuratorEvent}
+import org.apache.curator.framework.state.{ConnectionState, ConnectionStateListener}
+import org.apache.zookeeper.KeeperException.{Code, NoNodeException}
+import org.apache.zookeeper.Watcher.Event.EventType
+import org.apache.zookeeper.{WatchedEvent, Watcher}
+
+import rx.Observable.OnSubscribe
+import rx.subjects.BehaviorSubject
+import rx.subscriptions.Subscriptions
+import rx.{Observable, Subscriber}
+
+import org.midonet.cluster.data.storage.ZoomSerializer.deserialize
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.util.NodeObservable.State
+import org.midonet.cluster.util.NodeObservable.State.State
+import org.midonet.cluster.util.{NodeObservableClosedException, NodeObservableDisconnectedException}
+import org.midonet.util.functors.makeAction0
+import org.midonet.util.logging.Logging
+
+/**
+  * Multiplexes the watches for all objects of a class. Instead of creating a
+  * [[org.midonet.cluster.util.NodeObservable]] with its own watcher,
+  * callbacks and connection listener for every object, the class watcher
+  * installs the same ZooKeeper watcher on all object nodes of the class and
+  * dispatches the watch notifications by path to the watched objects. Every
+  * object update is read and deserialized once, and the deserialized object
+  * is shared by all subscribers of that object.
+  *
+  * The class watcher registers a single connection listener, such that upon
+  * reconnection it refreshes all watched objects of the class in one pass,
+  * issuing the read requests in the background and without waiting for the
+  * previous requests to complete. This includes the objects subscribed to
+  * while disconnected, and the objects whose read failed with a connection
+  * loss, which are not read until the reconnection.
+  *
+  * The observable for an object has the same semantics as the
+  * [[org.midonet.cluster.util.NodeObservable]] with `completeOnDelete` set
+  * to `true`: it emits a [[NoNodeException]] if the object does not exist,
+  * completes when the object is deleted, and emits a
+  * [[NodeObservableClosedException]] if subscribed to after the last
+  * subscriber unsubscribed.
+  */
+private[storage] class ClassWatcher[T](clazz: Class[T],
+                                       curator: CuratorFramework,
+                                       metrics: StorageMetrics)
+    extends Logging {
+
+    override def logSource = "org.midonet.nsdb.nsdb-class-watcher"
+    override def logMark = clazz.getSimpleName
+
+    private val nodes = new ConcurrentHashMap[String, WatchedNode]()
+    private val connected = new AtomicBoolean(true)
+
+    private val watcher = new Watcher {
+        override def process(event: WatchedEvent): Unit = {
+            if (event.getType != EventType.None) {
+                metrics.watchers.nodeTriggeredWatchers.inc()
+                val node = nodes.get(event.getPath)
+                if (node ne null) {
+                    node.refresh()
+                }
+            }
+        }
+    }
+
+    private val callback = new BackgroundCallback {
+        override def processResult(client: CuratorFramework,
+                                   event: CuratorEvent): Unit = {
+            event.getContext.asInstanceOf[WatchedNode].processData(event)
+        }
+    }
+
+    private val connectionListener = new ConnectionStateListener {
+        override def stateChanged(client: CuratorFramework,
+                                  state: ConnectionState): Unit =
+            processStateChanged(state)
+    }
+
+    curator.getConnectionStateListenable.addListener(connectionListener)
+
+    /**
+      * An object node watched by this class watcher.
+      */
+    private class WatchedNode(path: String, onClose: => Unit)
+        extends OnSubscribe[T] {
+
+        private val state = new AtomicReference[State](State.Stopped)
+        @volatile private var hasData = false
+
+        private val subject = BehaviorSubject.create[T]()
+        private val unsubscribeAction = makeAction0 {
+            if (!subject.hasObservers) {
+                close(new NodeObservableClosedException(path))
+            }
+        }
+
+        val observable = Observable.create(this)
+
+        override def call(child: Subscriber[_ >: T]): Unit = {
+            if (state.get == State.Closed) {
+                child.onError(new NodeObservableClosedException(path))
+                return
+            }
+            if (state.compareAndSet(State.Stopped, State.Started)) {
+                nodes.put(path, this)
+                refresh()
+            }
+            subject.subscribe(child)
+            child.add(Subscriptions.create(unsubscribeAction))
+        }
+
+        def isStarted: Boolean = state.get == State.Started
+
+        def refresh(): Unit = {
+            if (!connected.get || !isStarted) {
+                return
+            }
+            try {
+                curator.getData
+                    .usingWatcher(watcher)
+                    .inBackground(callback, this)
+                    .forPath(path)
+            } catch {
+                case NonFatal(e) =>
+                    log.debug(s"Exception on refreshing node $path", e)
+                    close(new NodeObservableDisconnectedException(path))
+            }
+        }
+
+        def processData(event: CuratorEvent): Unit = {
+            if (!isStarted) {
+                return
+            }
+            if (event.getResultCode == Code.OK.intValue) {
+                val obj = try deserialize(event.getData, clazz) catch {
+                    case NonFatal(e) =>
+                        close(e)
+                        return
+                }
+                hasData = true
+                subject.onNext(obj)
+            } else if (event.getResultCode == Code.NONODE.intValue) {
+                if (hasData) {
+                    log.debug(s"Node $path deleted: closing the observable")
+                    close(null)
+                } else {
+                    log.debug(s"Node $path does not exist")
+                    close(new NoNodeException(path))
+                }
+            } else if (event.getResultCode == Code.CONNECTIONLOSS.intValue) {
+                log.debug(s"Connection lost for node $path: refreshing on " +
+                          "reconnection")
+            } else {
+                log.debug(s"Get node $path data failed with " +
+                          s"${event.getResultCode}")
+                close(new NodeObservableDisconnectedException(path))
+            }
+        }
+
+        def close(e: Throwable): Unit = {
+            if (state.compareAndSet(State.Started, State.Closed)) {
+                nodes.remove(path, this)
+                onClose
+                if (e eq null) subject.onCompleted() else subject.onError(e)
+            }
+        }
+    }
+
+    /**
+      * Returns an observable for the object at the given path, which must be
+      * a child of the class path. The `onClose` function is called when the
+      * observable stops watching the object, either because the observable
+      * has no more subscribers or because the object was deleted. The
+      * object is watched when the observable is first subscribed to.
+      */
+    def observable(path: String, onClose: => Unit): Observable[T] = {
+        new WatchedNode(path, onClose).observable
+    }
+
+    /** The number of objects of this class that are currently watched. */
+    def watchedCount: Int = nodes.size()
+
+    /**
+      * Refreshes all watched objects after a reconnection. The read requests
+      * are issued in the background, such that they are pipelined over the
+      * ZooKeeper connection.
+      */
+    private def refreshAll(): Unit = {
+        log.debug(s"Refreshing ${nodes.size()} watched objects")
+        val iterator = nodes.values().iterator()
+        while (iterator.hasNext) {
+            iterator.next().refresh()
+        }
+    }
+
+    private def closeAll(e: => Throwable): Unit = {
+        val iterator = nodes.values().iterator()
+        while (iterator.hasNext) {
+            iterator.next().close(e)
+        }
+    }
+
+    private[storage] def processStateChanged(state: ConnectionState)
+    : Unit = state match {
+        case ConnectionState.CONNECTED =>
+            connected.set(true)
+        case ConnectionState.SUSPENDED =>
+            log.debug("Class watcher suspended")
+            connected.set(false)
+        case ConnectionState.RECONNECTED =>
+            log.debug("Class watcher reconnected")
+            connected.set(true)
+            refreshAll()
+        case ConnectionState.LOST =>
+            log.debug("Connection lost")
+            connected.set(false)
+            closeAll(new NodeObservableDisconnectedException(
+                s"Connection lost for ${clazz.getSimpleName}"))
+        case ConnectionState.READ_ONLY =>
+            connected.set(false)
+    }
+
+}
@@ -299,6 +299,9 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
     private val failures = new ConcurrentLinkedQueue[TableEntry[K, V]]()
 
     private val updateCache = new util.HashMap[K, TableEntry[K, V]](64)
+    private val nodeIndex =
+        new StateTableNodeIndex[K, V](name => table.decodeEntry(name))
+    @volatile private var nodeIndexValid = false
     private val updates = new util.ArrayList[Update[K, V]](64)
     private val removals = new util.ArrayList[TableEntry[K, V]](16)
 
@@ -619,6 +622,7 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
       */
     private def storageReconnected(): Unit = {
         if (storageConnectedFlag.compareAndSet(false, true)) {
+            nodeIndexValid = false
             refresh()
             retry()
         }
@@ -630,6 +634,13 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
       * and (i) updates the cache with the new values, (ii) deletes the
       * remove value added by this table that are no longer part of this
       * map, and (iii) notifies all changes to the table subscribers.
+      *
+      * The entries are tracked by the [[nodeIndex]], such that only the
+      * added entries are decoded and only the keys with added or removed
+      * entries are compared with the cache. The whole cache is compared
+      * with the snapshot when the index is not valid, that is for the first
+      * update, and after the storage reconnects or the cache was updated by
+      * the state proxy.
       */
     private def update(entries: util.Collection[String], ver: Long): Unit = {
         if (get().terminated) {
@@ -658,29 +669,27 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
             // not load an incomplete table.
             snapshotInProgress = false
 
-            val entryIterator = entries.iterator()
-            while (entryIterator.hasNext) {
-                val nextEntry = table.decodeEntry(entryIterator.next())
-                // Ignore entries that cannot be decoded.
-                if (nextEntry != null) {
-                    // Verify if there are multiple entries for the same key
-                    // and if so select the greatest version learned entry.
-                    val prevEntry = updateCache.get(nextEntry.key)
-                    if ((prevEntry eq null) ||
-                        prevEntry.version == PersistentVersion ||
-                        (prevEntry.version < nextEntry.version &&
-                         nextEntry.version != PersistentVersion)) {
-
-                        updateCache.put(nextEntry.key, nextEntry)
-                    }
+            if (nodeIndexValid) {
+                // Compute the changed entries.
+                computeChangedEntries(nodeIndex.update(entries))
+            } else {
+                // Load the snapshot from all entries: if there are multiple
+                // entries for the same key, the index selects the greatest
+                // version learned entry.
+                nodeIndex.clear()
+                val keyIterator = nodeIndex.update(entries).iterator()
+                while (keyIterator.hasNext) {
+                    val key = keyIterator.next()
+                    updateCache.put(key, nodeIndex.get(key))
                 }
-            }
+                nodeIndexValid = true
 
-            // Compute the added entries.
-            computeAddedEntries()
+                // Compute the added entries.
+                computeAddedEntries()
 
-            // Compute the removed entries.
-            computeRemovedEntries()
+                // Compute the removed entries.
+                computeRemovedEntries()
+            }
 
             // Publish updates.
             publishUpdates()
@@ -748,6 +757,10 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
 
             version = update.getCurrentVersion
 
+            // The state proxy updates the cache: the next storage update
+            // must compare the whole cache.
+            nodeIndexValid = false
+
             removals.clear()
 
             update.getType match {
@@ -930,24 +943,7 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
         // Compute the added entries.
         val addIterator = updateCache.values().iterator()
         while (addIterator.hasNext) {
-            val newEntry = addIterator.next()
-            val oldEntry = cache.get(newEntry.key)
-            if (oldEntry == newEntry) {
-                roundTripLatency(oldEntry)
-            } else if (oldEntry eq null) {
-                cache.put(newEntry.key, newEntry)
-                updates.add(Update(newEntry.key, table.nullValue,
-                                   newEntry.value))
-            } else if (oldEntry.version == PersistentVersion
-                    || oldEntry.version < newEntry.version) {
-                cache.put(newEntry.key, newEntry)
-                updates.add(Update(newEntry.key, oldEntry.value,
-                                   newEntry.value))
-                // Remove owned replaced entry.
-                if (owned.contains(oldEntry.version)) {
-                    removals.add(oldEntry)
-                }
-            }
+            putEntry(addIterator.next())
         }
     }
 
@@ -971,6 +967,56 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
         }
     }
 
+    /**
+      * Computes the changed entries for the given keys, which have added or
+      * removed entries in the [[nodeIndex]], by comparing the current entry
+      * of every key with the current [[cache]].
+      *
+      * The call of this method must be synchronized.
+      */
+    private def computeChangedEntries(keys: util.Set[K]): Unit = {
+        val keyIterator = keys.iterator()
+        while (keyIterator.hasNext) {
+            val key = keyIterator.next()
+            val newEntry = nodeIndex.get(key)
+            if (newEntry ne null) {
+                putEntry(newEntry)
+            } else {
+                val oldEntry = cache.remove(key)
+                if (oldEntry ne null) {
+                    updates.add(Update(key, oldEntry.value, table.nullValue))
+                }
+            }
+        }
+    }
+
+    /**
+      * Puts a new snapshot entry in the current [[cache]] if the entry is
+      * missing or can overwrite the existing entry for the same key.
+      * Replaced owned entries are added to the removal list for deletion.
+      *
+      * The call of this method must be synchronized.
+      */
+    private def putEntry(newEntry: TableEntry[K, V]): Unit = {
+        val oldEntry = cache.get(newEntry.key)
+        if (oldEntry == newEntry) {
+            roundTripLatency(oldEntry)
+        } else if (oldEntry eq null) {
+            cache.put(newEntry.key, newEntry)
+            updates.add(Update(newEntry.key, table.nullValue,
+                               newEntry.value))
+        } else if (oldEntry.version == PersistentVersion
+                || oldEntry.version < newEntry.version) {
+            cache.put(newEntry.key, newEntry)
+            updates.add(Update(newEntry.key, oldEntry.value,
+                               newEntry.value))
+            // Remove owned replaced entry.
+            if (owned.contains(oldEntry.version)) {
+                removals.add(oldEntry)
+            }
+        }
+    }
+
     /**
       * Deletes from storage the list of entries.
       */
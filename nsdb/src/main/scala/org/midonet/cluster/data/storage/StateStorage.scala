@@ -16,13 +16,17 @@
 
 package org.midonet.cluster.data.storage
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable
+import scala.util.{Failure, Success, Try}
 
 import rx.Observable
+import rx.functions.FuncN
 
 import org.midonet.cluster.data.ObjId
 import org.midonet.cluster.data.storage.KeyType.KeyType
 import org.midonet.cluster.data.storage.StateStorage.{StateInfo, StateMap}
+import org.midonet.util.functors.makeFunc1
 
 /**
  * The [[KeyType]] enumeration defines how values can be written to a state
@@ -83,6 +87,27 @@ case class MultiValueKey(key: String, value: Set[String]) extends StateKey {
  */
 case class StateResult(ownerId: Long)
 
+/**
+ * A state value operation of a [[StateStorage.multiValue]] batch.
+ */
+sealed trait StateOp {
+    def clazz: Class[_]
+    def id: ObjId
+    def key: String
+    def value: String
+}
+
+/** Adds a value to a state key, with the semantics of
+  * [[StateStorage.addValue]]. */
+case class AddValueOp(clazz: Class[_], id: ObjId, key: String, value: String)
+    extends StateOp
+
+/** Removes a value from a state key, with the semantics of
+  * [[StateStorage.removeValue]]. */
+case class RemoveValueOp(clazz: Class[_], id: ObjId, key: String,
+                         value: String)
+    extends StateOp
+
 object StateStorage {
 
     /** Owner identifier returned as result when there is no owner. */
@@ -177,6 +202,48 @@ trait StateStorage extends Storage {
     def removeValue(clazz: Class[_], id: ObjId, key: String, value: String)
     : Observable[StateResult]
 
+    /** Adds or removes values for multiple state keys of the current
+      * namespace. The method is asynchronous, returning an observable that
+      * when subscribed to will execute all operations and will emit one
+      * notification with the results of the operations, in the same order as
+      * the operations. The result of every operation is either the
+      * [[StateResult]] or the error of the equivalent `addValue` or
+      * `removeValue` call, such that a failed operation does not fail the
+      * other operations of the batch. The operations may execute in any
+      * order, and therefore a batch should not include more than one
+      * operation for the same key value.
+      *
+      * The default implementation executes the operations concurrently. An
+      * implementation may group the operations to reduce the number of
+      * requests to the backend.
+      * @throws ServiceUnavailableException The storage is not built.
+      * @throws IllegalArgumentException A key or class have not been
+      * registered. */
+    @throws[ServiceUnavailableException]
+    @throws[IllegalArgumentException]
+    def multiValue(ops: Seq[StateOp]): Observable[Seq[Try[StateResult]]] = {
+        if (ops.isEmpty) {
+            return Observable.just(Seq.empty)
+        }
+        val results = for (op <- ops) yield {
+            val result = op match {
+                case AddValueOp(clazz, id, key, value) =>
+                    addValue(clazz, id, key, value)
+                case RemoveValueOp(clazz, id, key, value) =>
+                    removeValue(clazz, id, key, value)
+            }
+            result.map[Try[StateResult]](makeFunc1 { r: StateResult =>
+                      Success(r)
+                  })
+                  .onErrorReturn(makeFunc1 { e: Throwable => Failure(e) })
+                  .last()
+        }
+        Observable.zip(results.asJava, new FuncN[Seq[Try[StateResult]]] {
+            override def call(args: AnyRef*): Seq[Try[StateResult]] =
+                args.map(_.asInstanceOf[Try[StateResult]])
+        })
+    }
+
     /** Gets the set of values corresponding to a state key from the state of
       * the current namespace. The method is asynchronous, returning an
       * observable that when subscribed to will execute the get and will emit
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util
+
+import org.midonet.cluster.data.storage.ScalableStateTable.{PersistentVersion, TableEntry}
+
+/**
+  * Indexes the storage nodes of a state table by node name, such that a new
+  * listing of the table directory decodes only the nodes added since the
+  * previous listing, and reports only the keys of the added and removed
+  * nodes. The table entries are cached by node name: since every entry node
+  * is created with an ephemeral sequential name, a name identifies the same
+  * key, value and version for the lifetime of the node.
+  *
+  * A listing still costs one hash lookup per node, because ZooKeeper child
+  * watches do not report which children changed, but the decoding and the
+  * comparison with the table cache are proportional to the number of
+  * changes. The nodes missing from a listing are found with a generation
+  * counter, and the index is scanned for removed nodes only when the
+  * listing has fewer existing nodes than the index.
+  *
+  * The class is not thread-safe.
+  */
+private[storage] class StateTableNodeIndex[K, V](decode: String => TableEntry[K, V]) {
+
+    private final class Node(val entry: TableEntry[K, V], var generation: Long)
+
+    private val nodes = new util.HashMap[String, Node](64)
+    private val entries = new util.HashMap[K, TableEntry[K, V]](64)
+    private val duplicates =
+        new util.HashMap[K, util.ArrayList[TableEntry[K, V]]](4)
+    private val changed = new util.HashSet[K](64)
+    private var generation = 0L
+
+    /** The number of indexed nodes. */
+    def size: Int = nodes.size()
+
+    /** Removes all nodes from the index. */
+    def clear(): Unit = {
+        nodes.clear()
+        entries.clear()
+        duplicates.clear()
+        changed.clear()
+    }
+
+    /**
+      * Updates the index with the node names of a new listing of the table
+      * directory, and returns the keys for which nodes were added or
+      * removed. The returned set is reused by the next update.
+      */
+    def update(names: util.Collection[String]): util.Set[K] = {
+        changed.clear()
+        generation += 1
+
+        val previousSize = nodes.size()
+        var existing = 0
+        val nameIterator = names.iterator()
+        while (nameIterator.hasNext) {
+            val name = nameIterator.next()
+            val node = nodes.get(name)
+            if (node ne null) {
+                if (node.generation != generation) {
+                    node.generation = generation
+                    existing += 1
+                }
+            } else {
+                // Nodes that cannot be decoded are indexed with a null entry
+                // such that they are not decoded again.
+                val entry = decode(name)
+                nodes.put(name, new Node(entry, generation))
+                if (entry ne null) {
+                    addEntry(entry)
+                    changed.add(entry.key)
+                }
+            }
+        }
+
+        if (existing < previousSize) {
+            val nodeIterator = nodes.values().iterator()
+            while (nodeIterator.hasNext) {
+                val node = nodeIterator.next()
+                if (node.generation != generation) {
+                    nodeIterator.remove()
+                    if (node.entry ne null) {
+                        removeEntry(node.entry)
+                        changed.add(node.entry.key)
+                    }
+                }
+            }
+        }
+        changed
+    }
+
+    /**
+      * Returns the current entry for the given key, or `null` if there is no
+      * node for the key. When there are several nodes for the same key, the
+      * method selects the learned entry with the greatest version, or a
+      * persistent entry if there are no learned entries.
+      */
+    def get(key: K): TableEntry[K, V] = {
+        val list = duplicates.get(key)
+        if (list eq null) {
+            return entries.get(key)
+        }
+        var selected: TableEntry[K, V] = null
+        var index = 0
+        while (index < list.size()) {
+            val entry = list.get(index)
+            if ((selected eq null) || selected.version == PersistentVersion ||
+                (selected.version < entry.version &&
+                 entry.version != PersistentVersion)) {
+                selected = entry
+            }
+            index += 1
+        }
+        selected
+    }
+
+    private def addEntry(entry: TableEntry[K, V]): Unit = {
+        val list = duplicates.get(entry.key)
+        if (list ne null) {
+            list.add(entry)
+            return
+        }
+        val previous = entries.put(entry.key, entry)
+        if (previous ne null) {
+            val newList = new util.ArrayList[TableEntry[K, V]](2)
+            newList.add(previous)
+            newList.add(entry)
+            duplicates.put(entry.key, newList)
+            entries.remove(entry.key)
+        }
+    }
+
+    private def removeEntry(entry: TableEntry[K, V]): Unit = {
+        val list = duplicates.get(entry.key)
+        if (list eq null) {
+            entries.remove(entry.key)
+            return
+        }
+        list.remove(entry)
+        if (list.size() == 1) {
+            entries.put(entry.key, list.get(0))
+            duplicates.remove(entry.key)
+        }
+    }
+
+}
@@ -124,6 +124,22 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
 
     protected def getIds(clazz: Class[_]): Seq[ObjId]
 
+    /**
+     * Gets the snapshots of the specified objects from the backend store,
+     * returning `None` for the objects that do not exist. Implementations
+     * should override this method to read all objects concurrently: the
+     * default implementation reads the objects one at a time.
+     */
+    @throws[InternalObjectMapperException]
+    @throws[ConcurrentModificationException]
+    protected def getSnapshots(clazz: Class[_], ids: Seq[ObjId])
+    : Seq[Option[ObjSnapshot]] = {
+        for (id <- ids) yield {
+            try Some(getSnapshot(clazz, id))
+            catch { case e: NotFoundException => None }
+        }
+    }
+
     /**
      * Gets the specified object from the internal cache. If not found,
      * loads it from Zookeeper and caches it.
@@ -195,14 +211,33 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
     }
 
     /** Gets all objects of the specified class within the context of the
-      * current transaction. The objects are either guaranteed to not be
-      * modified until the transaction is committed, or the transaction will
-      * fail with a [[ConcurrentModificationException]]. */
+      * current transaction, including the objects created by the transaction.
+      * The objects are either guaranteed to not be modified until the
+      * transaction is committed, or the transaction will fail with a
+      * [[ConcurrentModificationException]]. */
     @throws[InternalObjectMapperException]
     @throws[ConcurrentModificationException]
     override def getAll[T](clazz: Class[T]): Seq[T] = {
-        val ids = getIds(clazz).filterNot { id => isDeleted(getKey(clazz, id)) }
-        getAll(clazz, ids)
+        val storedIds = getIds(clazz)
+        val ids = storedIds.filterNot { id => isDeleted(getKey(clazz, id)) }
+        getAll(clazz, ids ++ createdIds(clazz, storedIds))
+    }
+
+    /** Returns the identifiers of the objects of the specified class created
+      * by this transaction, and that are not in the given list of stored
+      * identifiers. */
+    private def createdIds(clazz: Class[_], storedIds: Seq[ObjId]): Seq[ObjId] = {
+        var storedKeys: Set[String] = null
+        val ids = new ArrayBuffer[ObjId]
+        for ((key, TxCreate(obj, _)) <- ops if key.clazz == clazz) {
+            if (storedKeys eq null) {
+                storedKeys = storedIds.map(getIdString).toSet
+            }
+            if (!storedKeys.contains(key.id)) {
+                ids += getObjectId(obj)
+            }
+        }
+        ids
     }
 
     /** Gets the specified objects within the context of the current transaction.
@@ -213,9 +248,31 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
     @throws[InternalObjectMapperException]
     @throws[ConcurrentModificationException]
     override def getAll[T](clazz: Class[T], ids: Seq[ObjId]): Seq[T] = {
+        prefetch(clazz, ids)
         for (id <- ids) yield get(clazz, id)
     }
 
+    /** Loads into the transaction cache the specified objects that are not
+      * cached yet, with a single bulk read from the backend store. */
+    private def prefetch(clazz: Class[_], ids: Seq[ObjId]): Unit = {
+        if (ids.size < 2) {
+            return
+        }
+        val missing = new mutable.LinkedHashMap[Key, ObjId]
+        for (id <- ids) {
+            val key = getKey(clazz, id)
+            if (!cache.contains(key)) {
+                missing.getOrElseUpdate(key, id)
+            }
+        }
+        if (missing.nonEmpty) {
+            val snapshots = getSnapshots(clazz, missing.values.toIndexedSeq)
+            for ((key, snapshot) <- missing.keys.zip(snapshots)) {
+                cache(key) = snapshot
+            }
+        }
+    }
+
     /**
       * @see [[Transaction.exists()]]
       */
@@ -500,6 +557,8 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
     /** Deletes a data node as part of the current transaction. */
     override def deleteNode(path: String, idempotent: Boolean): Unit = {
 
+        val pathOp = nodeOps.get(path)
+
         // First mark all known descendants for deletion.
         for ((p, op) <- nodeOps.getDescendants(path)) op match {
             case TxCreateNode(_) => nodeOps -= p
@@ -508,8 +567,18 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
             case TxDeleteNode =>
         }
 
-        if (idempotent && !nodeExists(path)) {
-            return
+        pathOp match {
+            case Some(TxCreateNode(_)) =>
+                // The node is created by this transaction and it does not
+                // exist in storage: discarding its create operation and those
+                // of its descendants is sufficient.
+                return
+            case Some(TxUpdateNode(_) | TxNodeExists) =>
+                // The node is known to exist.
+            case _ =>
+                if (idempotent && !nodeExists(path)) {
+                    return
+                }
         }
 
         // Mark the node itself for deletion.
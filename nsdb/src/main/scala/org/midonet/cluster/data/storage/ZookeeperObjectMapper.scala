@@ -43,7 +43,7 @@ import org.apache.zookeeper.data.Stat
 import org.slf4j.{Logger, LoggerFactory}
 
 import rx.Observable.OnSubscribe
-import rx.{Notification, Observable, Subscriber}
+import rx.{Observable, Subscriber}
 
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
 import org.midonet.cluster.data.storage.TransactionManager._
@@ -52,7 +52,7 @@ import org.midonet.cluster.data.storage.metrics.StorageMetrics
 import org.midonet.cluster.data.{Obj, ObjId, getIdString}
 import org.midonet.cluster.services.state.client.StateTableClient
 import org.midonet.cluster.storage.MidonetBackendConfig
-import org.midonet.cluster.util.{NodeObservable, NodeObservableClosedException, PathCacheClosedException}
+import org.midonet.cluster.util.{NodeObservableClosedException, PathCacheClosedException}
 import org.midonet.util.concurrent.{CallingThreadExecutionContext, NamedThreadFactory}
 import org.midonet.util.eventloop.Reactor
 import org.midonet.util.functors.makeFunc1
@@ -133,6 +133,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
     private val objectObservableRef = new AtomicLong()
 
     private val objectObservables = new TrieMap[Key, ObjectObservable]
+    private val classWatchers = new TrieMap[Class[_], ClassWatcher[_]]
     private val classObservables = new TrieMap[Class[_], ClassObservable]
 
     private val topologyLockWatcher = new Watcher {
@@ -173,6 +174,8 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         classObservables.count(_._2.cache.isStarted)
     private[storage] def objectObservableCount(clazz: Class[_]): Int =
         objectObservables.count(_._1.clazz == clazz)
+    private[storage] def watchedObjectCount(clazz: Class[_]): Int =
+        classWatchers.get(clazz).map(_.watchedCount).getOrElse(0)
     private[storage] def connectionState: String =
         curator.getZookeeperClient.getZooKeeper.getState.toString
     private[storage] def failFastConnectionState: String =
@@ -225,15 +228,40 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         @throws[InternalObjectMapperException]
         protected override def getSnapshot(clazz: Class[_], id: ObjId)
         : ObjSnapshot = {
-            val objPath = objectPath(clazz, id)
-            val rawPath = altObjectPath(clazz, id)
+            val objectFuture = asyncGet(objectPath(clazz, id))
+            val rawFuture = asyncGet(altObjectPath(clazz, id))
 
-            val objectFuture = asyncGet(objPath)
-            val rawFuture = asyncGet(rawPath)
+            toSnapshot(clazz, id, objectFuture.get(), rawFuture.get())
+                .getOrElse(throw new NotFoundException(clazz, id))
+        }
 
-            val objectEvent = objectFuture.get()
-            val rawEvent = rawFuture.get()
+        /** Reads the snapshots of the specified objects with all read
+          * requests in flight at once, such that the latency of the read is
+          * close to a single round-trip to ZooKeeper regardless of the number
+          * of objects. */
+        @throws[ConcurrentModificationException]
+        @throws[InternalObjectMapperException]
+        protected override def getSnapshots(clazz: Class[_], ids: Seq[ObjId])
+        : Seq[Option[ObjSnapshot]] = {
+            if (ids.size == 1) {
+                return super.getSnapshots(clazz, ids)
+            }
+            val futures = for (id <- ids) yield {
+                (asyncGet(objectPath(clazz, id)),
+                 asyncGet(altObjectPath(clazz, id)))
+            }
+            for ((id, (objectFuture, rawFuture)) <- ids.zip(futures)) yield {
+                toSnapshot(clazz, id, objectFuture.get(), rawFuture.get())
+            }
+        }
 
+        /** Converts the results of the object and provenance reads to an
+          * object snapshot, or `None` if the object does not exist. */
+        @throws[ConcurrentModificationException]
+        @throws[InternalObjectMapperException]
+        private def toSnapshot(clazz: Class[_], id: ObjId,
+                               objectEvent: CuratorEvent,
+                               rawEvent: CuratorEvent): Option[ObjSnapshot] = {
             if (objectEvent.getResultCode == Code.OK.intValue()) {
                 if (objectEvent.getStat.getMzxid > zxid ||
                     (rawEvent.getResultCode == Code.OK.intValue() &&
@@ -252,18 +280,18 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 } else if (rawEvent.getResultCode != Code.NONODE.intValue()) {
                     throw new InternalObjectMapperException(
                         KeeperException.create(Code.get(rawEvent.getResultCode),
-                                               rawPath))
+                                               altObjectPath(clazz, id)))
                 }
 
-                ObjSnapshot(deserialize(objectEvent.getData, clazz)
-                                .asInstanceOf[Obj],
-                            objectEvent.getStat.getVersion)
+                Some(ObjSnapshot(deserialize(objectEvent.getData, clazz)
+                                     .asInstanceOf[Obj],
+                                 objectEvent.getStat.getVersion))
             } else if (objectEvent.getResultCode == Code.NONODE.intValue()) {
-                throw new NotFoundException(clazz, id)
+                None
             } else {
                 throw new InternalObjectMapperException(
                     KeeperException.create(Code.get(objectEvent.getResultCode),
-                                           objPath))
+                                           objectPath(clazz, id)))
             }
         }
 
@@ -814,8 +842,9 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
       * Returns a cache-able, recoverable observable for the specified object.
       * If an observable for the object already exists in the cache, then
       * the method returns the same observable. Otherwise, the method creates
-      * a new [[NodeObservable]] with an error handler and caches it, where the
-      * close handler removes it from the cache.
+      * a new object observable from the [[ClassWatcher]] of the object class
+      * with an error handler and caches it, where the close handler removes
+      * it from the cache.
       */
     protected override def internalObservable[T](clazz: Class[T], id: ObjId,
                                                  onClose: => Unit)
@@ -826,15 +855,12 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         objectObservables.getOrElse(key, {
             val ref = objectObservableRef.getAndIncrement()
 
-            val nodeObservable = NodeObservable.create(
-                curator, path, metrics, completeOnDelete = true, {
-                    objectObservables.remove(key, ObjectObservable(ref))
-                    onClose
-                })
+            val nodeObservable = classWatcher(clazz).observable(path, {
+                objectObservables.remove(key, ObjectObservable(ref))
+                onClose
+            })
 
             val objectObservable = nodeObservable
-                .map[Notification[T]](deserializerOf(clazz))
-                .dematerialize().asInstanceOf[Observable[T]]
                 .onErrorResumeNext(makeFunc1((t: Throwable) => t match {
                     case e: NodeObservableClosedException =>
                         metrics.error.objectObservableClosedCounter.inc()
@@ -847,12 +873,23 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                         Observable.error(e)
                 }))
 
-            val entry = ObjectObservable(ref, nodeObservable, objectObservable)
+            val entry = ObjectObservable(ref, objectObservable)
 
             objectObservables.putIfAbsent(key, entry).getOrElse(entry)
         }).objectObservable.asInstanceOf[Observable[T]]
     }
 
+    /**
+      * Returns the [[ClassWatcher]] that multiplexes the watches for the
+      * objects of the specified class.
+      */
+    private[storage] def classWatcher[T](clazz: Class[T]): ClassWatcher[T] = {
+        classWatchers.getOrElse(clazz, classWatchers.synchronized {
+            classWatchers.getOrElseUpdate(
+                clazz, new ClassWatcher(clazz, curator, metrics))
+        }).asInstanceOf[ClassWatcher[T]]
+    }
+
     /**
      * Refer to the interface documentation for functionality.
      *
@@ -956,7 +993,6 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
 object ZookeeperObjectMapper {
 
     private case class ObjectObservable(ref: Long,
-                                        nodeObservable: NodeObservable = null,
                                         objectObservable: Observable[_] = null) {
         override def equals(other: Any): Boolean = other match {
             case o: ObjectObservable => o.ref == ref
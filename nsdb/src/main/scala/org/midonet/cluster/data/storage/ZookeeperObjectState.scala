@@ -16,31 +16,47 @@
 
 package org.midonet.cluster.data.storage
 
-import java.util.concurrent.atomic.AtomicLong
+import java.util
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 
 import scala.collection.JavaConverters._
 import scala.collection.concurrent.TrieMap
+import scala.collection.mutable.ArrayBuffer
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
 
 import org.apache.curator.framework.CuratorFramework
-import org.apache.curator.framework.api.CuratorEvent
+import org.apache.curator.framework.api.{BackgroundCallback, CuratorEvent}
 import org.apache.curator.framework.recipes.cache.ChildData
-import org.apache.zookeeper.CreateMode
+import org.apache.curator.utils.ZKPaths
+import org.apache.zookeeper.AsyncCallback.MultiCallback
 import org.apache.zookeeper.KeeperException.Code
+import org.apache.zookeeper.data.Stat
+import org.apache.zookeeper.{CreateMode, Op, OpResult, ZooDefs}
 
 import rx.Observable.OnSubscribe
 import rx.functions.Func1
-import rx.{Notification, Observable, Subscriber}
+import rx.{Notification, Observable, Observer, Subscriber}
 
 import org.midonet.cluster.data._
 import org.midonet.cluster.data.storage.CuratorUtil.asObservable
 import org.midonet.cluster.data.storage.StateStorage.{NoOwnerId, StringEncoding}
-import org.midonet.cluster.data.storage.ZookeeperObjectState.{KeyIndex, MultiObservable, SingleObservable, makeThrowable}
+import org.midonet.cluster.data.storage.KeyType.KeyType
+import org.midonet.cluster.data.storage.ZookeeperObjectState._
 import org.midonet.cluster.data.storage.metrics.StorageMetrics
 import org.midonet.cluster.util.{DirectoryObservableClosedException, NodeObservable, NodeObservableClosedException, PathDirectoryObservable}
 import org.midonet.util.functors._
 
 object ZookeeperObjectState {
 
+    /** The maximum number of state operations written in a single ZooKeeper
+      * multi request. */
+    private final val MaxBatchOps = 128
+
+    /** The maximum number of attempts to write a batch of state operations,
+      * when the ZooKeeper connection or session is lost. */
+    private final val MaxBatchAttempts = 3
+
     /** Creates the appropriate exception for the given ZooKeeper result
       * code. */
     private def makeThrowable(clazz: String, id: String, key: String,
@@ -203,6 +219,37 @@ trait ZookeeperObjectState extends StateStorage with Storage with StorageInterna
         }
     }
 
+    /**
+     * Adds or removes the values of multiple state keys. The operations for
+     * [[KeyType.SingleLastWriteWins]] and [[KeyType.Multiple]] keys are
+     * grouped in ZooKeeper multi requests of at most `MaxBatchOps`
+     * operations, after checking the current state of all keys in parallel.
+     * If the ZooKeeper connection or session is lost, the method checks the
+     * state again and retries the multi request up to `MaxBatchAttempts`
+     * times. The operations for [[KeyType.SingleFirstWriteWins]] keys, the
+     * operations that must create the key parent nodes, and the operations
+     * of a multi request failing with any other error are executed
+     * individually, such that every operation has the same result as the
+     * equivalent `addValue` or `removeValue` call.
+     */
+    @throws[ServiceUnavailableException]
+    @throws[IllegalArgumentException]
+    override def multiValue(ops: Seq[StateOp])
+    : Observable[Seq[Try[StateResult]]] = {
+        assertBuilt()
+
+        val keyTypes = ops.map(op => getKeyType(op.clazz, op.key)).toIndexedSeq
+        if (ops.isEmpty) {
+            return Observable.just(Seq.empty)
+        }
+        Observable.create(new OnSubscribe[Seq[Try[StateResult]]] {
+            override def call(child: Subscriber[_ >: Seq[Try[StateResult]]])
+            : Unit = {
+                new StateBatch(ops.toIndexedSeq, keyTypes, child).start()
+            }
+        })
+    }
+
     /**
      * Returns the value or values associated to a given key for the current
      * namespace. The method returns an observable that emits either a
@@ -573,6 +620,238 @@ trait ZookeeperObjectState extends StateStorage with Storage with StorageInterna
         }
     }
 
+    /**
+      * Executes a batch of state operations. The batch completes the child
+      * subscriber when all operations have completed.
+      */
+    private class StateBatch(ops: IndexedSeq[StateOp],
+                             keyTypes: IndexedSeq[KeyType],
+                             child: Subscriber[_ >: Seq[Try[StateResult]]]) {
+
+        private val results = new Array[Try[StateResult]](ops.size)
+        private val pending = new AtomicInteger(ops.size)
+
+        def start(): Unit = {
+            val regular = new ArrayBuffer[Int]
+            val failFast = new ArrayBuffer[Int]
+            for (index <- ops.indices) {
+                val keyType = keyTypes(index)
+                if (keyType.isSingle && keyType.firstWins) execute(index)
+                else if (keyType.failFast) failFast += index
+                else regular += index
+            }
+            for (indices <- regular.grouped(MaxBatchOps)) {
+                new StateChunk(this, indices, curator, attempt = 1).check()
+            }
+            for (indices <- failFast.grouped(MaxBatchOps)) {
+                new StateChunk(this, indices, failFastCurator, attempt = 1).check()
+            }
+        }
+
+        def op(index: Int): StateOp = ops(index)
+
+        def keyType(index: Int): KeyType = keyTypes(index)
+
+        def complete(index: Int, result: Try[StateResult]): Unit = {
+            results(index) = result
+            if (pending.decrementAndGet() == 0) {
+                child.onNext(results.toIndexedSeq)
+                child.onCompleted()
+            }
+        }
+
+        /** Executes the operation at the given index individually. */
+        def execute(index: Int): Unit = {
+            val result = try ops(index) match {
+                case AddValueOp(clazz, id, key, value) =>
+                    addValue(clazz, id, key, value)
+                case RemoveValueOp(clazz, id, key, value) =>
+                    removeValue(clazz, id, key, value)
+            } catch {
+                case NonFatal(e) => Observable.error[StateResult](e)
+            }
+            result.subscribe(new Observer[StateResult] {
+                override def onNext(r: StateResult): Unit =
+                    complete(index, Success(r))
+                override def onError(e: Throwable): Unit =
+                    complete(index, Failure(e))
+                override def onCompleted(): Unit = { }
+            })
+        }
+    }
+
+    /**
+      * Writes a chunk of the operations of a [[StateBatch]] in a single
+      * ZooKeeper multi request, using the given ZooKeeper client. The chunk
+      * first checks in parallel the existence of the object, the key parent
+      * node and the key node for every operation, and then issues the multi
+      * request for the operations that modify the state.
+      */
+    private class StateChunk(batch: StateBatch, indices: Seq[Int],
+                             zk: CuratorFramework, attempt: Int) {
+
+        private val count = indices.size
+        private val paths = new Array[String](count)
+        private val objectStats = new Array[Stat](count)
+        private val parentStats = new Array[Stat](count)
+        private val pathStats = new Array[Stat](count)
+        private val failed = new Array[Boolean](count)
+        private val pending = new AtomicInteger()
+
+        private class CheckCallback(position: Int, stats: Array[Stat])
+            extends BackgroundCallback {
+            override def processResult(client: CuratorFramework,
+                                       event: CuratorEvent): Unit = {
+                if (event.getResultCode == Code.OK.intValue()) {
+                    stats(position) = event.getStat
+                } else if (event.getResultCode != Code.NONODE.intValue()) {
+                    failed(position) = true
+                }
+                if (pending.decrementAndGet() == 0) {
+                    write()
+                }
+            }
+        }
+
+        def check(): Unit = {
+            var checks = 0
+            for (position <- 0 until count) {
+                val op = batch.op(indices(position))
+                paths(position) =
+                    if (batch.keyType(indices(position)).isSingle)
+                        keyPath(namespace, op.clazz, op.id, op.key)
+                    else
+                        valuePath(namespace, op.clazz, op.id, op.key, op.value)
+                checks += (if (op.isInstanceOf[AddValueOp]) 3 else 1)
+            }
+            pending.set(checks)
+            for (position <- 0 until count) {
+                val op = batch.op(indices(position))
+                if (op.isInstanceOf[AddValueOp]) {
+                    checkExists(objectPath(op.clazz, op.id), position,
+                                objectStats)
+                    checkExists(ZKPaths.getPathAndNode(paths(position)).getPath,
+                                position, parentStats)
+                }
+                checkExists(paths(position), position, pathStats)
+            }
+        }
+
+        private def checkExists(path: String, position: Int,
+                                stats: Array[Stat]): Unit = {
+            val callback = new CheckCallback(position, stats)
+            try zk.checkExists().inBackground(callback).forPath(path)
+            catch {
+                case NonFatal(e) =>
+                    failed(position) = true
+                    if (pending.decrementAndGet() == 0) {
+                        write()
+                    }
+            }
+        }
+
+        /** Plans the state changes and writes them in a multi request. */
+        private def write(): Unit = {
+            val ownerId = try owner(zk) catch {
+                case NonFatal(e) =>
+                    indices foreach batch.execute
+                    return
+            }
+            val zkOps = new util.ArrayList[Op](2 * count)
+            val planned = new ArrayBuffer[Int](count)
+
+            def fix(path: String) = ZKPaths.fixForNamespace(zk.getNamespace, path)
+            def create(index: Int, path: String, value: String): Unit = {
+                // The value nodes of multiple value keys have no data.
+                val data =
+                    if (batch.keyType(index).isSingle)
+                        value.getBytes(StringEncoding)
+                    else Array.emptyByteArray
+                zkOps.add(Op.create(fix(path), data,
+                                    ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                    CreateMode.EPHEMERAL))
+            }
+
+            for (position <- 0 until count) {
+                val index = indices(position)
+                val path = paths(position)
+                val stat = pathStats(position)
+                batch.op(index) match {
+                    case _ if failed(position) =>
+                        batch.execute(index)
+                    case AddValueOp(clazz, id, key, value) =>
+                        if (objectStats(position) eq null) {
+                            batch.complete(index, Failure(makeThrowable(
+                                clazz.getSimpleName, getIdString(id), key,
+                                value, Code.NONODE.intValue())))
+                        } else if ((stat ne null) &&
+                                   stat.getEphemeralOwner == ownerId) {
+                            if (batch.keyType(index).isSingle) {
+                                zkOps.add(Op.setData(
+                                    fix(path), value.getBytes(StringEncoding),
+                                    stat.getVersion))
+                                planned += index
+                            } else {
+                                batch.complete(index,
+                                               Success(StateResult(ownerId)))
+                            }
+                        } else if (stat ne null) {
+                            zkOps.add(Op.delete(fix(path), stat.getVersion))
+                            create(index, path, value)
+                            planned += index
+                        } else if (parentStats(position) ne null) {
+                            create(index, path, value)
+                            planned += index
+                        } else {
+                            batch.execute(index)
+                        }
+                    case RemoveValueOp(clazz, id, key, value) =>
+                        if (stat eq null) {
+                            batch.complete(index,
+                                           Success(StateResult(NoOwnerId)))
+                        } else if (stat.getEphemeralOwner == ownerId) {
+                            zkOps.add(Op.delete(fix(path), stat.getVersion))
+                            planned += index
+                        } else {
+                            batch.complete(index, Failure(
+                                new NotStateOwnerException(
+                                    clazz.getSimpleName, getIdString(id), key,
+                                    value, stat.getEphemeralOwner)))
+                        }
+                }
+            }
+
+            if (zkOps.isEmpty) {
+                return
+            }
+
+            val callback = new MultiCallback {
+                override def processResult(rc: Int, path: String, ctx: AnyRef,
+                                           opResults: util.List[OpResult])
+                : Unit = {
+                    if (rc == Code.OK.intValue()) {
+                        for (index <- planned) {
+                            batch.complete(index, Success(StateResult(ownerId)))
+                        }
+                    } else if ((rc == Code.CONNECTIONLOSS.intValue() ||
+                                rc == Code.SESSIONEXPIRED.intValue() ||
+                                rc == Code.SESSIONMOVED.intValue() ||
+                                rc == Code.OPERATIONTIMEOUT.intValue()) &&
+                               attempt < MaxBatchAttempts) {
+                        new StateChunk(batch, planned, zk, attempt + 1).check()
+                    } else {
+                        planned foreach batch.execute
+                    }
+                }
+            }
+            try {
+                zk.getZookeeperClient.getZooKeeper.multi(zkOps, callback, null)
+            } catch {
+                case NonFatal(e) => planned foreach batch.execute
+            }
+        }
+    }
+
     /** Returns a node observable for the state path of the given object.
       * This observable is used to detect when an object is deleted, in
       * order to complete single-value key observables. */
@@ -15,12 +15,14 @@
  */
 package org.midonet.cluster.data.storage.cached
 
+import scala.util.Try
+
 import rx.Observable
 
 import org.midonet.cluster.cache.ObjectNotification.{MappedSnapshot => ObjSnapshot}
 import org.midonet.cluster.cache.StateNotification.{MappedSnapshot => StateSnapshot}
 import org.midonet.cluster.data.ObjId
-import org.midonet.cluster.data.storage.{StateKey, StateResult, StateStorage, Storage}
+import org.midonet.cluster.data.storage.{StateKey, StateOp, StateResult, StateStorage, Storage}
 
 /**
   * This class provides a wrapper over a regular storage object. This wrapper
@@ -51,6 +53,10 @@ class StateStorageWrapper(private val cacheTtlMs: Long,
                              value: String): Observable[StateResult] =
         validStateStore.removeValue(clazz, id, key, value)
 
+    override def multiValue(ops: Seq[StateOp])
+    : Observable[Seq[Try[StateResult]]] =
+        validStateStore.multiValue(ops)
+
     override def getKey(clazz: Class[_], id: ObjId,
                         key: String): Observable[StateKey] =
         validStateStore.getKey(clazz, id, key)
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.state
+
+import java.io.ByteArrayOutputStream
+import java.util.zip.{Deflater, DeflaterOutputStream, Inflater, InflaterInputStream}
+
+import com.google.protobuf.ByteString
+
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify.Update
+
+/**
+  * Compresses and decompresses the entries of the state proxy
+  * [[Update]] notifications. The compressed entries are the DEFLATE
+  * compressed serialization of an [[Update]] message that contains only the
+  * entries.
+  */
+object StateUpdateCompression {
+
+    /**
+      * Compresses the entries of the given update, if their serialized size
+      * is at least `threshold` bytes and the compression reduces the size.
+      * Otherwise, the method returns the same update. A non-positive
+      * threshold disables the compression.
+      */
+    def compress(update: Update, threshold: Int): Update = {
+        if (threshold <= 0 || update.getEntriesCount == 0 ||
+            update.hasCompressedEntries) {
+            return update
+        }
+        val entries = Update.newBuilder()
+                            .addAllEntries(update.getEntriesList)
+                            .build()
+        val size = entries.getSerializedSize
+        if (size < threshold) {
+            return update
+        }
+
+        val output = new ByteArrayOutputStream(size / 2)
+        val deflater = new Deflater(Deflater.BEST_SPEED)
+        try {
+            val stream = new DeflaterOutputStream(output, deflater)
+            entries.writeTo(stream)
+            stream.close()
+        } finally {
+            deflater.end()
+        }
+        if (output.size() >= size) {
+            return update
+        }
+
+        update.toBuilder
+              .clearEntries()
+              .setCompressedEntries(ByteString.copyFrom(output.toByteArray))
+              .build()
+    }
+
+    /**
+      * Decompresses the entries of the given update, if compressed.
+      * Otherwise, the method returns the same update.
+      */
+    @throws[java.io.IOException]
+    def decompress(update: Update): Update = {
+        if (!update.hasCompressedEntries) {
+            return update
+        }
+        val inflater = new Inflater()
+        try {
+            val entries = Update.parseFrom(new InflaterInputStream(
+                update.getCompressedEntries.newInput(), inflater))
+            update.toBuilder
+                  .clearCompressedEntries()
+                  .addAllEntries(entries.getEntriesList)
+                  .build()
+        } finally {
+            inflater.end()
+        }
+    }
+
+}
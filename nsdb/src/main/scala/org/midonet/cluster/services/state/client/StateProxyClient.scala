@@ -35,7 +35,7 @@ import rx.{Observable, Subscriber}
 import org.midonet.cluster.rpc.State.ProxyResponse.Notify.Update
 import org.midonet.cluster.rpc.State.{ProxyRequest, ProxyResponse}
 import org.midonet.cluster.services.discovery._
-import org.midonet.cluster.services.state.StateProxyService
+import org.midonet.cluster.services.state.{StateProxyService, StateUpdateCompression}
 import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState
 import org.midonet.util.UnixClock
 import org.midonet.util.functors.makeAction0
@@ -444,7 +444,22 @@ class StateProxyClient(conf: StateProxyClientConfig,
                         subscriber.onCompleted()
 
                     case ProxyResponse.Notify.NotificationCase.UPDATE =>
-                        subscriber.onNext(msg.getUpdate)
+                        val update = try {
+                            StateUpdateCompression.decompress(msg.getUpdate)
+                        } catch {
+                            case NonFatal(e) =>
+                                log warn s"$this Invalid compressed update " +
+                                         s"for subscription $sid: ${e.getMessage}"
+                                null
+                        }
+                        if (update ne null) {
+                            subscriber.onNext(update)
+                        } else {
+                            state.removeSubscription(sid, subscriber)
+                            state.removeSubscriber(subscriber)
+                            subscriber.onError(
+                                new SubscriptionFailedException("Protocol error"))
+                        }
 
                     case ProxyResponse.Notify.NotificationCase.NOTIFICATION_NOT_SET =>
                         state.removeSubscription(sid, subscriber)
@@ -32,6 +32,8 @@ case class StateSubscriptionKey(key: StateTable.Key,
 
         if (lastVersion.isDefined) msg.setLastVersion(lastVersion.get)
 
+        msg.setAcceptCompression(true)
+
         msg.setObjectId(Commons.UUID.newBuilder()
                             .setMsb(key.objectId.getMostSignificantBits)
                             .setLsb(key.objectId.getLeastSignificantBits))
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.storage.ScalableStateTable.{PersistentVersion, TableEntry}
+
+@RunWith(classOf[JUnitRunner])
+class StateTableNodeIndexTest extends FeatureSpec with Matchers
+                              with GivenWhenThen {
+
+    private var decoded = 0
+
+    private def decode(name: String): TableEntry[String, String] = {
+        decoded += 1
+        name.split(",") match {
+            case Array(key, value, version) =>
+                TableEntry(key, value, Integer.parseInt(version))
+            case _ => null
+        }
+    }
+
+    private def newIndex(): StateTableNodeIndex[String, String] = {
+        decoded = 0
+        new StateTableNodeIndex[String, String](decode)
+    }
+
+    private def update(index: StateTableNodeIndex[String, String],
+                       names: String*): Set[String] = {
+        index.update(names.asJava).asScala.toSet
+    }
+
+    feature("The index reports the changed keys") {
+        scenario("Added and removed nodes") {
+            Given("An index with three nodes")
+            val index = newIndex()
+            update(index, "a,1,1", "b,2,2", "c,3,3") shouldBe Set("a", "b", "c")
+            index.size shouldBe 3
+
+            When("Listing the same nodes")
+            Then("There are no changed keys")
+            update(index, "c,3,3", "a,1,1", "b,2,2") shouldBe empty
+
+            When("Adding a node and removing another node")
+            Then("Only the keys of the two nodes changed")
+            update(index, "a,1,1", "c,3,3", "d,4,4") shouldBe Set("b", "d")
+            index.get("b") shouldBe null
+            index.get("d") shouldBe TableEntry("d", "4", 4)
+
+            And("Only the new nodes were decoded")
+            decoded shouldBe 4
+        }
+
+        scenario("Nodes that cannot be decoded") {
+            Given("An index with an invalid node")
+            val index = newIndex()
+            update(index, "a,1,1", "invalid") shouldBe Set("a")
+
+            When("Listing the same nodes")
+            Then("The invalid node is not decoded again")
+            update(index, "a,1,1", "invalid") shouldBe empty
+            decoded shouldBe 2
+
+            And("Removing the invalid node does not change any key")
+            update(index, "a,1,1") shouldBe empty
+            index.size shouldBe 1
+        }
+
+        scenario("Clearing the index") {
+            Given("An index with two nodes")
+            val index = newIndex()
+            update(index, "a,1,1", "b,2,2")
+
+            When("Clearing the index")
+            index.clear()
+
+            Then("All keys change with the next listing")
+            update(index, "a,1,1", "b,2,2") shouldBe Set("a", "b")
+        }
+    }
+
+    feature("The index selects the entry for keys with several nodes") {
+        scenario("Learned entries") {
+            Given("An index with two learned entries for the same key")
+            val index = newIndex()
+            update(index, "a,1,1", "a,2,2")
+
+            Then("The index selects the greatest version")
+            index.get("a") shouldBe TableEntry("a", "2", 2)
+
+            When("Removing the greatest version")
+            update(index, "a,1,1") shouldBe Set("a")
+
+            Then("The index selects the remaining entry")
+            index.get("a") shouldBe TableEntry("a", "1", 1)
+        }
+
+        scenario("Persistent and learned entries") {
+            Given("An index with a persistent and a learned entry")
+            val index = newIndex()
+            val persistent = s"a,1,$PersistentVersion"
+            update(index, persistent, "a,2,2")
+
+            Then("The index selects the learned entry")
+            index.get("a") shouldBe TableEntry("a", "2", 2)
+
+            When("Removing the learned entry")
+            update(index, persistent) shouldBe Set("a")
+
+            Then("The index selects the persistent entry")
+            index.get("a") shouldBe TableEntry("a", "1", PersistentVersion)
+        }
+    }
+}
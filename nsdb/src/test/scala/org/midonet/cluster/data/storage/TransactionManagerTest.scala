@@ -48,7 +48,9 @@ class TransactionManagerTest extends FeatureSpec with Matchers
         extends TransactionManager(classes, bindings) {
 
         var getSnapshotCount = 0
+        var getSnapshotsCount = 0
         var getIdsCount = 0
+        var nodeExistsCount = 0
 
         protected override def assertRegistered(clazz: Class[_]): Unit = {
             if (!classes.contains(clazz)) {
@@ -63,12 +65,19 @@ class TransactionManagerTest extends FeatureSpec with Matchers
             else throw new NotFoundException(clazz, id)
         }
 
+        protected override def getSnapshots(clazz: Class[_], ids: Seq[ObjId])
+        : Seq[Option[ObjSnapshot]] = {
+            getSnapshotsCount += 1
+            super.getSnapshots(clazz, ids)
+        }
+
         protected override def getIds(clazz: Class[_]): Seq[ObjId] = {
             getIdsCount += 1
             Seq(defaultId)
         }
 
         protected override def nodeExists(path: String): Boolean = {
+            nodeExistsCount += 1
             true
         }
 
@@ -81,6 +90,8 @@ class TransactionManagerTest extends FeatureSpec with Matchers
         override def close(): Unit = { }
 
         def getOps = ops
+
+        def getNodeOps = nodeOps
     }
 
     feature("Transaction manager handles read operations") {
@@ -167,6 +178,28 @@ class TransactionManagerTest extends FeatureSpec with Matchers
             manager.getSnapshotCount shouldBe 1
         }
 
+        scenario("Transaction manager reads all objects at once on getAll()") {
+            Given("A transaction manager")
+            val manager = new TestableTransactionManager
+
+            Then("Requesting several objects fails if one does not exist")
+            intercept[NotFoundException] {
+                manager.getAll(classOf[FakeDevice],
+                               Seq(defaultId, defaultId, notFoundId))
+            }
+
+            And("The manager should have read the objects in a single request")
+            manager.getSnapshotsCount shouldBe 1
+            manager.getSnapshotCount shouldBe 2
+
+            When("Requesting the objects again")
+            manager.get(classOf[FakeDevice], defaultId) shouldBe defaultDevice
+            manager.exists(classOf[FakeDevice], notFoundId) shouldBe false
+
+            Then("The manager returns the cached snapshots")
+            manager.getSnapshotCount shouldBe 2
+        }
+
         scenario("Transaction manager does not return deleted objects in getAll()") {
             Given("A transaction manager")
             val manager = new TestableTransactionManager
@@ -178,6 +211,24 @@ class TransactionManagerTest extends FeatureSpec with Matchers
             manager.getAll(classOf[FakeDevice]) should have size 0
         }
 
+        scenario("Transaction manager returns created objects in getAll()") {
+            Given("A transaction manager")
+            val manager = new TestableTransactionManager
+
+            When("Creating a new object")
+            manager.create(notFoundDevice)
+
+            Then("Requesting all objects returns the stored and created objects")
+            manager.getAll(classOf[FakeDevice]) should contain theSameElementsAs
+                Seq(defaultDevice, notFoundDevice)
+
+            When("Deleting the created object")
+            manager.delete(classOf[FakeDevice], notFoundId)
+
+            Then("Requesting all objects returns the stored object")
+            manager.getAll(classOf[FakeDevice]) should contain only defaultDevice
+        }
+
         scenario("Transaction manager returns true for exists()") {
             Given("A transaction manager")
             val manager = new TestableTransactionManager
@@ -541,4 +592,41 @@ class TransactionManagerTest extends FeatureSpec with Matchers
         }
     }
 
+    feature("Transaction manager handles node operations") {
+        scenario("Deleting a node created in the same transaction") {
+            Given("A transaction manager")
+            val manager = new TestableTransactionManager
+
+            When("Creating a node")
+            manager.createNode("/a/b", "value")
+            manager.nodeExistsCount shouldBe 1
+
+            And("Deleting the same node")
+            manager.deleteNode("/a/b")
+
+            Then("The manager discards the create operation")
+            manager.getNodeOps.get("/a/b") shouldBe None
+
+            And("The manager does not query the storage")
+            manager.nodeExistsCount shouldBe 1
+        }
+
+        scenario("Deleting a node known to exist") {
+            Given("A transaction manager")
+            val manager = new TestableTransactionManager
+
+            When("Updating a node")
+            manager.updateNode("/a", "value")
+
+            And("Deleting the same node")
+            manager.deleteNode("/a", idempotent = true)
+
+            Then("The manager adds a delete operation")
+            manager.getNodeOps.get("/a") shouldBe Some(TxDeleteNode)
+
+            And("The manager does not query whether the node exists")
+            manager.nodeExistsCount shouldBe 0
+        }
+    }
+
 }
@@ -21,6 +21,7 @@ import scala.concurrent.duration._
 
 import com.codahale.metrics.MetricRegistry
 
+import org.apache.curator.framework.state.ConnectionState
 import org.apache.curator.utils.ZKPaths
 import org.junit.runner.RunWith
 import org.scalatest.GivenWhenThen
@@ -198,6 +199,86 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
             zoom.objectObservableCount shouldBe 0
         }
 
+        scenario("Test object observables share the class watcher") {
+            Given("Two bridges")
+            val bridge1 = createPojoBridge()
+            val bridge2 = createPojoBridge()
+            storage.create(bridge1)
+            storage.create(bridge2)
+
+            And("Two observers for the first bridge and one for the second")
+            val observer1 = new TestAwaitableObserver[PojoBridge]
+            val observer2 = new TestAwaitableObserver[PojoBridge]
+            val observer3 = new TestAwaitableObserver[PojoBridge]
+
+            When("The observers subscribe to the bridges")
+            storage.observable(classOf[PojoBridge], bridge1.id)
+                   .subscribe(observer1)
+            storage.observable(classOf[PojoBridge], bridge1.id)
+                   .subscribe(observer2)
+            val sub3 = storage.observable(classOf[PojoBridge], bridge2.id)
+                              .subscribe(observer3)
+
+            Then("The observers receive the bridges")
+            observer1.awaitOnNext(1, timeout)
+            observer2.awaitOnNext(1, timeout)
+            observer3.awaitOnNext(1, timeout)
+
+            And("The class watcher watches both bridges")
+            zoom.watchedObjectCount(classOf[PojoBridge]) shouldBe 2
+
+            When("Updating the first bridge")
+            bridge1.name = "updated"
+            storage.update(bridge1)
+
+            Then("Both observers receive the same deserialized bridge")
+            observer1.awaitOnNext(2, timeout)
+            observer2.awaitOnNext(2, timeout)
+            observer1.getOnNextEvents.get(1).name shouldBe "updated"
+            observer1.getOnNextEvents.get(1) eq
+                observer2.getOnNextEvents.get(1) shouldBe true
+
+            When("The observer of the second bridge unsubscribes")
+            sub3.unsubscribe()
+
+            Then("The class watcher watches only the first bridge")
+            zoom.watchedObjectCount(classOf[PojoBridge]) shouldBe 1
+        }
+
+        scenario("Test object observables subscribed while suspended") {
+            Given("A bridge")
+            val bridge = createPojoBridge()
+            storage.create(bridge)
+
+            And("A suspended connection")
+            val watcher = zoom.classWatcher(classOf[PojoBridge])
+            watcher.processStateChanged(ConnectionState.SUSPENDED)
+
+            When("An observer subscribes to the bridge")
+            val observer = new TestAwaitableObserver[PojoBridge]
+            storage.observable(classOf[PojoBridge], bridge.id)
+                   .subscribe(observer)
+
+            Then("The observer does not receive the bridge")
+            observer.getOnNextEvents shouldBe empty
+            observer.getOnErrorEvents shouldBe empty
+
+            When("The connection is reconnected")
+            watcher.processStateChanged(ConnectionState.RECONNECTED)
+
+            Then("The observer receives the bridge")
+            observer.awaitOnNext(1, timeout)
+            observer.getOnNextEvents.get(0).id shouldBe bridge.id
+
+            When("Updating the bridge")
+            bridge.name = "updated"
+            storage.update(bridge)
+
+            Then("The observer receives the update")
+            observer.awaitOnNext(2, timeout)
+            observer.getOnNextEvents.get(1).name shouldBe "updated"
+        }
+
         scenario("Test class observable recovers after close") {
             Given("A bridge")
             val bridge = createPojoBridge()
@@ -20,6 +20,7 @@ import java.util.UUID
 import java.util.concurrent.TimeUnit
 
 import scala.concurrent.duration._
+import scala.util.Success
 
 import com.codahale.metrics.MetricRegistry
 
@@ -567,6 +568,144 @@ class ZookeeperObjectStateTest extends FeatureSpec with MidonetBackendTest
         }
     }
 
+    feature("Test batched state operations") {
+        scenario("Empty batch") {
+            Then("An empty batch should return no results")
+            storage.multiValue(Seq.empty).await(timeout) shouldBe Seq.empty
+        }
+
+        scenario("Add and remove values for several objects") {
+            Given("Two objects in storage")
+            val obj1 = new State
+            val obj2 = new State
+            storage.create(obj1)
+            storage.create(obj2)
+
+            When("Adding values for all key types in one batch")
+            val added = storage.multiValue(Seq(
+                AddValueOp(classOf[State], obj1.id, "first", "1"),
+                AddValueOp(classOf[State], obj1.id, "last", "2"),
+                AddValueOp(classOf[State], obj1.id, "lastFailFast", "3"),
+                AddValueOp(classOf[State], obj1.id, "multi", "4"),
+                AddValueOp(classOf[State], obj2.id, "last", "5"),
+                AddValueOp(classOf[State], obj2.id, "multi", "6")))
+                .await(timeout)
+
+            Then("The results should be in the order of the operations")
+            added shouldBe Seq(Success(StateResult(ownerId)),
+                               Success(StateResult(ownerId)),
+                               Success(StateResult(failFastOwnerId)),
+                               Success(StateResult(ownerId)),
+                               Success(StateResult(ownerId)),
+                               Success(StateResult(ownerId)))
+
+            And("Reading the keys should return the added values")
+            storage.getKey(classOf[State], obj1.id, "first")
+                .await(timeout) shouldBe SingleValueKey("first", Some("1"), ownerId)
+            storage.getKey(classOf[State], obj1.id, "last")
+                .await(timeout) shouldBe SingleValueKey("last", Some("2"), ownerId)
+            storage.getKey(classOf[State], obj1.id, "lastFailFast")
+                .await(timeout) shouldBe SingleValueKey("lastFailFast", Some("3"),
+                                                        failFastOwnerId)
+            storage.getKey(classOf[State], obj1.id, "multi")
+                .await(timeout) shouldBe MultiValueKey("multi", Set("4"))
+            storage.getKey(classOf[State], obj2.id, "last")
+                .await(timeout) shouldBe SingleValueKey("last", Some("5"), ownerId)
+            storage.getKey(classOf[State], obj2.id, "multi")
+                .await(timeout) shouldBe MultiValueKey("multi", Set("6"))
+
+            When("Updating a single value in one batch")
+            storage.multiValue(Seq(
+                AddValueOp(classOf[State], obj1.id, "last", "7")))
+                .await(timeout) shouldBe Seq(Success(StateResult(ownerId)))
+
+            Then("Reading the key should return the updated value")
+            storage.getKey(classOf[State], obj1.id, "last")
+                .await(timeout) shouldBe SingleValueKey("last", Some("7"), ownerId)
+
+            When("Removing all values in one batch")
+            val removed = storage.multiValue(Seq(
+                RemoveValueOp(classOf[State], obj1.id, "first", null),
+                RemoveValueOp(classOf[State], obj1.id, "last", null),
+                RemoveValueOp(classOf[State], obj1.id, "lastFailFast", null),
+                RemoveValueOp(classOf[State], obj1.id, "multi", "4"),
+                RemoveValueOp(classOf[State], obj2.id, "last", null),
+                RemoveValueOp(classOf[State], obj2.id, "multi", "6")))
+                .await(timeout)
+
+            Then("All operations should succeed")
+            removed shouldBe Seq(Success(StateResult(ownerId)),
+                                 Success(StateResult(ownerId)),
+                                 Success(StateResult(failFastOwnerId)),
+                                 Success(StateResult(ownerId)),
+                                 Success(StateResult(ownerId)),
+                                 Success(StateResult(ownerId)))
+
+            And("Reading the keys should return no values")
+            storage.getKey(classOf[State], obj1.id, "last")
+                .await(timeout) shouldBe SingleValueKey("last", None, NoOwnerId)
+            storage.getKey(classOf[State], obj2.id, "multi")
+                .await(timeout) shouldBe MultiValueKey("multi", Set())
+        }
+
+        scenario("Operations fail individually") {
+            Given("An object in storage and a non-existing object")
+            val obj = new State
+            storage.create(obj)
+            val id = UUID.randomUUID()
+
+            When("Adding values for both objects in one batch")
+            val results = storage.multiValue(Seq(
+                AddValueOp(classOf[State], id, "last", "1"),
+                AddValueOp(classOf[State], obj.id, "last", "2"),
+                RemoveValueOp(classOf[State], id, "last", null)))
+                .await(timeout)
+
+            Then("The add for the non-existing object should fail")
+            val e = results.head.failed.get
+                .asInstanceOf[UnmodifiableStateException]
+            e.id shouldBe id.toString
+            e.result shouldBe Code.NONODE.intValue()
+
+            And("The other operations should succeed")
+            results(1) shouldBe Success(StateResult(ownerId))
+            results(2) shouldBe Success(StateResult(NoOwnerId))
+            storage.getKey(classOf[State], obj.id, "last")
+                .await(timeout) shouldBe SingleValueKey("last", Some("2"), ownerId)
+        }
+
+        scenario("Operations on values of a different client") {
+            Given("An object in storage")
+            val obj = new State
+            storage.create(obj)
+
+            And("A value added by a different client")
+            val (curator2, ownerId2, _, storage2) = newStorage(sameNamespace = true)
+            storage2.addValue(classOf[State], obj.id, "last", "1")
+                .await(timeout) shouldBe StateResult(ownerId2)
+
+            When("Removing the value in a batch")
+            val removed = storage.multiValue(Seq(
+                RemoveValueOp(classOf[State], obj.id, "last", null)))
+                .await(timeout)
+
+            Then("The operation should fail")
+            removed.head.failed.get
+                .asInstanceOf[NotStateOwnerException].owner shouldBe ownerId2
+
+            When("Adding a value in a batch")
+            storage.multiValue(Seq(
+                AddValueOp(classOf[State], obj.id, "last", "2")))
+                .await(timeout) shouldBe Seq(Success(StateResult(ownerId)))
+
+            Then("The value should replace the value of the other client")
+            storage.getKey(classOf[State], obj.id, "last")
+                .await(timeout) shouldBe SingleValueKey("last", Some("2"), ownerId)
+
+            curator2.close()
+        }
+    }
+
     feature("Test observables for single value") {
         scenario("Object does not exist") {
             Given("A random object identifier")
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.state
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.rpc.State.KeyValue
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify.Update
+
+@RunWith(classOf[JUnitRunner])
+class StateUpdateCompressionTest extends FeatureSpec with Matchers
+                                 with GivenWhenThen {
+
+    private def update(count: Int): Update = {
+        val builder = Update.newBuilder()
+            .setType(Update.Type.SNAPSHOT)
+            .setCurrentVersion(10L)
+            .setBegin(true)
+            .setEnd(true)
+        for (index <- 0 until count) {
+            builder.addEntries(Notify.Entry.newBuilder()
+                .setKey(KeyValue.newBuilder().setData64(index))
+                .setValue(KeyValue.newBuilder().setData64(0x0a000000L))
+                .setVersion(index))
+        }
+        builder.build()
+    }
+
+    feature("Update compression") {
+        scenario("Updates above the threshold are compressed") {
+            Given("An update with many entries")
+            val original = update(256)
+
+            When("Compressing the update")
+            val compressed = StateUpdateCompression.compress(original, 128)
+
+            Then("The entries are compressed")
+            compressed.getEntriesCount shouldBe 0
+            compressed.hasCompressedEntries shouldBe true
+            compressed.getSerializedSize should be < original.getSerializedSize
+
+            And("Decompressing the update returns the original update")
+            StateUpdateCompression.decompress(compressed) shouldBe original
+        }
+
+        scenario("Updates below the threshold are not compressed") {
+            val original = update(2)
+            StateUpdateCompression.compress(original, 1024) should be theSameInstanceAs original
+            StateUpdateCompression.decompress(original) should be theSameInstanceAs original
+        }
+
+        scenario("Compression is disabled with a zero threshold") {
+            val original = update(256)
+            StateUpdateCompression.compress(original, 0) should be theSameInstanceAs original
+        }
+    }
+}
@@ -86,6 +86,14 @@ class TraceRequest(resource_base.ResourceBase, condition.ConditionBase):
         self.dto['limit'] = limit
         return self
 
+    # sampling probability
+    def get_sampling_probability(self):
+        return self.dto['samplingProbability']
+
+    def set_sampling_probability(self, probability):
+        self.dto['samplingProbability'] = probability
+        return self
+
     # enabled
     def get_enabled(self):
         return self.dto['enabled']